@@ -21,6 +21,9 @@ import static org.lwjgl.system.MemoryUtil.NULL;
 
 class NesteratorForDesktop {
 
+    // Battery backed saves of the cartridges, in the working directory
+    private static final File SAVE_DIRECTORY = new File("saves");
+
     private GLFWErrorCallback mErrorCallback;
     private GLFWKeyCallback mKeyCallback;
 
@@ -33,7 +36,7 @@ class NesteratorForDesktop {
 
     private NesteratorForDesktop() throws IOException {
         Rom rom = RomLoader.loadRom(NesteratorForDesktop.class.getResourceAsStream("vram_access.nes"));
-        mNES = new NES(rom);
+        mNES = NES.create(rom, SAVE_DIRECTORY);
     }
 
     private void run() {
@@ -48,6 +51,8 @@ class NesteratorForDesktop {
             // Terminate GLFW and release the GLFWerrorfun
             glfwTerminate();
             mErrorCallback.release();
+            // Writes the battery backed RAM to disk
+            mNES.close();
         }
     }
 
@@ -0,0 +1,184 @@
+package components;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the heap used by an object graph by walking the fields of its objects, for a 64 bit JVM with
+ * compressed references : 12 byte object headers, 16 byte array headers, 4 byte references and objects
+ * aligned on 8 bytes. Field padding is ignored.
+ * <p/>
+ * JDK objects are not walked field by field : collections and maps are counted from their size and their
+ * elements walked, heap ByteBuffers count their array, other JDK objects only their header. Enums and classes
+ * are shared by the whole process and never counted.
+ */
+public final class HeapFootprint {
+
+    private static final int OBJECT_HEADER_SIZE = 12;
+    private static final int ARRAY_HEADER_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int ALIGNMENT = 8;
+    // Approximate size of a hash map entry, or linked list node
+    private static final int ENTRY_SIZE = 32;
+
+    private final Set<Object> mVisited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final ArrayDeque<Object> mPending = new ArrayDeque<>();
+    private final Map<Class<?>, Field[]> mInstanceFields = Maps.newHashMap();
+    private final Map<Class<?>, Long> mShallowSizes = Maps.newHashMap();
+
+    private HeapFootprint() {}
+
+    /**
+     * @param shared Objects also used outside of root (e.g. a Rom shared between instances), left out with
+     * everything they reference. May contain nulls.
+     * @return Estimated number of heap bytes used by root and the objects it references
+     */
+    public static long estimate(Object root, Object... shared) {
+        HeapFootprint heapFootprint = new HeapFootprint();
+        for (Object object : shared) {
+            heapFootprint.walk(object);
+        }
+        return heapFootprint.walk(root);
+    }
+
+    /**
+     * @return Size of the objects reachable from root and not visited yet
+     */
+    private long walk(Object root) {
+        long size = 0;
+        push(root);
+        while (!mPending.isEmpty()) {
+            size += visit(mPending.pop());
+        }
+        return size;
+    }
+
+    private void push(Object object) {
+        if (object != null && !(object instanceof Enum) && !(object instanceof Class) && mVisited.add(object)) {
+            mPending.push(object);
+        }
+    }
+
+    private long visit(Object object) {
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            return visitArray(object, type.getComponentType());
+        }
+        if (isJdkClass(type)) {
+            return visitJdkObject(object);
+        }
+        try {
+            for (Field field : getInstanceFields(type)) {
+                if (!field.getType().isPrimitive()) {
+                    push(field.get(object));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return mShallowSizes.get(type);
+    }
+
+    private long visitArray(Object array, Class<?> componentType) {
+        if (!componentType.isPrimitive()) {
+            Object[] elements = (Object[]) array;
+            for (Object element : elements) {
+                push(element);
+            }
+            return align(ARRAY_HEADER_SIZE + (long) elements.length * REFERENCE_SIZE);
+        }
+        int length = Array.getLength(array);
+        return align(ARRAY_HEADER_SIZE + (long) length * getPrimitiveSize(componentType));
+    }
+
+    private long visitJdkObject(Object object) {
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            for (Object element : collection) {
+                push(element);
+            }
+            boolean isList = object instanceof List;
+            return align(OBJECT_HEADER_SIZE + 4 * REFERENCE_SIZE)
+                    + align(ARRAY_HEADER_SIZE + (long) collection.size() * REFERENCE_SIZE)
+                    + (isList ? 0 : (long) collection.size() * ENTRY_SIZE);
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                push(entry.getKey());
+                push(entry.getValue());
+            }
+            return align(OBJECT_HEADER_SIZE + 4 * REFERENCE_SIZE)
+                    + align(ARRAY_HEADER_SIZE + (long) map.size() * REFERENCE_SIZE)
+                    + (long) map.size() * ENTRY_SIZE;
+        }
+        if (object instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) object;
+            if (buffer.hasArray()) {
+                push(buffer.array());
+            }
+        }
+        return align(OBJECT_HEADER_SIZE);
+    }
+
+    private Field[] getInstanceFields(Class<?> type) {
+        Field[] fields = mInstanceFields.get(type);
+        if (fields != null) {
+            return fields;
+        }
+        List<Field> instanceFields = Lists.newArrayList();
+        long size = OBJECT_HEADER_SIZE;
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Class<?> fieldType = field.getType();
+                size += fieldType.isPrimitive() ? getPrimitiveSize(fieldType) : REFERENCE_SIZE;
+                if (!fieldType.isPrimitive()) {
+                    field.setAccessible(true);
+                    instanceFields.add(field);
+                }
+            }
+        }
+        fields = instanceFields.toArray(new Field[instanceFields.size()]);
+        mInstanceFields.put(type, fields);
+        mShallowSizes.put(type, align(size));
+        return fields;
+    }
+
+    private static boolean isJdkClass(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("jdk.");
+    }
+
+    private static int getPrimitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
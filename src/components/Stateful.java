@@ -0,0 +1,23 @@
+package components;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Component whose state can be written to and read back from a buffer, for save states. Both go straight
+ * between the fields and the buffer, from its position on, without allocating : saving and restoring has to
+ * be cheap enough to be done every frame.
+ * <p/>
+ * The layout is the one of the component, {@link #loadState(ByteBuffer)} must read back exactly what
+ * {@link #saveState(ByteBuffer)} wrote, in the same byte order.
+ */
+public interface Stateful {
+
+    /**
+     * @return Number of bytes written by {@link #saveState(ByteBuffer)}
+     */
+    int getStateSize();
+
+    void saveState(ByteBuffer buffer);
+
+    void loadState(ByteBuffer buffer);
+}
@@ -12,7 +12,16 @@ public interface Memory {
         void write(int data);
     }
 
+    /**
+     * Device register supplying the value read at an address
+     */
+    interface ReadPort {
+        int read();
+    }
+
     interface MemoryWithPort extends Memory {
         void addObserver(int address, WriteObserver writeObserver);
+
+        void addReadPort(int address, ReadPort readPort);
     }
 }
@@ -1,9 +1,13 @@
 package components.memory;
 
+import components.Stateful;
+
+import java.nio.ByteBuffer;
+
 /**
  * Simple Memory block
  */
-public class MemoryBlock implements Memory {
+public class MemoryBlock implements Memory, Stateful {
 
     private final int mStartAddress;
 
@@ -36,4 +40,19 @@ public class MemoryBlock implements Memory {
     public MemoryRange getRange() {
         return mMemoryRange;
     }
+
+    @Override
+    public int getStateSize() {
+        return mData.length;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put(mData);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        buffer.get(mData);
+    }
 }
@@ -4,7 +4,7 @@ import com.google.common.base.Preconditions;
 
 public class MemoryUtils {
     private static void checkRange(int address, MemoryRange range) {
-        Preconditions.checkArgument(address < range.end && address >= range.start, range.toString() + " does not contain " + address);
+        Preconditions.checkArgument(address < range.end && address >= range.start, "%s does not contain %s", range, address);
     }
 
     public static void checkRange(int address, Memory block) {
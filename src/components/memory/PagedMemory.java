@@ -0,0 +1,213 @@
+package components.memory;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 64K address space split into 256 byte pages. A page either points straight at a backing array and an
+ * offset in it, or at a handler Memory for registers with side effects. A read or write of an array page is
+ * a shift, two array loads and the access itself, whatever the number of regions mapped.
+ * <p/>
+ * Mirrors are set up when mapping, by pointing several pages at the same part of an array. Read only pages
+ * (ROM) never modify their array, so it can be shared between several memories. Their writes are dropped, or
+ * given to a write handler (e.g. the registers of a cartridge mapper) that stays in place when the pages are
+ * remapped, so switching a bank is only updating the page pointers.
+ * <p/>
+ * Writable pages can be shared with another PagedMemory (see {@link #shareWritablePages(PagedMemory, int,
+ * int)}). Both then read the same bytes until one of them writes to a page, which first gets its own copy of
+ * the page (and of its mirrors, which keep aliasing it).
+ */
+public class PagedMemory implements Memory {
+
+    public static final int PAGE_SIZE = 0x100;
+    public static final int PAGE_SHIFT = 8;
+    public static final int PAGE_MASK = PAGE_SIZE - 1;
+    public static final int NUM_PAGES = 0x10000 >> PAGE_SHIFT;
+
+    private final byte[][] mPageData = new byte[NUM_PAGES][];
+    // Same as mPageData for writable pages, null for read only and handler pages
+    private final byte[][] mPageWriteData = new byte[NUM_PAGES][];
+    // Index in the page array of the first byte of the page
+    private final int[] mPageOffsets = new int[NUM_PAGES];
+    private final Memory[] mPageHandlers = new Memory[NUM_PAGES];
+    // Handler of the writes to read only pages, null to drop them
+    private final Memory[] mPageWriteHandlers = new Memory[NUM_PAGES];
+    // Writable pages whose bytes are shared with another memory, copied on their first write
+    private final boolean[] mCopyOnWrite = new boolean[NUM_PAGES];
+    private final MemoryRange mMemoryRange = new MemoryRange(0, 0x10000);
+
+    /**
+     * Maps [startAddress, startAddress + length) onto data, repeating data if it is shorter than length
+     */
+    public void mapArray(int startAddress, int length, byte[] data) {
+        mapArray(startAddress, length, data, 0, true);
+    }
+
+    /**
+     * Same as {@link #mapArray(int, int, byte[])}, data is never modified. Writes to the range go to its
+     * write handler if it has one, see {@link #setWriteHandler(int, int, Memory)}
+     */
+    public void mapReadOnlyArray(int startAddress, int length, byte[] data) {
+        mapArray(startAddress, length, data, 0, false);
+    }
+
+    /**
+     * Maps [startAddress, startAddress + length) read only onto data from dataOffset on, e.g. an 8K bank
+     * inside a 16K array
+     */
+    public void mapReadOnlyArray(int startAddress, int length, byte[] data, int dataOffset) {
+        Preconditions.checkArgument(dataOffset >= 0 && dataOffset + length <= data.length,
+                "Mapping past the end of the array : %s + %s", dataOffset, length);
+        mapArray(startAddress, length, data, dataOffset, false);
+    }
+
+    /**
+     * Gives the writes to the read only pages of [startAddress, startAddress + length) to handler, whatever
+     * array they get mapped to. handler is given unchanged addresses, null drops the writes again.
+     */
+    public void setWriteHandler(int startAddress, int length, Memory handler) {
+        checkPageRange(startAddress, length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            mPageWriteHandlers[(startAddress + offset) >> PAGE_SHIFT] = handler;
+        }
+    }
+
+    private void mapArray(int startAddress, int length, byte[] data, int dataOffset, boolean writable) {
+        checkPageRange(startAddress, length);
+        Preconditions.checkArgument(data.length >= PAGE_SIZE && data.length % PAGE_SIZE == 0
+                        && (dataOffset & PAGE_MASK) == 0,
+                "Array length and offset must be multiples of the page size : %s", data.length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            int page = (startAddress + offset) >> PAGE_SHIFT;
+            mPageData[page] = data;
+            mPageWriteData[page] = writable ? data : null;
+            mPageOffsets[page] = (dataOffset + offset) % data.length;
+            mPageHandlers[page] = null;
+            mCopyOnWrite[page] = false;
+        }
+    }
+
+    /**
+     * Maps [startAddress, startAddress + length) onto handler, which is given unchanged addresses
+     */
+    public void mapHandler(int startAddress, int length, Memory handler) {
+        checkPageRange(startAddress, length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            int page = (startAddress + offset) >> PAGE_SHIFT;
+            mPageData[page] = null;
+            mPageWriteData[page] = null;
+            mPageHandlers[page] = handler;
+            mCopyOnWrite[page] = false;
+        }
+    }
+
+    /**
+     * Maps [startAddress, startAddress + length) onto the same bytes as in source, copy on write for both :
+     * neither sees the writes of the other from now on. Each page is copied by the first memory writing to
+     * it, so sharing costs nothing but the page tables. The range must only hold writable pages in source.
+     */
+    public void shareWritablePages(PagedMemory source, int startAddress, int length) {
+        checkPageRange(startAddress, length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            int page = (startAddress + offset) >> PAGE_SHIFT;
+            Preconditions.checkArgument(source.mPageWriteData[page] != null || source.mCopyOnWrite[page],
+                    "Page %s is not writable", page);
+            source.mPageWriteData[page] = null;
+            source.mCopyOnWrite[page] = true;
+            mPageData[page] = source.mPageData[page];
+            mPageWriteData[page] = null;
+            mPageOffsets[page] = source.mPageOffsets[page];
+            mPageHandlers[page] = null;
+            mCopyOnWrite[page] = true;
+        }
+    }
+
+    /**
+     * Writes the bytes of the array pages of [startAddress, startAddress + length) into buffer
+     */
+    public void savePages(ByteBuffer buffer, int startAddress, int length) {
+        checkPageRange(startAddress, length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            int page = (startAddress + offset) >> PAGE_SHIFT;
+            buffer.put(mPageData[page], mPageOffsets[page], PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Reads the bytes of the writable pages of [startAddress, startAddress + length) from buffer
+     */
+    public void loadPages(ByteBuffer buffer, int startAddress, int length) {
+        checkPageRange(startAddress, length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            int page = (startAddress + offset) >> PAGE_SHIFT;
+            if (mCopyOnWrite[page]) {
+                copyPage(page);
+            }
+            buffer.get(mPageWriteData[page], mPageOffsets[page], PAGE_SIZE);
+        }
+    }
+
+    @Override
+    public int read(int address) {
+        int page = address >>> PAGE_SHIFT;
+        byte[] data = mPageData[page];
+        if (data != null) {
+            return data[mPageOffsets[page] + (address & PAGE_MASK)] & 0xFF;
+        }
+        return getHandler(page, address).read(address);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        int page = address >>> PAGE_SHIFT;
+        byte[] data = mPageWriteData[page];
+        if (data != null) {
+            data[mPageOffsets[page] + (address & PAGE_MASK)] = (byte) value;
+            return;
+        }
+        if (mPageData[page] == null) {
+            getHandler(page, address).write(address, value);
+        } else if (mCopyOnWrite[page]) {
+            copyPage(page);
+            mPageWriteData[page][mPageOffsets[page] + (address & PAGE_MASK)] = (byte) value;
+        } else if (mPageWriteHandlers[page] != null) {
+            mPageWriteHandlers[page].write(address, value);
+        }
+    }
+
+    @Override
+    public MemoryRange getRange() {
+        return mMemoryRange;
+    }
+
+    /**
+     * Gives a shared page, and every page mirroring it, its own copy of the bytes
+     */
+    private void copyPage(int page) {
+        byte[] data = mPageData[page];
+        int dataOffset = mPageOffsets[page];
+        byte[] copy = Arrays.copyOfRange(data, dataOffset, dataOffset + PAGE_SIZE);
+        for (int mirror = 0; mirror < NUM_PAGES; mirror++) {
+            if (mCopyOnWrite[mirror] && mPageData[mirror] == data && mPageOffsets[mirror] == dataOffset) {
+                mPageData[mirror] = copy;
+                mPageWriteData[mirror] = copy;
+                mPageOffsets[mirror] = 0;
+                mCopyOnWrite[mirror] = false;
+            }
+        }
+    }
+
+    private Memory getHandler(int page, int address) {
+        Memory handler = mPageHandlers[page];
+        Preconditions.checkArgument(handler != null, "Nothing mapped at %s", Integer.toHexString(address));
+        return handler;
+    }
+
+    private static void checkPageRange(int startAddress, int length) {
+        Preconditions.checkArgument((startAddress & PAGE_MASK) == 0 && (length & PAGE_MASK) == 0 && length > 0,
+                "Mappings must be page aligned");
+        Preconditions.checkArgument(startAddress >= 0 && startAddress + length <= 0x10000);
+    }
+}
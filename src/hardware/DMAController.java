@@ -1,9 +1,15 @@
 package hardware;
 
+import components.Stateful;
 import components.memory.Memory;
 import hardware.memory.NesMemory;
 
-public class DMAController {
+import java.nio.ByteBuffer;
+
+public class DMAController implements Stateful {
+
+    // Active flag, state, address and pending interrupts
+    private static final int STATE_SIZE = 1 + 1 + 4 + 1 + 1;
 
     private final NesMemory mNesMemory;
     private final Memory mOAM;
@@ -18,6 +24,8 @@ public class DMAController {
         READING_WRITING
     }
 
+    private static final DMA_STATE[] DMA_STATES = DMA_STATE.values();
+
     // DMA
     private boolean mIsDMAActive = false;
     private DMA_STATE mDMA_state;
@@ -48,10 +56,36 @@ public class DMAController {
         if ((mDMAAddress & 0xFF) == 0xFF) {
             mIsDMAActive = false;
         }
+        mDMAAddress++;
         return 2;
     }
 
     public boolean isActive() {
         return mIsDMAActive;
     }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (mIsDMAActive ? 1 : 0));
+        // -1 until the first DMA
+        buffer.put((byte) (mDMA_state != null ? mDMA_state.ordinal() : -1));
+        buffer.putInt(mDMAAddress);
+        buffer.put((byte) (mIRQPending ? 1 : 0));
+        buffer.put((byte) (mNMIPending ? 1 : 0));
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mIsDMAActive = buffer.get() != 0;
+        int state = buffer.get();
+        mDMA_state = state >= 0 ? DMA_STATES[state] : null;
+        mDMAAddress = buffer.getInt();
+        mIRQPending = buffer.get() != 0;
+        mNMIPending = buffer.get() != 0;
+    }
 }
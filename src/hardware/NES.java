@@ -1,8 +1,14 @@
 package hardware;
 
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import components.HeapFootprint;
 import components.TickCalculator;
-import components.memory.Memory;
+import hardware.apu.FrameCounter;
 import hardware.cpu.Cpu;
+import hardware.input.Joypads;
+import hardware.mapper.Mapper;
+import hardware.memory.BatteryRam;
 import hardware.memory.NesMemory;
 import hardware.ppu.PPU;
 import hardware.ppu.memory.DMAWriteObserver;
@@ -11,57 +17,309 @@ import hardware.ppu.memory.PPUMemory;
 import hardware.ppu.registers.PpuRegisters;
 import hardware.rom.Rom;
 
-import java.util.Arrays;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
-public class NES {
+/**
+ * A complete console. Instances share no mutable state, so any number of them can run in one JVM, each on
+ * its own thread. An NES is confined to the first thread that runs it : running it from another thread
+ * fails fast instead of corrupting its state.
+ */
+public class NES implements Closeable {
+
+    // Battery backed RAM is copied to its file about once per frame
+    private static final int BATTERY_SYNC_CYCLES = 29781;
+    private static final String BATTERY_FILE_EXTENSION = ".sav";
+
+    // Save states start with "NESS", the format version, the id of the cartridge and the size of the state
+    private static final int SAVE_STATE_MAGIC = 0x4E455353;
+    public static final int SAVE_STATE_VERSION = 6;
+    private static final int SAVE_STATE_HEADER_SIZE = 4 + 4 + 8 + 4;
 
     private final Cpu mCpu;
     private final PPU mPpu;
+    private final PPUMemory mPpuMemory;
     private final TickCalculator mTickCalculator;
     private final NesMemory mNesMemory;
+    private final Mapper mMapper;
+    private final Rom mRom;
+    private final BatteryRam mBatteryRam;
+    private final FrameCounter mFrameCounter;
+    private final Joypads mJoypads;
+    private long mCyclesSinceBatterySync;
+    // First 8 bytes of the hash of the Rom, 0 until first needed
+    private long mRomId;
+
+    // Thread the console is confined to, set once by the first run. Volatile so a console created or forked on
+    // one thread and handed to another sees the owner set there
+    private volatile Thread mOwnerThread;
 
     public NES(Rom rom) {
+        this(rom, null);
+    }
+
+    /**
+     * @param batteryRam PRG-RAM persisting the saves of a cartridge with a battery (see
+     * {@link hardware.rom.RomHeader#hasBattery()}), of {@link NesMemory#SRAM_SIZE} bytes. null for plain RAM.
+     */
+    public NES(Rom rom, BatteryRam batteryRam) {
+        this(rom, batteryRam, null);
+    }
+
+    /**
+     * @return Console for rom. Cartridges with a battery (see {@link hardware.rom.RomHeader#hasBattery()}) get
+     * their PRG-RAM persisted to a file of saveDirectory named after the image hash, created if needed.
+     */
+    public static NES create(Rom rom, File saveDirectory) throws IOException {
+        if (!rom.getRomHeader().hasBattery()) {
+            return new NES(rom);
+        }
+        File file = new File(saveDirectory, rom.getImageHash() + BATTERY_FILE_EXTENSION);
+        Files.createParentDirs(file);
+        return new NES(rom, BatteryRam.open(file, NesMemory.SRAM_SIZE));
+    }
+
+    /**
+     * @param parent Console whose memory is shared copy on write, see {@link #fork()}. null for new memory.
+     */
+    private NES(Rom rom, BatteryRam batteryRam, NES parent) {
+        mRom = rom;
+        mBatteryRam = batteryRam;
         OAM oam = new OAM();
-        PPUMemory ppuMemory = PPUMemory.construct();
-        PpuRegisters ppuRegisters = new PpuRegisters(oam, ppuMemory);
-        if (rom.getPRG_ROM_bankCount() == 1) {
-            byte[] bank = rom.getPRG_ROM(0);
-            mNesMemory = NesMemory.createNesMemory(bank, Arrays.copyOf(bank, bank.length), ppuRegisters);
-        } else {
-            mNesMemory = NesMemory.createNesMemory(rom.getPRG_ROM(0), rom.getPRG_ROM(1), ppuRegisters);
+        mPpuMemory = parent == null ? PPUMemory.construct() : parent.mPpuMemory.fork();
+        PpuRegisters ppuRegisters = new PpuRegisters(oam, mPpuMemory);
+        mMapper = Mapper.create(rom);
+        mNesMemory = parent == null
+                ? NesMemory.createNesMemory(ppuRegisters)
+                : parent.mNesMemory.fork(ppuRegisters);
+        mMapper.attach(mNesMemory);
+        mMapper.attachPpu(mPpuMemory);
+        if (batteryRam != null) {
+            mNesMemory.setSram(batteryRam.getData());
         }
         DMAController dmaController = new DMAController(mNesMemory, oam);
         mCpu = new Cpu(mNesMemory, dmaController);
-        mPpu = new PPU(ppuRegisters, ppuMemory, oam, mCpu);
+        mMapper.setCpu(mCpu);
+        mPpu = new PPU(ppuRegisters, mPpuMemory, oam, mCpu);
+        mPpu.setScanlineListener(mMapper);
         ppuRegisters.init(mPpu);
         DMAWriteObserver dmaObserver = new DMAWriteObserver(mCpu);
-        Memory.WriteObserver irqWriteObserver = new Memory.WriteObserver() {
+        mFrameCounter = new FrameCounter(mCpu);
+        mJoypads = new Joypads();
 
+        mNesMemory.addObserver(0x4014, dmaObserver);
+        mNesMemory.addObserver(FrameCounter.FRAME_COUNTER_ADDRESS, mFrameCounter);
+        mNesMemory.addReadPort(FrameCounter.STATUS_ADDRESS, mFrameCounter);
+        mNesMemory.addObserver(Joypads.STROBE_ADDRESS, mJoypads);
+        mNesMemory.addReadPort(Joypads.PORT_1_ADDRESS, mJoypads.getPort(0));
+        mNesMemory.addReadPort(Joypads.PORT_2_ADDRESS, mJoypads.getPort(1));
+        mCpu.setCycleListener(new Cpu.CycleListener() {
             @Override
-            public void write(int data) {
-                if (data == 0x00) {
-                    mCpu.interrupt();
-                }
+            public void onCycles(int cpuCycles) {
+                mPpu.clock(cpuCycles * 3);
             }
-        };
 
-        mNesMemory.addObserver(0x4014, dmaObserver);
-        mNesMemory.addObserver(0x4017, irqWriteObserver);
+            @Override
+            public int getCyclesUntilStatusChange() {
+                return mPpu.getCpuCyclesUntilStatusChange();
+            }
+        });
         mTickCalculator = new TickCalculator();
     }
 
     public void advanceTime(double elapsedTimeSec) {
         long cpuCycles = mTickCalculator.getNumCpuCycles(elapsedTimeSec);
         if (cpuCycles > 2) {
-            int elapsedCycles = 0;
-            while (elapsedCycles < cpuCycles) {
-                int numCpuCycles = mCpu.process();
-                elapsedCycles += numCpuCycles;
-                int ppuCycles = numCpuCycles * 3;
-                PPU.sPPUCycles += numCpuCycles;
-                mPpu.clock(ppuCycles);
+            runCpuCycles(cpuCycles);
+        }
+    }
+
+    /**
+     * Runs the CPU for at least numCpuCycles, clocking the PPU along. Instructions run in batches that end
+     * at the start of VBlank, or on the scanline of a mapper IRQ, so interrupts are taken on the same
+     * instruction as when stepping one at a time.
+     *
+     * @return Number of CPU cycles run
+     */
+    public long runCpuCycles(long numCpuCycles) {
+        checkThread();
+        long elapsedCycles = 0;
+        while (elapsedCycles < numCpuCycles) {
+            int cycleBudget = (int) Math.min(numCpuCycles - elapsedCycles, mPpu.getCpuCyclesUntilVBlank());
+            int irqScanlines = mMapper.getScanlinesUntilIrq();
+            if (irqScanlines != Mapper.NO_IRQ) {
+                cycleBudget = Math.min(cycleBudget, mPpu.getCpuCyclesUntilScanline(irqScanlines));
+            }
+            int cycles = mCpu.runUntil(cycleBudget);
+            if (cycles == 0) {
+                // Halted
+                break;
+            }
+            elapsedCycles += cycles;
+        }
+        if (mBatteryRam != null) {
+            mCyclesSinceBatterySync += elapsedCycles;
+            if (mCyclesSinceBatterySync >= BATTERY_SYNC_CYCLES) {
+                mCyclesSinceBatterySync = 0;
+                mBatteryRam.sync(mNesMemory.takeDirtySramPages());
             }
         }
+        return elapsedCycles;
+    }
+
+    /**
+     * Runs until the start of the next VBlank, within an instruction. Input set before is seen by the frame
+     * the game then prepares.
+     *
+     * @return Number of CPU cycles run
+     */
+    public long runFrame() {
+        return runCpuCycles(mPpu.getCpuCyclesUntilVBlank());
+    }
+
+    /**
+     * Copies the console as it is now, e.g. to explore several inputs from the same frame. Only the registers
+     * (CPU, PPU, OAM, mapper, APU frame counter, controllers) are copied : RAM, PRG-RAM, nametable RAM and CHR-RAM are
+     * shared copy on write with this console, each of the two copies a page the first time it writes to it.
+     * Decoded instructions are shared the same way.
+     * <p/>
+     * The fork runs exactly as this console would, and is independent from it : it can be confined to
+     * another thread, and is not battery backed (battery backed RAM is copied into plain RAM).
+     */
+    public NES fork() {
+        checkThread();
+        NES fork = new NES(mRom, null, this);
+        ByteBuffer registers = ByteBuffer.allocate(mCpu.getStateSize() + mPpu.getStateSize()
+                + mMapper.getStateSize() + mFrameCounter.getStateSize() + mJoypads.getStateSize());
+        mCpu.saveState(registers);
+        mPpu.saveState(registers);
+        mMapper.saveState(registers);
+        mFrameCounter.saveState(registers);
+        mJoypads.saveState(registers);
+        registers.flip();
+        fork.mCpu.loadState(registers);
+        fork.mPpu.loadState(registers);
+        fork.mMapper.loadState(registers);
+        fork.mFrameCounter.loadState(registers);
+        fork.mJoypads.loadState(registers);
+        // After the mapper state, once the fork has the same banks mapped
+        fork.mCpu.shareDecodedInstructions(mCpu);
+        fork.mRomId = mRomId;
+        return fork;
+    }
+
+    /**
+     * @return Number of bytes written by {@link #saveState(ByteBuffer)}, the same for every state of this
+     * instance
+     */
+    public int getSaveStateSize() {
+        return SAVE_STATE_HEADER_SIZE + getPayloadSize();
+    }
+
+    /**
+     * Writes the whole state of the console at the position of buffer, in its byte order : CPU, PPU, PPU
+     * memory, memory, mapper, APU frame counter and controllers. Nothing is allocated, so with a direct buffer
+     * a state is saved in a few memory copies. The Rom is not saved, only an id of it (see
+     * {@link #getRomId()}), and neither are the host side timing and battery file.
+     *
+     * @throws IllegalArgumentException If buffer has less than {@link #getSaveStateSize()} bytes remaining
+     */
+    public void saveState(ByteBuffer buffer) {
+        checkThread();
+        int payloadSize = getPayloadSize();
+        // Not Preconditions, its message arguments would be boxed on every save
+        if (buffer.remaining() < SAVE_STATE_HEADER_SIZE + payloadSize) {
+            throw new IllegalArgumentException(String.format("Save states need %d bytes, %d remaining",
+                    SAVE_STATE_HEADER_SIZE + payloadSize, buffer.remaining()));
+        }
+        buffer.putInt(SAVE_STATE_MAGIC);
+        buffer.putInt(SAVE_STATE_VERSION);
+        buffer.putLong(getRomId());
+        buffer.putInt(payloadSize);
+        mCpu.saveState(buffer);
+        mPpu.saveState(buffer);
+        mPpuMemory.saveState(buffer);
+        mNesMemory.saveState(buffer);
+        mMapper.saveState(buffer);
+        mFrameCounter.saveState(buffer);
+        mJoypads.saveState(buffer);
+    }
+
+    /**
+     * Restores a state written by {@link #saveState(ByteBuffer)} from the position of buffer, which must
+     * have the byte order it was saved with. The console goes on exactly as the saved one did.
+     *
+     * @throws IllegalArgumentException If buffer does not hold a state of this version for the same
+     * cartridge. The console and the position of buffer are then left unchanged.
+     */
+    public void loadState(ByteBuffer buffer) {
+        checkThread();
+        int start = buffer.position();
+        int payloadSize = getPayloadSize();
+        Preconditions.checkArgument(buffer.remaining() >= SAVE_STATE_HEADER_SIZE
+                && buffer.getInt(start) == SAVE_STATE_MAGIC, "Not a save state");
+        int version = buffer.getInt(start + 4);
+        if (version != SAVE_STATE_VERSION) {
+            throw new IllegalArgumentException(String.format("Save state version %d, expected %d",
+                    version, SAVE_STATE_VERSION));
+        }
+        Preconditions.checkArgument(buffer.getLong(start + 8) == getRomId(), "Save state of another cartridge");
+        Preconditions.checkArgument(buffer.getInt(start + 16) == payloadSize
+                        && buffer.remaining() >= SAVE_STATE_HEADER_SIZE + payloadSize,
+                "Truncated or corrupt save state");
+        buffer.position(start + SAVE_STATE_HEADER_SIZE);
+        mCpu.loadState(buffer);
+        mPpu.loadState(buffer);
+        mPpuMemory.loadState(buffer);
+        mNesMemory.loadState(buffer);
+        mMapper.loadState(buffer);
+        mFrameCounter.loadState(buffer);
+        mJoypads.loadState(buffer);
+    }
+
+    private int getPayloadSize() {
+        return mCpu.getStateSize() + mPpu.getStateSize() + mPpuMemory.getStateSize() + mNesMemory.getStateSize()
+                + mMapper.getStateSize() + mFrameCounter.getStateSize() + mJoypads.getStateSize();
+    }
+
+    /**
+     * @return Id of the cartridge, the first 8 bytes of the hash of its Rom, saved along with states and movies
+     */
+    public long getRomId() {
+        if (mRomId == 0) {
+            mRomId = mRom.getImageHash().asLong();
+        }
+        return mRomId;
+    }
+
+    /**
+     * Writes the battery backed RAM to disk, if any. The console must not be run afterwards.
+     */
+    @Override
+    public void close() {
+        if (mBatteryRam != null) {
+            mBatteryRam.close();
+        }
+    }
+
+    private void checkThread() {
+        Thread currentThread = Thread.currentThread();
+        Thread ownerThread = mOwnerThread;
+        if (ownerThread == null) {
+            synchronized (this) {
+                if (mOwnerThread == null) {
+                    mOwnerThread = currentThread;
+                }
+                ownerThread = mOwnerThread;
+            }
+        }
+        // Not Preconditions, the thread names would be looked up on every call
+        if (ownerThread != currentThread) {
+            throw new IllegalStateException(String.format("NES confined to %s, run from %s",
+                    ownerThread.getName(), currentThread.getName()));
+        }
     }
 
     public Cpu getCpu() {
@@ -75,4 +333,20 @@ public class NES {
     public NesMemory getNesMemory() {
         return mNesMemory;
     }
+
+    public Mapper getMapper() {
+        return mMapper;
+    }
+
+    public Joypads getJoypads() {
+        return mJoypads;
+    }
+
+    /**
+     * @return Estimated number of heap bytes used by this instance alone, i.e. without its Rom and decoded
+     * CHR-ROM tiles which are shared by the instances running the same cartridge. See {@link HeapFootprint}.
+     */
+    public long getHeapFootprint() {
+        return HeapFootprint.estimate(this, mRom, mOwnerThread, mPpuMemory.getPatternTables().getChrRomTileRows());
+    }
 }
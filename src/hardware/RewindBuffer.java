@@ -0,0 +1,322 @@
+package hardware;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rewinds an {@link NES} frame by frame. {@link #capture()} is called once per frame and stores the save
+ * state of the console as its XOR with the previous one, run-length encoded : from one frame to the next
+ * only a few hundred bytes of the state change, so most captures are a couple of zero runs.
+ * <p/>
+ * XOR deltas are their own inverse, so stepping back one frame is decoding the newest delta over the
+ * current state. Every keyframeInterval captures the full state is stored as well, which bounds the number of
+ * deltas to decode to jump far back. Encoded captures go into a ring of fixed size, the oldest ones are
+ * dropped when it is full, so the memory used never grows past the budget.
+ * <p/>
+ * Confined to the thread of the NES, like the NES itself.
+ */
+public class RewindBuffer {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+
+    private static final int BYTES_PER_MB = 1 << 20;
+    // Shorter runs of unchanged bytes stay in literals, starting a new token costs at least 2 bytes
+    private static final int MIN_ZERO_RUN = 4;
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final NES mNes;
+    private final int mKeyframeInterval;
+    private final byte[] mRing;
+    // Encoded capture, before it is copied into the ring
+    private final byte[] mScratch;
+    // Base of the keyframes
+    private final byte[] mZeros;
+
+    // State of the newest capture, or of the frame rewound to
+    private byte[] mState;
+    private ByteBuffer mStateBuffer;
+    private byte[] mNewState;
+    private ByteBuffer mNewStateBuffer;
+    private boolean mHasState;
+    private int mCapturesSinceKeyframe;
+
+    // Captures in the ring, oldest first from mFirstEntry, in circular arrays of a power of 2 size
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int[] mDeltaLengths = new int[INITIAL_CAPACITY];
+    // 0 for the captures without a keyframe
+    private int[] mKeyframeLengths = new int[INITIAL_CAPACITY];
+    private int mFirstEntry;
+    private int mNumEntries;
+    // Offset in the ring after the newest capture
+    private int mHead;
+    private int mEncodedSize;
+
+    // Read position of decodeVarint()
+    private int mPosition;
+
+    /**
+     * @param memoryBudgetMb Size of the ring of captures
+     */
+    public RewindBuffer(NES nes, int memoryBudgetMb) {
+        this(nes, memoryBudgetMb * BYTES_PER_MB, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    @VisibleForTesting
+    RewindBuffer(NES nes, int memoryBudgetBytes, int keyframeInterval) {
+        Preconditions.checkArgument(keyframeInterval > 0);
+        int stateSize = nes.getSaveStateSize();
+        int maxEncodedSize = stateSize + (stateSize / MIN_ZERO_RUN + 1) * 2 * MAX_VARINT_SIZE;
+        // A capture is at most a delta and a keyframe
+        Preconditions.checkArgument(memoryBudgetBytes >= 2 * maxEncodedSize,
+                "Memory budget too small for a single capture");
+        mNes = nes;
+        mKeyframeInterval = keyframeInterval;
+        mRing = new byte[memoryBudgetBytes];
+        mScratch = new byte[2 * maxEncodedSize];
+        mZeros = new byte[stateSize];
+        mState = new byte[stateSize];
+        mStateBuffer = ByteBuffer.wrap(mState);
+        mNewState = new byte[stateSize];
+        mNewStateBuffer = ByteBuffer.wrap(mNewState);
+    }
+
+    /**
+     * Saves the current state of the console, to be called once per frame
+     */
+    public void capture() {
+        mNewStateBuffer.clear();
+        mNes.saveState(mNewStateBuffer);
+        if (mHasState) {
+            int deltaLength = encode(mNewState, mState, 0);
+            int keyframeLength = 0;
+            if (++mCapturesSinceKeyframe >= mKeyframeInterval) {
+                mCapturesSinceKeyframe = 0;
+                keyframeLength = encode(mNewState, mZeros, deltaLength);
+            }
+            append(deltaLength, keyframeLength);
+        }
+        mHasState = true;
+
+        byte[] state = mState;
+        ByteBuffer stateBuffer = mStateBuffer;
+        mState = mNewState;
+        mStateBuffer = mNewStateBuffer;
+        mNewState = state;
+        mNewStateBuffer = stateBuffer;
+    }
+
+    /**
+     * Loads the state captured numFrames captures before the newest one into the console, and forgets the
+     * captures after it. Rewinding one frame at a time decodes one delta per frame.
+     *
+     * @return Number of frames actually rewound, less than numFrames when the oldest capture is reached
+     */
+    public int rewind(int numFrames) {
+        Preconditions.checkArgument(numFrames > 0);
+        int frames = Math.min(numFrames, mNumEntries);
+        if (frames == 0) {
+            return 0;
+        }
+        int newest = mNumEntries - 1;
+        // Capture whose state is loaded, -1 for the state before the oldest delta
+        int target = newest - frames;
+        int start = newest;
+        for (int entry = Math.max(target, 0); entry < newest; entry++) {
+            int index = getIndex(entry);
+            if (mKeyframeLengths[index] > 0) {
+                Arrays.fill(mState, (byte) 0);
+                decode(mOffsets[index] + mDeltaLengths[index], mKeyframeLengths[index]);
+                start = entry;
+                break;
+            }
+        }
+        for (int entry = start; entry > target; entry--) {
+            int index = getIndex(entry);
+            decode(mOffsets[index], mDeltaLengths[index]);
+        }
+
+        for (int entry = newest; entry > target; entry--) {
+            mEncodedSize -= getLength(getIndex(entry));
+        }
+        mNumEntries = target + 1;
+        mHead = mNumEntries > 0 ? mOffsets[getIndex(target)] + getLength(getIndex(target)) : 0;
+        mCapturesSinceKeyframe = 0;
+        for (int entry = target; entry >= 0 && mKeyframeLengths[getIndex(entry)] == 0; entry--) {
+            mCapturesSinceKeyframe++;
+        }
+
+        mStateBuffer.clear();
+        mNes.loadState(mStateBuffer);
+        return frames;
+    }
+
+    /**
+     * @return Number of frames that can be rewound
+     */
+    public int getNumFrames() {
+        return mNumEntries;
+    }
+
+    /**
+     * @return Number of bytes of the ring used by the captures
+     */
+    public int getEncodedSize() {
+        return mEncodedSize;
+    }
+
+    /**
+     * Forgets every capture, e.g. after loading another state into the console
+     */
+    public void clear() {
+        mHasState = false;
+        mCapturesSinceKeyframe = 0;
+        mFirstEntry = 0;
+        mNumEntries = 0;
+        mHead = 0;
+        mEncodedSize = 0;
+    }
+
+    /**
+     * Encodes state XOR base into mScratch from outOffset, as (unchanged run length, literal length,
+     * literal bytes) tokens with varint lengths
+     *
+     * @return Number of bytes written
+     */
+    private int encode(byte[] state, byte[] base, int outOffset) {
+        byte[] out = mScratch;
+        int length = state.length;
+        int position = outOffset;
+        int i = 0;
+        while (i < length) {
+            int runStart = i;
+            while (i < length && state[i] == base[i]) {
+                i++;
+            }
+            int literalStart = i;
+            int unchanged = 0;
+            while (i < length) {
+                if (state[i] != base[i]) {
+                    unchanged = 0;
+                } else if (++unchanged == MIN_ZERO_RUN) {
+                    i -= MIN_ZERO_RUN - 1;
+                    break;
+                }
+                i++;
+            }
+            position = encodeVarint(out, position, literalStart - runStart);
+            position = encodeVarint(out, position, i - literalStart);
+            for (int j = literalStart; j < i; j++) {
+                out[position++] = (byte) (state[j] ^ base[j]);
+            }
+        }
+        return position - outOffset;
+    }
+
+    /**
+     * XORs the tokens of the ring at [offset, offset + length) into mState
+     */
+    private void decode(int offset, int length) {
+        byte[] state = mState;
+        byte[] ring = mRing;
+        int end = offset + length;
+        int i = 0;
+        mPosition = offset;
+        while (mPosition < end) {
+            i += decodeVarint();
+            int literalLength = decodeVarint();
+            int position = mPosition;
+            for (int j = 0; j < literalLength; j++) {
+                state[i++] ^= ring[position++];
+            }
+            mPosition = position;
+        }
+    }
+
+    private static int encodeVarint(byte[] out, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    private int decodeVarint() {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = mRing[mPosition++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Copies the encoded capture from mScratch into the ring, dropping the oldest captures it overwrites
+     */
+    private void append(int deltaLength, int keyframeLength) {
+        int length = deltaLength + keyframeLength;
+        if (mNumEntries == 0) {
+            mHead = 0;
+        }
+        boolean wrap = mHead + length > mRing.length;
+        int offset = wrap ? 0 : mHead;
+        while (mNumEntries > 0) {
+            int oldestOffset = mOffsets[mFirstEntry];
+            boolean overwritten = wrap
+                    ? oldestOffset >= mHead || oldestOffset < length
+                    : oldestOffset >= mHead && oldestOffset < mHead + length;
+            if (!overwritten) {
+                break;
+            }
+            mEncodedSize -= getLength(mFirstEntry);
+            mFirstEntry = (mFirstEntry + 1) & (mOffsets.length - 1);
+            mNumEntries--;
+        }
+        if (mNumEntries == mOffsets.length) {
+            grow();
+        }
+        System.arraycopy(mScratch, 0, mRing, offset, length);
+        int index = getIndex(mNumEntries);
+        mOffsets[index] = offset;
+        mDeltaLengths[index] = deltaLength;
+        mKeyframeLengths[index] = keyframeLength;
+        mNumEntries++;
+        mHead = offset + length;
+        mEncodedSize += length;
+    }
+
+    private void grow() {
+        int capacity = mOffsets.length;
+        int[] offsets = new int[capacity * 2];
+        int[] deltaLengths = new int[capacity * 2];
+        int[] keyframeLengths = new int[capacity * 2];
+        for (int entry = 0; entry < mNumEntries; entry++) {
+            int index = getIndex(entry);
+            offsets[entry] = mOffsets[index];
+            deltaLengths[entry] = mDeltaLengths[index];
+            keyframeLengths[entry] = mKeyframeLengths[index];
+        }
+        mOffsets = offsets;
+        mDeltaLengths = deltaLengths;
+        mKeyframeLengths = keyframeLengths;
+        mFirstEntry = 0;
+    }
+
+    /**
+     * @return Index in the circular arrays of the entry-th capture from the oldest
+     */
+    private int getIndex(int entry) {
+        return (mFirstEntry + entry) & (mOffsets.length - 1);
+    }
+
+    private int getLength(int index) {
+        return mDeltaLengths[index] + mKeyframeLengths[index];
+    }
+}
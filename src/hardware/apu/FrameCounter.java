@@ -0,0 +1,111 @@
+package hardware.apu;
+
+import components.Stateful;
+import components.memory.Memory;
+import hardware.cpu.Cpu;
+import hardware.cpu.InterruptController;
+
+import java.nio.ByteBuffer;
+
+/**
+ * APU frame counter, as far as its frame interrupt goes. Written through $4017 and acknowledged by reading
+ * $4015. Rather than being clocked, it schedules its next IRQ on the {@link InterruptController}.
+ */
+public class FrameCounter implements Memory.WriteObserver, Memory.ReadPort, Stateful {
+
+    public static final int STATUS_ADDRESS = 0x4015;
+    public static final int FRAME_COUNTER_ADDRESS = 0x4017;
+
+    // 4-step sequence, in CPU cycles from the sequencer reset
+    private static final int FRAME_IRQ_CYCLE = 29828;
+    private static final int SEQUENCE_CYCLES = 29830;
+
+    // $4017
+    private static final int MODE_5_STEP = 1 << 7;
+    private static final int IRQ_INHIBIT = 1 << 6;
+
+    // $4015
+    private static final int FRAME_INTERRUPT = 1 << 6;
+
+    private static final int STATE_SIZE = 1 + 8;
+
+    private final Cpu mCpu;
+    private final InterruptController mInterruptController;
+    private boolean mIrqEnabled;
+    private long mSequenceStartCycle;
+
+    public FrameCounter(Cpu cpu) {
+        mCpu = cpu;
+        mInterruptController = cpu.getInterruptController();
+        // Power on state is $4017 = $00 : 4-step mode with the frame interrupt enabled
+        mIrqEnabled = true;
+        mSequenceStartCycle = 0;
+        scheduleNextIrq(-1);
+    }
+
+    /**
+     * $4017 write
+     */
+    @Override
+    public void write(int data) {
+        long cycle = getCurrentCycle();
+        mIrqEnabled = (data & (MODE_5_STEP | IRQ_INHIBIT)) == 0;
+        if ((data & IRQ_INHIBIT) != 0 || !mInterruptController.isIrqAsserted(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER, cycle)) {
+            // Setting the inhibit flag clears the interrupt, otherwise only the scheduled one is dropped
+            mInterruptController.acknowledgeIrq(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER);
+        }
+        // The sequencer restarts 3 or 4 cycles after the write, depending on the APU cycle alignment
+        mSequenceStartCycle = cycle + ((cycle & 1) == 0 ? 3 : 4);
+        scheduleNextIrq(cycle);
+    }
+
+    /**
+     * $4015 read
+     */
+    @Override
+    public int read() {
+        long cycle = getCurrentCycle();
+        if (!mInterruptController.isIrqAsserted(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER, cycle)) {
+            return 0;
+        }
+        mInterruptController.acknowledgeIrq(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER);
+        scheduleNextIrq(cycle);
+        return FRAME_INTERRUPT;
+    }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * The scheduled IRQ is part of the state of the {@link InterruptController}
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (mIrqEnabled ? 1 : 0));
+        buffer.putLong(mSequenceStartCycle);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mIrqEnabled = buffer.get() != 0;
+        mSequenceStartCycle = buffer.getLong();
+    }
+
+    private void scheduleNextIrq(long afterCycle) {
+        if (!mIrqEnabled) {
+            return;
+        }
+        long irqCycle = mSequenceStartCycle + FRAME_IRQ_CYCLE;
+        if (afterCycle >= irqCycle) {
+            irqCycle += ((afterCycle - irqCycle) / SEQUENCE_CYCLES + 1) * SEQUENCE_CYCLES;
+        }
+        mInterruptController.assertIrq(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER, irqCycle);
+    }
+
+    private long getCurrentCycle() {
+        // Index of the bus cycle doing the access
+        return mCpu.getCycles() - 1;
+    }
+}
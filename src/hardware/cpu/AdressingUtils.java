@@ -1,17 +1,20 @@
 package hardware.cpu;
 
-import components.memory.Memory;
 import hardware.cpu.registers.Registers;
 
+/**
+ * Resolves 6502 addressing modes. Each mode is turned into an {@link Address} or {@link Operand} once,
+ * when {@link Cpu} builds its opcode table, so executing an instruction never switches on the mode.
+ */
 public class AdressingUtils {
 
     private final Cpu mCpu;
-    private final Memory mMemory;
+    private final CpuBus mBus;
     private final Registers mRegisters;
 
-    public AdressingUtils(Cpu cpu, Memory memory, Registers registers) {
+    public AdressingUtils(Cpu cpu, CpuBus bus, Registers registers) {
         mCpu = cpu;
-        mMemory = memory;
+        mBus = bus;
         mRegisters = registers;
     }
 
@@ -37,89 +40,133 @@ public class AdressingUtils {
         WRITE
     }
 
-    public int getAddressForOperand(AddressingMode mode, OperationType operationType) {
-        switch (mode) {
-            case ABSOLUTE: {
-                int operandRefLow = mCpu.readByte();
-                int operandRefHigh = mCpu.readByte();
-                return (operandRefHigh << 8) | operandRefLow;
-            }
-            case INDIRECT: {
-                int operandRefLow = mCpu.readByte();
-                int operandRefHigh = mCpu.readByte();
-                int addressForLow = (operandRefHigh << 8) | operandRefLow;
-                int addressForHigh = (operandRefHigh << 8) | ((operandRefLow + 1) & 0xFF);
-                int addressLow = mMemory.read(addressForLow);
-                int addressHigh = mMemory.read(addressForHigh);
-                return (addressHigh << 8) | addressLow;
-            }
-            case ZEROPAGE: {
-                return mCpu.readByte();
-            }
-            case ABSOLUTE_X: {
-                int operandRefLow = mCpu.readByte();
-                int operandRefHigh = mCpu.readByte();
-                final int baseAddress = (operandRefHigh << 8) | operandRefLow;
-                int address = baseAddress + mRegisters.X;
-                if ((operationType != OperationType.READ) || ((address & 0xFF00) != (baseAddress & 0xFF00))) {
-                    mCpu.onPageBoundaryCrossed();
-                }
-                return address & 0xFFFF;
-            }
-            case ABSOLUTE_Y: {
-                int operandRefLow = mCpu.readByte();
-                int operandRefHigh = mCpu.readByte();
-                final int baseAddress = (operandRefHigh << 8) | operandRefLow;
-                int address = baseAddress + mRegisters.Y;
-                if ((operationType != OperationType.READ) || ((address & 0xFF00) != (baseAddress & 0xFF00))) {
-                    mCpu.onPageBoundaryCrossed();
-                }
-                return address & 0xFFFF;
-            }
-            case ZEROPAGE_X: {
-                final int pointer = mCpu.readByte();
-                mCpu.dummyRead(pointer);
-                return ((pointer + mRegisters.X) & 0xFF);
+    /**
+     * Effective address of an instruction's operand, consuming the operand bytes at PC
+     */
+    interface Address {
+        int resolve();
+    }
 
-            }
-            case ZEROPAGE_Y: {
-                final int pointer = mCpu.readByte();
-                mCpu.dummyRead(pointer);
-                return ((pointer + mRegisters.Y) & 0xFF);
-            }
-            case ZEROPAGE_INDIRECT_X: {
-                final int pointer = mCpu.readByte();
-                mCpu.dummyRead(pointer);
-                int addressForAddress = (pointer + mRegisters.X) & 0xFF;
-                int operandRefLow = mMemory.read(addressForAddress);
-                int operandRefHigh = mMemory.read((addressForAddress + 1)  & 0xFF);
-                return (operandRefHigh << 8) | operandRefLow;
-            }
-            case ZEROPAGE_INDIRECT_Y: {
-                int addressLow = mCpu.readByte() & 0xFF;
-                int addressHigh = (addressLow + 1) & 0xFF;
-                int operandRefLow = mMemory.read(addressLow);
-                int operandRefHigh = mMemory.read(addressHigh);
-                final int baseAddress = (operandRefHigh << 8) | operandRefLow;
-                int address = baseAddress + mRegisters.Y;
-                if ((operationType != OperationType.READ) || ((address & 0xFF00) != (baseAddress & 0xFF00))) {
-                    mCpu.onPageBoundaryCrossed();
-                }
-                return address & 0xFFFF;
-            }
+    /**
+     * Value of an instruction's operand, consuming the operand bytes at PC
+     */
+    interface Operand {
+        int read();
+    }
 
+    public Address getAddressForOperand(AddressingMode mode, final OperationType operationType) {
+        switch (mode) {
+            case ABSOLUTE:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        int operandRefLow = mCpu.readByte();
+                        int operandRefHigh = mCpu.readByte();
+                        return (operandRefHigh << 8) | operandRefLow;
+                    }
+                };
+            case INDIRECT:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        int operandRefLow = mCpu.readByte();
+                        int operandRefHigh = mCpu.readByte();
+                        int addressForLow = (operandRefHigh << 8) | operandRefLow;
+                        int addressForHigh = (operandRefHigh << 8) | ((operandRefLow + 1) & 0xFF);
+                        int addressLow = mBus.read(addressForLow);
+                        int addressHigh = mBus.read(addressForHigh);
+                        return (addressHigh << 8) | addressLow;
+                    }
+                };
+            case ZEROPAGE:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        return mCpu.readByte();
+                    }
+                };
+            case ABSOLUTE_X:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        int operandRefLow = mCpu.readByte();
+                        int operandRefHigh = mCpu.readByte();
+                        final int baseAddress = (operandRefHigh << 8) | operandRefLow;
+                        return indexed(baseAddress, mRegisters.X, operationType);
+                    }
+                };
+            case ABSOLUTE_Y:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        int operandRefLow = mCpu.readByte();
+                        int operandRefHigh = mCpu.readByte();
+                        final int baseAddress = (operandRefHigh << 8) | operandRefLow;
+                        return indexed(baseAddress, mRegisters.Y, operationType);
+                    }
+                };
+            case ZEROPAGE_X:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        final int pointer = mCpu.readByte();
+                        mCpu.dummyRead(pointer);
+                        return ((pointer + mRegisters.X) & 0xFF);
+                    }
+                };
+            case ZEROPAGE_Y:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        final int pointer = mCpu.readByte();
+                        mCpu.dummyRead(pointer);
+                        return ((pointer + mRegisters.Y) & 0xFF);
+                    }
+                };
+            case ZEROPAGE_INDIRECT_X:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        final int pointer = mCpu.readByte();
+                        mCpu.dummyRead(pointer);
+                        int addressForAddress = (pointer + mRegisters.X) & 0xFF;
+                        int operandRefLow = mBus.read(addressForAddress);
+                        int operandRefHigh = mBus.read((addressForAddress + 1) & 0xFF);
+                        return (operandRefHigh << 8) | operandRefLow;
+                    }
+                };
+            case ZEROPAGE_INDIRECT_Y:
+                return new Address() {
+                    @Override
+                    public int resolve() {
+                        int addressLow = mCpu.readByte() & 0xFF;
+                        int addressHigh = (addressLow + 1) & 0xFF;
+                        int operandRefLow = mBus.read(addressLow);
+                        int operandRefHigh = mBus.read(addressHigh);
+                        final int baseAddress = (operandRefHigh << 8) | operandRefLow;
+                        return indexed(baseAddress, mRegisters.Y, operationType);
+                    }
+                };
         }
-        throw new IllegalArgumentException();
+        throw new IllegalArgumentException(mode.toString());
     }
 
-    public int getOperand(AddressingMode addressingMode, Cpu cpu, OperationType operationType) {
+    public Operand getOperand(AddressingMode addressingMode, OperationType operationType) {
         switch (addressingMode) {
-            case ACCUMULATOR: {
-                return mRegisters.A;
-            }
-            case IMMEDIATE: {
-                return cpu.readByte();
-            }
+            case ACCUMULATOR:
+                return new Operand() {
+                    @Override
+                    public int read() {
+                        return mRegisters.A;
+                    }
+                };
+            case IMMEDIATE:
+                return new Operand() {
+                    @Override
+                    public int read() {
+                        return mCpu.readByte();
+                    }
+                };
             case ZEROPAGE:
             case ABSOLUTE:
             case ABSOLUTE_X:
@@ -128,9 +175,41 @@ public class AdressingUtils {
             case ZEROPAGE_Y:
             case ZEROPAGE_INDIRECT_X:
             case ZEROPAGE_INDIRECT_Y: {
-                return mMemory.read(getAddressForOperand(addressingMode, operationType));
+                final Address address = getAddressForOperand(addressingMode, operationType);
+                return new Operand() {
+                    @Override
+                    public int read() {
+                        return mBus.read(address.resolve());
+                    }
+                };
             }
         }
-        throw new IllegalArgumentException();
+        throw new IllegalArgumentException(addressingMode.toString());
+    }
+
+    /**
+     * @return Number of operand bytes following the opcode for the given addressing mode
+     */
+    static int getOperandLength(AddressingMode mode) {
+        switch (mode) {
+            case ACCUMULATOR:
+            case IMPLIED:
+                return 0;
+            case ABSOLUTE:
+            case ABSOLUTE_X:
+            case ABSOLUTE_Y:
+            case INDIRECT:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private int indexed(int baseAddress, int index, OperationType operationType) {
+        int address = baseAddress + index;
+        if ((operationType != OperationType.READ) || ((address & 0xFF00) != (baseAddress & 0xFF00))) {
+            mBus.addCycle();
+        }
+        return address & 0xFFFF;
     }
 }
@@ -1,96 +1,204 @@
 package hardware.cpu;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import components.Stateful;
 import components.memory.Memory;
-import components.memory.MemoryRange;
 import hardware.DMAController;
 import hardware.cpu.registers.Registers;
 import hardware.cpu.registers.StatusRegister;
 
+import java.nio.ByteBuffer;
+
 import static hardware.cpu.AdressingUtils.AddressingMode.*;
 import static hardware.cpu.AdressingUtils.OperationType.*;
 
-public class Cpu {
+public class Cpu implements Stateful {
     private static final int SIGN_BIT_MASK = (1 << StatusRegister.SIGN);
 
+    private static final int PPU_REGISTER_MASK = 0x2007;
+    private static final int PPU_STATUS = 0x2002;
+
+    // Instructions poll the interrupt lines before their last cycle
+    private static final int IRQ_POLL_OFFSET = 2;
+    private static final int MAX_IRQ_POLL_OFFSET = 3;
+    // BRK and IRQ pick their vector after the pushes, 4 cycles before their end
+    private static final int VECTOR_POLL_OFFSET = 4;
+
+    // Cycle counter, bus cycles of the last instruction, IRQ poll offset and three flags
+    private static final int STATE_SIZE = 8 + 4 + 4 + 3;
+
     // Debugging Info
     private boolean mDebugMode = false;
-    private String mRegisterInfo;
-    private StringBuilder mDebugLog;
-    private int mPCReadCounter = 0;
+    private InstructionTrace mTrace;
 
-    private final Memory mMemory;
+    private final CpuBus mBus;
+    private final Memory mSystemMemory;
     private final DMAController mDMAController;
     private final Registers mRegisters;
     private final AdressingUtils mAdressingUtils;
-
-    private int mNumOpcodeCycles;
-    private int mNumTotalCycles;
+    private final Operation[] mOperations;
+    private final int[] mInstructionLengths = new int[256];
+
+    // Instruction fetch from PRG-ROM
+    private final DecodeCache mDecodeCache;
+    private long mDecodedInstruction;
+    private int mDecodedAddress;
+
+    // Batch execution
+    private CycleListener mCycleListener;
+    private boolean mInBatch;
+    private int mBatchCycles;
+    private int mSyncedCycles;
+    private boolean mBatchEndRequested;
+    private final IdleLoopDetector mIdleLoopDetector = new IdleLoopDetector();
+    private long mNumSkippedCycles;
 
     private boolean mIsFirstPop;
-    private boolean mIsOddCycle = false;
-    private boolean mDoNMI = false;
 
     private boolean mHalted = false;
 
-    private int mInterrupts = 0;
+    // Cycles of the instructions completed since power on
+    private long mCycles;
+
+    private final InterruptController mInterruptController = new InterruptController();
     private boolean mInterruptDelay = false;
     private boolean mPreviousInterruptDisabledValue = false;
+    // Number of cycles before the end of the previous instruction at which the interrupt lines were polled
+    private int mIrqPollOffset = IRQ_POLL_OFFSET;
 
-    private boolean mInterruptSignalHigh = false;
-
-    public Cpu(final Memory memory, DMAController dmaController) {
+    public Cpu(Memory memory, DMAController dmaController) {
         mRegisters = new Registers();
-        mMemory = new Memory() {
-            @Override
-            public int read(int address) {
-                mNumOpcodeCycles++;
-                return memory.read(address);
-            }
-
-            @Override
-            public void write(int address, int value) {
-                mNumOpcodeCycles++;
-                memory.write(address, value);
-            }
-
-            @Override
-            public MemoryRange getRange() {
-                return memory.getRange();
-            }
-        };
-
+        mSystemMemory = memory;
         mRegisters.PC = (memory.read(0xFFFC) | memory.read(0xFFFD) << 8);
         mRegisters.SP = 0xFD;
-        mAdressingUtils = new AdressingUtils(this, mMemory, mRegisters);
-        mNumTotalCycles = 0;
+        mDecodeCache = new DecodeCache(memory, mInstructionLengths);
+        mBus = new CpuBus(this, memory, mDecodeCache, mIdleLoopDetector);
+        mAdressingUtils = new AdressingUtils(this, mBus, mRegisters);
+        mOperations = buildOperationTable();
         mDMAController = dmaController;
     }
 
     public void reset() {
-        mRegisters.PC = (mMemory.read(0xFFFC) | mMemory.read(0xFFFD) << 8);
+        mRegisters.PC = (mBus.read(0xFFFC) | mBus.read(0xFFFD) << 8);
         mRegisters.SP -= 3;
         mRegisters.flags.setFlag(StatusRegister.INTERRUPT, true);
-        mDoNMI = false;
+        mInterruptController.clearNmi();
         mDMAController.stop();
     }
 
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE + mRegisters.getStateSize() + mInterruptController.getStateSize()
+                + mDMAController.getStateSize();
+    }
+
+    /**
+     * Saves the registers, interrupt lines, DMA and cycle counter. Must be called between two
+     * {@link #runUntil(int)}, the decoded code is not saved, and neither is
+     * {@link #getNumSkippedCycles()} : it depends on when idle loops were detected, not on the emulation.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        mRegisters.saveState(buffer);
+        mInterruptController.saveState(buffer);
+        mDMAController.saveState(buffer);
+        buffer.putLong(mCycles);
+        // Count of the last instruction, devices clocked after it still see it in getCycles()
+        buffer.putInt(mBus.getCycles());
+        buffer.putInt(mIrqPollOffset);
+        buffer.put((byte) (mHalted ? 1 : 0));
+        buffer.put((byte) (mInterruptDelay ? 1 : 0));
+        buffer.put((byte) (mPreviousInterruptDisabledValue ? 1 : 0));
+    }
+
+    /**
+     * Restores a state saved by {@link #saveState(ByteBuffer)}. The memory is restored separately, so every
+     * decoded instruction is dropped.
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mRegisters.loadState(buffer);
+        mInterruptController.loadState(buffer);
+        mDMAController.loadState(buffer);
+        mCycles = buffer.getLong();
+        mBus.resetCycles();
+        mBus.addCycles(buffer.getInt());
+        mIrqPollOffset = buffer.getInt();
+        mHalted = buffer.get() != 0;
+        mInterruptDelay = buffer.get() != 0;
+        mPreviousInterruptDisabledValue = buffer.get() != 0;
+
+        mDecodeCache.invalidate(DecodeCache.START_ADDRESS, 0x10000);
+        mIdleLoopDetector.reset();
+    }
+
     public void setDebugMode(boolean debugMode) {
         mDebugMode = debugMode;
+        if (debugMode && mTrace == null) {
+            // Only the last instruction is needed for getDebugLog()
+            mTrace = new InstructionTrace(1);
+        }
+    }
+
+    /**
+     * Records every executed instruction into trace, null to stop tracing
+     */
+    public void setInstructionTrace(InstructionTrace trace) {
+        mTrace = trace;
+    }
+
+    public InstructionTrace getInstructionTrace() {
+        return mTrace;
+    }
+
+    /**
+     * Shares the instructions decoded by source, which must run a fork of the memory of this CPU with the
+     * same banks mapped
+     */
+    public void shareDecodedInstructions(Cpu source) {
+        source.mDecodeCache.shareWith(mDecodeCache);
     }
 
-    void onPageBoundaryCrossed() {
-        mNumOpcodeCycles++;
+    /**
+     * Must be called whenever the PRG-ROM mapped at [startAddress, endAddress) changes without the CPU
+     * writing to it, e.g. on a mapper bank switch.
+     */
+    public void invalidatePrgRom(int startAddress, int endAddress) {
+        mDecodeCache.invalidate(startAddress, endAddress);
+    }
+
+    /**
+     * Reads a PPU, APU or I/O register for the {@link CpuBus}. PPU registers synchronize the devices clocked
+     * by runUntil first.
+     */
+    int readRegister(int address) {
+        if (address >= CpuBus.PPU_REGISTERS_END) {
+            mIdleLoopDetector.onSideEffect();
+            return mSystemMemory.read(address);
+        }
+        syncCycles();
+        int value = mSystemMemory.read(address);
+        if ((address & PPU_REGISTER_MASK) == PPU_STATUS && mCycleListener != null) {
+            // The PPU is clocked up to the end of the current cycle
+            mIdleLoopDetector.onPpuStatusRead(value, getCycles() - 1 + mCycleListener.getCyclesUntilStatusChange());
+        } else {
+            mIdleLoopDetector.onSideEffect();
+        }
+        return value;
     }
 
     private void branchRelative() {
         byte operandDelta = (byte) readByte();
-        mNumOpcodeCycles += 1;
+        mBus.addCycle();
         int previousPC = mRegisters.PC;
         mRegisters.PC += operandDelta;
         mRegisters.PC &= 0xFFFF;
         if ((previousPC & 0xFF00) != (mRegisters.PC & 0xFF00)) {
-            mNumOpcodeCycles += 1;
+            mBus.addCycle();
+        } else {
+            // The extra cycle of a taken branch does not poll the IRQ line
+            mIrqPollOffset = IRQ_POLL_OFFSET + 1;
         }
     }
 
@@ -101,46 +209,48 @@ public class Cpu {
     }
 
     int readByte() {
-        int readValue = mMemory.read(mRegisters.PC);
+        int readValue;
+        int decodedOffset = mRegisters.PC - mDecodedAddress;
+        if (decodedOffset >= 0 && decodedOffset < DecodeCache.getLength(mDecodedInstruction)) {
+            // Same cycle as the bus read it replaces
+            mBus.addCycle();
+            readValue = DecodeCache.getByte(mDecodedInstruction, decodedOffset);
+        } else {
+            readValue = mBus.read(mRegisters.PC);
+        }
         mRegisters.PC++;
         mRegisters.PC &= 0xFFFF;
-        if (mDebugMode) {
-            debug(String.format("  %02X", readValue));
+        if (mTrace != null) {
+            mTrace.addByte(readValue);
         }
-        mPCReadCounter++;
         return readValue;
     }
 
     private void dummyRead() {
-        mMemory.read(mRegisters.PC);
+        mBus.read(mRegisters.PC);
     }
 
     void dummyRead(int address) {
-        mMemory.read(address);
+        mBus.read(address);
     }
 
-    private void setZero(int intValue) {
-        mRegisters.flags.setFlag(StatusRegister.ZERO, (intValue & 0xFF) == 0);
-    }
-
-    private void setSign(int intValue) {
-        mRegisters.flags.setFlag(StatusRegister.SIGN, (intValue & 0b10000000) != 0);
+    private void setZeroAndSign(int intValue) {
+        mRegisters.flags.setZeroAndSign(intValue);
     }
 
     private void setCarry(int value) {
-        mRegisters.flags.setFlag(StatusRegister.CARRY, value > 0xFF);
+        mRegisters.flags.setCarry(value > 0xFF);
     }
 
     private void ADC(int operand) {
         int value = mRegisters.A + operand + mRegisters.flags.getCarry();
         setCarry(value);
         value &= 0xFF;
-        mRegisters.flags.setFlag(StatusRegister.OVERFLOW,
+        mRegisters.flags.setOverflow(
                 ((mRegisters.A & SIGN_BIT_MASK) == (operand & SIGN_BIT_MASK)) &&
                         ((mRegisters.A & SIGN_BIT_MASK) != (value & SIGN_BIT_MASK))
         );
-        setSign(value);
-        setZero(value);
+        setZeroAndSign(value);
         value &= 0xFF;
         mRegisters.A = value;
     }
@@ -151,21 +261,19 @@ public class Cpu {
 
     private void compare(int firstOperand, int secondOperand) {
         int value = firstOperand - secondOperand;
-        setSign(value);
-        setZero(value);
-        mRegisters.flags.setFlag(StatusRegister.CARRY, !(firstOperand < secondOperand));
+        setZeroAndSign(value);
+        mRegisters.flags.setCarry(!(firstOperand < secondOperand));
     }
 
     private int getSubtractResultAndSetFlags(int firstOperand, int secondOperand) {
         int borrow = mRegisters.flags.getBorrow();
         int value = firstOperand - secondOperand - borrow;
-        mRegisters.flags.setFlag(StatusRegister.OVERFLOW,
+        mRegisters.flags.setOverflow(
                 (firstOperand & SIGN_BIT_MASK) != (secondOperand & SIGN_BIT_MASK) &&
                         ((firstOperand & SIGN_BIT_MASK) != (value & SIGN_BIT_MASK))
         );
-        setSign(value);
-        setZero(value);
-        mRegisters.flags.setFlag(StatusRegister.CARRY, firstOperand >= (secondOperand + borrow));
+        setZeroAndSign(value);
+        mRegisters.flags.setCarry(firstOperand >= (secondOperand + borrow));
         value &= 0xFF;
         return value;
     }
@@ -173,44 +281,39 @@ public class Cpu {
     private int getSubtractResultAndSetFlagsWithoutBorrow(int firstOperand, int secondOperand) {
         int value = firstOperand - secondOperand;
         /*
-        mRegisters.flags.setFlag(StatusRegister.OVERFLOW,
+        mRegisters.flags.setOverflow(
                 (firstOperand & SIGN_BIT_MASK) != (secondOperand & SIGN_BIT_MASK) &&
                         ((firstOperand & SIGN_BIT_MASK) != (value & SIGN_BIT_MASK))
         );
         */
-        setSign(value);
-        setZero(value);
-        mRegisters.flags.setFlag(StatusRegister.CARRY, firstOperand >= (secondOperand));
+        setZeroAndSign(value);
+        mRegisters.flags.setCarry(firstOperand >= (secondOperand));
         value &= 0xFF;
         return value;
     }
 
     private int decrement(int operand) {
         int result = (operand - 1) & 0xFF;
-        setSign(result);
-        setZero(result);
+        setZeroAndSign(result);
         return result;
     }
 
     private int increment(int operand) {
         int result = (operand + 1) & 0xFF;
-        setSign(result);
-        setZero(result);
+        setZeroAndSign(result);
         return result;
     }
 
     private void AND(int operand) {
         int value = mRegisters.A & operand;
-        setSign(value);
-        setZero(value);
+        setZeroAndSign(value);
         mRegisters.A = value;
     }
 
     private void AAC(int operand) {
         mRegisters.A = mRegisters.A & operand;
-        setSign(mRegisters.A);
-        setZero(mRegisters.A);
-        mRegisters.flags.setFlag(StatusRegister.CARRY, mRegisters.flags.getFlag(StatusRegister.SIGN));
+        setZeroAndSign(mRegisters.A);
+        mRegisters.flags.setCarry(mRegisters.flags.getFlag(StatusRegister.SIGN));
     }
 
     private void ALR(int operand) {
@@ -223,12 +326,11 @@ public class Cpu {
         int previousCarry = mRegisters.flags.getCarry();
         mRegisters.A = mRegisters.A >>> 1;
         mRegisters.A |= previousCarry << 7;
-        setZero(mRegisters.A);
-        setSign(mRegisters.A);
+        setZeroAndSign(mRegisters.A);
         mRegisters.A &= 0xFF;
 
-        mRegisters.flags.setFlag(StatusRegister.CARRY, (mRegisters.A & 1 << 6) != 0);
-        mRegisters.flags.setFlag(StatusRegister.OVERFLOW,
+        mRegisters.flags.setCarry((mRegisters.A & 1 << 6) != 0);
+        mRegisters.flags.setOverflow(
                 mRegisters.flags.getFlag(StatusRegister.CARRY) ^
                 ((mRegisters.A & 1 << 5) != 0));
     }
@@ -240,27 +342,24 @@ public class Cpu {
 
     private void AAX(int adddressToStoreTo) {
         int value = mRegisters.A & mRegisters.X;
-        mMemory.write(adddressToStoreTo, value);
+        mBus.write(adddressToStoreTo, value);
     }
 
     private void LAX(int operand) {
         mRegisters.A = operand;
         mRegisters.X = operand;
-        setSign(operand);
-        setZero(operand);
+        setZeroAndSign(operand);
     }
 
     private void OR(int operand) {
         int value = mRegisters.A | operand;
-        setSign(value);
-        setZero(value);
+        setZeroAndSign(value);
         mRegisters.A = value;
     }
 
     private void XOR(int operand) {
         int value = mRegisters.A ^ operand;
-        setSign(value);
-        setZero(value);
+        setZeroAndSign(value);
         value &= 0xFF;
         mRegisters.A = value;
     }
@@ -268,49 +367,44 @@ public class Cpu {
     private int ASL(int operand) {
         int tempValue = operand;
         tempValue = tempValue << 1;
-        setSign(tempValue);
-        setZero(tempValue);
+        setZeroAndSign(tempValue);
         setCarry(tempValue);
         tempValue &= 0xFF;
         return tempValue;
     }
 
     private int LSR(int operand) {
-        mRegisters.flags.setFlag(StatusRegister.CARRY, (operand & 0x01) > 0);
+        mRegisters.flags.setCarry((operand & 0x01) > 0);
         int tempValue = operand >>> 1;
-        setZero(tempValue);
-        setSign(tempValue);
+        setZeroAndSign(tempValue);
         tempValue &= 0xFF;
         return tempValue;
     }
 
     private int ROL(int operand) {
         int previousCarry = mRegisters.flags.getCarry();
-        mRegisters.flags.setFlag(StatusRegister.CARRY, (operand & 0b10000000) > 0);
+        mRegisters.flags.setCarry((operand & 0b10000000) > 0);
         operand = operand << 1;
         operand += previousCarry;
-        setZero(operand);
-        setSign(operand);
+        setZeroAndSign(operand);
         operand &= 0xFF;
         return operand;
     }
 
     private int ROR(int operand) {
         int previousCarry = mRegisters.flags.getCarry();
-        mRegisters.flags.setFlag(StatusRegister.CARRY, (operand & 0b00000001) > 0);
+        mRegisters.flags.setCarry((operand & 0b00000001) > 0);
         operand = operand >>> 1;
         operand |= previousCarry << 7;
-        setZero(operand);
-        setSign(operand);
+        setZeroAndSign(operand);
         operand &= 0xFF;
         return operand;
     }
 
     private void BIT(int operand) {
         int intResult = operand & mRegisters.A;
-        setZero(intResult);
-        setSign(operand);
-        mRegisters.flags.setFlag(StatusRegister.OVERFLOW, (operand & 0b01000000) != 0);
+        mRegisters.flags.setZeroAndSign(intResult, operand);
+        mRegisters.flags.setOverflow((operand & 0b01000000) != 0);
     }
 
     private void CMP(int operand) {
@@ -325,93 +419,23 @@ public class Cpu {
         compare(mRegisters.Y, operand);
     }
 
-    private void DCP(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int decrementedValue = decrement(originalValue);
-        mMemory.write(address, decrementedValue);
-        CMP(decrementedValue);
-    }
-
-    private void ISC(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int incrementedValue = increment(originalValue);
-        mMemory.write(address, incrementedValue);
-        SBC(incrementedValue);
-    }
-
-    private void SLO(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int aslValue = ASL(originalValue);
-        mMemory.write(address, aslValue);
-        OR(aslValue);
-    }
-
-    private void RLA(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int rolValue = ROL(originalValue);
-        mMemory.write(address, rolValue);
-        AND(rolValue);
-    }
-
-    private void SRE(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int lsrValue = LSR(originalValue);
-        mMemory.write(address, lsrValue);
-        XOR(lsrValue);
-    }
-
-    private void RRA(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        final int rorValue = ROR(originalValue);
-        mMemory.write(address, rorValue);
-        ADC(rorValue);
-    }
-
-    private void DEC(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = decrement(originalValue);
-        mMemory.write(address, value);
-    }
-
-    private void INC(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = increment(originalValue);
-        mMemory.write(address, value);
-    }
-
     private void JMP(int addressOfAddress) {
         mRegisters.PC = addressOfAddress;
     }
 
     private void push(int operand) {
-        mMemory.write(0x0100 | mRegisters.SP, operand);
+        mBus.write(0x0100 | mRegisters.SP, operand);
         mRegisters.SP--;
         mRegisters.SP &= 0xFF;
     }
 
     private int pop() {
         if (mIsFirstPop) {
-            mNumOpcodeCycles++;
+            mBus.addCycle();
             mIsFirstPop = false;
         }
         mRegisters.SP++;
-        return mMemory.read(0x0100 | mRegisters.SP);
+        return mBus.read(0x0100 | mRegisters.SP);
     }
 
     private void JSR(int addressToJumpTo) {
@@ -425,29 +449,26 @@ public class Cpu {
 
     private void LDA(int operand) {
         mRegisters.A = operand;
-        setZero(operand);
-        setSign(operand);
+        setZeroAndSign(operand);
     }
 
     private void LDX(int operand) {
         mRegisters.X = operand;
-        setZero(operand);
-        setSign(operand);
+        setZeroAndSign(operand);
     }
 
     private void LDY(int operand) {
         mRegisters.Y = operand;
-        setZero(operand);
-        setSign(operand);
+        setZeroAndSign(operand);
     }
 
     private void SYA(int operand) {
         int data = (mRegisters.Y & ((operand >> 8) + 1)) & 0xFF;
         final int tmp = (operand - mRegisters.X) & 0xFF;
         if ((mRegisters.X + tmp) <= 0xFF) {
-            mMemory.write(operand, data);
+            mBus.write(operand, data);
         } else {
-            mMemory.write(operand, mMemory.read(operand));
+            mBus.write(operand, mBus.read(operand));
         }
     }
 
@@ -455,48 +476,14 @@ public class Cpu {
         int data = (mRegisters.X & ((operand >> 8) + 1)) & 0xFF;
         final int tmp = (operand - mRegisters.Y) & 0xFF;
         if ((mRegisters.Y + tmp) <= 0xFF) {
-            mMemory.write(operand, data);
+            mBus.write(operand, data);
         } else {
-            mMemory.write(operand, mMemory.read(operand));
+            mBus.write(operand, mBus.read(operand));
         }
     }
 
 
-    private void doASL(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = ASL(originalValue);
-        mMemory.write(address, value);
-    }
-
-    private void doLSR(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = LSR(originalValue);
-        mMemory.write(address, value);
-    }
-
-    private void doROR(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = ROR(originalValue);
-        mMemory.write(address, value);
-    }
-
-
-    private void doROL(AdressingUtils.AddressingMode addressingMode) {
-        int address = mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE);
-        final int originalValue = mMemory.read(address);
-        mMemory.write(address, originalValue);
-        int value = ROL(originalValue);
-        mMemory.write(address, value);
-    }
-
     private void IRQ(boolean fromBRK) {
-        System.out.println("Doing IRQ");
         push(mRegisters.PC >> 8 & 0xFF);
         push(mRegisters.PC & 0xFF);
 
@@ -507,1048 +494,1058 @@ public class Cpu {
         }
         push(flags);
         mRegisters.flags.setFlag(StatusRegister.INTERRUPT, true);
-        mNumOpcodeCycles += 7;
 
-        mRegisters.PC = (mMemory.read(0xFFFE) | mMemory.read(0xFFFF) << 8);
+        // The vector is picked after the pushes, 2 cycles before the end : an NMI by then takes it over (the B
+        // flag stays pushed)
+        syncCycles();
+        if (mInterruptController.takeNmi(getCycles() + 2 - VECTOR_POLL_OFFSET)) {
+            mRegisters.PC = (mBus.read(0xFFFA) | mBus.read(0xFFFB) << 8);
+        } else {
+            mRegisters.PC = (mBus.read(0xFFFE) | mBus.read(0xFFFF) << 8);
+        }
     }
 
     private void NMI() {
-        System.out.println("Doing NMI");
         push(mRegisters.PC >> 8 & 0xFF);
         push(mRegisters.PC & 0xFF);
 
         int flags = mRegisters.flags.getRegister();
         flags |= 1 << StatusRegister.NOT_USED;
         push(flags);
-        mRegisters.PC = (mMemory.read(0xFFFA) | mMemory.read(0xFFFB) << 8);
+        mRegisters.PC = (mBus.read(0xFFFA) | mBus.read(0xFFFB) << 8);
         mRegisters.flags.setFlag(StatusRegister.INTERRUPT, true);
     }
 
-    private void debug(String message) {
-        if (mDebugMode) {
-            if (this.mDebugLog == null) {
-                mDebugLog = new StringBuilder();
+    /**
+     * Builds the opcode table. Addressing modes are resolved here, once, so that executing an
+     * instruction is a single lookup and call.
+     */
+    private Operation[] buildOperationTable() {
+        final Operation[] operations = new Operation[256];
+
+        /**
+         * AAC (Undocumented)
+         */
+        read(operations, new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                AAC(operand);
             }
-            mDebugLog.append(message);
-        }
-    }
+        }, IMMEDIATE, 0x0B, 0x2B);
 
-    public int process() {
-        return processInternal();
-    }
+        /**
+         * AAX (Undocumented)
+         */
+        final AddressInstruction aax = new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                AAX(address);
+            }
+        };
+        address(operations, aax, ZEROPAGE, READ, 0x87);
+        address(operations, aax, ZEROPAGE_Y, READ, 0x97);
+        address(operations, aax, ZEROPAGE_INDIRECT_X, READ, 0x83);
+        address(operations, aax, ABSOLUTE, READ, 0x8F);
+
+        /**
+         * ALR (Undocumented)
+         */
+        read(operations, new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                ALR(operand);
+            }
+        }, IMMEDIATE, 0x4B);
 
-    private int processInternal() {
-        if (mHalted) {
-            return 0;
-        }
-        mNumOpcodeCycles = 0;
-        boolean unknownOpCode = false;
-        if (mDebugMode) {
-            mDebugLog = new StringBuilder();
-            debug(String.format("%04X", mRegisters.PC));
-            mRegisterInfo = mRegisters.toString();
-        }
+        /**
+         * ARR (Undocumented)
+         */
+        read(operations, new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                ARR(operand);
+            }
+        }, IMMEDIATE, 0x6B);
 
-        if (mDMAController.isActive()) {
-            mNumOpcodeCycles += mDMAController.process(mNumTotalCycles);
-            updateCycleData();
-            return mNumOpcodeCycles;
-        }
+        /**
+         * AXS (Undocumented)
+         */
+        read(operations, new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                AXS(operand);
+            }
+        }, IMMEDIATE, 0xCB);
 
-        if (mDoNMI) {
-            NMI();
-            mDoNMI = false;
-            mNumOpcodeCycles += 7;
-        }
+        /**
+         * SYA (Undocumented)
+         */
+        address(operations, new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                SYA(address);
+            }
+        }, ABSOLUTE_X, READ, 0x9C);
 
-        /* INTERRUPT CODE NOT WORKING :-(
-        if (mInterrupts > 0) {
-            if (!mInterruptDelay && !mRegisters.flags.getInterruptDisabled()) {
-                IRQ();
-                mNumOpcodeCycles += 7;
-                mInterrupts--;
-            } else {
-                mInterruptDelay = false;
-                if (!mPreviousInterruptDisabledValue) {
-                    IRQ();
-                    mNumOpcodeCycles += 7;
-                    mInterrupts--;
-                }
+        /**
+         * SXA (Undocumented)
+         */
+        address(operations, new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                SXA(address);
             }
-        } else {
-            mInterruptDelay = false;
-        }
-        */
+        }, ABSOLUTE_Y, READ, 0x9E);
 
-        mPCReadCounter = 0;
-        int instruction = readByte();
-        mIsFirstPop = true;
-        switch (instruction) {
-            /**
-             * AAC (Undocumented)
-             */
-            case 0x0B:
-            case 0x2B:
-                AAC(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-
-            /**
-             * AAX (Undocumented)
-             */
-            case 0x87:
-                AAX(mAdressingUtils.getAddressForOperand(ZEROPAGE, READ));
-                break;
-            case 0x97:
-                AAX(mAdressingUtils.getAddressForOperand(ZEROPAGE_Y, READ));
-                break;
-            case 0x83:
-                AAX(mAdressingUtils.getAddressForOperand(ZEROPAGE_INDIRECT_X, READ));
-                break;
-            case 0x8F:
-                AAX(mAdressingUtils.getAddressForOperand(ABSOLUTE, READ));
-                break;
-
-            /**
-             * ALR (Undocumented)
-             */
-            case 0x4B:
-                ALR(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-
-            /**
-             * ARR (Undocumented)
-             */
-            case 0x6B:
-                ARR(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-
-            /**
-             * ARR (Undocumented)
-             */
-            case 0xCB:
-                AXS(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-
-            /**
-             * SYA (Undocumented)
-             */
-            case 0x9C:
-                SYA(mAdressingUtils.getAddressForOperand(ABSOLUTE_X, READ));
-                break;
-
-            /**
-             * SXA (Undocumented)
-             */
-            case 0x9E:
-                SXA(mAdressingUtils.getAddressForOperand(ABSOLUTE_Y, READ));
-                break;
-            /**
-             * ADC
-             */
-            case 0x69:
-                ADC(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0x65:
-                ADC(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0x75:
-                ADC(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0x6D:
-                ADC(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0x7D:
-                ADC(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0x79:
-                ADC(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0x61:
-                ADC(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0x71:
-                ADC(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * AND
-             */
-            case 0x29:
-                AND(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0x25:
-                AND(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0x35:
-                AND(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0x2D:
-                AND(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0x3D:
-                AND(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0x39:
-                AND(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0x21:
-                AND(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0x31:
-                AND(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * ASL
-             */
-            case 0x0A:
-                mRegisters.A = ASL(mAdressingUtils.getOperand(ACCUMULATOR, this, READ_WRITE));
-                break;
-            case 0x06:
-                doASL(ZEROPAGE);
-                break;
-            case 0x16:
-                doASL(ZEROPAGE_X);
-                break;
-            case 0x0E:
-                doASL(ABSOLUTE);
-                break;
-            case 0x1E:
-                doASL(ABSOLUTE_X);
-                break;
-
-            /**
-             * Branching
-             */
-            case 0x90: // Branch on carry clear
-                if (!mRegisters.flags.getFlag(StatusRegister.CARRY)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0xB0: // Branch on carry set
-                if (mRegisters.flags.getFlag(StatusRegister.CARRY)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0x30: // Branch on result minus
-                if (mRegisters.flags.getFlag(StatusRegister.SIGN)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0xF0: // Branch on result zero
-                if (mRegisters.flags.getFlag(StatusRegister.ZERO)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0xD0: // Branch on result not zero
-                if (!mRegisters.flags.getFlag(StatusRegister.ZERO)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0x10: // Branch on result plus
-                if (!mRegisters.flags.getFlag(StatusRegister.SIGN)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0x50: // Branch on overflow clear
-                if (!mRegisters.flags.getFlag(StatusRegister.OVERFLOW)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-            case 0x70: // Branch on overflow set
-                if (mRegisters.flags.getFlag(StatusRegister.OVERFLOW)) {
-                    branchRelative();
-                } else {
-                    throwAwayBytes(1);
-                }
-                break;
-
-
-            /**
-             * Bit tests
-             */
-            case 0x24:
-                BIT(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0x2C:
-                BIT(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-
-            /**
-             * BRK
-             */
-            case 0x00: {
+        /**
+         * ADC
+         */
+        final ReadInstruction adc = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                ADC(operand);
+            }
+        };
+        read(operations, adc, IMMEDIATE, 0x69);
+        read(operations, adc, ZEROPAGE, 0x65);
+        read(operations, adc, ZEROPAGE_X, 0x75);
+        read(operations, adc, ABSOLUTE, 0x6D);
+        read(operations, adc, ABSOLUTE_X, 0x7D);
+        read(operations, adc, ABSOLUTE_Y, 0x79);
+        read(operations, adc, ZEROPAGE_INDIRECT_X, 0x61);
+        read(operations, adc, ZEROPAGE_INDIRECT_Y, 0x71);
+
+        /**
+         * AND
+         */
+        final ReadInstruction and = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                AND(operand);
+            }
+        };
+        read(operations, and, IMMEDIATE, 0x29);
+        read(operations, and, ZEROPAGE, 0x25);
+        read(operations, and, ZEROPAGE_X, 0x35);
+        read(operations, and, ABSOLUTE, 0x2D);
+        read(operations, and, ABSOLUTE_X, 0x3D);
+        read(operations, and, ABSOLUTE_Y, 0x39);
+        read(operations, and, ZEROPAGE_INDIRECT_X, 0x21);
+        read(operations, and, ZEROPAGE_INDIRECT_Y, 0x31);
+
+        /**
+         * ASL
+         */
+        final ModifyInstruction asl = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return ASL(operand);
+            }
+        };
+        accumulator(operations, asl, 0x0A);
+        readModifyWrite(operations, asl, ZEROPAGE, 0x06);
+        readModifyWrite(operations, asl, ZEROPAGE_X, 0x16);
+        readModifyWrite(operations, asl, ABSOLUTE, 0x0E);
+        readModifyWrite(operations, asl, ABSOLUTE_X, 0x1E);
+
+        /**
+         * Branching
+         */
+        branch(operations, StatusRegister.CARRY, false, 0x90); // Branch on carry clear
+        branch(operations, StatusRegister.CARRY, true, 0xB0); // Branch on carry set
+        branch(operations, StatusRegister.SIGN, true, 0x30); // Branch on result minus
+        branch(operations, StatusRegister.ZERO, true, 0xF0); // Branch on result zero
+        branch(operations, StatusRegister.ZERO, false, 0xD0); // Branch on result not zero
+        branch(operations, StatusRegister.SIGN, false, 0x10); // Branch on result plus
+        branch(operations, StatusRegister.OVERFLOW, false, 0x50); // Branch on overflow clear
+        branch(operations, StatusRegister.OVERFLOW, true, 0x70); // Branch on overflow set
+
+        /**
+         * Bit tests
+         */
+        final ReadInstruction bit = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                BIT(operand);
+            }
+        };
+        read(operations, bit, ZEROPAGE, 0x24);
+        read(operations, bit, ABSOLUTE, 0x2C);
+
+        /**
+         * BRK
+         */
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
+                // Padding byte
+                dummyRead();
                 mRegisters.PC += 1;
                 IRQ(true /* fromBRK */);
-                break;
-            }
-
-            /**
-             * Clear flags
-             */
-            case 0x18: // Clear carry
-                mRegisters.flags.setFlag(StatusRegister.CARRY, false);
-                break;
-            case 0xD8: // Clear Decimal
-                mRegisters.flags.setFlag(StatusRegister.DECIMAL, false);
-                break;
-            case 0x58: // Clear interrupt
+                // Any later NMI waits for the first instruction of the handler
+                mIrqPollOffset = VECTOR_POLL_OFFSET;
+            }
+        }, 0x00);
+
+        /**
+         * Clear flags
+         */
+        setFlag(operations, StatusRegister.CARRY, false, 0x18); // Clear carry
+        setFlag(operations, StatusRegister.DECIMAL, false, 0xD8); // Clear Decimal
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 delayInterrupt();
                 mRegisters.flags.setFlag(StatusRegister.INTERRUPT, false);
-                break;
-            case 0xB8: // Clear overflow
-                mRegisters.flags.setFlag(StatusRegister.OVERFLOW, false);
-                break;
-
-            /**
-             * Compare Accumulator with memory
-             */
-            case 0xC9:
-                CMP(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xC5:
-                CMP(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xD5:
-                CMP(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0xCD:
-                CMP(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xDD:
-                CMP(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0xD9:
-                CMP(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0xC1:
-                CMP(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0xD1:
-                CMP(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * Compare X with Memeory
-             */
-            case 0xE0:
-                CPX(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xE4:
-                CPX(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xEC:
-                CPX(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-
-            /**
-             * Compare Y with Memeory
-             */
-            case 0xC0:
-                CPY(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xC4:
-                CPY(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xCC:
-                CPY(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-
-            /**
-             * DCP (Undocumented
-             */
-            case 0xC7:
-                DCP(ZEROPAGE);
-                break;
-            case 0xD7:
-                DCP(ZEROPAGE_X);
-                break;
-            case 0xCF:
-                DCP(ABSOLUTE);
-                break;
-            case 0xDF:
-                DCP(ABSOLUTE_X);
-                break;
-            case 0xDB:
-                DCP(ABSOLUTE_Y);
-                break;
-            case 0xC3:
-                DCP(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0xD3:
-                DCP(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * Decrement
-             */
-            case 0xC6:
-                DEC(ZEROPAGE);
-                break;
-            case 0xD6:
-                DEC(ZEROPAGE_X);
-                break;
-            case 0xCE:
-                DEC(ABSOLUTE);
-                break;
-            case 0xDE:
-                DEC(ABSOLUTE_X);
-                break;
-            case 0xCA:
+            }
+        }, 0x58); // Clear interrupt
+        setFlag(operations, StatusRegister.OVERFLOW, false, 0xB8); // Clear overflow
+
+        /**
+         * Compare Accumulator with memory
+         */
+        final ReadInstruction cmp = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                CMP(operand);
+            }
+        };
+        read(operations, cmp, IMMEDIATE, 0xC9);
+        read(operations, cmp, ZEROPAGE, 0xC5);
+        read(operations, cmp, ZEROPAGE_X, 0xD5);
+        read(operations, cmp, ABSOLUTE, 0xCD);
+        read(operations, cmp, ABSOLUTE_X, 0xDD);
+        read(operations, cmp, ABSOLUTE_Y, 0xD9);
+        read(operations, cmp, ZEROPAGE_INDIRECT_X, 0xC1);
+        read(operations, cmp, ZEROPAGE_INDIRECT_Y, 0xD1);
+
+        /**
+         * Compare X with Memeory
+         */
+        final ReadInstruction cpx = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                CPX(operand);
+            }
+        };
+        read(operations, cpx, IMMEDIATE, 0xE0);
+        read(operations, cpx, ZEROPAGE, 0xE4);
+        read(operations, cpx, ABSOLUTE, 0xEC);
+
+        /**
+         * Compare Y with Memeory
+         */
+        final ReadInstruction cpy = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                CPY(operand);
+            }
+        };
+        read(operations, cpy, IMMEDIATE, 0xC0);
+        read(operations, cpy, ZEROPAGE, 0xC4);
+        read(operations, cpy, ABSOLUTE, 0xCC);
+
+        /**
+         * DCP (Undocumented)
+         */
+        final ModifyInstruction dcp = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int decrementedValue = decrement(operand);
+                CMP(decrementedValue);
+                return decrementedValue;
+            }
+        };
+        readModifyWrite(operations, dcp, ZEROPAGE, 0xC7);
+        readModifyWrite(operations, dcp, ZEROPAGE_X, 0xD7);
+        readModifyWrite(operations, dcp, ABSOLUTE, 0xCF);
+        readModifyWrite(operations, dcp, ABSOLUTE_X, 0xDF);
+        readModifyWrite(operations, dcp, ABSOLUTE_Y, 0xDB);
+        readModifyWrite(operations, dcp, ZEROPAGE_INDIRECT_X, 0xC3);
+        readModifyWrite(operations, dcp, ZEROPAGE_INDIRECT_Y, 0xD3);
+
+        /**
+         * Decrement
+         */
+        final ModifyInstruction dec = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return decrement(operand);
+            }
+        };
+        readModifyWrite(operations, dec, ZEROPAGE, 0xC6);
+        readModifyWrite(operations, dec, ZEROPAGE_X, 0xD6);
+        readModifyWrite(operations, dec, ABSOLUTE, 0xCE);
+        readModifyWrite(operations, dec, ABSOLUTE_X, 0xDE);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.X = decrement(mRegisters.X);
-                break;
-            case 0x88:
+            }
+        }, 0xCA);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.Y = decrement(mRegisters.Y);
-                break;
-
-            /**
-             * XOR
-             */
-            case 0x49:
-                XOR(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0x45:
-                XOR(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0x55:
-                XOR(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0x4D:
-                XOR(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0x5D:
-                XOR(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0x59:
-                XOR(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0x41:
-                XOR(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0x51:
-                XOR(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * Increment
-             */
-            case 0xE6:
-                INC(ZEROPAGE);
-                break;
-            case 0xF6:
-                INC(ZEROPAGE_X);
-                break;
-            case 0xEE:
-                INC(ABSOLUTE);
-                break;
-            case 0xFE:
-                INC(ABSOLUTE_X);
-                break;
-            case 0xE8:
+            }
+        }, 0x88);
+
+        /**
+         * XOR
+         */
+        final ReadInstruction xor = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                XOR(operand);
+            }
+        };
+        read(operations, xor, IMMEDIATE, 0x49);
+        read(operations, xor, ZEROPAGE, 0x45);
+        read(operations, xor, ZEROPAGE_X, 0x55);
+        read(operations, xor, ABSOLUTE, 0x4D);
+        read(operations, xor, ABSOLUTE_X, 0x5D);
+        read(operations, xor, ABSOLUTE_Y, 0x59);
+        read(operations, xor, ZEROPAGE_INDIRECT_X, 0x41);
+        read(operations, xor, ZEROPAGE_INDIRECT_Y, 0x51);
+
+        /**
+         * Increment
+         */
+        final ModifyInstruction inc = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return increment(operand);
+            }
+        };
+        readModifyWrite(operations, inc, ZEROPAGE, 0xE6);
+        readModifyWrite(operations, inc, ZEROPAGE_X, 0xF6);
+        readModifyWrite(operations, inc, ABSOLUTE, 0xEE);
+        readModifyWrite(operations, inc, ABSOLUTE_X, 0xFE);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.X = increment(mRegisters.X);
-                break;
-            case 0xC8:
+            }
+        }, 0xE8);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.Y = increment(mRegisters.Y);
-                break;
-
-            /**
-             * ISC (Undoumented)
-             */
-            case 0xE7:
-                ISC(ZEROPAGE);
-                break;
-            case 0xF7:
-                ISC(ZEROPAGE_X);
-                break;
-            case 0xEF:
-                ISC(ABSOLUTE);
-                break;
-            case 0xFF:
-                ISC(ABSOLUTE_X);
-                break;
-            case 0xFB:
-                ISC(ABSOLUTE_Y);
-                break;
-            case 0xE3:
-                ISC(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0xF3:
-                ISC(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * Jump
-             */
-            case 0x4C:
-                JMP(mAdressingUtils.getAddressForOperand(ABSOLUTE, READ));
-                break;
-            case 0x6C:
-                JMP(mAdressingUtils.getAddressForOperand(INDIRECT, READ));
-                break;
-            case 0x20:
-                JSR(mAdressingUtils.getAddressForOperand(ABSOLUTE, READ));
-                break;
-
-            /**
-             * LAX (Undocumented)
-             */
-            case 0xAB:
-                LAX(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xA7:
-                LAX(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xB7:
-                LAX(mAdressingUtils.getOperand(ZEROPAGE_Y, this, READ));
-                break;
-            case 0xAF:
-                LAX(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xBF:
-                LAX(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0xA3:
-                LAX(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0xB3:
-                LAX(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * LDA
-             */
-            case 0xA9:
-                LDA(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xA5:
-                LDA(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xB5:
-                LDA(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0xAD:
-                LDA(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xBD:
-                LDA(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0xB9:
-                LDA(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0xA1:
-                LDA(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0xB1:
-                LDA(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * LDX
-             */
-            case 0xA2:
-                LDX(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xA6:
-                LDX(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xB6:
-                LDX(mAdressingUtils.getOperand(ZEROPAGE_Y, this, READ));
-                break;
-            case 0xAE:
-                LDX(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xBE:
-                LDX(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-
-            /**
-             * LDY
-             */
-            case 0xA0:
-                LDY(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xA4:
-                LDY(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xB4:
-                LDY(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0xAC:
-                LDY(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xBC:
-                LDY(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-
-            /**
-             * LSR
-             */
-            case 0x4A:
-                mRegisters.A = LSR(mAdressingUtils.getOperand(ACCUMULATOR, this, READ));
-                break;
-            case 0x46:
-                doLSR(ZEROPAGE);
-                break;
-            case 0x56:
-                doLSR(ZEROPAGE_X);
-                break;
-            case 0x4E:
-                doLSR(ABSOLUTE);
-                break;
-            case 0x5E:
-                doLSR(ABSOLUTE_X);
-                break;
-
-            /**
-             * No-op
-             */
-            case 0x1A:
-            case 0x3A:
-            case 0x5A:
-            case 0x7A:
-            case 0xDA:
-            case 0xFA:
-            case 0xEA:
-                // Implied
-                break;
-            case 0x80:
-            case 0x82:
-            case 0xC2:
-            case 0xE2:
-            case 0x89:
-                mAdressingUtils.getOperand(IMMEDIATE, this, READ);
-                break;
-            case 0x0C:
-                mAdressingUtils.getOperand(ABSOLUTE, this, READ);
-                break;
-            case 0x1C:
-            case 0x3C:
-            case 0x5C:
-            case 0x7C:
-            case 0xDC:
-            case 0xFC:
-                mAdressingUtils.getOperand(ABSOLUTE_X, this, READ);
-                break;
-            case 0x04:
-            case 0x44:
-            case 0x64:
-                mAdressingUtils.getOperand(ZEROPAGE, this, READ);
-                break;
-            case 0x14:
-            case 0x34:
-            case 0x54:
-            case 0x74:
-            case 0xD4:
-            case 0xF4:
-                mAdressingUtils.getOperand(ZEROPAGE_X, this, READ);
-                break;
-            /**
-             * OR
-             */
-            case 0x09:
-                OR(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0x05:
-                OR(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0x15:
-                OR(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0x0D:
-                OR(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0x1D:
-                OR(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0x19:
-                OR(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0x01:
-                OR(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0x11:
-                OR(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                break;
-
-            /**
-             * Stack
-             */
-            case 0x48:
+            }
+        }, 0xC8);
+
+        /**
+         * ISC (Undoumented)
+         */
+        final ModifyInstruction isc = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int incrementedValue = increment(operand);
+                SBC(incrementedValue);
+                return incrementedValue;
+            }
+        };
+        readModifyWrite(operations, isc, ZEROPAGE, 0xE7);
+        readModifyWrite(operations, isc, ZEROPAGE_X, 0xF7);
+        readModifyWrite(operations, isc, ABSOLUTE, 0xEF);
+        readModifyWrite(operations, isc, ABSOLUTE_X, 0xFF);
+        readModifyWrite(operations, isc, ABSOLUTE_Y, 0xFB);
+        readModifyWrite(operations, isc, ZEROPAGE_INDIRECT_X, 0xE3);
+        readModifyWrite(operations, isc, ZEROPAGE_INDIRECT_Y, 0xF3);
+
+        /**
+         * Jump
+         */
+        final AddressInstruction jmp = new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                JMP(address);
+            }
+        };
+        address(operations, jmp, ABSOLUTE, READ, 0x4C);
+        address(operations, jmp, INDIRECT, READ, 0x6C);
+        address(operations, new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                JSR(address);
+            }
+        }, ABSOLUTE, READ, 0x20);
+
+        /**
+         * LAX (Undocumented)
+         */
+        final ReadInstruction lax = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                LAX(operand);
+            }
+        };
+        read(operations, lax, IMMEDIATE, 0xAB);
+        read(operations, lax, ZEROPAGE, 0xA7);
+        read(operations, lax, ZEROPAGE_Y, 0xB7);
+        read(operations, lax, ABSOLUTE, 0xAF);
+        read(operations, lax, ABSOLUTE_Y, 0xBF);
+        read(operations, lax, ZEROPAGE_INDIRECT_X, 0xA3);
+        read(operations, lax, ZEROPAGE_INDIRECT_Y, 0xB3);
+
+        /**
+         * LDA
+         */
+        final ReadInstruction lda = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                LDA(operand);
+            }
+        };
+        read(operations, lda, IMMEDIATE, 0xA9);
+        read(operations, lda, ZEROPAGE, 0xA5);
+        read(operations, lda, ZEROPAGE_X, 0xB5);
+        read(operations, lda, ABSOLUTE, 0xAD);
+        read(operations, lda, ABSOLUTE_X, 0xBD);
+        read(operations, lda, ABSOLUTE_Y, 0xB9);
+        read(operations, lda, ZEROPAGE_INDIRECT_X, 0xA1);
+        read(operations, lda, ZEROPAGE_INDIRECT_Y, 0xB1);
+
+        /**
+         * LDX
+         */
+        final ReadInstruction ldx = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                LDX(operand);
+            }
+        };
+        read(operations, ldx, IMMEDIATE, 0xA2);
+        read(operations, ldx, ZEROPAGE, 0xA6);
+        read(operations, ldx, ZEROPAGE_Y, 0xB6);
+        read(operations, ldx, ABSOLUTE, 0xAE);
+        read(operations, ldx, ABSOLUTE_Y, 0xBE);
+
+        /**
+         * LDY
+         */
+        final ReadInstruction ldy = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                LDY(operand);
+            }
+        };
+        read(operations, ldy, IMMEDIATE, 0xA0);
+        read(operations, ldy, ZEROPAGE, 0xA4);
+        read(operations, ldy, ZEROPAGE_X, 0xB4);
+        read(operations, ldy, ABSOLUTE, 0xAC);
+        read(operations, ldy, ABSOLUTE_X, 0xBC);
+
+        /**
+         * LSR
+         */
+        final ModifyInstruction lsr = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return LSR(operand);
+            }
+        };
+        accumulator(operations, lsr, 0x4A);
+        readModifyWrite(operations, lsr, ZEROPAGE, 0x46);
+        readModifyWrite(operations, lsr, ZEROPAGE_X, 0x56);
+        readModifyWrite(operations, lsr, ABSOLUTE, 0x4E);
+        readModifyWrite(operations, lsr, ABSOLUTE_X, 0x5E);
+
+        /**
+         * No-op
+         */
+        final ReadInstruction nop = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+            }
+        };
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
+            }
+        }, 0x1A, 0x3A, 0x5A, 0x7A, 0xDA, 0xFA, 0xEA);
+        read(operations, nop, IMMEDIATE, 0x80, 0x82, 0xC2, 0xE2, 0x89);
+        read(operations, nop, ABSOLUTE, 0x0C);
+        read(operations, nop, ABSOLUTE_X, 0x1C, 0x3C, 0x5C, 0x7C, 0xDC, 0xFC);
+        read(operations, nop, ZEROPAGE, 0x04, 0x44, 0x64);
+        read(operations, nop, ZEROPAGE_X, 0x14, 0x34, 0x54, 0x74, 0xD4, 0xF4);
+
+        /**
+         * OR
+         */
+        final ReadInstruction or = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                OR(operand);
+            }
+        };
+        read(operations, or, IMMEDIATE, 0x09);
+        read(operations, or, ZEROPAGE, 0x05);
+        read(operations, or, ZEROPAGE_X, 0x15);
+        read(operations, or, ABSOLUTE, 0x0D);
+        read(operations, or, ABSOLUTE_X, 0x1D);
+        read(operations, or, ABSOLUTE_Y, 0x19);
+        read(operations, or, ZEROPAGE_INDIRECT_X, 0x01);
+        read(operations, or, ZEROPAGE_INDIRECT_Y, 0x11);
+
+        /**
+         * Stack
+         */
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
                 push(mRegisters.A);
-                break;
-            case 0x08: {
+            }
+        }, 0x48);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
                 int flags = mRegisters.flags.getRegister();
                 flags |= 1 << StatusRegister.BREAK;
                 flags |= 1 << StatusRegister.NOT_USED;
                 push(flags);
-                break;
             }
-            case 0x68:
+        }, 0x08);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
                 mRegisters.A = pop();
-                setZero(mRegisters.A);
-                setSign(mRegisters.A);
-                break;
-            case 0x28:
+                setZeroAndSign(mRegisters.A);
+            }
+        }, 0x68);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
+                delayInterrupt();
                 mRegisters.flags.setRegister(pop());
-                break;
-
-            /**
-             * ROL
-             */
-            case 0x2A:
-                mRegisters.A = ROL(mAdressingUtils.getOperand(ACCUMULATOR, this, READ));
-                break;
-            case 0x26:
-                doROL(ZEROPAGE);
-                break;
-            case 0x36:
-                doROL(ZEROPAGE_X);
-                break;
-            case 0x2E:
-                doROL(ABSOLUTE);
-                break;
-            case 0x3E:
-                doROL(ABSOLUTE_X);
-                break;
-
-            /**
-             * ROR
-             */
-            case 0x6A:
-                mRegisters.A = ROR(mAdressingUtils.getOperand(ACCUMULATOR, this, READ));
-                break;
-            case 0x66:
-                doROR(ZEROPAGE);
-                break;
-            case 0x76:
-                doROR(ZEROPAGE_X);
-                break;
-            case 0x6E:
-                doROR(ABSOLUTE);
-                break;
-            case 0x7E:
-                doROR(ABSOLUTE_X);
-                break;
-
-            /**
-             * RLA (Undocumented)
-             */
-            case 0x27:
-                RLA(ZEROPAGE);
-                break;
-            case 0x37:
-                RLA(ZEROPAGE_X);
-                break;
-            case 0x2F:
-                RLA(ABSOLUTE);
-                break;
-            case 0x3F:
-                RLA(ABSOLUTE_X);
-                break;
-            case 0x3B:
-                RLA(ABSOLUTE_Y);
-                break;
-            case 0x23:
-                RLA(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0x33:
-                RLA(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * RRA (Undocumented
-             */
-            case 0x67:
-                RRA(ZEROPAGE);
-                break;
-            case 0x77:
-                RRA(ZEROPAGE_X);
-                break;
-            case 0x6F:
-                RRA(ABSOLUTE);
-                break;
-            case 0x7F:
-                RRA(ABSOLUTE_X);
-                break;
-            case 0x7B:
-                RRA(ABSOLUTE_Y);
-                break;
-            case 0x63:
-                RRA(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0x73:
-                RRA(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * Return
-             */
-            case 0x40: {
+            }
+        }, 0x28);
+
+        /**
+         * ROL
+         */
+        final ModifyInstruction rol = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return ROL(operand);
+            }
+        };
+        accumulator(operations, rol, 0x2A);
+        readModifyWrite(operations, rol, ZEROPAGE, 0x26);
+        readModifyWrite(operations, rol, ZEROPAGE_X, 0x36);
+        readModifyWrite(operations, rol, ABSOLUTE, 0x2E);
+        readModifyWrite(operations, rol, ABSOLUTE_X, 0x3E);
+
+        /**
+         * ROR
+         */
+        final ModifyInstruction ror = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                return ROR(operand);
+            }
+        };
+        accumulator(operations, ror, 0x6A);
+        readModifyWrite(operations, ror, ZEROPAGE, 0x66);
+        readModifyWrite(operations, ror, ZEROPAGE_X, 0x76);
+        readModifyWrite(operations, ror, ABSOLUTE, 0x6E);
+        readModifyWrite(operations, ror, ABSOLUTE_X, 0x7E);
+
+        /**
+         * RLA (Undocumented)
+         */
+        final ModifyInstruction rla = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int rolValue = ROL(operand);
+                AND(rolValue);
+                return rolValue;
+            }
+        };
+        readModifyWrite(operations, rla, ZEROPAGE, 0x27);
+        readModifyWrite(operations, rla, ZEROPAGE_X, 0x37);
+        readModifyWrite(operations, rla, ABSOLUTE, 0x2F);
+        readModifyWrite(operations, rla, ABSOLUTE_X, 0x3F);
+        readModifyWrite(operations, rla, ABSOLUTE_Y, 0x3B);
+        readModifyWrite(operations, rla, ZEROPAGE_INDIRECT_X, 0x23);
+        readModifyWrite(operations, rla, ZEROPAGE_INDIRECT_Y, 0x33);
+
+        /**
+         * RRA (Undocumented)
+         */
+        final ModifyInstruction rra = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int rorValue = ROR(operand);
+                ADC(rorValue);
+                return rorValue;
+            }
+        };
+        readModifyWrite(operations, rra, ZEROPAGE, 0x67);
+        readModifyWrite(operations, rra, ZEROPAGE_X, 0x77);
+        readModifyWrite(operations, rra, ABSOLUTE, 0x6F);
+        readModifyWrite(operations, rra, ABSOLUTE_X, 0x7F);
+        readModifyWrite(operations, rra, ABSOLUTE_Y, 0x7B);
+        readModifyWrite(operations, rra, ZEROPAGE_INDIRECT_X, 0x63);
+        readModifyWrite(operations, rra, ZEROPAGE_INDIRECT_Y, 0x73);
+
+        /**
+         * Return
+         */
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
                 mRegisters.flags.setRegister(pop());
                 int pcLow = pop();
                 int pcHigh = pop();
                 mRegisters.PC = (((pcHigh << 8) | pcLow) & 0xFFFF);
-                break;
             }
-            case 0x60: {
+        }, 0x40);
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 dummyRead();
                 int pcLow = pop();
                 int pcHigh = pop();
 
                 // For incrementing PC
-                mNumOpcodeCycles++;
+                mBus.addCycle();
                 mRegisters.PC = ((((pcHigh << 8) | pcLow) + 1) & 0xFFFF);
-                break;
-            }
-
-            /**
-             * SLO (Undocumented)
-             */
-            case 0x07:
-                SLO(ZEROPAGE);
-                break;
-            case 0x17:
-                SLO(ZEROPAGE_X);
-                break;
-            case 0x0F:
-                SLO(ABSOLUTE);
-                break;
-            case 0x1F:
-                SLO(ABSOLUTE_X);
-                break;
-            case 0x1B:
-                SLO(ABSOLUTE_Y);
-                break;
-            case 0x03:
-                SLO(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0x13:
-                SLO(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * SBC
-             */
-            case 0xE9:
-            case 0xEB: // Undocumented
-                SBC(mAdressingUtils.getOperand(IMMEDIATE, this, READ));
-                break;
-            case 0xE5:
-                SBC(mAdressingUtils.getOperand(ZEROPAGE, this, READ));
-                break;
-            case 0xF5:
-                SBC(mAdressingUtils.getOperand(ZEROPAGE_X, this, READ));
-                break;
-            case 0xED:
-                SBC(mAdressingUtils.getOperand(ABSOLUTE, this, READ));
-                break;
-            case 0xFD:
-                SBC(mAdressingUtils.getOperand(ABSOLUTE_X, this, READ));
-                break;
-            case 0xF9:
-                SBC(mAdressingUtils.getOperand(ABSOLUTE_Y, this, READ));
-                break;
-            case 0xE1:
-                SBC(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_X, this, READ));
-                break;
-            case 0xF1:
-                SBC(mAdressingUtils.getOperand(ZEROPAGE_INDIRECT_Y, this, READ));
-                    break;
-
-            /**
-             * Set flags
-             */
-            case 0x38: // Clear carry
-                mRegisters.flags.setFlag(StatusRegister.CARRY, true);
-                break;
-            case 0xF8: // Clear Decimal
-                mRegisters.flags.setFlag(StatusRegister.DECIMAL, true);
-                break;
-            case 0x78: // Clear interrupt
+            }
+        }, 0x60);
+
+        /**
+         * SLO (Undocumented)
+         */
+        final ModifyInstruction slo = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int aslValue = ASL(operand);
+                OR(aslValue);
+                return aslValue;
+            }
+        };
+        readModifyWrite(operations, slo, ZEROPAGE, 0x07);
+        readModifyWrite(operations, slo, ZEROPAGE_X, 0x17);
+        readModifyWrite(operations, slo, ABSOLUTE, 0x0F);
+        readModifyWrite(operations, slo, ABSOLUTE_X, 0x1F);
+        readModifyWrite(operations, slo, ABSOLUTE_Y, 0x1B);
+        readModifyWrite(operations, slo, ZEROPAGE_INDIRECT_X, 0x03);
+        readModifyWrite(operations, slo, ZEROPAGE_INDIRECT_Y, 0x13);
+
+        /**
+         * SBC
+         */
+        final ReadInstruction sbc = new ReadInstruction() {
+            @Override
+            public void execute(int operand) {
+                SBC(operand);
+            }
+        };
+        read(operations, sbc, IMMEDIATE, 0xE9, 0xEB /* Undocumented */);
+        read(operations, sbc, ZEROPAGE, 0xE5);
+        read(operations, sbc, ZEROPAGE_X, 0xF5);
+        read(operations, sbc, ABSOLUTE, 0xED);
+        read(operations, sbc, ABSOLUTE_X, 0xFD);
+        read(operations, sbc, ABSOLUTE_Y, 0xF9);
+        read(operations, sbc, ZEROPAGE_INDIRECT_X, 0xE1);
+        read(operations, sbc, ZEROPAGE_INDIRECT_Y, 0xF1);
+
+        /**
+         * Set flags
+         */
+        setFlag(operations, StatusRegister.CARRY, true, 0x38); // Set carry
+        setFlag(operations, StatusRegister.DECIMAL, true, 0xF8); // Set Decimal
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 delayInterrupt();
                 mRegisters.flags.setFlag(StatusRegister.INTERRUPT, true);
-                break;
-
-            /**
-             * SRE (Undocumented
-             */
-            case 0x47:
-                SRE(ZEROPAGE);
-                break;
-            case 0x57:
-                SRE(ZEROPAGE_X);
-                break;
-            case 0x4F:
-                SRE(ABSOLUTE);
-                break;
-            case 0x5F:
-                SRE(ABSOLUTE_X);
-                break;
-            case 0x5B:
-                SRE(ABSOLUTE_Y);
-                break;
-            case 0x43:
-                SRE(ZEROPAGE_INDIRECT_X);
-                break;
-            case 0x53:
-                SRE(ZEROPAGE_INDIRECT_Y);
-                break;
-
-            /**
-             * STA
-             */
-            case 0x85:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE, WRITE), mRegisters.A);
-                break;
-            case 0x95:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE_X, WRITE), mRegisters.A);
-                break;
-            case 0x8D:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ABSOLUTE, WRITE), mRegisters.A);
-                break;
-            case 0x9D:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ABSOLUTE_X, WRITE), mRegisters.A);
-                break;
-            case 0x99:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ABSOLUTE_Y, WRITE), mRegisters.A);
-                break;
-            case 0x81:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE_INDIRECT_X, WRITE), mRegisters.A);
-                break;
-            case 0x91:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE_INDIRECT_Y, WRITE), mRegisters.A);
-                break;
-
-            /**
-             * STX
-             */
-            case 0x86:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE, WRITE), mRegisters.X);
-                break;
-            case 0x96:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE_Y, WRITE), mRegisters.X);
-                break;
-            case 0x8E:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ABSOLUTE, WRITE), mRegisters.X);
-                break;
-
-            /**
-             * STY
-             */
-            case 0x84:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE, WRITE), mRegisters.Y);
-                break;
-            case 0x94:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ZEROPAGE_X, WRITE), mRegisters.Y);
-                break;
-            case 0x8C:
-                mMemory.write(mAdressingUtils.getAddressForOperand(ABSOLUTE, WRITE), mRegisters.Y);
-                break;
-
-            /**
-             * Transfer
-             */
-            case 0xAA: // TAX
+            }
+        }, 0x78); // Set interrupt
+
+        /**
+         * SRE (Undocumented)
+         */
+        final ModifyInstruction sre = new ModifyInstruction() {
+            @Override
+            public int execute(int operand) {
+                final int lsrValue = LSR(operand);
+                XOR(lsrValue);
+                return lsrValue;
+            }
+        };
+        readModifyWrite(operations, sre, ZEROPAGE, 0x47);
+        readModifyWrite(operations, sre, ZEROPAGE_X, 0x57);
+        readModifyWrite(operations, sre, ABSOLUTE, 0x4F);
+        readModifyWrite(operations, sre, ABSOLUTE_X, 0x5F);
+        readModifyWrite(operations, sre, ABSOLUTE_Y, 0x5B);
+        readModifyWrite(operations, sre, ZEROPAGE_INDIRECT_X, 0x43);
+        readModifyWrite(operations, sre, ZEROPAGE_INDIRECT_Y, 0x53);
+
+        /**
+         * STA
+         */
+        final AddressInstruction sta = new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                mBus.write(address, mRegisters.A);
+            }
+        };
+        address(operations, sta, ZEROPAGE, WRITE, 0x85);
+        address(operations, sta, ZEROPAGE_X, WRITE, 0x95);
+        address(operations, sta, ABSOLUTE, WRITE, 0x8D);
+        address(operations, sta, ABSOLUTE_X, WRITE, 0x9D);
+        address(operations, sta, ABSOLUTE_Y, WRITE, 0x99);
+        address(operations, sta, ZEROPAGE_INDIRECT_X, WRITE, 0x81);
+        address(operations, sta, ZEROPAGE_INDIRECT_Y, WRITE, 0x91);
+
+        /**
+         * STX
+         */
+        final AddressInstruction stx = new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                mBus.write(address, mRegisters.X);
+            }
+        };
+        address(operations, stx, ZEROPAGE, WRITE, 0x86);
+        address(operations, stx, ZEROPAGE_Y, WRITE, 0x96);
+        address(operations, stx, ABSOLUTE, WRITE, 0x8E);
+
+        /**
+         * STY
+         */
+        final AddressInstruction sty = new AddressInstruction() {
+            @Override
+            public void execute(int address) {
+                mBus.write(address, mRegisters.Y);
+            }
+        };
+        address(operations, sty, ZEROPAGE, WRITE, 0x84);
+        address(operations, sty, ZEROPAGE_X, WRITE, 0x94);
+        address(operations, sty, ABSOLUTE, WRITE, 0x8C);
+
+        /**
+         * Transfer
+         */
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.X = mRegisters.A;
-                setZero(mRegisters.X);
-                setSign(mRegisters.X);
-                break;
-            case 0xA8: // TAY
+                setZeroAndSign(mRegisters.X);
+            }
+        }, 0xAA); // TAX
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.Y = mRegisters.A;
-                setZero(mRegisters.Y);
-                setSign(mRegisters.Y);
-                break;
-            case 0xBA: // TSX
+                setZeroAndSign(mRegisters.Y);
+            }
+        }, 0xA8); // TAY
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.X = mRegisters.SP;
-                setZero(mRegisters.X);
-                setSign(mRegisters.X);
-                break;
-            case 0x8A: // TXA
+                setZeroAndSign(mRegisters.X);
+            }
+        }, 0xBA); // TSX
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.A = mRegisters.X;
-                setZero(mRegisters.X);
-                setSign(mRegisters.X);
-                break;
-            case 0x9A: // TXS
+                setZeroAndSign(mRegisters.X);
+            }
+        }, 0x8A); // TXA
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.SP = mRegisters.X;
-                break;
-            case 0x98: // TYA
+            }
+        }, 0x9A); // TXS
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mRegisters.A = mRegisters.Y;
-                setZero(mRegisters.Y);
-                setSign(mRegisters.Y);
-                break;
-
-            case 0x02:
-            case 0x12:
-            case 0x32:
-            case 0x42:
-            case 0x52:
-            case 0x62:
-            case 0x72:
-            case 0x92:
-            case 0xB2:
-            case 0xD2:
-            case 0xF2:
+                setZeroAndSign(mRegisters.Y);
+            }
+        }, 0x98); // TYA
+
+        implied(operations, new Operation() {
+            @Override
+            public void execute() {
                 mHalted = true;
-                break;
+            }
+        }, 0x02, 0x12, 0x32, 0x42, 0x52, 0x62, 0x72, 0x92, 0xB2, 0xD2, 0xF2);
 
-            default:
-                unknownOpCode = true;
-                throw new IllegalArgumentException(Integer.toHexString(instruction));
+        return operations;
+    }
 
+    private void register(Operation[] operations, Operation operation, int length, int... opcodes) {
+        for (int opcode : opcodes) {
+            Preconditions.checkState(operations[opcode] == null, "Opcode registered twice : %s", Integer.toHexString(opcode));
+            operations[opcode] = operation;
+            mInstructionLengths[opcode] = length;
         }
+    }
+
+    private void implied(Operation[] operations, Operation operation, int... opcodes) {
+        register(operations, operation, 1, opcodes);
+    }
+
+    private void read(
+            Operation[] operations,
+            ReadInstruction instruction,
+            AdressingUtils.AddressingMode addressingMode,
+            int... opcodes) {
+        register(operations,
+                new ReadOperation(mAdressingUtils.getOperand(addressingMode, READ), instruction),
+                1 + AdressingUtils.getOperandLength(addressingMode),
+                opcodes);
+    }
+
+    private void readModifyWrite(
+            Operation[] operations,
+            ModifyInstruction instruction,
+            AdressingUtils.AddressingMode addressingMode,
+            int... opcodes) {
+        register(operations,
+                new ReadModifyWriteOperation(mAdressingUtils.getAddressForOperand(addressingMode, READ_WRITE), instruction),
+                1 + AdressingUtils.getOperandLength(addressingMode),
+                opcodes);
+    }
+
+    private void address(
+            Operation[] operations,
+            AddressInstruction instruction,
+            AdressingUtils.AddressingMode addressingMode,
+            AdressingUtils.OperationType operationType,
+            int... opcodes) {
+        register(operations,
+                new AddressOperation(mAdressingUtils.getAddressForOperand(addressingMode, operationType), instruction),
+                1 + AdressingUtils.getOperandLength(addressingMode),
+                opcodes);
+    }
 
-        if (mDebugMode) {
-            if (mPCReadCounter < 3) {
-                debug("    ");
+    private void accumulator(Operation[] operations, final ModifyInstruction instruction, int... opcodes) {
+        register(operations, new Operation() {
+            @Override
+            public void execute() {
+                mRegisters.A = instruction.execute(mRegisters.A);
             }
-            if (mPCReadCounter < 2) {
-                debug("    ");
+        }, 1, opcodes);
+    }
+
+    private void branch(Operation[] operations, final int flag, final boolean value, int... opcodes) {
+        register(operations, new Operation() {
+            @Override
+            public void execute() {
+                if (mRegisters.flags.getFlag(flag) == value) {
+                    branchRelative();
+                } else {
+                    throwAwayBytes(1);
+                }
             }
-            if (mNumOpcodeCycles == 1) {
-                dummyRead();
+        }, 2, opcodes);
+    }
+
+    private void setFlag(Operation[] operations, final int flag, final boolean value, int... opcodes) {
+        register(operations, new Operation() {
+            @Override
+            public void execute() {
+                mRegisters.flags.setFlag(flag, value);
+            }
+        }, 1, opcodes);
+    }
+
+    public int process() {
+        return processInternal();
+    }
+
+    /**
+     * Sets the listener clocking the other devices during {@link #runUntil(int)}
+     */
+    public void setCycleListener(CycleListener cycleListener) {
+        mCycleListener = cycleListener;
+    }
+
+    /**
+     * Runs instructions until at least cycleBudget cycles are used, or the CPU halts. The cycle listener is
+     * given the elapsed cycles before every PPU register access and once the budget is used, so the PPU sees
+     * the same state as when it is clocked after every instruction. The budget must not go past the next
+     * event raised by another device (e.g. the NMI at the start of VBlank).
+     * <p/>
+     * Idle loops (see {@link IdleLoopDetector}) are not interpreted: their iterations are skipped up to the
+     * budget, the next interrupt or the next change of PPUSTATUS, whichever comes first.
+     *
+     * @return Number of cycles used
+     */
+    public int runUntil(int cycleBudget) {
+        Preconditions.checkArgument(cycleBudget > 0);
+        mInBatch = true;
+        mBatchCycles = 0;
+        mSyncedCycles = 0;
+        mBatchEndRequested = false;
+        try {
+            while (mBatchCycles < cycleBudget && !mHalted && !mBatchEndRequested) {
+                int pc = mRegisters.PC;
+                mBatchCycles += processInternal();
+                if (mRegisters.PC <= pc && !mBatchEndRequested) {
+                    skipIdleLoop(cycleBudget);
+                }
             }
+            syncCycles(mBatchCycles);
+            return mBatchCycles;
+        } finally {
+            mInBatch = false;
+            mBatchCycles = 0;
+            mSyncedCycles = 0;
+        }
+    }
+
+    private void skipIdleLoop(int cycleBudget) {
+        int iterationCycles = mIdleLoopDetector.onBackwardJump(mRegisters, mCycles);
+        if (iterationCycles == 0 || mDebugMode || mTrace != null) {
+            return;
+        }
+        // IRQ sources asserted during the whole iteration did not interrupt it, and will not interrupt the
+        // next ones either
+        long iterationStart = mCycles - iterationCycles;
+        long endCycle = mInterruptController.getNextEdgeCycle(iterationStart - MAX_IRQ_POLL_OFFSET);
+        endCycle = Math.min(endCycle, mIdleLoopDetector.getPpuStatusStableCycle());
+        endCycle = Math.min(endCycle, mCycles + cycleBudget - mBatchCycles);
+        long numIterations = (endCycle - mCycles) / iterationCycles;
+        if (numIterations <= 0) {
+            return;
+        }
+        int skippedCycles = (int) (numIterations * iterationCycles);
+        mBatchCycles += skippedCycles;
+        mCycles += skippedCycles;
+        mNumSkippedCycles += skippedCycles;
+    }
+
+    /**
+     * Ends the current {@link #runUntil(int)} after the instruction being executed, for a device whose
+     * next event moved before the end of the budget (e.g. a mapper IRQ set up by the instruction)
+     */
+    public void requestBatchEnd() {
+        mBatchEndRequested = true;
+    }
 
-            debug("  " + mRegisterInfo + String.format("CYC:%3d", mNumTotalCycles));
-            updateCycleData();
+    /**
+     * @return Number of cycles of idle loop iterations skipped by {@link #runUntil(int)} since power on
+     */
+    public long getNumSkippedCycles() {
+        return mNumSkippedCycles;
+    }
+
+    /**
+     * Clocks the devices up to the end of the bus cycle being executed, during {@link #runUntil(int)}
+     */
+    void syncCycles() {
+        if (mInBatch) {
+            syncCycles(mBatchCycles + mBus.getCycles());
+        }
+    }
+
+    private void syncCycles(int batchCycles) {
+        int pendingCycles = batchCycles - mSyncedCycles;
+        if (pendingCycles > 0 && mCycleListener != null) {
+            mSyncedCycles = batchCycles;
+            mCycleListener.onCycles(pendingCycles);
+        }
+    }
+
+    private int processInternal() {
+        if (mHalted) {
+            return 0;
+        }
+        mBus.resetCycles();
 
-            if (unknownOpCode) {
-                debug("Unknown Opcode");
+        if (mDMAController.isActive()) {
+            mIdleLoopDetector.reset();
+            mBus.addCycles(mDMAController.process((int) (mCycles & 1)));
+            int dmaCycles = mBus.getCycles();
+            if (mTrace != null) {
+                mTrace.addCycles(dmaCycles);
             }
+            mCycles += dmaCycles;
+            // The CPU is halted, the interrupt lines are polled again by the instruction after the DMA
+            mIrqPollOffset += dmaCycles;
+            return dmaCycles;
+        }
+
+        if (mCycles >= mInterruptController.getNextEventCycle()) {
+            pollInterrupts();
+        }
+        mInterruptDelay = false;
+        mIrqPollOffset = IRQ_POLL_OFFSET;
+
+        int interruptCycles = mBus.getCycles();
+        if (mTrace != null) {
+            mTrace.addCycles(interruptCycles);
+            mTrace.beginInstruction(mRegisters.PC, mRegisters.A, mRegisters.X, mRegisters.Y,
+                    mRegisters.flags.getRegister(), mRegisters.SP);
+        }
+        if (mRegisters.PC >= DecodeCache.START_ADDRESS) {
+            mDecodedInstruction = mDecodeCache.lookup(mRegisters.PC);
+            mDecodedAddress = mRegisters.PC;
+        } else {
+            mDecodedInstruction = 0;
+        }
+        int instruction = readByte();
+        mIsFirstPop = true;
+        Operation operation = mOperations[instruction];
+        if (operation == null) {
+            throw new IllegalArgumentException(Integer.toHexString(instruction));
+        }
+        operation.execute();
 
-            debug("\n");
+        if (mBus.getCycles() - interruptCycles == 1) {
+            // Single byte instructions read the next byte and discard it
+            dummyRead();
+        }
+        int cycles = mBus.getCycles();
+        if (mTrace != null) {
+            mTrace.addCycles(cycles - interruptCycles);
         }
-        return mNumOpcodeCycles;
+        mCycles += cycles;
+        return cycles;
     }
 
-    private void updateCycleData() {
-        mNumTotalCycles += mNumOpcodeCycles * 3;
-        mNumTotalCycles %= 341;
-        if (mNumOpcodeCycles % 2 != 0) {
-            mIsOddCycle = !mIsOddCycle;
+    private void pollInterrupts() {
+        if (mInterruptController.takeNmi(mCycles - mIrqPollOffset)) {
+            // Opcode fetches thrown away in favor of the interrupt sequence
+            dummyRead();
+            dummyRead();
+            NMI();
+            return;
+        }
+        // The IRQ line is polled before the last cycle of the previous instruction, CLI, SEI and PLP only
+        // change the I flag after that
+        boolean interruptDisabled = mInterruptDelay
+                ? mPreviousInterruptDisabledValue
+                : mRegisters.flags.getInterruptDisabled();
+        if (!interruptDisabled && mInterruptController.isIrqAsserted(mCycles - mIrqPollOffset)) {
+            dummyRead();
+            dummyRead();
+            IRQ(false /* fromBRK */);
         }
     }
 
+    /**
+     * @return Last executed instruction in the nestest log layout
+     */
     public String getDebugLog() {
-        return mDebugLog.toString();
+        if (mTrace == null || mTrace.size() == 0) {
+            return "";
+        }
+        return mTrace.format(mTrace.size() - 1);
     }
 
     @VisibleForTesting
@@ -1560,16 +1557,115 @@ public class Cpu {
         mDMAController.init(addressHigh);
     }
 
-    public void sendNMI() {
-        mDoNMI = true;
+    /**
+     * Signals an NMI edge during cycle, e.g. the cycle of the PPU clock starting VBlank
+     */
+    public void sendNMI(long cycle) {
+        mInterruptController.assertNmi(cycle);
     }
 
-    public void interrupt() {
-        mInterrupts++;
+    public InterruptController getInterruptController() {
+        return mInterruptController;
+    }
+
+    /**
+     * @return Number of cycles since power on, including the ones of the instruction being executed
+     */
+    public long getCycles() {
+        return mCycles + mBus.getCycles();
     }
 
     private void delayInterrupt() {
         mInterruptDelay = true;
         mPreviousInterruptDisabledValue = mRegisters.flags.getInterruptDisabled();
     }
+
+    /**
+     * Clocks the devices running alongside the CPU, see {@link #runUntil(int)}
+     */
+    public interface CycleListener {
+        void onCycles(int cpuCycles);
+
+        /**
+         * @return Number of CPU cycles from now during which PPUSTATUS keeps its value, if it is not read
+         */
+        int getCyclesUntilStatusChange();
+    }
+
+    /**
+     * Entry of the opcode table
+     */
+    private interface Operation {
+        void execute();
+    }
+
+    /**
+     * Instruction consuming the value of its operand
+     */
+    private interface ReadInstruction {
+        void execute(int operand);
+    }
+
+    /**
+     * Instruction transforming its operand and returning the value to be written back
+     */
+    private interface ModifyInstruction {
+        int execute(int operand);
+    }
+
+    /**
+     * Instruction consuming the effective address of its operand
+     */
+    private interface AddressInstruction {
+        void execute(int address);
+    }
+
+    private static final class ReadOperation implements Operation {
+        private final AdressingUtils.Operand mOperand;
+        private final ReadInstruction mInstruction;
+
+        ReadOperation(AdressingUtils.Operand operand, ReadInstruction instruction) {
+            mOperand = operand;
+            mInstruction = instruction;
+        }
+
+        @Override
+        public void execute() {
+            mInstruction.execute(mOperand.read());
+        }
+    }
+
+    private final class ReadModifyWriteOperation implements Operation {
+        private final AdressingUtils.Address mAddress;
+        private final ModifyInstruction mInstruction;
+
+        ReadModifyWriteOperation(AdressingUtils.Address address, ModifyInstruction instruction) {
+            mAddress = address;
+            mInstruction = instruction;
+        }
+
+        @Override
+        public void execute() {
+            int address = mAddress.resolve();
+            final int originalValue = mBus.read(address);
+            // Read-modify-write instructions write the unmodified value back first
+            mBus.write(address, originalValue);
+            mBus.write(address, mInstruction.execute(originalValue));
+        }
+    }
+
+    private static final class AddressOperation implements Operation {
+        private final AdressingUtils.Address mAddress;
+        private final AddressInstruction mInstruction;
+
+        AddressOperation(AdressingUtils.Address address, AddressInstruction instruction) {
+            mAddress = address;
+            mInstruction = instruction;
+        }
+
+        @Override
+        public void execute() {
+            mInstruction.execute(mAddress.resolve());
+        }
+    }
 }
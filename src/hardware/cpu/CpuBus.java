@@ -0,0 +1,75 @@
+package hardware.cpu;
+
+import components.memory.Memory;
+
+/**
+ * Bus of the {@link Cpu}, counting the cycles of the instruction being executed. Every read and write takes
+ * one cycle, and the cycles without a bus access (index page crossing, taken branches, internal stack
+ * operations) are added explicitly with {@link #addCycle()}, so cycle accounting is a single add.
+ * <p/>
+ * Writes are snooped to invalidate decoded code. Accesses to the PPU, APU and I/O registers
+ * are handed back to the Cpu, which synchronizes the other devices first, as do writes to the mapper.
+ */
+final class CpuBus {
+
+    static final int PPU_REGISTERS_START = 0x2000;
+    static final int PPU_REGISTERS_END = 0x4000;
+    // APU, I/O and expansion registers, reading them may have side effects
+    static final int IO_REGISTERS_END = 0x6000;
+    // Writes to PRG-ROM go to the mapper, which may switch what the PPU sees (CHR banks, mirroring)
+    static final int PRG_ROM_START = 0x8000;
+
+    private final Cpu mCpu;
+    private final Memory mMemory;
+    private final DecodeCache mDecodeCache;
+    private final IdleLoopDetector mIdleLoopDetector;
+
+    private int mCycles;
+
+    CpuBus(Cpu cpu, Memory memory, DecodeCache decodeCache, IdleLoopDetector idleLoopDetector) {
+        mCpu = cpu;
+        mMemory = memory;
+        mDecodeCache = decodeCache;
+        mIdleLoopDetector = idleLoopDetector;
+    }
+
+    int read(int address) {
+        mCycles++;
+        if (address >= PPU_REGISTERS_START && address < IO_REGISTERS_END) {
+            return mCpu.readRegister(address);
+        }
+        return mMemory.read(address);
+    }
+
+    void write(int address, int value) {
+        mCycles++;
+        mIdleLoopDetector.onSideEffect();
+        if ((address >= PPU_REGISTERS_START && address < PPU_REGISTERS_END) || address >= PRG_ROM_START) {
+            mCpu.syncCycles();
+        }
+        mMemory.write(address, value);
+        mDecodeCache.onWrite(address);
+    }
+
+    /**
+     * Cycle without a bus access, or with an access served without going through the bus (decoded fetch)
+     */
+    void addCycle() {
+        mCycles++;
+    }
+
+    void addCycles(int cycles) {
+        mCycles += cycles;
+    }
+
+    /**
+     * @return Cycles since the last {@link #resetCycles()}
+     */
+    int getCycles() {
+        return mCycles;
+    }
+
+    void resetCycles() {
+        mCycles = 0;
+    }
+}
@@ -0,0 +1,146 @@
+package hardware.cpu;
+
+import components.memory.Memory;
+
+/**
+ * Cache of decoded instructions for PRG-ROM (0x8000 - 0xFFFF), keyed by PC. Each entry packs the opcode,
+ * its operand bytes and the number of bytes fetched (one bus cycle each) into a long, so instruction
+ * fetches from ROM never go through the memory chain.
+ * <p/>
+ * Entries are tagged with the generation of the 8K region they were decoded from. Switching the bank
+ * mapped in a region only bumps its generation, which drops every entry of that region in O(1).
+ * <p/>
+ * Entries are allocated by 256 byte pages of code, when the first instruction of a page is decoded. Pages
+ * can be shared with the cache of a forked CPU (see {@link #shareWith(DecodeCache)}), both caches then copy
+ * a page before storing into it.
+ */
+final class DecodeCache {
+
+    static final int START_ADDRESS = 0x8000;
+
+    private static final int REGION_SHIFT = 13; // 8K
+    private static final int NUM_REGIONS = (0x10000 - START_ADDRESS) >> REGION_SHIFT;
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int NUM_PAGES = (0x10000 - START_ADDRESS) >> PAGE_SHIFT;
+
+    // Entry layout : opcode and operands (bits 0-23), length (24-31), region generation (32-63)
+    private static final int LENGTH_SHIFT = 24;
+    private static final int GENERATION_SHIFT = 32;
+
+    private final Memory mMemory;
+    private final int[] mInstructionLengths;
+    // Entries of each page, null until one is decoded
+    private final long[][] mEntries = new long[NUM_PAGES][];
+    // Pages whose entries are shared with another cache
+    private final boolean[] mShared = new boolean[NUM_PAGES];
+    private final int[] mGenerations = new int[NUM_REGIONS];
+
+    /**
+     * @param memory             Memory to decode from. Reads must not have side effects or count cycles
+     * @param instructionLengths Length in bytes of each opcode, 0 for unknown opcodes
+     */
+    DecodeCache(Memory memory, int[] instructionLengths) {
+        mMemory = memory;
+        mInstructionLengths = instructionLengths;
+        for (int i = 0; i < NUM_REGIONS; i++) {
+            // Entries are zero initialized, so generation 0 is never valid
+            mGenerations[i] = 1;
+        }
+    }
+
+    /**
+     * @return Decoded instruction at pc (pc must be in PRG-ROM), or 0 if it can not be cached
+     */
+    long lookup(int pc) {
+        int index = pc - START_ADDRESS;
+        int region = index >> REGION_SHIFT;
+        long[] entries = mEntries[index >> PAGE_SHIFT];
+        long entry;
+        if (entries != null) {
+            entry = entries[index & PAGE_MASK];
+            if ((int) (entry >>> GENERATION_SHIFT) == mGenerations[region]) {
+                return entry;
+            }
+        }
+
+        int opcode = mMemory.read(pc);
+        int length = mInstructionLengths[opcode];
+        if (length == 0 || ((index + length - 1) >> REGION_SHIFT) != region) {
+            // Unknown opcode, or operands living in another (independently switchable) region
+            return 0;
+        }
+        long bytes = opcode;
+        for (int i = 1; i < length; i++) {
+            bytes |= mMemory.read(pc + i) << (8 * i);
+        }
+        entry = ((long) mGenerations[region] << GENERATION_SHIFT) | ((long) length << LENGTH_SHIFT) | bytes;
+        getWritableEntries(index >> PAGE_SHIFT)[index & PAGE_MASK] = entry;
+        return entry;
+    }
+
+    /**
+     * Shares every entry with cache, whose memory must map the same banks. Both caches copy a page of entries
+     * the first time they store into it.
+     */
+    void shareWith(DecodeCache cache) {
+        System.arraycopy(mGenerations, 0, cache.mGenerations, 0, NUM_REGIONS);
+        for (int page = 0; page < NUM_PAGES; page++) {
+            cache.mEntries[page] = mEntries[page];
+            cache.mShared[page] = mEntries[page] != null;
+            mShared[page] = mEntries[page] != null;
+        }
+    }
+
+    static int getLength(long entry) {
+        return (int) (entry >>> LENGTH_SHIFT) & 0xFF;
+    }
+
+    static int getByte(long entry, int offset) {
+        return (int) (entry >>> (8 * offset)) & 0xFF;
+    }
+
+    /**
+     * Drops every entry decoded from [startAddress, endAddress), e.g. when a mapper switches banks
+     */
+    void invalidate(int startAddress, int endAddress) {
+        int firstRegion = (Math.max(startAddress, START_ADDRESS) - START_ADDRESS) >> REGION_SHIFT;
+        int lastRegion = (Math.min(endAddress, 0x10000) - 1 - START_ADDRESS) >> REGION_SHIFT;
+        for (int region = firstRegion; region <= lastRegion; region++) {
+            mGenerations[region]++;
+        }
+    }
+
+    /**
+     * Drops the entries that include the byte at address
+     */
+    void onWrite(int address) {
+        if (address < START_ADDRESS) {
+            return;
+        }
+        // Instructions are at most 3 bytes long
+        for (int pc = Math.max(address - 2, START_ADDRESS); pc <= address; pc++) {
+            int index = pc - START_ADDRESS;
+            long[] entries = mEntries[index >> PAGE_SHIFT];
+            // Mapper registers are written all the time, only copy a shared page to drop a valid entry
+            if (entries != null && (int) (entries[index & PAGE_MASK] >>> GENERATION_SHIFT)
+                    == mGenerations[index >> REGION_SHIFT]) {
+                getWritableEntries(index >> PAGE_SHIFT)[index & PAGE_MASK] = 0;
+            }
+        }
+    }
+
+    private long[] getWritableEntries(int page) {
+        long[] entries = mEntries[page];
+        if (entries == null) {
+            entries = new long[PAGE_SIZE];
+            mEntries[page] = entries;
+        } else if (mShared[page]) {
+            entries = entries.clone();
+            mEntries[page] = entries;
+            mShared[page] = false;
+        }
+        return entries;
+    }
+}
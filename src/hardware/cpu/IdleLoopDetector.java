@@ -0,0 +1,95 @@
+package hardware.cpu;
+
+import hardware.cpu.registers.Registers;
+
+/**
+ * Recognizes side effect free spin loops, e.g. <code>BIT $2002 / BPL</code> or polling a RAM flag set by the
+ * NMI handler. A loop is idle when one iteration, from a backward jump to the next one to the same address,
+ * neither writes nor reads anything but RAM, ROM and PPUSTATUS, and ends with the registers it started with.
+ * The following iterations then replay it exactly until an interrupt or a change of PPUSTATUS.
+ */
+class IdleLoopDetector {
+
+    private static final int NO_LOOP = -1;
+    private static final int VBLANK_FLAG = 0x80;
+
+    private int mLoopStart = NO_LOOP;
+    private long mLoopStartCycle;
+    private int mA;
+    private int mX;
+    private int mY;
+    private int mP;
+    private int mSP;
+
+    private boolean mHasSideEffects;
+    private boolean mReadsPpuStatus;
+    private int mPpuStatus;
+    private long mPpuStatusStableCycle;
+
+    /**
+     * A write, or a read of a register whose value or side effects are not stable
+     */
+    void onSideEffect() {
+        mHasSideEffects = true;
+    }
+
+    /**
+     * @param value       Value read
+     * @param stableCycle Cycle up to which (excluded) reading PPUSTATUS again returns the same value, unless
+     *                    the VBlank flag was just cleared by this read
+     */
+    void onPpuStatusRead(int value, long stableCycle) {
+        if ((value & VBLANK_FLAG) != 0 || (mReadsPpuStatus && value != mPpuStatus)) {
+            mHasSideEffects = true;
+        }
+        mReadsPpuStatus = true;
+        mPpuStatus = value;
+        mPpuStatusStableCycle = stableCycle;
+    }
+
+    /**
+     * Must be called after every instruction that jumped to an address lower or equal to its own
+     *
+     * @param cycle Cycle count at the end of the instruction
+     * @return Cycles of one iteration if the loop starting at the new PC is idle, 0 otherwise
+     */
+    int onBackwardJump(Registers registers, long cycle) {
+        int p = registers.flags.getRegister();
+        if (registers.PC == mLoopStart
+                && !mHasSideEffects
+                && registers.A == mA
+                && registers.X == mX
+                && registers.Y == mY
+                && p == mP
+                && registers.SP == mSP) {
+            int iterationCycles = (int) (cycle - mLoopStartCycle);
+            mLoopStartCycle = cycle;
+            return iterationCycles;
+        }
+        mLoopStart = registers.PC;
+        mLoopStartCycle = cycle;
+        mA = registers.A;
+        mX = registers.X;
+        mY = registers.Y;
+        mP = p;
+        mSP = registers.SP;
+        mHasSideEffects = false;
+        mReadsPpuStatus = false;
+        return 0;
+    }
+
+    /**
+     * @return Cycle up to which (excluded) the last idle loop can be replayed without the PPU changing what it
+     * reads from PPUSTATUS
+     */
+    long getPpuStatusStableCycle() {
+        return mReadsPpuStatus ? mPpuStatusStableCycle : Long.MAX_VALUE;
+    }
+
+    /**
+     * Forgets the loop being tracked, e.g. when something else than instructions ran (DMA)
+     */
+    void reset() {
+        mLoopStart = NO_LOOP;
+    }
+}
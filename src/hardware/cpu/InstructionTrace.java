@@ -0,0 +1,196 @@
+package hardware.cpu;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+
+/**
+ * Fixed size ring buffer of executed instructions. Each instruction is recorded as two longs (PC, fetched
+ * bytes, A, X, Y, P, SP and the cycle count it started at), so recording never allocates. Records are only
+ * formatted, in the nestest log layout, when they are read back.
+ */
+public class InstructionTrace {
+
+    // First long : PC (bits 0-15), number of fetched bytes (16-17), fetched bytes (18-41), cycles low (42-63)
+    private static final int NUM_BYTES_SHIFT = 16;
+    private static final int BYTES_SHIFT = 18;
+    private static final int CYCLES_LOW_SHIFT = 42;
+    private static final int CYCLES_LOW_BITS = 64 - CYCLES_LOW_SHIFT;
+    // Second long : A, X, Y, P, SP (bits 0-39), cycles high (40-63)
+    private static final int CYCLES_HIGH_SHIFT = 40;
+
+    private static final int MAX_INSTRUCTION_BYTES = 3;
+    private static final int PPU_DOTS_PER_SCANLINE = 341;
+
+    private final long[] mRecords;
+    private final int mCapacity;
+    private long mNumRecorded;
+    private long mCycles;
+
+    /**
+     * @param capacity Number of most recent instructions kept
+     */
+    public InstructionTrace(int capacity) {
+        Preconditions.checkArgument(capacity > 0);
+        mCapacity = capacity;
+        mRecords = new long[capacity * 2];
+    }
+
+    void beginInstruction(int pc, int a, int x, int y, int p, int sp) {
+        int index = (int) (mNumRecorded % mCapacity) * 2;
+        mRecords[index] = (pc & 0xFFFF) | ((mCycles & ((1L << CYCLES_LOW_BITS) - 1)) << CYCLES_LOW_SHIFT);
+        mRecords[index + 1] = (a & 0xFF)
+                | (x & 0xFF) << 8
+                | (y & 0xFF) << 16
+                | (long) (p & 0xFF) << 24
+                | (long) (sp & 0xFF) << 32
+                | (mCycles >>> CYCLES_LOW_BITS) << CYCLES_HIGH_SHIFT;
+        mNumRecorded++;
+    }
+
+    void addByte(int value) {
+        int index = (int) ((mNumRecorded - 1) % mCapacity) * 2;
+        long record = mRecords[index];
+        int numBytes = (int) (record >>> NUM_BYTES_SHIFT) & 0b11;
+        if (numBytes == MAX_INSTRUCTION_BYTES) {
+            return;
+        }
+        record &= ~(0b11L << NUM_BYTES_SHIFT);
+        record |= (long) (numBytes + 1) << NUM_BYTES_SHIFT;
+        record |= (long) (value & 0xFF) << (BYTES_SHIFT + 8 * numBytes);
+        mRecords[index] = record;
+    }
+
+    void addCycles(int cycles) {
+        mCycles += cycles;
+    }
+
+    /**
+     * @return Number of instructions currently held, at most the capacity
+     */
+    public int size() {
+        return (int) Math.min(mNumRecorded, mCapacity);
+    }
+
+    public void clear() {
+        mNumRecorded = 0;
+    }
+
+    /**
+     * @param index 0 for the oldest instruction held, size() - 1 for the latest
+     */
+    public int getPC(int index) {
+        return (int) getFirst(index) & 0xFFFF;
+    }
+
+    public int getNumBytes(int index) {
+        return (int) (getFirst(index) >>> NUM_BYTES_SHIFT) & 0b11;
+    }
+
+    /**
+     * @param byteIndex 0 for the opcode, 1 and 2 for the operands
+     */
+    public int getByte(int index, int byteIndex) {
+        return (int) (getFirst(index) >>> (BYTES_SHIFT + 8 * byteIndex)) & 0xFF;
+    }
+
+    public int getA(int index) {
+        return (int) getSecond(index) & 0xFF;
+    }
+
+    public int getX(int index) {
+        return (int) (getSecond(index) >>> 8) & 0xFF;
+    }
+
+    public int getY(int index) {
+        return (int) (getSecond(index) >>> 16) & 0xFF;
+    }
+
+    public int getP(int index) {
+        return (int) (getSecond(index) >>> 24) & 0xFF;
+    }
+
+    public int getSP(int index) {
+        return (int) (getSecond(index) >>> 32) & 0xFF;
+    }
+
+    /**
+     * @return CPU cycles executed since the trace was attached, when the instruction started
+     */
+    public long getCycles(int index) {
+        return (getFirst(index) >>> CYCLES_LOW_SHIFT) | ((getSecond(index) >>> CYCLES_HIGH_SHIFT) << CYCLES_LOW_BITS);
+    }
+
+    /**
+     * Formats an instruction like a nestest log line, e.g.
+     * <pre>C000  4C  F5  C5  A:00 X:00 Y:00 P:24 SP:FD CYC:  0</pre>
+     */
+    public void format(int index, Appendable out) throws IOException {
+        appendHex(out, getPC(index), 4);
+        int numBytes = getNumBytes(index);
+        for (int i = 0; i < MAX_INSTRUCTION_BYTES; i++) {
+            out.append("  ");
+            if (i < numBytes) {
+                appendHex(out, getByte(index, i), 2);
+            } else {
+                out.append("  ");
+            }
+        }
+        out.append("  A:");
+        appendHex(out, getA(index), 2);
+        out.append(" X:");
+        appendHex(out, getX(index), 2);
+        out.append(" Y:");
+        appendHex(out, getY(index), 2);
+        out.append(" P:");
+        appendHex(out, getP(index), 2);
+        out.append(" SP:");
+        appendHex(out, getSP(index), 2);
+        out.append(" CYC:");
+        String dot = Long.toString((getCycles(index) * 3) % PPU_DOTS_PER_SCANLINE);
+        for (int i = dot.length(); i < 3; i++) {
+            out.append(' ');
+        }
+        out.append(dot);
+    }
+
+    public String format(int index) {
+        StringBuilder stringBuilder = new StringBuilder();
+        try {
+            format(index, stringBuilder);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Writes every instruction held, oldest first, one per line
+     */
+    public void dump(Appendable out) throws IOException {
+        for (int i = 0; i < size(); i++) {
+            format(i, out);
+            out.append('\n');
+        }
+    }
+
+    private long getFirst(int index) {
+        return mRecords[getRecordIndex(index)];
+    }
+
+    private long getSecond(int index) {
+        return mRecords[getRecordIndex(index) + 1];
+    }
+
+    private int getRecordIndex(int index) {
+        Preconditions.checkElementIndex(index, size());
+        long oldest = mNumRecorded - size();
+        return (int) ((oldest + index) % mCapacity) * 2;
+    }
+
+    private static void appendHex(Appendable out, int value, int digits) throws IOException {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            out.append(Character.toUpperCase(Character.forDigit((value >> shift) & 0xF, 16)));
+        }
+    }
+}
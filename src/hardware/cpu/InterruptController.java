@@ -0,0 +1,143 @@
+package hardware.cpu;
+
+import com.google.common.base.Preconditions;
+import components.Stateful;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Records the NMI and IRQ lines of the {@link Cpu} as cycle timestamps. Devices assert an interrupt from a
+ * given CPU cycle on, possibly in the future (e.g. the APU frame counter), and the Cpu only polls the lines
+ * once {@link #getNextEventCycle()} is reached.
+ * <p/>
+ * NMI is edge triggered and consumed when taken. IRQ is level triggered : an asserted source keeps the line
+ * low until the device acknowledges it.
+ */
+public class InterruptController implements Stateful {
+
+    public static final int IRQ_SOURCE_APU_FRAME_COUNTER = 0;
+    public static final int IRQ_SOURCE_MAPPER = 1;
+    private static final int NUM_IRQ_SOURCES = 2;
+
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final int STATE_SIZE = (1 + NUM_IRQ_SOURCES) * 8;
+
+    private long mNmiCycle = NEVER;
+    private final long[] mIrqCycles = new long[NUM_IRQ_SOURCES];
+    private long mNextEventCycle = NEVER;
+
+    public InterruptController() {
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            mIrqCycles[source] = NEVER;
+        }
+    }
+
+    /**
+     * Signals an NMI edge at cycle
+     */
+    public void assertNmi(long cycle) {
+        mNmiCycle = Math.min(mNmiCycle, cycle);
+        updateNextEventCycle();
+    }
+
+    public void clearNmi() {
+        mNmiCycle = NEVER;
+        updateNextEventCycle();
+    }
+
+    /**
+     * Pulls the IRQ line low for source from cycle on, until {@link #acknowledgeIrq(int)} is called
+     */
+    public void assertIrq(int source, long cycle) {
+        Preconditions.checkElementIndex(source, NUM_IRQ_SOURCES);
+        mIrqCycles[source] = Math.min(mIrqCycles[source], cycle);
+        updateNextEventCycle();
+    }
+
+    /**
+     * Releases the IRQ line for source, including an assertion scheduled in the future
+     */
+    public void acknowledgeIrq(int source) {
+        Preconditions.checkElementIndex(source, NUM_IRQ_SOURCES);
+        mIrqCycles[source] = NEVER;
+        updateNextEventCycle();
+    }
+
+    public boolean isIrqAsserted(int source, long cycle) {
+        return mIrqCycles[source] <= cycle;
+    }
+
+    /**
+     * @return Earliest cycle at which an interrupt line changes or stays asserted
+     */
+    long getNextEventCycle() {
+        return mNextEventCycle;
+    }
+
+    /**
+     * @return Earliest cycle at which an interrupt is pending or an IRQ source gets asserted, ignoring the
+     * IRQ sources already asserted at or before assertedCycle
+     */
+    long getNextEdgeCycle(long assertedCycle) {
+        long nextEdgeCycle = mNmiCycle;
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            if (mIrqCycles[source] > assertedCycle) {
+                nextEdgeCycle = Math.min(nextEdgeCycle, mIrqCycles[source]);
+            }
+        }
+        return nextEdgeCycle;
+    }
+
+    /**
+     * @return true if an NMI edge happened at or before cycle. The NMI is then consumed
+     */
+    boolean takeNmi(long cycle) {
+        if (mNmiCycle > cycle) {
+            return false;
+        }
+        clearNmi();
+        return true;
+    }
+
+    /**
+     * @return true if any source holds the IRQ line at cycle
+     */
+    boolean isIrqAsserted(long cycle) {
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            if (mIrqCycles[source] <= cycle) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putLong(mNmiCycle);
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            buffer.putLong(mIrqCycles[source]);
+        }
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mNmiCycle = buffer.getLong();
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            mIrqCycles[source] = buffer.getLong();
+        }
+        updateNextEventCycle();
+    }
+
+    private void updateNextEventCycle() {
+        long nextEventCycle = mNmiCycle;
+        for (int source = 0; source < NUM_IRQ_SOURCES; source++) {
+            nextEventCycle = Math.min(nextEventCycle, mIrqCycles[source]);
+        }
+        mNextEventCycle = nextEventCycle;
+    }
+}
@@ -1,6 +1,13 @@
 package hardware.cpu.registers;
 
-public class Registers {
+import components.Stateful;
+
+import java.nio.ByteBuffer;
+
+public class Registers implements Stateful {
+    // PC, SP, A, X and Y
+    private static final int STATE_SIZE = 5 * 4;
+
     public int PC;
     public int SP;
     public int A;
@@ -13,6 +20,31 @@ public class Registers {
         flags = new StatusRegister();
     }
 
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE + flags.getStateSize();
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putInt(PC);
+        buffer.putInt(SP);
+        buffer.putInt(A);
+        buffer.putInt(X);
+        buffer.putInt(Y);
+        flags.saveState(buffer);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        PC = buffer.getInt();
+        SP = buffer.getInt();
+        A = buffer.getInt();
+        X = buffer.getInt();
+        Y = buffer.getInt();
+        flags.loadState(buffer);
+    }
+
     @Override
     public String toString() {
         return new StringBuilder()
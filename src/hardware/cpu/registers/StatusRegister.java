@@ -1,8 +1,15 @@
 package hardware.cpu.registers;
 
 import com.google.common.base.Preconditions;
+import components.Stateful;
 
-public class StatusRegister {
+import java.nio.ByteBuffer;
+
+/**
+ * Processor status register. Zero and sign are evaluated lazily : the CPU only stores the result they
+ * derive from (see {@link #setZeroAndSign(int)}), and the flags are materialized when read.
+ */
+public class StatusRegister implements Stateful {
 
     public static final int CARRY = 0;
     public static final int ZERO = 1;
@@ -13,43 +20,120 @@ public class StatusRegister {
     public static final int OVERFLOW = 6;
     public static final int SIGN = 7;
 
+    private static final int ZERO_AND_SIGN_MASK = 1 << ZERO | 1 << SIGN;
+
+    private static final int STATE_SIZE = 8;
+
+    // Every flag but zero and sign
     private int mStatusRegister;
 
+    // Zero is set when the low 8 bits are 0, sign when bit 7 or 8 is set (0x100 : zero and sign both set)
+    private int mZeroSignResult;
+
     public StatusRegister() {
-        mStatusRegister = 0x24;
+        setRegister(0x24);
     }
 
     public void setFlag(int flag, boolean value) {
         Preconditions.checkArgument(flag <= SIGN && flag >= CARRY);
-        if (value) {
+        if (flag == ZERO) {
+            setZeroSign(value, getFlag(SIGN));
+        } else if (flag == SIGN) {
+            setZeroSign(getFlag(ZERO), value);
+        } else if (value) {
             mStatusRegister |= 1 << flag;
-        }  else {
+        } else {
             mStatusRegister &= ~(1 << flag);
         }
-        mStatusRegister &= 0xFF;
+    }
+
+    /**
+     * Sets zero and sign from an ALU result, only its low 8 bits are used
+     */
+    public void setZeroAndSign(int result) {
+        mZeroSignResult = result & 0xFF;
+    }
+
+    /**
+     * Sets zero from zeroResult and sign from bit 7 of signResult (BIT)
+     */
+    public void setZeroAndSign(int zeroResult, int signResult) {
+        // Fold bit 7 of zeroResult into bit 0 so that only signResult decides the sign
+        int zero = zeroResult & 0xFF;
+        mZeroSignResult = ((zero | zero >>> 7) & 0x7F) | (signResult & 0x80) << 1;
+    }
+
+    public void setCarry(boolean carry) {
+        mStatusRegister = (mStatusRegister & ~(1 << CARRY)) | (carry ? 1 << CARRY : 0);
+    }
+
+    public void setOverflow(boolean overflow) {
+        mStatusRegister = (mStatusRegister & ~(1 << OVERFLOW)) | (overflow ? 1 << OVERFLOW : 0);
     }
 
     public boolean getFlag(int flag) {
-       return ((mStatusRegister & 0b00000001 << flag) != 0);
+        if (flag == ZERO) {
+            return (mZeroSignResult & 0xFF) == 0;
+        } else if (flag == SIGN) {
+            return (mZeroSignResult & 0x180) != 0;
+        }
+        return ((mStatusRegister & 0b00000001 << flag) != 0);
     }
 
     public int getCarry() {
-        return getFlag(CARRY) ? 1 : 0;
+        return mStatusRegister & 1 << CARRY;
     }
 
     public int getBorrow() {
-        return getFlag(CARRY) ? 0 : 1;
+        return getCarry() ^ 1;
     }
 
     public int getRegister() {
-        return mStatusRegister;
+        int register = mStatusRegister;
+        if (getFlag(ZERO)) {
+            register |= 1 << ZERO;
+        }
+        if (getFlag(SIGN)) {
+            register |= 1 << SIGN;
+        }
+        return register;
     }
 
     public void setRegister(int register) {
-        this.mStatusRegister = (register & ~(1 << BREAK) | (1 << NOT_USED)) & 0xFF;
+        register = (register & ~(1 << BREAK) | (1 << NOT_USED)) & 0xFF;
+        mStatusRegister = register & ~ZERO_AND_SIGN_MASK;
+        setZeroSign((register & 1 << ZERO) != 0, (register & 1 << SIGN) != 0);
     }
 
     public boolean getInterruptDisabled() {
         return getFlag(INTERRUPT);
     }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Saves the pending zero and sign result as is, rather than the flags it derives
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putInt(mStatusRegister);
+        buffer.putInt(mZeroSignResult);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mStatusRegister = buffer.getInt();
+        mZeroSignResult = buffer.getInt();
+    }
+
+    private void setZeroSign(boolean zero, boolean sign) {
+        if (zero) {
+            mZeroSignResult = sign ? 0x100 : 0;
+        } else {
+            mZeroSignResult = sign ? 0x80 : 1;
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package hardware.input;
+
+import com.google.common.base.Preconditions;
+import components.Stateful;
+import components.memory.Memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The two standard controllers, read one button at a time through $4016 and $4017. While bit 0 of $4016 is
+ * set both controllers keep reloading their shift register with the buttons held, reads then return A.
+ * Once it is cleared each read returns the next button, in the order of the BUTTON_ bits, then 1s.
+ */
+public class Joypads implements Memory.WriteObserver, Stateful {
+
+    public static final int STROBE_ADDRESS = 0x4016;
+    public static final int PORT_1_ADDRESS = 0x4016;
+    public static final int PORT_2_ADDRESS = 0x4017;
+
+    public static final int BUTTON_A = 1;
+    public static final int BUTTON_B = 1 << 1;
+    public static final int BUTTON_SELECT = 1 << 2;
+    public static final int BUTTON_START = 1 << 3;
+    public static final int BUTTON_UP = 1 << 4;
+    public static final int BUTTON_DOWN = 1 << 5;
+    public static final int BUTTON_LEFT = 1 << 6;
+    public static final int BUTTON_RIGHT = 1 << 7;
+
+    public static final int NUM_PLAYERS = 2;
+
+    // Upper bits of the reads come from the open bus, the high byte of the address
+    private static final int OPEN_BUS = 0x40;
+    private static final int STATE_SIZE = 1 + 2 * NUM_PLAYERS;
+
+    private final int[] mButtons = new int[NUM_PLAYERS];
+    private final int[] mShiftRegisters = new int[NUM_PLAYERS];
+    private final Memory.ReadPort[] mPorts = new Memory.ReadPort[NUM_PLAYERS];
+    private boolean mStrobe;
+
+    public Joypads() {
+        for (int player = 0; player < NUM_PLAYERS; player++) {
+            final int port = player;
+            mPorts[player] = new Memory.ReadPort() {
+                @Override
+                public int read() {
+                    return readPort(port);
+                }
+            };
+        }
+    }
+
+    /**
+     * @param player  0 for the controller read through $4016, 1 for $4017
+     * @param buttons BUTTON_ bits of the buttons held
+     */
+    public void setButtons(int player, int buttons) {
+        Preconditions.checkArgument((buttons & ~0xFF) == 0, "Not a set of buttons : %s", buttons);
+        mButtons[player] = buttons;
+    }
+
+    public int getButtons(int player) {
+        return mButtons[player];
+    }
+
+    /**
+     * @return Read port of the controller of player, for {@link Memory.MemoryWithPort#addReadPort}
+     */
+    public Memory.ReadPort getPort(int player) {
+        return mPorts[player];
+    }
+
+    /**
+     * $4016 write
+     */
+    @Override
+    public void write(int data) {
+        mStrobe = (data & 1) != 0;
+        if (mStrobe) {
+            for (int player = 0; player < NUM_PLAYERS; player++) {
+                mShiftRegisters[player] = mButtons[player];
+            }
+        }
+    }
+
+    private int readPort(int player) {
+        if (mStrobe) {
+            return OPEN_BUS | (mButtons[player] & 1);
+        }
+        int bit = mShiftRegisters[player] & 1;
+        // 1s are shifted in, so reads past the 8 buttons return 1
+        mShiftRegisters[player] = (mShiftRegisters[player] >> 1) | 0x80;
+        return OPEN_BUS | bit;
+    }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Saves the strobe, the shift registers and the buttons held
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (mStrobe ? 1 : 0));
+        for (int player = 0; player < NUM_PLAYERS; player++) {
+            buffer.put((byte) mShiftRegisters[player]);
+            buffer.put((byte) mButtons[player]);
+        }
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mStrobe = buffer.get() != 0;
+        for (int player = 0; player < NUM_PLAYERS; player++) {
+            mShiftRegisters[player] = buffer.get() & 0xFF;
+            mButtons[player] = buffer.get() & 0xFF;
+        }
+    }
+}
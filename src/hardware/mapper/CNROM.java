@@ -0,0 +1,27 @@
+package hardware.mapper;
+
+import hardware.rom.Rom;
+
+/**
+ * Mapper 3 : NROM PRG-ROM, switchable 8K CHR-ROM bank
+ */
+class CNROM extends Mapper {
+
+    static final int NUMBER = 3;
+
+    CNROM(Rom rom) {
+        super(rom);
+    }
+
+    @Override
+    protected void powerOn() {
+        mapPrg16K(0, 0);
+        mapPrg16K(1, -1);
+        mapChr8K(0);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        mapChr8K(value);
+    }
+}
@@ -0,0 +1,156 @@
+package hardware.mapper;
+
+import hardware.cpu.Cpu;
+import hardware.ppu.memory.Mirroring;
+import hardware.rom.Rom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 1 (SxROM). Registers are loaded one bit at a time through a 5 bit shift register, the address of
+ * the fifth write selecting the register : control ($8000), CHR bank 0 ($A000), CHR bank 1 ($C000) and PRG
+ * bank ($E000).
+ */
+class MMC1 extends Mapper {
+
+    static final int NUMBER = 1;
+
+    private static final int RESET_SHIFT = 1 << 7;
+    private static final int SHIFT_REGISTER_EMPTY = 1 << 4;
+
+    // Control register
+    private static final int MIRRORING_MASK = 0b00011;
+    private static final int PRG_MODE_SHIFT = 2;
+    private static final int PRG_MODE_MASK = 0b01100;
+    private static final int CHR_MODE_4K = 0b10000;
+
+    private static final int PRG_MODE_32K = 1;
+    private static final int PRG_MODE_FIX_FIRST = 2;
+    private static final int PRG_BANK_MASK = 0x0F;
+
+    // Shift register, four registers and last write cycle
+    private static final int STATE_SIZE = 5 * 4 + 8;
+
+    private int mShiftRegister = SHIFT_REGISTER_EMPTY;
+    private int mControl;
+    private int mChrBank0;
+    private int mChrBank1;
+    private int mPrgBank;
+    // Writes on consecutive cycles are ignored, only the first write of read-modify-write instructions counts
+    private long mLastWriteCycle = Long.MIN_VALUE;
+
+    MMC1(Rom rom) {
+        super(rom);
+    }
+
+    @Override
+    protected void powerOn() {
+        // PRG-ROM mode 3 : switchable bank at $8000, last bank fixed at $C000
+        mControl = PRG_MODE_MASK;
+        updateBanks();
+    }
+
+    @Override
+    public void write(int address, int value) {
+        Cpu cpu = getCpu();
+        if (cpu != null) {
+            long cycle = cpu.getCycles();
+            boolean consecutive = cycle == mLastWriteCycle + 1;
+            mLastWriteCycle = cycle;
+            if (consecutive) {
+                return;
+            }
+        }
+        if ((value & RESET_SHIFT) != 0) {
+            mShiftRegister = SHIFT_REGISTER_EMPTY;
+            mControl |= PRG_MODE_MASK;
+            updateBanks();
+            return;
+        }
+        boolean full = (mShiftRegister & 1) != 0;
+        mShiftRegister = (mShiftRegister >> 1) | ((value & 1) << 4);
+        if (!full) {
+            return;
+        }
+        int registerValue = mShiftRegister;
+        mShiftRegister = SHIFT_REGISTER_EMPTY;
+        switch ((address >> 13) & 0b11) {
+            case 0:
+                mControl = registerValue;
+                break;
+            case 1:
+                mChrBank0 = registerValue;
+                break;
+            case 2:
+                mChrBank1 = registerValue;
+                break;
+            default:
+                // Bit 4 enables PRG-RAM, which is always enabled here
+                mPrgBank = registerValue & PRG_BANK_MASK;
+                break;
+        }
+        updateBanks();
+    }
+
+    @Override
+    public int getStateSize() {
+        return super.getStateSize() + STATE_SIZE;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        super.saveState(buffer);
+        buffer.putInt(mShiftRegister);
+        buffer.putInt(mControl);
+        buffer.putInt(mChrBank0);
+        buffer.putInt(mChrBank1);
+        buffer.putInt(mPrgBank);
+        buffer.putLong(mLastWriteCycle);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        super.loadState(buffer);
+        mShiftRegister = buffer.getInt();
+        mControl = buffer.getInt();
+        mChrBank0 = buffer.getInt();
+        mChrBank1 = buffer.getInt();
+        mPrgBank = buffer.getInt();
+        mLastWriteCycle = buffer.getLong();
+    }
+
+    private void updateBanks() {
+        switch (mControl & MIRRORING_MASK) {
+            case 0:
+                setMirroring(Mirroring.SINGLE_SCREEN_LOWER);
+                break;
+            case 1:
+                setMirroring(Mirroring.SINGLE_SCREEN_UPPER);
+                break;
+            case 2:
+                setMirroring(Mirroring.VERTICAL);
+                break;
+            default:
+                setMirroring(Mirroring.HORIZONTAL);
+                break;
+        }
+
+        int prgMode = (mControl & PRG_MODE_MASK) >> PRG_MODE_SHIFT;
+        if (prgMode <= PRG_MODE_32K) {
+            mapPrg32K(mPrgBank >> 1);
+        } else if (prgMode == PRG_MODE_FIX_FIRST) {
+            mapPrg16K(0, 0);
+            mapPrg16K(1, mPrgBank);
+        } else {
+            mapPrg16K(0, mPrgBank);
+            mapPrg16K(1, -1);
+        }
+
+        if ((mControl & CHR_MODE_4K) != 0) {
+            mapChr4K(0, mChrBank0);
+            mapChr4K(1, mChrBank1);
+        } else {
+            mapChr8K(mChrBank0 >> 1);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package hardware.mapper;
+
+import hardware.cpu.Cpu;
+import hardware.cpu.InterruptController;
+import hardware.ppu.memory.Mirroring;
+import hardware.rom.Rom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mapper 4 (TxROM). Eight bank registers written through $8000 / $8001 select two switchable 8K PRG banks,
+ * two 2K and four 1K CHR banks. The scanline counter ($C000 - $E001) raises an IRQ after a given number of
+ * rendered scanlines.
+ */
+class MMC3 extends Mapper {
+
+    static final int NUMBER = 4;
+
+    // Bank select ($8000)
+    private static final int REGISTER_MASK = 0b111;
+    private static final int PRG_MODE_SWAP = 1 << 6;
+    private static final int CHR_A12_INVERSION = 1 << 7;
+
+    // Registers are selected by address bits 13, 14 and 0
+    private static final int REGISTER_ADDRESS_MASK = 0xE001;
+    private static final int BANK_SELECT = 0x8000;
+    private static final int BANK_DATA = 0x8001;
+    private static final int MIRRORING = 0xA000;
+    private static final int PRG_RAM_PROTECT = 0xA001;
+    private static final int IRQ_LATCH = 0xC000;
+    private static final int IRQ_RELOAD = 0xC001;
+    private static final int IRQ_DISABLE = 0xE000;
+    private static final int IRQ_ENABLE = 0xE001;
+
+    private static final int NUM_BANK_REGISTERS = 8;
+    // Bank registers, bank select, IRQ latch and counter, two flags
+    private static final int STATE_SIZE = (NUM_BANK_REGISTERS + 3) * 4 + 2;
+
+    private final int[] mBankRegisters = new int[NUM_BANK_REGISTERS];
+    private int mBankSelect;
+
+    private int mIrqLatch;
+    private int mIrqCounter;
+    private boolean mIrqReload;
+    private boolean mIrqEnabled;
+
+    MMC3(Rom rom) {
+        super(rom);
+    }
+
+    @Override
+    protected void powerOn() {
+        updateBanks();
+    }
+
+    @Override
+    public void write(int address, int value) {
+        switch (address & REGISTER_ADDRESS_MASK) {
+            case BANK_SELECT:
+                mBankSelect = value;
+                updateBanks();
+                break;
+            case BANK_DATA:
+                mBankRegisters[mBankSelect & REGISTER_MASK] = value;
+                updateBanks();
+                break;
+            case MIRRORING:
+                setMirroring((value & 1) == 0 ? Mirroring.VERTICAL : Mirroring.HORIZONTAL);
+                break;
+            case PRG_RAM_PROTECT:
+                // PRG-RAM is always enabled and writable here
+                break;
+            case IRQ_LATCH:
+                mIrqLatch = value;
+                onIrqTimingChange();
+                break;
+            case IRQ_RELOAD:
+                mIrqCounter = 0;
+                mIrqReload = true;
+                onIrqTimingChange();
+                break;
+            case IRQ_DISABLE:
+                mIrqEnabled = false;
+                Cpu cpu = getCpu();
+                if (cpu != null) {
+                    cpu.getInterruptController().acknowledgeIrq(InterruptController.IRQ_SOURCE_MAPPER);
+                }
+                break;
+            case IRQ_ENABLE:
+                mIrqEnabled = true;
+                onIrqTimingChange();
+                break;
+        }
+    }
+
+    /**
+     * The batch being run was sized for the previous IRQ timing
+     */
+    private void onIrqTimingChange() {
+        Cpu cpu = getCpu();
+        if (cpu != null && mIrqEnabled) {
+            cpu.requestBatchEnd();
+        }
+    }
+
+    /**
+     * Clocked by the rise of PPU A12 when fetching the sprite patterns of a rendered scanline
+     */
+    @Override
+    public void onScanline(long cpuCycle) {
+        if (mIrqCounter == 0 || mIrqReload) {
+            mIrqCounter = mIrqLatch;
+            mIrqReload = false;
+        } else {
+            mIrqCounter--;
+        }
+        Cpu cpu = getCpu();
+        if (mIrqCounter == 0 && mIrqEnabled && cpu != null) {
+            cpu.getInterruptController().assertIrq(InterruptController.IRQ_SOURCE_MAPPER, cpuCycle);
+        }
+    }
+
+    @Override
+    public int getScanlinesUntilIrq() {
+        if (!mIrqEnabled) {
+            return NO_IRQ;
+        }
+        if (mIrqCounter == 0 || mIrqReload) {
+            // Reloaded on the next clock, a latch of 0 raises the IRQ on every clock
+            return mIrqLatch == 0 ? 1 : mIrqLatch + 1;
+        }
+        return mIrqCounter;
+    }
+
+    @Override
+    public int getStateSize() {
+        return super.getStateSize() + STATE_SIZE;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        super.saveState(buffer);
+        for (int i = 0; i < NUM_BANK_REGISTERS; i++) {
+            buffer.putInt(mBankRegisters[i]);
+        }
+        buffer.putInt(mBankSelect);
+        buffer.putInt(mIrqLatch);
+        buffer.putInt(mIrqCounter);
+        buffer.put((byte) (mIrqReload ? 1 : 0));
+        buffer.put((byte) (mIrqEnabled ? 1 : 0));
+    }
+
+    /**
+     * A pending IRQ is part of the state of the {@link InterruptController}
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        super.loadState(buffer);
+        for (int i = 0; i < NUM_BANK_REGISTERS; i++) {
+            mBankRegisters[i] = buffer.getInt();
+        }
+        mBankSelect = buffer.getInt();
+        mIrqLatch = buffer.getInt();
+        mIrqCounter = buffer.getInt();
+        mIrqReload = buffer.get() != 0;
+        mIrqEnabled = buffer.get() != 0;
+    }
+
+    private void updateBanks() {
+        if ((mBankSelect & PRG_MODE_SWAP) == 0) {
+            mapPrg8K(0, mBankRegisters[6]);
+            mapPrg8K(2, -2);
+        } else {
+            mapPrg8K(0, -2);
+            mapPrg8K(2, mBankRegisters[6]);
+        }
+        mapPrg8K(1, mBankRegisters[7]);
+        mapPrg8K(3, -1);
+
+        // 2K banks ignore the low bit of their register
+        int inversion = (mBankSelect & CHR_A12_INVERSION) != 0 ? 4 : 0;
+        mapChr2K(inversion / 2, mBankRegisters[0] >> 1);
+        mapChr2K(inversion / 2 + 1, mBankRegisters[1] >> 1);
+        for (int i = 0; i < 4; i++) {
+            mapChr1K((4 - inversion) + i, mBankRegisters[2 + i]);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package hardware.mapper;
+
+import com.google.common.base.Preconditions;
+import components.Stateful;
+import components.memory.Memory;
+import components.memory.MemoryRange;
+import components.memory.PagedMemory;
+import hardware.cpu.Cpu;
+import hardware.ppu.PPU;
+import hardware.ppu.memory.Mirroring;
+import hardware.ppu.memory.NameTables;
+import hardware.ppu.memory.PPUMemory;
+import hardware.ppu.memory.PatternTables;
+import hardware.rom.Rom;
+import hardware.rom.RomCache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cartridge board, chosen from the iNES mapper number. PRG-ROM is mapped in 8K slots straight into the CPU
+ * {@link PagedMemory} : switching a bank only points the pages of a slot at another part of the Rom arrays,
+ * and reads of PRG-ROM never go through the mapper. The mapper is only the write handler of the read only
+ * PRG-ROM pages, where its registers are.
+ * <p/>
+ * CHR is switched the same way in the 1K slots of the {@link PatternTables}, and the nametable mirroring by
+ * aliasing the nametable RAM in {@link NameTables}.
+ */
+public abstract class Mapper implements Memory, PPU.ScanlineListener, Stateful {
+
+    public static final int PRG_ROM_START = 0x8000;
+    public static final int PRG_ROM_SIZE = 0x8000;
+    public static final int NUM_CHR_SLOTS = PatternTables.NUM_SLOTS;
+    // Returned by getScanlinesUntilIrq() when no IRQ is coming
+    public static final int NO_IRQ = -1;
+
+    private static final int PRG_SLOT_SIZE = 0x2000;
+    private static final int NUM_PRG_SLOTS = PRG_ROM_SIZE / PRG_SLOT_SIZE;
+    private static final int PRG_BANKS_PER_ARRAY = Rom.PRG_ROM_BANK_SIZE / PRG_SLOT_SIZE;
+    private static final int CHR_SLOT_SIZE = PatternTables.SLOT_SIZE;
+    // Cartridges without CHR-ROM have 8K of CHR-RAM
+    private static final int CHR_RAM_SIZE = 0x2000;
+    private static final Mirroring[] MIRRORINGS = Mirroring.values();
+    // Rows of the CHR-ROM tiles, decoded once per cartridge for every console running it
+    private static final RomCache.Derivation<long[]> CHR_ROM_TILE_ROWS = new RomCache.Derivation<long[]>() {
+        @Override
+        public String getName() {
+            return "chrRomTileRows";
+        }
+
+        @Override
+        public long[] derive(Rom rom) {
+            return PatternTables.decodeTileRows(rom.getCHR_ROMArray());
+        }
+
+        @Override
+        public int getSize(long[] value) {
+            return value.length * 8;
+        }
+    };
+    // Bank of each slot and mirroring
+    private static final int STATE_SIZE = (NUM_PRG_SLOTS + NUM_CHR_SLOTS) * 4 + 1;
+
+    private final Rom mRom;
+    // 16K PRG-ROM banks of the Rom, looked up once instead of on every bank switch
+    private final byte[][] mPrgRom;
+    private final int mNumPrgBanks;
+    private final int mNumChrBanks;
+    private final MemoryRange mMemoryRange = new MemoryRange(PRG_ROM_START, PRG_ROM_START + PRG_ROM_SIZE);
+
+    // 8K PRG bank and 1K CHR bank in each slot
+    private final int[] mPrgSlots = new int[NUM_PRG_SLOTS];
+    private final int[] mChrSlots = new int[NUM_CHR_SLOTS];
+    private Mirroring mMirroring;
+
+    private PagedMemory mMemory;
+    private PatternTables mPatternTables;
+    private NameTables mNameTables;
+    private Cpu mCpu;
+
+    protected Mapper(Rom rom) {
+        mRom = rom;
+        mPrgRom = new byte[rom.getPRG_ROM_bankCount()][];
+        for (int i = 0; i < mPrgRom.length; i++) {
+            mPrgRom[i] = rom.getPRG_ROM(i);
+        }
+        mNumPrgBanks = mPrgRom.length * PRG_BANKS_PER_ARRAY;
+        int chrSize = rom.getCHR_ROM_bankCount() > 0
+                ? rom.getCHR_ROM_bankCount() * Rom.CHR_ROM_BANK_SIZE
+                : CHR_RAM_SIZE;
+        mNumChrBanks = chrSize / CHR_SLOT_SIZE;
+        mMirroring = rom.getRomHeader().getMirroring();
+        Preconditions.checkArgument(mNumPrgBanks > 0, "No PRG-ROM");
+        for (int slot = 0; slot < NUM_PRG_SLOTS; slot++) {
+            mPrgSlots[slot] = -1;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the mapper of rom is not supported
+     */
+    public static Mapper create(Rom rom) {
+        int mapperNumber = rom.getRomHeader().getMapperNumber();
+        switch (mapperNumber) {
+            case NROM.NUMBER:
+                return new NROM(rom);
+            case MMC1.NUMBER:
+                return new MMC1(rom);
+            case UxROM.NUMBER:
+                return new UxROM(rom);
+            case CNROM.NUMBER:
+                return new CNROM(rom);
+            case MMC3.NUMBER:
+                return new MMC3(rom);
+            default:
+                throw new IllegalArgumentException("Unsupported mapper " + mapperNumber);
+        }
+    }
+
+    /**
+     * Maps the power on banks into memory, and handles the writes to PRG-ROM from now on
+     */
+    public void attach(PagedMemory memory) {
+        mMemory = memory;
+        memory.setWriteHandler(PRG_ROM_START, PRG_ROM_SIZE, this);
+        powerOn();
+    }
+
+    /**
+     * Points the pattern tables at the CHR-ROM of the cartridge, or at CHR-RAM if it has none (keeping the
+     * CHR-RAM they already have, e.g. shared with a forked console), and sets the mirroring of the nametables.
+     * Both are switched in ppuMemory from now on.
+     */
+    public void attachPpu(PPUMemory ppuMemory) {
+        PatternTables patternTables = ppuMemory.getPatternTables();
+        mPatternTables = patternTables;
+        mNameTables = ppuMemory.getNameTables();
+        mNameTables.setMirroring(mMirroring);
+        if (mRom.getCHR_ROM_bankCount() > 0) {
+            patternTables.setChrRom(mRom.getCHR_ROMArray(), RomCache.getShared().getDerived(mRom, CHR_ROM_TILE_ROWS));
+        } else if (!patternTables.isWritable()) {
+            patternTables.setChr(new byte[CHR_RAM_SIZE], true);
+        }
+        for (int slot = 0; slot < NUM_CHR_SLOTS; slot++) {
+            patternTables.mapSlot(slot, mChrSlots[slot]);
+        }
+    }
+
+    /**
+     * Lets the mapper invalidate the code decoded from switched banks and raise IRQs. Mapping the power on
+     * banks does not need it, so the Cpu can be created after {@link #attach(PagedMemory)}.
+     */
+    public void setCpu(Cpu cpu) {
+        mCpu = cpu;
+    }
+
+    /**
+     * Sets the power on banks and registers
+     */
+    protected abstract void powerOn();
+
+    /**
+     * Register write, at an address of PRG-ROM
+     */
+    @Override
+    public abstract void write(int address, int value);
+
+    /**
+     * Reads go straight to the mapped banks, this is only here to implement Memory
+     */
+    @Override
+    public int read(int address) {
+        return mMemory.read(address);
+    }
+
+    @Override
+    public MemoryRange getRange() {
+        return mMemoryRange;
+    }
+
+    /**
+     * @return Number of scanline clocks (see {@link PPU.ScanlineListener}) until the next IRQ, or
+     * {@link #NO_IRQ}. Used to end CPU batches on time, as the PPU is only clocked at their end.
+     */
+    public int getScanlinesUntilIrq() {
+        return NO_IRQ;
+    }
+
+    @Override
+    public void onScanline(long cpuCycle) {
+    }
+
+    /**
+     * @return Index of the 1K CHR bank (in CHR-ROM, or CHR-RAM) selected in slot, for $0000 + slot * $400
+     */
+    public int getChrBank(int slot) {
+        return mChrSlots[slot];
+    }
+
+    public Mirroring getMirroring() {
+        return mMirroring;
+    }
+
+    protected void setMirroring(Mirroring mirroring) {
+        if (mMirroring == Mirroring.FOUR_SCREEN || mMirroring == mirroring) {
+            return;
+        }
+        mMirroring = mirroring;
+        if (mNameTables != null) {
+            mNameTables.setMirroring(mirroring);
+        }
+    }
+
+    /**
+     * Subclasses with registers add their size
+     */
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Saves the banks and the mirroring. Subclasses with registers save them after calling this.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        for (int slot = 0; slot < NUM_PRG_SLOTS; slot++) {
+            buffer.putInt(mPrgSlots[slot]);
+        }
+        for (int slot = 0; slot < NUM_CHR_SLOTS; slot++) {
+            buffer.putInt(mChrSlots[slot]);
+        }
+        buffer.put((byte) mMirroring.ordinal());
+    }
+
+    /**
+     * Maps the saved banks back. Subclasses restore their registers after calling this, without switching
+     * banks again.
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        for (int slot = 0; slot < NUM_PRG_SLOTS; slot++) {
+            mapPrg8K(slot, buffer.getInt());
+        }
+        for (int slot = 0; slot < NUM_CHR_SLOTS; slot++) {
+            mapChr1K(slot, buffer.getInt());
+        }
+        mMirroring = MIRRORINGS[buffer.get()];
+        if (mNameTables != null) {
+            mNameTables.setMirroring(mMirroring);
+        }
+    }
+
+    /**
+     * Maps an 8K bank at $8000 + slot * $2000. Banks wrap around the PRG-ROM size, negative ones count from
+     * the last.
+     */
+    protected final void mapPrg8K(int slot, int bank) {
+        bank = wrap(bank, mNumPrgBanks);
+        if (mPrgSlots[slot] == bank) {
+            return;
+        }
+        mPrgSlots[slot] = bank;
+        int startAddress = PRG_ROM_START + slot * PRG_SLOT_SIZE;
+        mMemory.mapReadOnlyArray(startAddress, PRG_SLOT_SIZE,
+                mPrgRom[bank / PRG_BANKS_PER_ARRAY], (bank % PRG_BANKS_PER_ARRAY) * PRG_SLOT_SIZE);
+        if (mCpu != null) {
+            mCpu.invalidatePrgRom(startAddress, startAddress + PRG_SLOT_SIZE);
+        }
+    }
+
+    /**
+     * Maps a 16K bank at $8000 + slot * $4000
+     */
+    protected final void mapPrg16K(int slot, int bank) {
+        mapPrg8K(slot * 2, bank * 2);
+        mapPrg8K(slot * 2 + 1, bank * 2 + 1);
+    }
+
+    protected final void mapPrg32K(int bank) {
+        mapPrg16K(0, bank * 2);
+        mapPrg16K(1, bank * 2 + 1);
+    }
+
+    /**
+     * Selects a 1K CHR bank for $0000 + slot * $400
+     */
+    protected final void mapChr1K(int slot, int bank) {
+        bank = wrap(bank, mNumChrBanks);
+        mChrSlots[slot] = bank;
+        if (mPatternTables != null) {
+            mPatternTables.mapSlot(slot, bank);
+        }
+    }
+
+    protected final void mapChr2K(int slot, int bank) {
+        mapChr1K(slot * 2, bank * 2);
+        mapChr1K(slot * 2 + 1, bank * 2 + 1);
+    }
+
+    protected final void mapChr4K(int slot, int bank) {
+        mapChr2K(slot * 2, bank * 2);
+        mapChr2K(slot * 2 + 1, bank * 2 + 1);
+    }
+
+    protected final void mapChr8K(int bank) {
+        mapChr4K(0, bank * 2);
+        mapChr4K(1, bank * 2 + 1);
+    }
+
+    /**
+     * @return The Cpu, null until {@link #setCpu(Cpu)}
+     */
+    protected final Cpu getCpu() {
+        return mCpu;
+    }
+
+    private static int wrap(int bank, int numBanks) {
+        return ((bank % numBanks) + numBanks) % numBanks;
+    }
+}
@@ -0,0 +1,27 @@
+package hardware.mapper;
+
+import hardware.rom.Rom;
+
+/**
+ * Mapper 0 : 16K or 32K of PRG-ROM and 8K of CHR, no registers. A 16K PRG-ROM is mirrored at $C000.
+ */
+class NROM extends Mapper {
+
+    static final int NUMBER = 0;
+
+    NROM(Rom rom) {
+        super(rom);
+    }
+
+    @Override
+    protected void powerOn() {
+        mapPrg16K(0, 0);
+        mapPrg16K(1, -1);
+        mapChr8K(0);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        // No registers, ROM is not writable
+    }
+}
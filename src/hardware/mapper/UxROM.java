@@ -0,0 +1,27 @@
+package hardware.mapper;
+
+import hardware.rom.Rom;
+
+/**
+ * Mapper 2 : switchable 16K PRG bank at $8000, last bank fixed at $C000, 8K of CHR-RAM
+ */
+class UxROM extends Mapper {
+
+    static final int NUMBER = 2;
+
+    UxROM(Rom rom) {
+        super(rom);
+    }
+
+    @Override
+    protected void powerOn() {
+        mapPrg16K(0, 0);
+        mapPrg16K(1, -1);
+        mapChr8K(0);
+    }
+
+    @Override
+    public void write(int address, int value) {
+        mapPrg16K(0, value);
+    }
+}
@@ -0,0 +1,115 @@
+package hardware.memory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Battery backed PRG-RAM, persisted to a memory mapped file.
+ * <p/>
+ * The CPU keeps reading and writing a heap array (see {@link #getData()}), mapped in the page table like
+ * plain SRAM. {@link #sync(int)}, called by the emulation thread every now and then with the pages written
+ * since (see {@link NesMemory#takeDirtySramPages()}), copies them into the mapping, which is only a memory
+ * copy. Writing the mapping to disk is left to a shared
+ * background thread, which forces the files that changed at most once per {@link #FLUSH_INTERVAL_MS} : games
+ * writing their save RAM every frame cause one write per interval, and never wait for it.
+ */
+public class BatteryRam implements Closeable {
+
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final int PAGE_SIZE = 0x100;
+    private static final int PAGE_SHIFT = 8;
+    // Pages are tracked by the bits of an int
+    private static final int MAX_SIZE = Integer.SIZE * PAGE_SIZE;
+
+    private static final ScheduledExecutorService sFlushExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("battery-ram-flush").build());
+
+    private final byte[] mData;
+    private final MappedByteBuffer mMapping;
+    private final AtomicBoolean mDirty = new AtomicBoolean();
+    private final ScheduledFuture<?> mFlushTask;
+
+    private BatteryRam(MappedByteBuffer mapping, int size) {
+        mMapping = mapping;
+        mData = new byte[size];
+        mapping.get(mData);
+        mFlushTask = sFlushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Maps file, created or extended with zeros up to size bytes, and loads it
+     */
+    public static BatteryRam open(File file, int size) throws IOException {
+        Preconditions.checkArgument(size > 0 && size <= MAX_SIZE && size % PAGE_SIZE == 0, "Invalid size : %s",
+                size);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            FileChannel channel = randomAccessFile.getChannel();
+            return new BatteryRam(channel.map(FileChannel.MapMode.READ_WRITE, 0, size), size);
+        }
+    }
+
+    /**
+     * @return RAM read and written by the CPU
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * Copies pages into the file mapping, for the next flush. Must be called from the thread writing the RAM.
+     *
+     * @param dirtyPages Pages written since the last call, one bit per 256 bytes (bit 0 for the first ones)
+     */
+    public void sync(int dirtyPages) {
+        if (dirtyPages == 0) {
+            return;
+        }
+        for (int page = 0; page < mData.length >> PAGE_SHIFT; page++) {
+            if ((dirtyPages & 1 << page) != 0) {
+                int pageStart = page << PAGE_SHIFT;
+                mMapping.position(pageStart);
+                mMapping.put(mData, pageStart, PAGE_SIZE);
+            }
+        }
+        mDirty.set(true);
+    }
+
+    /**
+     * Syncs the whole RAM and writes it to disk before returning, and stops the background flushes
+     */
+    @Override
+    public void close() {
+        mFlushTask.cancel(false);
+        mMapping.position(0);
+        mMapping.put(mData);
+        mDirty.set(true);
+        flush();
+    }
+
+    private void flush() {
+        if (mDirty.getAndSet(false)) {
+            mMapping.force();
+        }
+    }
+}
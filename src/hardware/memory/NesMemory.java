@@ -1,56 +1,213 @@
 package hardware.memory;
 
-import com.carrotsearch.hppc.IntObjectHashMap;
-import com.carrotsearch.hppc.IntObjectMap;
-import components.memory.CompositeMemory;
+import com.google.common.base.Preconditions;
+import components.Stateful;
 import components.memory.Memory;
-import components.memory.MemoryBlock;
+import components.memory.MemoryRange;
 import components.memory.MirroredMemory;
+import components.memory.PagedMemory;
 
-public class NesMemory extends CompositeMemory implements Memory.MemoryWithPort {
+import java.nio.ByteBuffer;
 
-    private final IntObjectMap<WriteObserver> mObserver = new IntObjectHashMap<>(1);
+/**
+ * CPU memory map. RAM, SRAM and PRG-ROM pages point straight at their arrays (RAM mirrors alias the same
+ * array), only the PPU registers and the APU / I/O registers page go through handlers. PRG-ROM is read only,
+ * so its banks can be shared by every instance running the same cartridge. Writes to it go to the
+ * {@link hardware.mapper.Mapper} of the cartridge, which switches banks by remapping pages.
+ * <p/>
+ * {@link #fork(Memory)} shares RAM, the expansion area and SRAM copy on write with a new memory, one page at
+ * a time, so the pages are only read through the page table (see {@link PagedMemory#savePages}).
+ */
+public class NesMemory extends PagedMemory implements Memory.MemoryWithPort, Stateful {
 
-    private NesMemory(Memory... blocks) {
-        super(blocks);
+    private static final int RAM_SIZE = 0x800;
+    private static final int PPU_REGISTERS_START = 0x2000;
+    private static final int PPU_REGISTERS_MIRRORS = 1024;
+    private static final int IO_REGISTERS_START = 0x4000;
+    private static final int EXPANSION_START = IO_REGISTERS_START + PAGE_SIZE;
+    private static final int SRAM_START = 0x6000;
+    private static final int EXPANSION_SIZE = SRAM_START - EXPANSION_START;
+    public static final int SRAM_SIZE = 0x2000;
+    private static final int ALL_SRAM_PAGES = -1; // 32 pages, one bit each
+    private static final int PRG_ROM_START = 0x8000;
+    private static final int PRG_ROM_BANK_SIZE = 0x4000;
+
+    // Read ports are only supported for the APU and I/O registers
+    private static final int READ_PORTS_START = IO_REGISTERS_START;
+    private static final int READ_PORTS_END = 0x4020;
+
+    // Observers indexed by page then by offset in the page, null for the pages without any
+    private final WriteObserver[][] mObservers = new WriteObserver[NUM_PAGES][];
+    private final ReadPort[] mReadPorts = new ReadPort[READ_PORTS_END - READ_PORTS_START];
+
+    private final IoRegisters mIoRegisters = new IoRegisters();
+    // SRAM owned by someone else (battery backed RAM), never shared copy on write
+    private boolean mExternalSram;
+    // External SRAM pages written since the last takeDirtySramPages, bit 0 for $6000 - $60FF
+    private int mDirtySramPages;
+
+    /**
+     * Maps the registers only, RAM is mapped by the callers
+     */
+    private NesMemory(Memory ppuRegisters) {
+        mapHandler(PPU_REGISTERS_START, IO_REGISTERS_START - PPU_REGISTERS_START,
+                new MirroredMemory(ppuRegisters, PPU_REGISTERS_MIRRORS));
+        mapHandler(IO_REGISTERS_START, PAGE_SIZE, mIoRegisters);
+    }
+
+    private static NesMemory allocate(Memory ppuRegisters) {
+        NesMemory nesMemory = new NesMemory(ppuRegisters);
+        nesMemory.mapArray(0, PPU_REGISTERS_START, new byte[RAM_SIZE]);
+        nesMemory.mapArray(EXPANSION_START, EXPANSION_SIZE, new byte[EXPANSION_SIZE]);
+        nesMemory.mapArray(SRAM_START, SRAM_SIZE, new byte[SRAM_SIZE]);
+        return nesMemory;
     }
 
     public static NesMemory createNesMemory(
             byte[] prg1,
             byte[] prg2,
             Memory ppuRegisters) {
-        MemoryBlock ram = new MemoryBlock(0, 0x800);
-        MirroredMemory totalRam = new MirroredMemory(ram, 4);
-        MirroredMemory ppuRegistersMirrored = new MirroredMemory(ppuRegisters, 1024);
-        MemoryBlock underConstruction = new MemoryBlock(0x4000, 0x2000);
-        MemoryBlock sRam = new MemoryBlock(0x6000, 0x2000);
-        MemoryBlock prgRom1 = new MemoryBlock(0x8000, prg1);
-        MemoryBlock prgRom2 = new MemoryBlock(0xC000, prg2);
-
-        return new NesMemory(
-                totalRam,
-                ppuRegistersMirrored,
-                underConstruction,
-                sRam,
-                prgRom1,
-                prgRom2);
+        Preconditions.checkArgument(prg1.length == PRG_ROM_BANK_SIZE && prg2.length == PRG_ROM_BANK_SIZE);
+        NesMemory nesMemory = allocate(ppuRegisters);
+        nesMemory.mapReadOnlyArray(PRG_ROM_START, PRG_ROM_BANK_SIZE, prg1);
+        nesMemory.mapReadOnlyArray(PRG_ROM_START + PRG_ROM_BANK_SIZE, PRG_ROM_BANK_SIZE, prg2);
+        return nesMemory;
+    }
+
+    /**
+     * @return Memory without PRG-ROM, for a {@link hardware.mapper.Mapper} to map its banks
+     */
+    public static NesMemory createNesMemory(Memory ppuRegisters) {
+        return allocate(ppuRegisters);
+    }
+
+    /**
+     * @return Memory without PRG-ROM holding the same RAM, expansion area, SRAM and I/O register values as
+     * this one. The pages are shared copy on write, this memory and the fork each copy a page the first time
+     * they write to it. External SRAM is copied right away instead, the fork gets plain RAM.
+     */
+    public NesMemory fork(Memory ppuRegisters) {
+        NesMemory fork = new NesMemory(ppuRegisters);
+        fork.shareWritablePages(this, 0, PPU_REGISTERS_START);
+        fork.shareWritablePages(this, EXPANSION_START, EXPANSION_SIZE);
+        if (mExternalSram) {
+            byte[] sram = new byte[SRAM_SIZE];
+            savePages(ByteBuffer.wrap(sram), SRAM_START, SRAM_SIZE);
+            fork.mapArray(SRAM_START, SRAM_SIZE, sram);
+        } else {
+            fork.shareWritablePages(this, SRAM_START, SRAM_SIZE);
+        }
+        System.arraycopy(mIoRegisters.mData, 0, fork.mIoRegisters.mData, 0, PAGE_SIZE);
+        return fork;
+    }
+
+    /**
+     * Replaces the SRAM at $6000 - $7FFF by sram, e.g. battery backed RAM
+     */
+    public void setSram(byte[] sram) {
+        Preconditions.checkArgument(sram.length == SRAM_SIZE);
+        mExternalSram = true;
+        mDirtySramPages = 0;
+        mapArray(SRAM_START, SRAM_SIZE, sram);
+    }
+
+    /**
+     * @return Pages of the SRAM set by {@link #setSram(byte[])} written since the last call, one bit per 256
+     * bytes from $6000 (bit 0) to $7F00 (bit 31)
+     */
+    public int takeDirtySramPages() {
+        int dirtySramPages = mDirtySramPages;
+        mDirtySramPages = 0;
+        return dirtySramPages;
+    }
+
+    @Override
+    public int getStateSize() {
+        return RAM_SIZE + PAGE_SIZE + EXPANSION_SIZE + SRAM_SIZE;
     }
 
+    /**
+     * Saves RAM, the values last written to the APU and I/O registers, the expansion area and SRAM. The
+     * state of the devices behind the registers is saved by the devices.
+     */
     @Override
-    public int read(int address) {
-        return super.read(address);
+    public void saveState(ByteBuffer buffer) {
+        savePages(buffer, 0, RAM_SIZE);
+        buffer.put(mIoRegisters.mData);
+        savePages(buffer, EXPANSION_START, EXPANSION_SIZE);
+        savePages(buffer, SRAM_START, SRAM_SIZE);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        loadPages(buffer, 0, RAM_SIZE);
+        buffer.get(mIoRegisters.mData);
+        loadPages(buffer, EXPANSION_START, EXPANSION_SIZE);
+        loadPages(buffer, SRAM_START, SRAM_SIZE);
+        if (mExternalSram) {
+            mDirtySramPages = ALL_SRAM_PAGES;
+        }
     }
 
     @Override
     public void write(int address, int value) {
         super.write(address, value);
-        if (mObserver.containsKey(address)) {
-            mObserver.get(address).write(value);
+        if (mExternalSram && address >= SRAM_START && address < PRG_ROM_START) {
+            mDirtySramPages |= 1 << ((address - SRAM_START) >>> PAGE_SHIFT);
+        }
+        WriteObserver[] pageObservers = mObservers[address >>> PAGE_SHIFT];
+        if (pageObservers != null) {
+            WriteObserver observer = pageObservers[address & PAGE_MASK];
+            if (observer != null) {
+                observer.write(value);
+            }
         }
     }
 
+    /**
+     * Registers writeObserver as the observer of address, replacing the previous one
+     */
     @Override
     public void addObserver(int address, WriteObserver writeObserver) {
-        mObserver.put(address, writeObserver);
+        Preconditions.checkElementIndex(address, 0x10000);
+        int page = address >>> PAGE_SHIFT;
+        if (mObservers[page] == null) {
+            mObservers[page] = new WriteObserver[PAGE_SIZE];
+        }
+        mObservers[page][address & PAGE_MASK] = writeObserver;
+    }
+
+    @Override
+    public void addReadPort(int address, ReadPort readPort) {
+        Preconditions.checkArgument(address >= READ_PORTS_START && address < READ_PORTS_END);
+        mReadPorts[address - READ_PORTS_START] = readPort;
+    }
+
+    /**
+     * APU and I/O registers page. Registers without a read port read back the last value written
+     */
+    private final class IoRegisters implements Memory {
+
+        private final byte[] mData = new byte[PAGE_SIZE];
+        private final MemoryRange mMemoryRange = new MemoryRange(IO_REGISTERS_START, EXPANSION_START);
+
+        @Override
+        public int read(int address) {
+            int offset = address - IO_REGISTERS_START;
+            if (address < READ_PORTS_END && mReadPorts[offset] != null) {
+                return mReadPorts[offset].read();
+            }
+            return mData[offset] & 0xFF;
+        }
+
+        @Override
+        public void write(int address, int value) {
+            mData[address - IO_REGISTERS_START] = (byte) value;
+        }
+
+        @Override
+        public MemoryRange getRange() {
+            return mMemoryRange;
+        }
     }
 }
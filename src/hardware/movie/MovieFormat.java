@@ -0,0 +1,56 @@
+package hardware.movie;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of movie files, the controller input of every frame of a run. Numbers are big endian :
+ * <pre>
+ * header   "NESM", format version (int), id of the cartridge (long), keyframe interval (int)
+ * records  INPUT    : tag, number of frames (varint), buttons of player 1, buttons of player 2
+ *          KEYFRAME : tag, frame (varint), size (varint), save state of the console before that frame
+ *          END      : tag
+ * index    number of keyframes (int), then the frame (int) and file offset (long) of each KEYFRAME
+ * trailer  offset of the index (long), number of frames (int), "NESI"
+ * </pre>
+ * Records are written as the frames are played, so a movie streams to any output. Consecutive frames with
+ * the same input share one INPUT record, which never spans a keyframe : playback can start at any keyframe.
+ */
+final class MovieFormat {
+
+    static final int MAGIC = 0x4E45534D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    static final int TAG_INPUT = 0;
+    static final int TAG_KEYFRAME = 1;
+    static final int TAG_END = 2;
+
+    static final int INDEX_ENTRY_SIZE = 4 + 8;
+    static final int INDEX_MAGIC = 0x4E455349;
+    static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    private MovieFormat() {
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
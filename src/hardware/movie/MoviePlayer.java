@@ -0,0 +1,163 @@
+package hardware.movie;
+
+import com.google.common.base.Preconditions;
+import hardware.NES;
+import hardware.input.Joypads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Plays a movie recorded by {@link MovieRecorder} back into an {@link NES}, frame by frame. Seeking loads the
+ * last keyframe before the frame and replays the frames after it, so it costs at most a keyframe interval of
+ * emulation wherever the frame is in the movie.
+ * <p/>
+ * Confined to the thread of the NES, like the NES itself.
+ */
+public class MoviePlayer {
+
+    private final NES mNes;
+    private final ByteBuffer mMovie;
+    private final int mNumFrames;
+    private final int[] mKeyframeFrames;
+    private final int[] mKeyframeOffsets;
+
+    // Next frame to play
+    private int mFrame;
+    // Frames left in the current INPUT record, and their input
+    private int mRunLength;
+    private int mButtons1;
+    private int mButtons2;
+
+    /**
+     * Maps the movie in file, see {@link #MoviePlayer(NES, ByteBuffer)}
+     */
+    public static MoviePlayer open(File file, NES nes) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new MoviePlayer(nes, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads the index of movie, from its position to its limit, and loads its first keyframe into nes
+     *
+     * @throws IllegalArgumentException If movie is not a complete movie of this version, for the cartridge of
+     * nes
+     */
+    public MoviePlayer(NES nes, ByteBuffer movie) {
+        mNes = nes;
+        mMovie = movie.slice();
+        int size = mMovie.limit();
+        Preconditions.checkArgument(size >= MovieFormat.HEADER_SIZE + MovieFormat.TRAILER_SIZE
+                && mMovie.getInt(0) == MovieFormat.MAGIC, "Not a movie");
+        Preconditions.checkArgument(mMovie.getInt(4) == MovieFormat.VERSION, "Movie version %s, expected %s",
+                mMovie.getInt(4), MovieFormat.VERSION);
+        Preconditions.checkArgument(mMovie.getLong(8) == nes.getRomId(), "Movie of another cartridge");
+        Preconditions.checkArgument(mMovie.getInt(size - 4) == MovieFormat.INDEX_MAGIC,
+                "Movie without index, its recording was not closed");
+
+        long indexOffset = mMovie.getLong(size - MovieFormat.TRAILER_SIZE);
+        mNumFrames = mMovie.getInt(size - MovieFormat.TRAILER_SIZE + 8);
+        Preconditions.checkArgument(indexOffset >= MovieFormat.HEADER_SIZE
+                && indexOffset <= size - MovieFormat.TRAILER_SIZE - 4, "Corrupt movie index");
+        mMovie.position((int) indexOffset);
+        int numKeyframes = mMovie.getInt();
+        Preconditions.checkArgument(numKeyframes > 0
+                && mMovie.remaining() == numKeyframes * MovieFormat.INDEX_ENTRY_SIZE + MovieFormat.TRAILER_SIZE,
+                "Corrupt movie index");
+        mKeyframeFrames = new int[numKeyframes];
+        mKeyframeOffsets = new int[numKeyframes];
+        for (int i = 0; i < numKeyframes; i++) {
+            mKeyframeFrames[i] = mMovie.getInt();
+            mKeyframeOffsets[i] = (int) mMovie.getLong();
+        }
+        loadKeyframe(0);
+    }
+
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return Number of frames played since the start of the movie, i.e. the next frame to play
+     */
+    public int getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * Holds the recorded buttons and runs the next frame, see {@link MovieRecorder#runFrame(int, int)}
+     *
+     * @return false without running anything at the end of the movie
+     */
+    public boolean runFrame() {
+        if (mFrame == mNumFrames) {
+            return false;
+        }
+        while (mRunLength == 0) {
+            readRecord();
+        }
+        Joypads joypads = mNes.getJoypads();
+        joypads.setButtons(0, mButtons1);
+        joypads.setButtons(1, mButtons2);
+        mNes.runFrame();
+        mRunLength--;
+        mFrame++;
+        return true;
+    }
+
+    /**
+     * Puts the console in its state after frame frames of the movie. Frames ahead up to the next keyframe
+     * are played, anything else starts from the last keyframe before frame.
+     */
+    public void seek(int frame) {
+        Preconditions.checkPositionIndex(frame, mNumFrames);
+        int keyframe = Arrays.binarySearch(mKeyframeFrames, frame);
+        if (keyframe < 0) {
+            // Index of the last keyframe before frame
+            keyframe = -keyframe - 2;
+        }
+        if (frame < mFrame || mFrame < mKeyframeFrames[keyframe]) {
+            loadKeyframe(keyframe);
+        }
+        while (mFrame < frame) {
+            runFrame();
+        }
+    }
+
+    private void loadKeyframe(int keyframe) {
+        mMovie.position(mKeyframeOffsets[keyframe]);
+        Preconditions.checkState(mMovie.get() == MovieFormat.TAG_KEYFRAME, "Corrupt movie");
+        mFrame = MovieFormat.readVarint(mMovie);
+        int size = MovieFormat.readVarint(mMovie);
+        ByteBuffer state = mMovie.duplicate();
+        state.limit(state.position() + size);
+        mNes.loadState(state);
+        mMovie.position(state.limit());
+        mRunLength = 0;
+    }
+
+    private void readRecord() {
+        int tag = mMovie.get();
+        switch (tag) {
+            case MovieFormat.TAG_INPUT:
+                mRunLength = MovieFormat.readVarint(mMovie);
+                mButtons1 = mMovie.get() & 0xFF;
+                mButtons2 = mMovie.get() & 0xFF;
+                break;
+            case MovieFormat.TAG_KEYFRAME:
+                // Same state as the one played, nothing to load
+                MovieFormat.readVarint(mMovie);
+                int size = MovieFormat.readVarint(mMovie);
+                mMovie.position(mMovie.position() + size);
+                break;
+            default:
+                throw new IllegalStateException("Corrupt movie, record " + tag + " before its last frame");
+        }
+    }
+}
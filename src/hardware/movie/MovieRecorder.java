@@ -0,0 +1,130 @@
+package hardware.movie;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import hardware.NES;
+import hardware.input.Joypads;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Runs an {@link NES} frame by frame and records the input of each frame as a movie (see
+ * {@link MovieFormat}), played back by {@link MoviePlayer}. The state of the console when recording starts
+ * is the first keyframe, so a movie can start from any state.
+ * <p/>
+ * Confined to the thread of the NES, like the NES itself.
+ */
+public class MovieRecorder implements Closeable {
+
+    // 10 seconds, seeking replays at most that
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 600;
+
+    private final NES mNes;
+    private final DataOutputStream mOut;
+    private final int mKeyframeInterval;
+    private final ByteBuffer mState;
+    private final List<Integer> mKeyframeFrames = Lists.newArrayList();
+    private final List<Integer> mKeyframeOffsets = Lists.newArrayList();
+    private int mNumFrames;
+
+    // Input of the frames not written yet, all the same
+    private int mRunButtons = -1;
+    private int mRunLength;
+
+    public MovieRecorder(NES nes, OutputStream out) throws IOException {
+        this(nes, out, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param keyframeInterval Number of frames between two keyframes. Shorter intervals make seeking faster and
+     *                         the movie larger, a keyframe is a save state.
+     */
+    public MovieRecorder(NES nes, OutputStream out, int keyframeInterval) throws IOException {
+        Preconditions.checkArgument(keyframeInterval > 0);
+        mNes = nes;
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mKeyframeInterval = keyframeInterval;
+        mState = ByteBuffer.allocate(nes.getSaveStateSize());
+
+        mOut.writeInt(MovieFormat.MAGIC);
+        mOut.writeInt(MovieFormat.VERSION);
+        mOut.writeLong(nes.getRomId());
+        mOut.writeInt(keyframeInterval);
+    }
+
+    /**
+     * Holds the buttons of both players (see {@link Joypads#setButtons(int, int)}) during the next frame, runs
+     * it with {@link NES#runFrame()} and records it
+     */
+    public void runFrame(int buttons1, int buttons2) throws IOException {
+        if (mNumFrames % mKeyframeInterval == 0) {
+            writeRun();
+            writeKeyframe();
+        }
+        Joypads joypads = mNes.getJoypads();
+        joypads.setButtons(0, buttons1);
+        joypads.setButtons(1, buttons2);
+        int buttons = buttons1 | buttons2 << 8;
+        if (buttons != mRunButtons) {
+            writeRun();
+            mRunButtons = buttons;
+        }
+        mRunLength++;
+        mNes.runFrame();
+        mNumFrames++;
+    }
+
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * Writes the last frames and the index, and closes the output
+     */
+    @Override
+    public void close() throws IOException {
+        writeRun();
+        mOut.write(MovieFormat.TAG_END);
+        int indexOffset = mOut.size();
+        mOut.writeInt(mKeyframeFrames.size());
+        for (int i = 0; i < mKeyframeFrames.size(); i++) {
+            mOut.writeInt(mKeyframeFrames.get(i));
+            mOut.writeLong(mKeyframeOffsets.get(i));
+        }
+        mOut.writeLong(indexOffset);
+        mOut.writeInt(mNumFrames);
+        mOut.writeInt(MovieFormat.INDEX_MAGIC);
+        mOut.close();
+    }
+
+    private void writeRun() throws IOException {
+        if (mRunLength == 0) {
+            return;
+        }
+        mOut.write(MovieFormat.TAG_INPUT);
+        MovieFormat.writeVarint(mOut, mRunLength);
+        mOut.write(mRunButtons & 0xFF);
+        mOut.write(mRunButtons >> 8);
+        mRunLength = 0;
+    }
+
+    /**
+     * Saves the state of the console before the next frame
+     */
+    private void writeKeyframe() throws IOException {
+        mKeyframeFrames.add(mNumFrames);
+        mKeyframeOffsets.add(mOut.size());
+        mState.clear();
+        mNes.saveState(mState);
+        mOut.write(MovieFormat.TAG_KEYFRAME);
+        MovieFormat.writeVarint(mOut, mNumFrames);
+        MovieFormat.writeVarint(mOut, mState.position());
+        mOut.write(mState.array(), 0, mState.position());
+    }
+}
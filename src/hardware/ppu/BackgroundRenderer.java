@@ -0,0 +1,70 @@
+package hardware.ppu;
+
+import common.NesConstants;
+import hardware.ppu.memory.NameTables;
+import hardware.ppu.memory.PatternTables;
+import hardware.ppu.registers.ControllerInterpretator;
+import hardware.ppu.registers.PpuRegisters;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the background of a scanline from the nametables and pattern tables, starting at the tile of the
+ * VRAM address (v) and the fine X scroll, so every scanline uses the scroll written for it. Tile rows come
+ * decoded from {@link PatternTables#getTileRow(int)} and are written 8 pixels at a time.
+ */
+class BackgroundRenderer {
+
+    private static final int NAME_TABLES = 0x2000;
+    private static final int ATTRIBUTE_TABLE = 0x23C0;
+    private static final int TILE_SIZE = 16;
+    private static final int TILE_WIDTH = 8;
+    // Lowest bit of each byte of a tile row
+    private static final long PIXEL_LOW_BITS = 0x0101010101010101L;
+
+    private final PpuRegisters mRegisters;
+    private final NameTables mNameTables;
+    private final PatternTables mPatternTables;
+    // The 33 tiles of the scanline, the first one starting fine X pixels left of the screen
+    private final byte[] mTiles = new byte[NesConstants.WIDTH + TILE_WIDTH];
+    private final ByteBuffer mTilesBuffer = ByteBuffer.wrap(mTiles);
+
+    BackgroundRenderer(PpuRegisters registers, NameTables nameTables, PatternTables patternTables) {
+        mRegisters = registers;
+        mNameTables = nameTables;
+        mPatternTables = patternTables;
+    }
+
+    /**
+     * Writes the palette RAM index of each pixel of the scanline to line, 0 where the background is
+     * transparent. Does not move v, the PPU does it once the scanline is drawn.
+     */
+    void renderScanline(byte[] line) {
+        int address = mRegisters.getVramAddress();
+        int patternTable = ControllerInterpretator.getBackgroundPatternTable(mRegisters.getController())
+                + (address >> 12 & 0x07);
+        for (int x = 0; x < mTiles.length; x += TILE_WIDTH) {
+            int tile = mNameTables.read(NAME_TABLES | (address & 0x0FFF));
+            int attribute = mNameTables.read(ATTRIBUTE_TABLE | (address & 0x0C00) | (address >> 4 & 0x38)
+                    | (address >> 2 & 0x07));
+            // 2 bits of palette per 2x2 tiles, picked by bit 1 of the coarse X and Y
+            int palette = (attribute >> ((address >> 4 & 0x04) | (address & 0x02)) & 0x03) << 2;
+            long pixels = mPatternTables.getTileRow(patternTable + tile * TILE_SIZE);
+            // The palette goes to the opaque pixels only, palette 0 is the backdrop everywhere
+            long opaque = (pixels | pixels >>> 1) & PIXEL_LOW_BITS;
+            mTilesBuffer.putLong(x, pixels | opaque * palette);
+            address = nextTile(address);
+        }
+        System.arraycopy(mTiles, mRegisters.getFineX(), line, 0, NesConstants.WIDTH);
+    }
+
+    /**
+     * @return address moved to the next tile on the right, in the next nametable after the last column
+     */
+    private static int nextTile(int address) {
+        if ((address & 0x1F) == 0x1F) {
+            return (address & ~0x1F) ^ 0x0400;
+        }
+        return address + 1;
+    }
+}
@@ -1,5 +1,8 @@
 package hardware.ppu;
 
+import components.Stateful;
+import com.google.common.base.Preconditions;
+import common.NesConstants;
 import hardware.cpu.Cpu;
 import hardware.ppu.memory.OAM;
 import hardware.ppu.memory.PPUMemory;
@@ -10,16 +13,65 @@ import hardware.ppu.registers.PpuRegisters;
 import hardware.ppu.registers.StatusWriter;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-public class PPU implements PpuRegisters.IsRenderingProvider {
+public class PPU implements PpuRegisters.IsRenderingProvider, PpuRegisters.NmiEnableListener, Stateful {
+
+    private static final int DOTS_PER_SCANLINE = 341;
+    // NTSC : 240 rendered scanlines, the post-render scanline, 20 of VBlank and the pre-render scanline
+    private static final int SCANLINES_PER_FRAME = 262;
+    private static final int FIRST_RENDERED_SCANLINE = 0;
+    private static final int LAST_RENDERED_SCANLINE = 239;
+    private static final int POST_RENDER_SCANLINE = 240;
+    private static final int VBLANK_SCANLINE = 241;
+    private static final int PRE_RENDER_SCANLINE = 261;
+    private static final int NUM_RENDERED_SCANLINES = LAST_RENDERED_SCANLINE - FIRST_RENDERED_SCANLINE + 1;
+    // Dot at which the sprite pattern fetches raise PPU A12, clocking scanline counters
+    private static final int SCANLINE_COUNTER_DOT = 260;
+    // First dot of a scanline, where its sprites are evaluated and it is drawn with the registers of that time
+    private static final int RENDER_DOT = 1;
+    // Last dot of the background fetches of a scanline, where v moves down
+    private static final int VERTICAL_SCROLL_INCREMENT_DOT = 256;
+    private static final int HORIZONTAL_SCROLL_COPY_DOT = 257;
+    // The pre-render scanline copies all of the scroll from t, the vertical scroll during these dots
+    private static final int VERTICAL_SCROLL_COPY_START_DOT = 280;
+    private static final int VERTICAL_SCROLL_COPY_END_DOT = 304;
+    private static final int TILE_WIDTH = 8;
+    private static final int PALETTE_ADDRESS = 0x3F00;
+    private static final int PALETTE_SIZE = 0x20;
+    // Red, green and blue of each color of Palette
+    private static final byte[] RGB = new byte[Palette.PALETTE.size() * 3];
+
+    static {
+        for (int color = 0; color < Palette.PALETTE.size(); color++) {
+            int rgb = Palette.PALETTE.get(color);
+            RGB[color * 3] = (byte) (rgb >> 16);
+            RGB[color * 3 + 1] = (byte) (rgb >> 8);
+            RGB[color * 3 + 2] = (byte) rgb;
+        }
+    }
+
+    // PPUSTATUS bits read from the open bus
+    private static final int STATUS_OPEN_BUS_MASK = 0x1F;
+    private static final int STATUS_VBLANK = 0x80;
+    private static final int STATUS_SPRITE_0_HIT = 0x40;
+    private static final int STATUS_SPRITE_OVERFLOW = 0x20;
+    private static final int STATUS_SPRITE_FLAGS = STATUS_SPRITE_0_HIT | STATUS_SPRITE_OVERFLOW;
+    // Scanline, dot, clocks and sprite 0 hit dot
+    private static final int STATE_SIZE = 4 + 4 + 8 + 4;
 
-    public static long sPPUCycles = 0;
-    private static long sVBLON = 0;
     private final PpuRegisters mPpuRegisters;
     private final PPUMemory mMemory;
     private final Cpu mCpu;
     private final OAM mOam;
+    private final BackgroundRenderer mBackgroundRenderer;
+    private final SpriteRenderer mSpriteRenderer;
+    // Palette RAM index of each pixel of the scanline being drawn, then its RGB
+    private final byte[] mLinePixels = new byte[NesConstants.WIDTH];
+    private final int[] mLinePalette = new int[PALETTE_SIZE];
+    private final byte[] mLineRgb = new byte[NesConstants.WIDTH * 3];
     private ByteBuffer mBitmap;
+    private ScanlineListener mScanlineListener;
 
     public PPU(
             PpuRegisters registers,
@@ -30,6 +82,8 @@ public class PPU implements PpuRegisters.IsRenderingProvider {
         mMemory = memory;
         mCpu = cpu;
         mOam = oam;
+        mBackgroundRenderer = new BackgroundRenderer(registers, memory.getNameTables(), memory.getPatternTables());
+        mSpriteRenderer = new SpriteRenderer(registers, oam, memory.getPatternTables());
 
         mPpuRegisters.setController(0x00);
         mPpuRegisters.setMask(0x00);
@@ -38,120 +92,261 @@ public class PPU implements PpuRegisters.IsRenderingProvider {
         mPpuRegisters.setScroll( 0x00);
         mPpuRegisters.setAddr(0x00);
         mPpuRegisters.setData(0x00);
+        mPpuRegisters.setNmiEnableListener(this);
     }
 
 
     private int mCurrentScanLine;
     private int mCurrentDot;
+    // Clocks since power on
+    private long mNumClocks;
+    // Dot of the current scanline where sprite 0 hits the background, the flag is not set yet
+    private int mSprite0HitDot = SpriteRenderer.NO_SPRITE_0_HIT;
 
     public void clock(int numClocks) {
         for (int i = 0; i < numClocks; i++) {
-            sPPUCycles++;
+            mNumClocks++;
             mPpuRegisters.ppuClock();
             if (mCurrentDot == 0) {
                 mCurrentDot = 1;
                 // idle cycle
-                return;
+                continue;
             }
 
-            if (mCurrentScanLine == 0) {
-                preRenderLine();
-            }
-
-            if (mCurrentScanLine >= 0 && mCurrentScanLine <= 239) {
+            if (mCurrentScanLine <= LAST_RENDERED_SCANLINE) {
                 visibleScanLine();
             }
 
-            if (mCurrentScanLine == 240) {
-                postRenderScanline();
+            if (mCurrentDot == SCANLINE_COUNTER_DOT && mCurrentScanLine <= LAST_RENDERED_SCANLINE
+                    && mScanlineListener != null && isRendering()) {
+                mScanlineListener.onScanline(getCpuCycle());
             }
 
-            if (mCurrentScanLine >= 241 && mCurrentScanLine <= 260) {
+            if (mCurrentScanLine == POST_RENDER_SCANLINE) {
+                postRenderScanline();
+            } else if (mCurrentScanLine == VBLANK_SCANLINE) {
                 vBlankScanline();
+            } else if (mCurrentScanLine == PRE_RENDER_SCANLINE) {
+                preRenderLine();
             }
 
-            if (mCurrentDot == 340) {
+            if (mCurrentDot == DOTS_PER_SCANLINE - 1) {
                 mCurrentDot = 0;
-                mCurrentScanLine = (mCurrentScanLine + 1) % 260;
+                mCurrentScanLine = (mCurrentScanLine + 1) % SCANLINES_PER_FRAME;
             } else {
                 mCurrentDot++;
             }
         }
     }
 
+    /**
+     * @return Number of CPU cycles after which the PPU will have started VBlank (and sent the NMI)
+     */
+    public int getCpuCyclesUntilVBlank() {
+        return toCpuCycles(getClocksUntilDot(VBLANK_SCANLINE, 1));
+    }
+
+    /**
+     * @return Number of CPU cycles after which reading PPUSTATUS may return another value : VBlank starts or
+     * ends, or the open bus bits it returns decay
+     */
+    public int getCpuCyclesUntilStatusChange() {
+        long numClocks = Math.min(getClocksUntilDot(VBLANK_SCANLINE, 1), getClocksUntilDot(PRE_RENDER_SCANLINE, 1));
+        numClocks = Math.min(numClocks, mPpuRegisters.getClocksUntilBusDecay(STATUS_OPEN_BUS_MASK));
+        if (mSprite0HitDot != SpriteRenderer.NO_SPRITE_0_HIT) {
+            numClocks = Math.min(numClocks, getClocksUntilDot(mCurrentScanLine, mSprite0HitDot));
+        } else if (isRendering() && (mPpuRegisters.getStatus() & STATUS_SPRITE_FLAGS) != STATUS_SPRITE_FLAGS) {
+            // The next scanline may overflow or schedule a hit
+            numClocks = Math.min(numClocks, getClocksUntilDot(getNextRenderedScanline(), RENDER_DOT));
+        }
+        return toCpuCycles((int) numClocks);
+    }
+
+    /**
+     * @return Number of CPU cycles after which the PPU will have clocked the {@link ScanlineListener}
+     * numScanlines times, if rendering stays enabled
+     */
+    public int getCpuCyclesUntilScanline(int numScanlines) {
+        // Index of the first clock to come among the clocks of this frame, the next ones follow
+        int firstClock;
+        if (mCurrentScanLine > LAST_RENDERED_SCANLINE
+                || (mCurrentScanLine == LAST_RENDERED_SCANLINE && mCurrentDot > SCANLINE_COUNTER_DOT)) {
+            firstClock = NUM_RENDERED_SCANLINES;
+        } else if (mCurrentDot > SCANLINE_COUNTER_DOT) {
+            firstClock = mCurrentScanLine - FIRST_RENDERED_SCANLINE + 1;
+        } else {
+            firstClock = mCurrentScanLine - FIRST_RENDERED_SCANLINE;
+        }
+        int clock = firstClock + numScanlines - 1;
+        int scanLine = FIRST_RENDERED_SCANLINE + clock % NUM_RENDERED_SCANLINES;
+        int targetDot = (clock / NUM_RENDERED_SCANLINES) * DOTS_PER_SCANLINE * SCANLINES_PER_FRAME
+                + scanLine * DOTS_PER_SCANLINE + SCANLINE_COUNTER_DOT;
+        int currentDot = mCurrentScanLine * DOTS_PER_SCANLINE + mCurrentDot;
+        return toCpuCycles(targetDot - currentDot + 1);
+    }
+
+    public void setScanlineListener(ScanlineListener scanlineListener) {
+        mScanlineListener = scanlineListener;
+    }
+
+    /**
+     * @return Scanline whose {@link #RENDER_DOT} is processed next
+     */
+    private int getNextRenderedScanline() {
+        if (mCurrentScanLine <= LAST_RENDERED_SCANLINE && mCurrentDot <= RENDER_DOT) {
+            return mCurrentScanLine;
+        }
+        return mCurrentScanLine < LAST_RENDERED_SCANLINE ? mCurrentScanLine + 1 : FIRST_RENDERED_SCANLINE;
+    }
+
+    /**
+     * @return Number of clocks up to and including the one processing dot of scanLine
+     */
+    private int getClocksUntilDot(int scanLine, int dot) {
+        int frameDots = DOTS_PER_SCANLINE * SCANLINES_PER_FRAME;
+        int currentDot = mCurrentScanLine * DOTS_PER_SCANLINE + mCurrentDot;
+        int targetDot = scanLine * DOTS_PER_SCANLINE + dot;
+        return (targetDot - currentDot + frameDots) % frameDots + 1;
+    }
+
+    private static int toCpuCycles(int numClocks) {
+        // 3 clocks per CPU cycle
+        return (numClocks + 2) / 3;
+    }
+
+    /**
+     * @return Number of PPU clocks since power on
+     */
+    public long getNumClocks() {
+        return mNumClocks;
+    }
+
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE + mPpuRegisters.getStateSize() + mOam.getStateSize();
+    }
+
+    /**
+     * Saves the position in the frame, the registers and OAM. The PPU memory is saved on its own, the
+     * pages a forked console shares with its parent are not duplicated by forking the PPU.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putInt(mCurrentScanLine);
+        buffer.putInt(mCurrentDot);
+        buffer.putLong(mNumClocks);
+        buffer.putInt(mSprite0HitDot);
+        mPpuRegisters.saveState(buffer);
+        mOam.saveState(buffer);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mCurrentScanLine = buffer.getInt();
+        mCurrentDot = buffer.getInt();
+        mNumClocks = buffer.getLong();
+        mSprite0HitDot = buffer.getInt();
+        mPpuRegisters.loadState(buffer);
+        mOam.loadState(buffer);
+    }
+
+    /**
+     * @return Bitmap set by {@link #initializeBuffer(ByteBuffer)}, each scanline is drawn into it as the PPU
+     * starts it, with the registers of that moment. Rows of the frame being run above the current
+     * scanline are already from that frame.
+     */
     public ByteBuffer renderFrame() {
-        renderNameTable(ControllerInterpretator.getBaseNameTableAddress(mPpuRegisters.getController()));
         return mBitmap;
     }
 
-    private void renderNameTable(int nameTableOffset) {
-        int tileX;
-        int tileY = 0;
-        while (tileY < 30) {
-            int yAttributeOffest = tileY / 4;
-            tileX = 0;
-            while (tileX < 32) {
-                int xAttributeOffset = tileX / 4;
-                int totalAttributeOffset = (yAttributeOffest * (32 / 4)) + xAttributeOffset;
-                int colorInfo = mMemory.read(nameTableOffset + 0x3C0 + totalAttributeOffset);
-                int pattern = mMemory.read(nameTableOffset + ((tileY * 32) + tileX));
-                addTileData(tileX, tileY, pattern * 2 * 8, colorInfo);
-                tileX++;
+    /**
+     * Evaluates the sprites of the current scanline and draws it into the bitmap. Without a bitmap the
+     * scanline is only drawn when sprite 0 can hit the background.
+     */
+    private void renderScanline() {
+        int scanline = mCurrentScanLine - FIRST_RENDERED_SCANLINE;
+        boolean showBackground = MaskReader.showBackground(mPpuRegisters);
+        boolean showSprites = MaskReader.showSprites(mPpuRegisters);
+        boolean checkHit = false;
+        if (showBackground || showSprites) {
+            if (mSpriteRenderer.evaluate(scanline) > SpriteRenderer.MAX_SPRITES_PER_SCANLINE) {
+                StatusWriter.setSpriteOverflow(mPpuRegisters);
+            }
+            checkHit = showBackground && showSprites && mSpriteRenderer.hasSprite0()
+                    && (mPpuRegisters.getStatus() & STATUS_SPRITE_0_HIT) == 0;
+        }
+        if (mBitmap == null && !checkHit) {
+            return;
+        }
+
+        if (showBackground) {
+            mBackgroundRenderer.renderScanline(mLinePixels);
+            if (!MaskReader.showBackgroundLeft(mPpuRegisters)) {
+                Arrays.fill(mLinePixels, 0, TILE_WIDTH, (byte) 0);
             }
-            tileY++;
-        }
-    }
-
-    private void addTileData(int tileX, int tileY, int pattern, int colorInfo) {
-        int tileOffset = (tileX * 8) + (tileY * 256 * 8);
-        for (int row = 0; row < 8; row++) {
-            int patternTableOffset =
-                    ControllerInterpretator.getBackgroundPatternTable(mPpuRegisters.getController()) + pattern;
-            int valueLow = mMemory.read(patternTableOffset);
-            int valueHigh = mMemory.read(patternTableOffset + 8);
-            for (int col = 7; col >= 0; col--) {
-                int color = ((valueLow >> col) & 1) | (((valueHigh >> col) & 1) << 1);
-                int index = (tileOffset + (256 * row) + col) * 3;
-
-                if (color == 0) {
-                    continue;
-                }
-
-                if (tileX % 4 < 2 && tileY % 4 < 2) {
-                    color |= (colorInfo & 0b11) << 2;
-                } else if (tileX % 4 > 2 && tileY % 4 < 2) {
-                    color |= ((colorInfo >> 2) & 0b11) << 2;
-                } else if (tileX % 4 < 2 && tileY % 4 > 2) {
-                    color |= ((colorInfo >> 4) & 0b11) << 2;
-                } else if (tileX % 4 > 2 && tileY % 4 > 2) {
-                    color |= ((colorInfo >> 6) & 0b11) << 2;
-                }
-
-                int paletteColor = Palette.PALETTE.get(color);
-                setColor(paletteColor, index);
+        } else {
+            // Backdrop color only
+            Arrays.fill(mLinePixels, (byte) 0);
+        }
+        if (showSprites) {
+            int sprite0Hit = mSpriteRenderer.render(mLinePixels, MaskReader.showSpritesLeft(mPpuRegisters), checkHit);
+            if (sprite0Hit != SpriteRenderer.NO_SPRITE_0_HIT) {
+                // Dot 1 outputs pixel 0
+                mSprite0HitDot = sprite0Hit + RENDER_DOT;
             }
         }
+        if (mBitmap != null) {
+            writeLine(scanline);
+        }
     }
 
-    private void setColor(int color, int index) {
-        mBitmap.put(index, (byte) ((color & 0xFF0000) >> 16));
-        mBitmap.put(index + 1, (byte) ((color & 0x00FF00) >> 8));
-        mBitmap.put(index + 2, (byte) (color & 0x0000FF));
+    /**
+     * Converts the palette RAM indexes of mLinePixels to RGB, into row of the bitmap
+     */
+    private void writeLine(int row) {
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            mLinePalette[i] = mMemory.read(PALETTE_ADDRESS + i) & 0x3F;
+        }
+        for (int x = 0, index = 0; x < NesConstants.WIDTH; x++, index += 3) {
+            int color = mLinePalette[mLinePixels[x]] * 3;
+            mLineRgb[index] = RGB[color];
+            mLineRgb[index + 1] = RGB[color + 1];
+            mLineRgb[index + 2] = RGB[color + 2];
+        }
+        mBitmap.position(row * mLineRgb.length);
+        mBitmap.put(mLineRgb);
     }
 
-    // (-1. 261)
+    // 261
     private void preRenderLine() {
-      if (mCurrentDot == 1) {
-          // System.out.println("VBL OFF : " + sPPUCycles);
-          sPPUCycles -= sVBLON;
-          StatusWriter.clearSpriteOverflow(mPpuRegisters);
-          StatusWriter.clearSprite0Hit(mPpuRegisters);
-          StatusWriter.clearVBlank(mPpuRegisters);
-      }
+        if (mCurrentDot == 1) {
+            StatusWriter.clearSpriteOverflow(mPpuRegisters);
+            StatusWriter.clearSprite0Hit(mPpuRegisters);
+            StatusWriter.clearVBlank(mPpuRegisters);
+        }
+        if (isRendering()) {
+            if (mCurrentDot == HORIZONTAL_SCROLL_COPY_DOT) {
+                mPpuRegisters.copyHorizontalScroll();
+            } else if (mCurrentDot >= VERTICAL_SCROLL_COPY_START_DOT && mCurrentDot <= VERTICAL_SCROLL_COPY_END_DOT) {
+                mPpuRegisters.copyVerticalScroll();
+            }
+        }
     }
 
     // (0, 239)
     private void visibleScanLine() {
+        if (mCurrentDot == RENDER_DOT) {
+            renderScanline();
+        }
+        if (mCurrentDot == mSprite0HitDot) {
+            StatusWriter.setSprite0Hit(mPpuRegisters);
+            mSprite0HitDot = SpriteRenderer.NO_SPRITE_0_HIT;
+        }
+        if (mCurrentDot == VERTICAL_SCROLL_INCREMENT_DOT && isRendering()) {
+            mPpuRegisters.incrementVerticalScroll();
+        } else if (mCurrentDot == HORIZONTAL_SCROLL_COPY_DOT && isRendering()) {
+            mPpuRegisters.copyHorizontalScroll();
+        }
         if (mCurrentDot >= 257 && mCurrentDot <= 320) {
             mPpuRegisters.setOamAddress(0x00);
         }
@@ -164,23 +359,63 @@ public class PPU implements PpuRegisters.IsRenderingProvider {
         }
     }
 
-    // VBLANK (241-260)
+    // 241, the first of the VBlank scanlines (241-260)
     private void vBlankScanline() {
-        if (mCurrentDot == 1 && mCurrentScanLine == 241) {
+        if (mCurrentDot == 1) {
+            StatusWriter.setVBlank(mPpuRegisters);
             if (ControllerInterpretator.generateNMI(mPpuRegisters.getController())) {
-                mCpu.sendNMI();
+                mCpu.sendNMI(getNmiCpuCycle());
             }
-            sVBLON = sPPUCycles;
-            StatusWriter.setVBlank(mPpuRegisters);
         }
     }
 
+    /**
+     * PPUCTRL enabling the NMI during VBlank sends it right away
+     */
+    @Override
+    public void onNmiEnabled() {
+        if ((mPpuRegisters.getStatus() & STATUS_VBLANK) != 0) {
+            mCpu.sendNMI(getNmiCpuCycle());
+        }
+    }
+
+    /**
+     * @return CPU cycle of the last clock, 3 clocks per CPU cycle since power on
+     */
+    private long getCpuCycle() {
+        return (mNumClocks - 1) / 3;
+    }
+
+    /**
+     * @return CPU cycle seeing the NMI raised by the last clock, the CPU samples it one clock into its cycles
+     */
+    private long getNmiCpuCycle() {
+        return (mNumClocks - 2) / 3;
+    }
+
     @Override
     public boolean isRendering() {
         return MaskReader.showBackground(mPpuRegisters) || MaskReader.showSprites(mPpuRegisters);
     }
     
+    /**
+     * @param byteBuffer Bitmap the scanlines are drawn into, RGB, one byte per component, top row first.
+     *                   Nothing is drawn until it is set.
+     */
     public void initializeBuffer(ByteBuffer byteBuffer) {
+        Preconditions.checkArgument(byteBuffer.capacity() >= NesConstants.WIDTH * NesConstants.HEIGHT * 3,
+                "Bitmap too small : %s", byteBuffer.capacity());
         mBitmap = byteBuffer;
     }
+
+    /**
+     * Clocked once per rendered scanline while rendering is enabled, like the scanline counter of MMC3
+     * cartridges
+     */
+    public interface ScanlineListener {
+        /**
+         * @param cpuCycle CPU cycle of the clock, the listener may be called after the CPU went past it
+         */
+        void onScanline(long cpuCycle);
+    }
 }
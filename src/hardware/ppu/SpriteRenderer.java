@@ -0,0 +1,152 @@
+package hardware.ppu;
+
+import common.NesConstants;
+import hardware.ppu.memory.OAM;
+import hardware.ppu.memory.PatternTables;
+import hardware.ppu.registers.ControllerInterpretator;
+import hardware.ppu.registers.PpuRegisters;
+
+import java.util.Arrays;
+
+/**
+ * Draws the sprites of a scanline over its background. {@link #evaluate(int)} picks the first 8 sprites of
+ * OAM on the scanline into a secondary list, like the PPU does, then {@link #render(byte[], boolean, boolean)}
+ * composites them with their priority, flipping and palette.
+ */
+class SpriteRenderer {
+
+    static final int MAX_SPRITES_PER_SCANLINE = 8;
+    static final int NO_SPRITE_0_HIT = -1;
+
+    private static final int NUM_SPRITES = 64;
+    private static final int SPRITE_SIZE = 4;
+    private static final int TILE_SIZE = 16;
+    private static final int TILE_WIDTH = 8;
+    private static final int SPRITE_PALETTES = 0x10;
+
+    private static final int ATTRIBUTE_PALETTE = 0x03;
+    private static final int ATTRIBUTE_BEHIND_BACKGROUND = 0x20;
+    private static final int ATTRIBUTE_FLIP_HORIZONTAL = 0x40;
+    private static final int ATTRIBUTE_FLIP_VERTICAL = 0x80;
+
+    private final PpuRegisters mRegisters;
+    private final OAM mOam;
+    private final PatternTables mPatternTables;
+
+    // OAM index of the sprites of the scanline, in OAM order, and their row of pixels
+    private final int[] mSprites = new int[MAX_SPRITES_PER_SCANLINE];
+    private final int[] mSpriteRows = new int[MAX_SPRITES_PER_SCANLINE];
+    private int mNumSprites;
+
+    // Palette RAM index of the sprite pixel drawn at each x, 0 for none, with its priority
+    private final byte[] mPixels = new byte[NesConstants.WIDTH];
+    private final boolean[] mBehindBackground = new boolean[NesConstants.WIDTH];
+
+    SpriteRenderer(PpuRegisters registers, OAM oam, PatternTables patternTables) {
+        mRegisters = registers;
+        mOam = oam;
+        mPatternTables = patternTables;
+    }
+
+    /**
+     * Fills the secondary list with the sprites on scanline, sprites are drawn 1 scanline below their Y
+     *
+     * @return Number of sprites on scanline, more than {@link #MAX_SPRITES_PER_SCANLINE} when some are dropped
+     */
+    int evaluate(int scanline) {
+        int height = ControllerInterpretator.getSpriteHeight(mRegisters.getController());
+        int numSprites = 0;
+        for (int sprite = 0; sprite < NUM_SPRITES; sprite++) {
+            int row = scanline - 1 - mOam.read(sprite * SPRITE_SIZE);
+            if (row < 0 || row >= height) {
+                continue;
+            }
+            if (numSprites < MAX_SPRITES_PER_SCANLINE) {
+                mSprites[numSprites] = sprite;
+                mSpriteRows[numSprites] = row;
+            }
+            numSprites++;
+        }
+        mNumSprites = Math.min(numSprites, MAX_SPRITES_PER_SCANLINE);
+        return numSprites;
+    }
+
+    /**
+     * @return true if sprite 0 is in the secondary list, it can set the sprite 0 hit flag
+     */
+    boolean hasSprite0() {
+        return mNumSprites > 0 && mSprites[0] == 0;
+    }
+
+    /**
+     * Draws the sprites of the secondary list over line, the palette RAM index of the background pixels, 0
+     * where transparent
+     *
+     * @param showLeft  false to hide the sprites on the 8 leftmost pixels
+     * @param checkHit  true to look for the first pixel where sprite 0 and the background are both opaque
+     * @return x of that pixel, {@link #NO_SPRITE_0_HIT} if there is none or checkHit is false
+     */
+    int render(byte[] line, boolean showLeft, boolean checkHit) {
+        if (mNumSprites == 0) {
+            return NO_SPRITE_0_HIT;
+        }
+        Arrays.fill(mPixels, (byte) 0);
+        int height = ControllerInterpretator.getSpriteHeight(mRegisters.getController());
+        int patternTable = ControllerInterpretator.getSpritePatternTableAddress(mRegisters.getController());
+        int sprite0Hit = NO_SPRITE_0_HIT;
+        // Lower OAM indexes are drawn over the higher ones, whatever their priority over the background
+        for (int i = 0; i < mNumSprites; i++) {
+            int address = mSprites[i] * SPRITE_SIZE;
+            int tile = mOam.read(address + 1);
+            int attributes = mOam.read(address + 2);
+            int x = mOam.read(address + 3);
+
+            int row = mSpriteRows[i];
+            if ((attributes & ATTRIBUTE_FLIP_VERTICAL) != 0) {
+                row = height - 1 - row;
+            }
+            int tileAddress;
+            if (height == TILE_WIDTH) {
+                tileAddress = patternTable + tile * TILE_SIZE;
+            } else {
+                // 8x16 sprites take their table from bit 0 of the tile, the bottom half is the next tile
+                tileAddress = (tile & 1) * PatternTables.PATTERN_TABLE_1 + (tile & 0xFE) * TILE_SIZE;
+                if (row >= TILE_WIDTH) {
+                    tileAddress += TILE_SIZE;
+                    row -= TILE_WIDTH;
+                }
+            }
+            long pixels = mPatternTables.getTileRow(tileAddress + row);
+            if (pixels == 0) {
+                continue;
+            }
+            if ((attributes & ATTRIBUTE_FLIP_HORIZONTAL) != 0) {
+                // One pixel per byte
+                pixels = Long.reverseBytes(pixels);
+            }
+
+            int palette = SPRITE_PALETTES | (attributes & ATTRIBUTE_PALETTE) << 2;
+            boolean behindBackground = (attributes & ATTRIBUTE_BEHIND_BACKGROUND) != 0;
+            boolean sprite0 = checkHit && mSprites[i] == 0;
+            // Sprites may end past the right of the screen
+            for (int shift = 56; shift >= 0 && x < NesConstants.WIDTH; shift -= 8, x++) {
+                int pixel = (int) (pixels >>> shift) & 0x03;
+                if (pixel == 0 || mPixels[x] != 0 || (x < TILE_WIDTH && !showLeft)) {
+                    continue;
+                }
+                mPixels[x] = (byte) (palette | pixel);
+                mBehindBackground[x] = behindBackground;
+                // Never on the last pixel
+                if (sprite0 && sprite0Hit == NO_SPRITE_0_HIT && line[x] != 0 && x < NesConstants.WIDTH - 1) {
+                    sprite0Hit = x;
+                }
+            }
+        }
+        for (int x = 0; x < NesConstants.WIDTH; x++) {
+            if (mPixels[x] != 0 && (line[x] == 0 || !mBehindBackground[x])) {
+                line[x] = mPixels[x];
+            }
+        }
+        return sprite0Hit;
+    }
+}
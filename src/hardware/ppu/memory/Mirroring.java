@@ -0,0 +1,16 @@
+package hardware.ppu.memory;
+
+/**
+ * Arrangement of the 4 logical nametables over the console's 2K of nametable RAM, set by the cartridge
+ */
+public enum Mirroring {
+    // $2000 = $2400 and $2800 = $2C00
+    HORIZONTAL,
+    // $2000 = $2800 and $2400 = $2C00
+    VERTICAL,
+    // Every nametable is the first, or the second, 1K of nametable RAM
+    SINGLE_SCREEN_LOWER,
+    SINGLE_SCREEN_UPPER,
+    // The cartridge provides 2K more, no mirroring
+    FOUR_SCREEN
+}
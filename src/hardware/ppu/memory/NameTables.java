@@ -1,28 +1,139 @@
 package hardware.ppu.memory;
 
-import components.memory.CompositeMemory;
+import components.Stateful;
+import components.memory.Memory;
+import components.memory.MemoryRange;
 
-public class NameTables extends CompositeMemory {
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * $2000 - $2FFF of the PPU : four 1K nametables (with their attribute tables) over the 2K of console
+ * nametable RAM (CIRAM). Like {@link PatternTables}, each nametable is the offset of its 1K in the RAM, so
+ * mirroring is only aliasing and a mapper can change it at any time. Four-screen cartridges add 2K of RAM.
+ * <p/>
+ * The RAM is shared with the nametables of a {@link #fork()} until either of them writes to it.
+ */
+public class NameTables implements Memory, Stateful {
 
     public static final int NT_0 = 0x2000;
     public static final int NT_1 = 0x2400;
     public static final int NT_2 = 0x2800;
     public static final int NT_3 = 0x2C00;
 
-    public static NameTables construct() {
-        return new NameTables(
-                new NameTable(NT_0),
-                new NameTable(NT_1),
-                new NameTable(NT_2),
-                new NameTable(NT_3)
-        );
-    }
-
-    private NameTables(
-            NameTable table1,
-            NameTable table2,
-            NameTable table3,
-            NameTable table4) {
-        super(table1, table2, table3, table4);
+    private static final int NAME_TABLE_SIZE = 0x400;
+    private static final int NUM_NAME_TABLES = 4;
+    private static final int NAME_TABLE_SHIFT = 10;
+    private static final int NAME_TABLE_MASK = NAME_TABLE_SIZE - 1;
+    private static final int CIRAM_SIZE = 2 * NAME_TABLE_SIZE;
+    private static final Mirroring[] MIRRORINGS = Mirroring.values();
+
+    private final MemoryRange mMemoryRange = new MemoryRange(NT_0, NT_0 + NUM_NAME_TABLES * NAME_TABLE_SIZE);
+    // Offset in mRam of each nametable
+    private final int[] mOffsets = new int[NUM_NAME_TABLES];
+    private byte[] mRam;
+    // RAM shared with a fork, copied on the first write
+    private boolean mShared;
+    private Mirroring mMirroring;
+
+    public NameTables() {
+        this(new byte[CIRAM_SIZE], Mirroring.HORIZONTAL);
+    }
+
+    private NameTables(byte[] ram, Mirroring mirroring) {
+        mRam = ram;
+        setMirroring(mirroring);
+    }
+
+    /**
+     * @return Nametables with the same mirroring, sharing the RAM copy on write with these ones
+     */
+    public NameTables fork() {
+        NameTables fork = new NameTables(mRam, mMirroring);
+        mShared = true;
+        fork.mShared = true;
+        return fork;
+    }
+
+    public void setMirroring(Mirroring mirroring) {
+        mMirroring = mirroring;
+        switch (mirroring) {
+            case HORIZONTAL:
+                setOffsets(0, 0, 1, 1);
+                break;
+            case VERTICAL:
+                setOffsets(0, 1, 0, 1);
+                break;
+            case SINGLE_SCREEN_LOWER:
+                setOffsets(0, 0, 0, 0);
+                break;
+            case SINGLE_SCREEN_UPPER:
+                setOffsets(1, 1, 1, 1);
+                break;
+            case FOUR_SCREEN:
+                if (mRam.length < NUM_NAME_TABLES * NAME_TABLE_SIZE) {
+                    mRam = Arrays.copyOf(mRam, NUM_NAME_TABLES * NAME_TABLE_SIZE);
+                    mShared = false;
+                }
+                setOffsets(0, 1, 2, 3);
+                break;
+        }
+    }
+
+    public Mirroring getMirroring() {
+        return mMirroring;
+    }
+
+    /**
+     * Reads $2000 - $3FFF, $3000 - $3FFF mirroring $2000 - $2FFF
+     */
+    @Override
+    public int read(int address) {
+        return mRam[mOffsets[(address >> NAME_TABLE_SHIFT) & 0b11] + (address & NAME_TABLE_MASK)] & 0xFF;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        if (mShared) {
+            mRam = mRam.clone();
+            mShared = false;
+        }
+        mRam[mOffsets[(address >> NAME_TABLE_SHIFT) & 0b11] + (address & NAME_TABLE_MASK)] = (byte) value;
+    }
+
+    @Override
+    public MemoryRange getRange() {
+        return mMemoryRange;
+    }
+
+    @Override
+    public int getStateSize() {
+        return 1 + mRam.length;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) mMirroring.ordinal());
+        buffer.put(mRam);
+    }
+
+    /**
+     * Restores the mirroring first, which adds the RAM of four-screen cartridges before it is read
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        setMirroring(MIRRORINGS[buffer.get()]);
+        if (mShared) {
+            mRam = new byte[mRam.length];
+            mShared = false;
+        }
+        buffer.get(mRam);
+    }
+
+    private void setOffsets(int nameTable0, int nameTable1, int nameTable2, int nameTable3) {
+        mOffsets[0] = nameTable0 * NAME_TABLE_SIZE;
+        mOffsets[1] = nameTable1 * NAME_TABLE_SIZE;
+        mOffsets[2] = nameTable2 * NAME_TABLE_SIZE;
+        mOffsets[3] = nameTable3 * NAME_TABLE_SIZE;
     }
 }
@@ -1,21 +1,112 @@
 package hardware.ppu.memory;
 
-import components.memory.*;
+import components.Stateful;
+import components.memory.Memory;
+import components.memory.MemoryRange;
 
-public class PPUMemory extends MirroredMemory {
+import java.nio.ByteBuffer;
+
+/**
+ * PPU address space, mirrored every $4000 : pattern tables, nametables (mirrored at $3000 - $3EFF) and
+ * palette RAM (mirrored every $20 from $3F00, the backdrop entries of the sprite palettes being those of the
+ * background palettes). Everything is stored in byte arrays and decoded with a couple
+ * of compares, the renderer reads it for every tile.
+ * <p/>
+ * A {@link #fork()} shares CHR-RAM and nametable RAM copy on write, the 32 bytes of palette are copied.
+ */
+public class PPUMemory implements Memory, Stateful {
+
+    private static final int ADDRESS_MASK = 0x3FFF;
+    private static final int NAME_TABLES_START = 0x2000;
+    private static final int PALETTE_START = 0x3F00;
+    private static final int PALETTE_SIZE = 0x20;
+
+    private final PatternTables mPatternTables;
+    private final NameTables mNameTables;
+    private final byte[] mPaletteRam = new byte[PALETTE_SIZE];
+    private final MemoryRange mMemoryRange = new MemoryRange(0, 0x10000);
 
     public static PPUMemory construct() {
-        PatternTables patternTables = new PatternTables();
-        NameTables nameTables = NameTables.construct();
-        Memory mirrorOfNameTables = new MirrorOf(nameTables, 0x3000, 0x3F00 - 0x3000);
-        Memory palettes = new MemoryBlock(0x3F00, 0x20);
-        Memory mirroredPalettes = new MirroredMemory(palettes, 8);
-        CompositeMemory compositeMemory =
-                new CompositeMemory(patternTables, nameTables, mirrorOfNameTables, mirroredPalettes);
-        return new PPUMemory(compositeMemory);
-    }
-
-    private PPUMemory(Memory singleBlock) {
-        super(singleBlock, 4);
+        return new PPUMemory(new PatternTables(), new NameTables());
+    }
+
+    private PPUMemory(PatternTables patternTables, NameTables nameTables) {
+        mPatternTables = patternTables;
+        mNameTables = nameTables;
+    }
+
+    /**
+     * @return PPU memory with the same content as this one, see {@link PatternTables#fork()} and
+     * {@link NameTables#fork()}
+     */
+    public PPUMemory fork() {
+        PPUMemory fork = new PPUMemory(mPatternTables.fork(), mNameTables.fork());
+        System.arraycopy(mPaletteRam, 0, fork.mPaletteRam, 0, PALETTE_SIZE);
+        return fork;
+    }
+
+    @Override
+    public int read(int address) {
+        address &= ADDRESS_MASK;
+        if (address < NAME_TABLES_START) {
+            return mPatternTables.read(address);
+        }
+        if (address < PALETTE_START) {
+            return mNameTables.read(address);
+        }
+        return mPaletteRam[getPaletteIndex(address)] & 0xFF;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        address &= ADDRESS_MASK;
+        if (address < NAME_TABLES_START) {
+            mPatternTables.write(address, value);
+        } else if (address < PALETTE_START) {
+            mNameTables.write(address, value);
+        } else {
+            mPaletteRam[getPaletteIndex(address)] = (byte) value;
+        }
+    }
+
+    /**
+     * @return Index in palette RAM of address, $3F10, $3F14, $3F18 and $3F1C mirroring $3F00, $3F04, $3F08 and
+     * $3F0C
+     */
+    private static int getPaletteIndex(int address) {
+        int index = address & (PALETTE_SIZE - 1);
+        return (index & 0x13) == 0x10 ? index & 0x0F : index;
+    }
+
+    @Override
+    public MemoryRange getRange() {
+        return mMemoryRange;
+    }
+
+    @Override
+    public int getStateSize() {
+        return mPatternTables.getStateSize() + mNameTables.getStateSize() + PALETTE_SIZE;
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        mPatternTables.saveState(buffer);
+        mNameTables.saveState(buffer);
+        buffer.put(mPaletteRam);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        mPatternTables.loadState(buffer);
+        mNameTables.loadState(buffer);
+        buffer.get(mPaletteRam);
+    }
+
+    public PatternTables getPatternTables() {
+        return mPatternTables;
+    }
+
+    public NameTables getNameTables() {
+        return mNameTables;
     }
 }
@@ -1,41 +1,194 @@
 package hardware.ppu.memory;
 
+import com.google.common.base.Preconditions;
+import components.Stateful;
 import components.memory.Memory;
 import components.memory.MemoryRange;
-import components.memory.MemoryUtils;
 
-public class PatternTables implements Memory {
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * $0000 - $1FFF of the PPU, seen through eight 1K slots. Each slot points at a 1K bank of the cartridge CHR
+ * (CHR-ROM, or CHR-RAM when it has none), kept as the offset of the bank in a single array : a fetch is a
+ * slot table lookup and an array index, and a mapper switches a bank by changing an offset.
+ * <p/>
+ * CHR-RAM is shared with the pattern tables of a {@link #fork()} until either of them writes to it.
+ * <p/>
+ * The renderers read whole rows of tiles with {@link #getTileRow(int)}. The rows of CHR-ROM are decoded once
+ * (see {@link #setChrRom(byte[], long[])}, the mapper shares them between all the consoles running the
+ * cartridge); the rows of CHR-RAM are decoded by each instance the first time they are read, and kept until
+ * the tile is written. The decoded rows follow the CHR, not the slots, so switching banks keeps them.
+ */
+public class PatternTables implements Memory, Stateful {
 
     public static final int PATTERN_TABLE_0 = 0x0000;
     public static final int PATTERN_TABLE_1 = 0x1000;
 
-    private final int[] mPatternTable1;
-    private final int[] mPatternTable2;
-    private final MemoryRange mMemoryRange;
+    public static final int SLOT_SIZE = 0x400;
+    public static final int NUM_SLOTS = 8;
+    private static final int SLOT_SHIFT = 10;
+    private static final int SLOT_MASK = SLOT_SIZE - 1;
+    private static final int SIZE = SLOT_SIZE * NUM_SLOTS;
+    private static final int TILE_SHIFT = 4;
+    private static final int TILE_ROWS = 8;
+    // Bit i of a byte moved to the lowest bit of byte i of a long
+    private static final long[] SPREAD_BITS = new long[0x100];
+
+    static {
+        for (int value = 0; value < 0x100; value++) {
+            for (int bit = 0; bit < 8; bit++) {
+                SPREAD_BITS[value] |= (long) (value >> bit & 1) << (bit * 8);
+            }
+        }
+    }
+
+    private final MemoryRange mMemoryRange = new MemoryRange(0, SIZE);
+    // Offset in mChr of the bank of each slot
+    private final int[] mSlotOffsets = new int[NUM_SLOTS];
+    private byte[] mChr;
+    private boolean mWritable;
+    // CHR-RAM shared with a fork, copied on the first write
+    private boolean mShared;
+    // Rows of each tile of mChr, see getTileRow. Every row of CHR-ROM, possibly shared; for CHR-RAM allocated on
+    // the first read and never shared, forks decode on other threads.
+    private long[] mTileRows;
+    // Tiles of CHR-RAM with their rows in mTileRows
+    private boolean[] mDecodedTiles;
 
+    /**
+     * Starts with 8K of CHR-RAM, until {@link #setChr(byte[], boolean)} is called
+     */
     public PatternTables() {
-        mPatternTable1 = new int[0x1000];
-        mPatternTable2 = new int[0x1000];
-        mMemoryRange = new MemoryRange(0, 0x2000);
+        this(new byte[SIZE], true);
+    }
+
+    private PatternTables(byte[] chr, boolean writable) {
+        setChr(chr, writable);
+    }
+
+    /**
+     * @return Pattern tables with the same CHR and slots, sharing CHR-RAM copy on write with these ones
+     */
+    public PatternTables fork() {
+        PatternTables fork = new PatternTables(mChr, mWritable);
+        if (!mWritable) {
+            fork.mTileRows = mTileRows;
+        }
+        System.arraycopy(mSlotOffsets, 0, fork.mSlotOffsets, 0, NUM_SLOTS);
+        mShared = mWritable;
+        fork.mShared = mWritable;
+        return fork;
+    }
+
+    public boolean isWritable() {
+        return mWritable;
+    }
+
+    /**
+     * Uses chr, 1K banks one after the other, as the CHR of the cartridge and maps its first 8K. chr is not
+     * copied; read only CHR (ROM) drops writes and is never modified, so it can be shared.
+     */
+    public void setChr(byte[] chr, boolean writable) {
+        Preconditions.checkArgument(chr.length >= SIZE && chr.length % SLOT_SIZE == 0,
+                "CHR must be made of at least 8 1K banks : %s", chr.length);
+        mChr = chr;
+        mWritable = writable;
+        mShared = false;
+        mTileRows = null;
+        mDecodedTiles = null;
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            mSlotOffsets[slot] = slot * SLOT_SIZE;
+        }
+    }
+
+    /**
+     * Same as {@link #setChr(byte[], boolean)} for CHR-ROM, with tileRows its rows from
+     * {@link #decodeTileRows(byte[])}. Neither is copied, both can be shared.
+     */
+    public void setChrRom(byte[] chr, long[] tileRows) {
+        Preconditions.checkArgument(tileRows.length == (chr.length >> TILE_SHIFT) * TILE_ROWS,
+                "Rows of another CHR : %s", tileRows.length);
+        setChr(chr, false);
+        mTileRows = tileRows;
+    }
+
+    /**
+     * @return Rows of the CHR-ROM tiles, shared with the other consoles running the cartridge, null with
+     * CHR-RAM or before they are decoded
+     */
+    public long[] getChrRomTileRows() {
+        return mWritable ? null : mTileRows;
+    }
+
+    /**
+     * Points slot, for $0000 + slot * $400, at the 1K bank of the CHR
+     */
+    public void mapSlot(int slot, int bank) {
+        Preconditions.checkElementIndex(bank, mChr.length / SLOT_SIZE);
+        mSlotOffsets[slot] = bank * SLOT_SIZE;
     }
 
     @Override
     public int read(int address) {
-        MemoryUtils.checkRange(address, this);
-        if (address < 0x1000) {
-            return mPatternTable1[address];
-        } else {
-            return mPatternTable2[address - 0x1000];
-        }
+        return mChr[mSlotOffsets[address >> SLOT_SHIFT] + (address & SLOT_MASK)] & 0xFF;
     }
 
     @Override
     public void write(int address, int value) {
-        MemoryUtils.checkRange(address, this);
-        if (address < 0x1000) {
-            mPatternTable1[address] = value;
-        } else {
-            mPatternTable2[address - 0x1000] = value;
+        if (mWritable) {
+            if (mShared) {
+                mChr = mChr.clone();
+                mShared = false;
+            }
+            int offset = mSlotOffsets[address >> SLOT_SHIFT] + (address & SLOT_MASK);
+            mChr[offset] = (byte) value;
+            if (mDecodedTiles != null) {
+                mDecodedTiles[offset >> TILE_SHIFT] = false;
+            }
+        }
+    }
+
+    /**
+     * @param address Address of the low bit plane of a row of a tile, $0000 - $1FFF with bit 3 clear
+     * @return The 8 pixels (0 - 3) of the row, one per byte, the leftmost in the most significant byte
+     */
+    public long getTileRow(int address) {
+        int offset = mSlotOffsets[address >> SLOT_SHIFT] + (address & SLOT_MASK);
+        int tile = offset >> TILE_SHIFT;
+        if (mWritable) {
+            if (mDecodedTiles == null) {
+                mTileRows = new long[(mChr.length >> TILE_SHIFT) * TILE_ROWS];
+                mDecodedTiles = new boolean[mChr.length >> TILE_SHIFT];
+            }
+            if (!mDecodedTiles[tile]) {
+                decodeTile(mChr, tile, mTileRows);
+                mDecodedTiles[tile] = true;
+            }
+        } else if (mTileRows == null) {
+            // CHR-ROM set without its rows
+            mTileRows = decodeTileRows(mChr);
+        }
+        return mTileRows[tile * TILE_ROWS + (offset & (TILE_ROWS - 1))];
+    }
+
+    /**
+     * @return The rows of every tile of chr, in the format of {@link #getTileRow(int)}, 8 rows per 16 bytes
+     */
+    public static long[] decodeTileRows(byte[] chr) {
+        long[] tileRows = new long[(chr.length >> TILE_SHIFT) * TILE_ROWS];
+        for (int tile = 0; tile < chr.length >> TILE_SHIFT; tile++) {
+            decodeTile(chr, tile, tileRows);
+        }
+        return tileRows;
+    }
+
+    private static void decodeTile(byte[] chr, int tile, long[] tileRows) {
+        int offset = tile << TILE_SHIFT;
+        for (int row = 0; row < TILE_ROWS; row++) {
+            // Bit 7 is the leftmost pixel
+            tileRows[tile * TILE_ROWS + row] = SPREAD_BITS[chr[offset + row] & 0xFF]
+                    | SPREAD_BITS[chr[offset + row + TILE_ROWS] & 0xFF] << 1;
         }
     }
 
@@ -43,4 +196,39 @@ public class PatternTables implements Memory {
     public MemoryRange getRange() {
         return mMemoryRange;
     }
+
+    @Override
+    public int getStateSize() {
+        return NUM_SLOTS * 4 + (mWritable ? mChr.length : 0);
+    }
+
+    /**
+     * Saves the slots, and the content of CHR-RAM. CHR-ROM is part of the cartridge and never changes.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            buffer.putInt(mSlotOffsets[slot]);
+        }
+        if (mWritable) {
+            buffer.put(mChr);
+        }
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        for (int slot = 0; slot < NUM_SLOTS; slot++) {
+            mSlotOffsets[slot] = buffer.getInt();
+        }
+        if (mWritable) {
+            if (mShared) {
+                mChr = new byte[mChr.length];
+                mShared = false;
+            }
+            buffer.get(mChr);
+            if (mDecodedTiles != null) {
+                Arrays.fill(mDecodedTiles, false);
+            }
+        }
+    }
 }
@@ -19,13 +19,17 @@ public class ControllerInterpretator {
     }
 
     public static int getVRAMIncrement(int controller) {
-        return ByteHelper.bit2(controller) ? 0x32 : 0x01;
+        return ByteHelper.bit2(controller) ? 0x20 : 0x01;
     }
 
     public static int getSpritePatternTableAddress(int controller) {
         return ByteHelper.bit3(controller) ? PatternTables.PATTERN_TABLE_1 : PatternTables.PATTERN_TABLE_0;
     }
 
+    public static int getSpriteHeight(int controller) {
+        return ByteHelper.bit5(controller) ? 16 : 8;
+    }
+
     public static int getBackgroundPatternTable(int controller) {
         return ByteHelper.bit4(controller) ? PatternTables.PATTERN_TABLE_1 : PatternTables.PATTERN_TABLE_0;
     }
@@ -1,6 +1,14 @@
 package hardware.ppu.registers;
 
 public class MaskReader {
+    public static boolean showBackgroundLeft(PpuRegisters registers) {
+        return ByteHelper.bit1(registers.getMask());
+    }
+
+    public static boolean showSpritesLeft(PpuRegisters registers) {
+        return ByteHelper.bit2(registers.getMask());
+    }
+
     public static boolean showBackground(PpuRegisters registers) {
         return ByteHelper.bit3(registers.getMask());
     }
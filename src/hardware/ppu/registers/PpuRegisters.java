@@ -1,13 +1,16 @@
 package hardware.ppu.registers;
 
 import common.NesConstants;
+import components.Stateful;
 import components.memory.Memory;
 import components.memory.MemoryRange;
 import components.memory.MemoryUtils;
 import hardware.ppu.memory.OAM;
 import hardware.ppu.memory.PPUMemory;
 
-public class PpuRegisters implements Memory {
+import java.nio.ByteBuffer;
+
+public class PpuRegisters implements Memory, Stateful {
 
     private static final int PPUCTRL = 0x2000;
     private static final int PPUMASK = 0x2001;
@@ -18,6 +21,21 @@ public class PpuRegisters implements Memory {
     private static final int PPUADDR = 0x2006;
     private static final int PPUDATA = 0x2007;
 
+    private static final int NUM_BUS_BITS = 8;
+    // Registers, bus, clock timer, write toggle and decay timers
+    private static final int STATE_SIZE = 13 * 4 + 1 + NUM_BUS_BITS * 8;
+
+    // Bits of the VRAM address (v) and of its temporary copy (t) used for scrolling : fine Y, nametable Y,
+    // nametable X, coarse Y and coarse X
+    private static final int VRAM_ADDRESS_MASK = 0x7FFF;
+    private static final int FINE_Y = 0x7000;
+    private static final int NAME_TABLE_Y = 0x0800;
+    private static final int NAME_TABLE_X = 0x0400;
+    private static final int COARSE_Y = 0x03E0;
+    private static final int COARSE_X = 0x001F;
+    private static final int HORIZONTAL_BITS = NAME_TABLE_X | COARSE_X;
+    private static final int VERTICAL_BITS = FINE_Y | NAME_TABLE_Y | COARSE_Y;
+
     private int controller;
     private int mask;
     private int status;
@@ -29,18 +47,22 @@ public class PpuRegisters implements Memory {
 
     private int bus;
 
-    private int totalScroll;
+    // Loopy registers : totalAddr is v, the current VRAM address, tempAddr is t, the address of the top left
+    // pixel to render, fineX is x
     private int totalAddr;
+    private int tempAddr;
+    private int fineX;
 
     private final OAM mOAM;
     private final PPUMemory mPPUMemory;
 
     private final MemoryRange mMemoryRange;
     private IsRenderingProvider mIsRenderingProvider;
+    private NmiEnableListener mNmiEnableListener;
 
     private boolean evenForSCROLLandADDR = true;
 
-    private final long[] mDecayTimers = new long[] {0, 0, 0, 0, 0, 0, 0, 0};
+    private final long[] mDecayTimers = new long[NUM_BUS_BITS];
 
     private int clockTimer = 0;
 
@@ -57,6 +79,10 @@ public class PpuRegisters implements Memory {
         mIsRenderingProvider = isRenderingProvider;
     }
 
+    public void setNmiEnableListener(NmiEnableListener nmiEnableListener) {
+        mNmiEnableListener = nmiEnableListener;
+    }
+
     @Override
     public int read(int address) {
         evenForSCROLLandADDR = true;
@@ -73,7 +99,6 @@ public class PpuRegisters implements Memory {
                 return bus;
 
             case PPUSTATUS:
-                // System.out.println("Reading PPUSTATUS => " + ByteHelper.bit7(status) +  " : " + PPU.sPPUCycles);
                 resetDecay(7);
                 resetDecay(6);
                 resetDecay(5);
@@ -103,7 +128,7 @@ public class PpuRegisters implements Memory {
                     int data = getData();
                     setData(mPPUMemory.read(totalAddr));
                     totalAddr++;
-                    totalAddr &= 0xFFFF;
+                    totalAddr &= VRAM_ADDRESS_MASK;
                     return data;
                 } else {
                     resetDecay(0);
@@ -114,7 +139,7 @@ public class PpuRegisters implements Memory {
                     resetDecay(5);
                     setData(mPPUMemory.read(totalAddr));
                     totalAddr++;
-                    totalAddr &= 0xFFFF;
+                    totalAddr &= VRAM_ADDRESS_MASK;
                     return (getData() & 0b00111111) | (bus & 0b11000000);
                 }
             }
@@ -129,9 +154,16 @@ public class PpuRegisters implements Memory {
         resetDecayForAllBits();
         MemoryUtils.checkRange(address, this);
         switch (address) {
-            case PPUCTRL:
+            case PPUCTRL: {
+                boolean nmiEnabled = !ControllerInterpretator.generateNMI(controller)
+                        && ControllerInterpretator.generateNMI(value);
                 controller = value;
+                tempAddr = (tempAddr & ~(NAME_TABLE_Y | NAME_TABLE_X)) | (value & 0x03) << 10;
+                if (nmiEnabled && mNmiEnableListener != null) {
+                    mNmiEnableListener.onNmiEnabled();
+                }
                 break;
+            }
             case PPUMASK:
                 mask = value;
                 break;
@@ -151,20 +183,23 @@ public class PpuRegisters implements Memory {
                 break;
             case PPUSCROLL:
                 if (evenForSCROLLandADDR) {
-                    totalScroll = (value & 0xFF) << 8;
+                    tempAddr = (tempAddr & ~COARSE_X) | (value & 0xFF) >> 3;
+                    fineX = value & 0x07;
                     evenForSCROLLandADDR = false;
                 } else {
-                    totalScroll |= value & 0xFF;
+                    tempAddr = (tempAddr & ~(FINE_Y | COARSE_Y)) | (value & 0x07) << 12 | (value & 0xF8) << 2;
                     evenForSCROLLandADDR = true;
                 }
                 scroll = value;
                 break;
             case PPUADDR:
+                // The address goes to t, and to v once complete
                 if (evenForSCROLLandADDR) {
-                    totalAddr = (value & 0xFF) << 8;
+                    tempAddr = (tempAddr & 0x00FF) | (value & 0x3F) << 8;
                     evenForSCROLLandADDR = false;
                 } else {
-                    totalAddr |= value & 0xFF;
+                    tempAddr = (tempAddr & 0xFF00) | value & 0xFF;
+                    totalAddr = tempAddr;
                     evenForSCROLLandADDR = true;
                 }
                 addr = value;
@@ -172,7 +207,7 @@ public class PpuRegisters implements Memory {
             case PPUDATA:
                 mPPUMemory.write(totalAddr, value);
                 totalAddr += ControllerInterpretator.getVRAMIncrement(controller);
-                totalAddr &= 0xFFFF;
+                totalAddr &= VRAM_ADDRESS_MASK;
                 data = value;
                 break;
             default:
@@ -199,11 +234,21 @@ public class PpuRegisters implements Memory {
         }
     }
 
+    /**
+     * @return Number of clocks after which one of the bits of bitMask decays on the open bus, Long.MAX_VALUE
+     * if none will
+     */
+    public long getClocksUntilBusDecay(int bitMask) {
+        long numClocks = Long.MAX_VALUE;
+        for (int i = 0; i < mDecayTimers.length; i++) {
+            if ((bitMask & 1 << i) != 0 && mDecayTimers[i] > 0) {
+                numClocks = Math.min(numClocks, mDecayTimers[i]);
+            }
+        }
+        return numClocks;
+    }
+
     private void resetDecayForAllBits() {
-        // StringWriter out = new StringWriter();
-        // PrintWriter writer = new PrintWriter(out);
-        // new Throwable().printStackTrace(writer);
-        // System.out.println("Resetting Decays" + out.toString());
         for (int i = 0; i < mDecayTimers.length; i++) {
             mDecayTimers[i] = NesConstants.PPU_DECAY_CYCLES;
         }
@@ -237,6 +282,106 @@ public class PpuRegisters implements Memory {
         this.status = status;
     }
 
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Saves the registers, the open bus with the decay timer of each of its bits, and the PPUSCROLL / PPUADDR
+     * write toggle. OAM and the PPU memory are saved by the {@link hardware.ppu.PPU}.
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putInt(controller);
+        buffer.putInt(mask);
+        buffer.putInt(status);
+        buffer.putInt(oamAddress);
+        buffer.putInt(oamData);
+        buffer.putInt(scroll);
+        buffer.putInt(addr);
+        buffer.putInt(data);
+        buffer.putInt(bus);
+        buffer.putInt(totalAddr);
+        buffer.putInt(tempAddr);
+        buffer.putInt(fineX);
+        buffer.putInt(clockTimer);
+        buffer.put((byte) (evenForSCROLLandADDR ? 1 : 0));
+        for (int i = 0; i < NUM_BUS_BITS; i++) {
+            buffer.putLong(mDecayTimers[i]);
+        }
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        controller = buffer.getInt();
+        mask = buffer.getInt();
+        status = buffer.getInt();
+        oamAddress = buffer.getInt();
+        oamData = buffer.getInt();
+        scroll = buffer.getInt();
+        addr = buffer.getInt();
+        data = buffer.getInt();
+        bus = buffer.getInt();
+        totalAddr = buffer.getInt();
+        tempAddr = buffer.getInt();
+        fineX = buffer.getInt();
+        clockTimer = buffer.getInt();
+        evenForSCROLLandADDR = buffer.get() != 0;
+        for (int i = 0; i < NUM_BUS_BITS; i++) {
+            mDecayTimers[i] = buffer.getLong();
+        }
+    }
+
+    /**
+     * @return v, the VRAM address. While rendering, the address of the next tile in the nametables with the
+     * fine Y scroll in bits 12 - 14.
+     */
+    public int getVramAddress() {
+        return totalAddr;
+    }
+
+    public int getFineX() {
+        return fineX;
+    }
+
+    /**
+     * Moves v down one pixel, to the next row of tiles after fine Y 7 and to the nametable below after the 30
+     * rows of a nametable, like the PPU at dot 256 of each rendered scanline
+     */
+    public void incrementVerticalScroll() {
+        if ((totalAddr & FINE_Y) != FINE_Y) {
+            totalAddr += 0x1000;
+            return;
+        }
+        totalAddr &= ~FINE_Y;
+        int coarseY = (totalAddr & COARSE_Y) >> 5;
+        if (coarseY == 29) {
+            coarseY = 0;
+            totalAddr ^= NAME_TABLE_Y;
+        } else if (coarseY == 31) {
+            // Attribute rows wrap without switching nametable
+            coarseY = 0;
+        } else {
+            coarseY++;
+        }
+        totalAddr = (totalAddr & ~COARSE_Y) | coarseY << 5;
+    }
+
+    /**
+     * Copies the coarse X scroll and the horizontal nametable from t to v, at dot 257 of each rendered scanline
+     */
+    public void copyHorizontalScroll() {
+        totalAddr = (totalAddr & ~HORIZONTAL_BITS) | (tempAddr & HORIZONTAL_BITS);
+    }
+
+    /**
+     * Copies the Y scroll and the vertical nametable from t to v, before the first rendered scanline
+     */
+    public void copyVerticalScroll() {
+        totalAddr = (totalAddr & ~VERTICAL_BITS) | (tempAddr & VERTICAL_BITS);
+    }
+
     private int getOamAddress() {
         return oamAddress;
     }
@@ -288,4 +433,11 @@ public class PpuRegisters implements Memory {
     public interface IsRenderingProvider {
         boolean isRendering();
     }
+
+    /**
+     * Told when a write to PPUCTRL sets the NMI enable bit
+     */
+    public interface NmiEnableListener {
+        void onNmiEnabled();
+    }
 }
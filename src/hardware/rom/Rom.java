@@ -1,27 +1,143 @@
 package hardware.rom;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * Cartridge contents. Banks are read only slices of a single image (a file mapping or a heap buffer), so a
+ * Rom is immutable and can be shared by every {@link hardware.NES} running the cartridge, on any thread.
+ */
 public class Rom {
+
+    public static final int PRG_ROM_BANK_SIZE = 16 * 1024;
+    public static final int CHR_ROM_BANK_SIZE = 8 * 1024;
+    private static final int TRAINER_SIZE = 512;
+    private static final int HASH_CHUNK_SIZE = 8 * 1024;
+
+    private final ByteBuffer mImage;
     private final RomHeader mRomHeader;
-    private final List<byte[]> mPRG_ROM;
-    private final List<byte[]> mCHR_ROM;
+    private final List<ByteBuffer> mPRG_ROM;
+    private final List<ByteBuffer> mCHR_ROM;
+
+    // Heap copies of the PRG-ROM banks for the CPU memory map, made on first use
+    private final byte[][] mPRG_ROMArrays;
+    private byte[] mCHR_ROMArray;
+    private HashCode mImageHash;
+
+    /**
+     * @param image iNES image, from the header to the last CHR-ROM bank
+     */
+    Rom(ByteBuffer image) {
+        ByteBuffer readOnlyImage = image.asReadOnlyBuffer();
+        mRomHeader = new RomHeader(readOnlyImage);
+        int offset = RomHeader.SIZE;
+        if (mRomHeader.hasTrainer()) {
+            offset += TRAINER_SIZE;
+        }
+        int prgBankCount = mRomHeader.getPRGROMSize();
+        int chrBankCount = mRomHeader.getCHRROMSize();
+        int size = offset + prgBankCount * PRG_ROM_BANK_SIZE + chrBankCount * CHR_ROM_BANK_SIZE;
+        Preconditions.checkArgument(readOnlyImage.limit() >= size,
+                "Truncated ROM : %s bytes, %s expected", readOnlyImage.limit(), size);
+
+        ImmutableList.Builder<ByteBuffer> prgBanks = ImmutableList.builder();
+        for (int i = 0; i < prgBankCount; i++) {
+            prgBanks.add(slice(readOnlyImage, offset, PRG_ROM_BANK_SIZE));
+            offset += PRG_ROM_BANK_SIZE;
+        }
+        ImmutableList.Builder<ByteBuffer> chrBanks = ImmutableList.builder();
+        for (int i = 0; i < chrBankCount; i++) {
+            chrBanks.add(slice(readOnlyImage, offset, CHR_ROM_BANK_SIZE));
+            offset += CHR_ROM_BANK_SIZE;
+        }
+        mPRG_ROM = prgBanks.build();
+        mCHR_ROM = chrBanks.build();
+        mPRG_ROMArrays = new byte[prgBankCount][];
+        mImage = readOnlyImage.duplicate();
+    }
+
+    /**
+     * @return SHA-1 of the image, header included, computed on first use
+     */
+    public synchronized HashCode getImageHash() {
+        if (mImageHash == null) {
+            mImageHash = hash(mImage);
+        }
+        return mImageHash;
+    }
 
-    public Rom(RomHeader mRomHeader, List<byte[]> mPRG_rom, List<byte[]> mCHR_rom) {
-        this.mRomHeader = mRomHeader;
-        mPRG_ROM = mPRG_rom;
-        mCHR_ROM = mCHR_rom;
+    /**
+     * @return Size of the image in bytes, header included
+     */
+    public int getImageSize() {
+        return mImage.capacity();
     }
 
     public RomHeader getRomHeader() {
         return mRomHeader;
     }
 
-    public byte[] getPRG_ROM(int index) {
+    /**
+     * @return Contents of the PRG-ROM bank, shared by every caller : must not be modified
+     */
+    public synchronized byte[] getPRG_ROM(int index) {
+        if (mPRG_ROMArrays[index] == null) {
+            mPRG_ROMArrays[index] = toArray(mPRG_ROM.get(index));
+        }
+        return mPRG_ROMArrays[index];
+    }
+
+    /**
+     * @return Read only view of the PRG-ROM bank. Use absolute gets, or a duplicate() to move its position
+     */
+    public ByteBuffer getPRG_ROMBuffer(int index) {
         return mPRG_ROM.get(index);
     }
 
+    /**
+     * @return Copy of the CHR-ROM bank
+     */
     public byte[] getCHR_ROM(int index) {
+        return toArray(mCHR_ROM.get(index));
+    }
+
+    /**
+     * @return Whole CHR-ROM, banks one after the other, made on first use and shared by every caller : must
+     * not be modified
+     */
+    public synchronized byte[] getCHR_ROMArray() {
+        if (mCHR_ROMArray == null) {
+            mCHR_ROMArray = new byte[mCHR_ROM.size() * CHR_ROM_BANK_SIZE];
+            for (int i = 0; i < mCHR_ROM.size(); i++) {
+                mCHR_ROM.get(i).duplicate().get(mCHR_ROMArray, i * CHR_ROM_BANK_SIZE, CHR_ROM_BANK_SIZE);
+            }
+        }
+        return mCHR_ROMArray;
+    }
+
+    /**
+     * Makes the heap copies of every PRG-ROM bank and of the CHR-ROM now rather than on first use
+     *
+     * @return Size of the copies in bytes
+     */
+    int createArrays() {
+        int size = 0;
+        for (int i = 0; i < mPRG_ROM.size(); i++) {
+            size += getPRG_ROM(i).length;
+        }
+        return size + getCHR_ROMArray().length;
+    }
+
+    /**
+     * @return Read only view of the CHR-ROM bank. Use absolute gets, or a duplicate() to move its position
+     */
+    public ByteBuffer getCHR_ROMBuffer(int index) {
         return mCHR_ROM.get(index);
     }
 
@@ -32,4 +148,30 @@ public class Rom {
     public int getCHR_ROM_bankCount() {
         return mCHR_ROM.size();
     }
+
+    private static ByteBuffer slice(ByteBuffer image, int offset, int length) {
+        ByteBuffer bank = image.duplicate();
+        bank.position(offset);
+        bank.limit(offset + length);
+        return bank.slice();
+    }
+
+    static HashCode hash(ByteBuffer image) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        ByteBuffer source = image.duplicate();
+        source.rewind();
+        byte[] chunk = new byte[HASH_CHUNK_SIZE];
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            hasher.putBytes(chunk, 0, length);
+        }
+        return hasher.hash();
+    }
+
+    private static byte[] toArray(ByteBuffer bank) {
+        byte[] data = new byte[bank.capacity()];
+        bank.duplicate().get(data);
+        return data;
+    }
 }
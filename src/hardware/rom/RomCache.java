@@ -0,0 +1,177 @@
+package hardware.rom;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process wide cache of cartridges keyed by the SHA-1 of their iNES image. Loading the same game twice, from
+ * a stream or a file, returns the same {@link Rom}, whose banks are immutable and can be shared by any number
+ * of {@link hardware.NES} instances. Data derived from a Rom (decoded tiles, ...) is cached alongside it
+ * through {@link #getDerived(Rom, Derivation)}.
+ * <p/>
+ * Entries are weighed by their size in bytes, a Rom by its image and the heap copies of its banks, and the
+ * least recently used ones are evicted once the memory budget is exceeded. Evicted Roms stay valid for the instances still holding them. Thread safe.
+ */
+public final class RomCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static RomCache sShared;
+
+    /**
+     * Computes data from a Rom. Derivations are told apart by name, two derivations with the same name must
+     * compute the same data.
+     */
+    public interface Derivation<T> {
+        String getName();
+
+        T derive(Rom rom);
+
+        /**
+         * @return Approximate heap size of value in bytes, used against the memory budget
+         */
+        int getSize(T value);
+    }
+
+    private final Cache<Key, Entry> mCache;
+
+    public RomCache(long memoryBudget) {
+        Preconditions.checkArgument(memoryBudget >= 0, "Negative memory budget : %s", memoryBudget);
+        // A single segment, so the budget is not split between segments and eviction is strictly LRU
+        mCache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(memoryBudget)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return entry.mSize;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return Cache shared by the whole process, created with {@link #DEFAULT_MEMORY_BUDGET} on first use
+     */
+    public static synchronized RomCache getShared() {
+        if (sShared == null) {
+            sShared = new RomCache(DEFAULT_MEMORY_BUDGET);
+        }
+        return sShared;
+    }
+
+    /**
+     * Replaces the shared cache by an empty one with the given budget
+     */
+    public static synchronized void setSharedMemoryBudget(long memoryBudget) {
+        sShared = new RomCache(memoryBudget);
+    }
+
+    /**
+     * Same as {@link RomLoader#loadRom(InputStream)}, returns the cached Rom if the image is already known
+     */
+    public Rom load(InputStream inputStream) throws IOException {
+        return getRom(ByteBuffer.wrap(ByteStreams.toByteArray(inputStream)));
+    }
+
+    /**
+     * Same as {@link RomLoader#mapRom(File)}, returns the cached Rom if the image is already known. The file
+     * is hashed, not copied.
+     */
+    public Rom map(File file) throws IOException {
+        return getRom(RomLoader.mapImage(file));
+    }
+
+    /**
+     * @return Value of derivation for rom, computed once while it stays in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getDerived(final Rom rom, final Derivation<T> derivation) {
+        Key key = new Key(rom.getImageHash(), derivation.getName());
+        return (T) get(key, new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                T value = derivation.derive(rom);
+                return new Entry(value, derivation.getSize(value));
+            }
+        });
+    }
+
+    /**
+     * Drops every entry; Roms already handed out stay valid
+     */
+    public void clear() {
+        mCache.invalidateAll();
+    }
+
+    private Rom getRom(final ByteBuffer image) {
+        return (Rom) get(new Key(Rom.hash(image), null), new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                Rom rom = new Rom(image);
+                // Every mapper copies the banks to the heap, the copies are made now to be weighed with the Rom
+                return new Entry(rom, rom.getImageSize() + rom.createArrays());
+            }
+        });
+    }
+
+    private Object get(Key key, Callable<Entry> loader) {
+        try {
+            return mCache.get(key, loader).mValue;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // Invalid images fail the Rom preconditions, report them as if the Rom was created directly
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class Key {
+        private final HashCode mImageHash;
+        // null for the Rom itself
+        private final String mDerivationName;
+
+        Key(HashCode imageHash, String derivationName) {
+            mImageHash = imageHash;
+            mDerivationName = derivationName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mImageHash.equals(key.mImageHash) && Objects.equal(mDerivationName, key.mDerivationName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mImageHash, mDerivationName);
+        }
+    }
+
+    private static final class Entry {
+        private final Object mValue;
+        private final int mSize;
+
+        Entry(Object value, int size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+}
@@ -1,28 +1,63 @@
 package hardware.rom;
 
 import com.google.common.base.Preconditions;
+import hardware.ppu.memory.Mirroring;
 
+import java.nio.ByteBuffer;
+
+/**
+ * iNES header, read in place from the first 16 bytes of the ROM image
+ */
 public class RomHeader {
-    private final byte[] mHeader;
-
-    public RomHeader(byte[] header) {
-        mHeader = header;
-        Preconditions.checkArgument(header.length == 16);
-        header[0] = 0x4E;
-        header[1] = 0x45;
-        header[2] = 0x53;
-        header[3] = 0x1A;
+
+    public static final int SIZE = 16;
+
+    private final ByteBuffer mHeader;
+
+    public RomHeader(ByteBuffer image) {
+        Preconditions.checkArgument(image.limit() >= SIZE, "Truncated header");
+        mHeader = image;
     }
 
     public boolean hasTrainer() {
-        return (mHeader[6] & 0b00000100) > 0;
+        return (mHeader.get(6) & 0b00000100) > 0;
+    }
+
+    /**
+     * @return Whether the PRG-RAM at $6000 is battery backed and should be persisted
+     */
+    public boolean hasBattery() {
+        return (mHeader.get(6) & 0b00000010) != 0;
     }
 
     public int getPRGROMSize() {
-        return mHeader[4];
+        return mHeader.get(4) & 0xFF;
     }
 
     public int getCHRROMSize() {
-        return mHeader[5];
+        return mHeader.get(5) & 0xFF;
+    }
+
+    /**
+     * @return iNES mapper number, without the upper nibble of dumps whose header ends with garbage
+     * (e.g. "DiskDude!")
+     */
+    public int getMapperNumber() {
+        int lowerNibble = (mHeader.get(6) & 0xF0) >> 4;
+        if (mHeader.getInt(12) != 0) {
+            return lowerNibble;
+        }
+        return (mHeader.get(7) & 0xF0) | lowerNibble;
+    }
+
+    /**
+     * @return Mirroring soldered on the cartridge, mappers switching it start with this one
+     */
+    public Mirroring getMirroring() {
+        int flags = mHeader.get(6);
+        if ((flags & 0b00001000) != 0) {
+            return Mirroring.FOUR_SCREEN;
+        }
+        return (flags & 0b00000001) != 0 ? Mirroring.VERTICAL : Mirroring.HORIZONTAL;
     }
 }
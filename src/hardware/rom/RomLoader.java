@@ -1,36 +1,36 @@
 package hardware.rom;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class RomLoader {
-    public static Rom loadRom(InputStream inputStream) throws IOException {
 
-        byte[] headerBytes = new byte[16];
-        Preconditions.checkArgument(inputStream.read(headerBytes) == 16);
-        RomHeader header = new RomHeader(headerBytes);
-        if (header.hasTrainer()) {
-            byte[] trainer = new byte[512];
-            Preconditions.checkArgument(inputStream.read(trainer) == 512);
-        }
+    /**
+     * Reads a whole iNES image from inputStream into the heap
+     */
+    public static Rom loadRom(InputStream inputStream) throws IOException {
+        return new Rom(ByteBuffer.wrap(ByteStreams.toByteArray(inputStream)));
+    }
 
-        List<byte[]> prg_banks = Lists.newArrayList();
-        for (int i = 0; i < header.getPRGROMSize(); i++) {
-            byte[] bank = new byte[16 * 1024];
-            Preconditions.checkArgument(inputStream.read(bank) == (16 * 1024));
-            prg_banks.add(bank);
-        }
+    /**
+     * Maps an iNES file read only without copying it : the header is parsed in place and the banks are
+     * slices of the mapping. The mapping stays valid after the file is closed, and the returned Rom can be
+     * shared by any number of {@link hardware.NES} instances.
+     */
+    public static Rom mapRom(File file) throws IOException {
+        return new Rom(mapImage(file));
+    }
 
-        List<byte[]> chr_banks = Lists.newArrayList();
-        for (int i = 0; i < header.getCHRROMSize(); i++) {
-            byte[] bank = new byte[8 * 1024];
-            Preconditions.checkArgument(inputStream.read(bank) == (8 * 1024));
-            chr_banks.add(bank);
+    static ByteBuffer mapImage(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         }
-        return new Rom(header, prg_banks, chr_banks);
     }
 }
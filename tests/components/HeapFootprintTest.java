@@ -0,0 +1,91 @@
+package components;
+
+import hardware.NES;
+import hardware.ppu.memory.OAM;
+import hardware.ppu.memory.PPUMemory;
+import hardware.util.TestRoms;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link components.HeapFootprint}
+ */
+public class HeapFootprintTest {
+
+    // Headers, offsets and ranges of the objects holding an array
+    private static final int OBJECTS_BOUND = 128;
+    // A 256 byte page of decoded instructions : 256 longs
+    private static final int DECODE_CACHE_PAGE_SIZE = 16 + 256 * 8;
+
+    private static class Node {
+        private final byte[] mData;
+        private Node mNext;
+        private int mValue;
+
+        Node(byte[] data) {
+            mData = data;
+        }
+    }
+
+    @Test
+    public void testArraysAndObjects() {
+        // 16 byte header + 100 bytes, aligned
+        assertThat(HeapFootprint.estimate(new byte[100])).isEqualTo(120);
+        assertThat(HeapFootprint.estimate(new long[3])).isEqualTo(40);
+
+        byte[] data = new byte[100];
+        Node node = new Node(data);
+        node.mNext = new Node(data);
+        // 12 byte header, 2 references and an int : 24 bytes per node, the array counted once
+        assertThat(HeapFootprint.estimate(node)).isEqualTo(24 + 24 + 120);
+    }
+
+    @Test
+    public void testSharedObjectsLeftOut() {
+        byte[] data = new byte[100];
+        Node node = new Node(data);
+        node.mNext = node;
+
+        assertThat(HeapFootprint.estimate(node, data)).isEqualTo(24);
+        assertThat(HeapFootprint.estimate(node, (Object) null)).isEqualTo(24 + 120);
+    }
+
+    @Test
+    public void testNesFootprint() throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom("01-basics.nes"));
+        long footprint = nes.getHeapFootprint();
+
+        // At least RAM, SRAM and nametable RAM, and not the 256K PRG-ROM
+        assertThat(footprint).isGreaterThan(0x800 + 0x2000 + 0x800);
+        nes.runCpuCycles(100000);
+        // Only pages of decoded instructions are added
+        long growth = nes.getHeapFootprint() - footprint;
+        assertThat(growth).isGreaterThan(0);
+        assertThat(growth % DECODE_CACHE_PAGE_SIZE).isEqualTo(0);
+    }
+
+    @Test
+    public void testPpuMemoryFootprint() {
+        PPUMemory ppuMemory = PPUMemory.construct();
+
+        // 2K of nametable RAM
+        assertWithinBound(HeapFootprint.estimate(ppuMemory.getNameTables()), 0x800);
+        // 32 bytes of palette RAM, the pattern tables and nametables left out
+        assertWithinBound(HeapFootprint.estimate(ppuMemory, ppuMemory.getPatternTables(), ppuMemory.getNameTables()),
+                0x20);
+        // 256 bytes of OAM
+        assertWithinBound(HeapFootprint.estimate(new OAM()), 0x100);
+    }
+
+    /**
+     * Checks footprint is that of a byte array of arrayLength, plus at most {@link #OBJECTS_BOUND}
+     */
+    private static void assertWithinBound(long footprint, int arrayLength) {
+        long arraySize = 16 + arrayLength;
+        assertThat(footprint).isGreaterThanOrEqualTo(arraySize);
+        assertThat(footprint).isLessThanOrEqualTo(arraySize + OBJECTS_BOUND);
+    }
+}
@@ -0,0 +1,92 @@
+package components.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PagedMemoryTest {
+
+    private static final int RAM_LENGTH = 0x800;
+    private static final int RAM_MIRRORS = 4;
+    private static final int HANDLER_START = 0x2000;
+
+    private PagedMemory mMemory;
+    private byte[] mRam;
+    private MemoryBlock mHandler;
+
+    @Before
+    public void setup() {
+        mMemory = new PagedMemory();
+        mRam = new byte[RAM_LENGTH];
+        mHandler = new MemoryBlock(HANDLER_START, PagedMemory.PAGE_SIZE);
+        mMemory.mapArray(0, RAM_LENGTH * RAM_MIRRORS, mRam);
+        mMemory.mapHandler(HANDLER_START, PagedMemory.PAGE_SIZE, mHandler);
+    }
+
+    @Test
+    public void testWriteOnMirrors() {
+        int value = 13;
+        for (int address = 0; address < RAM_LENGTH; address += 0x7F) {
+            for (int mirrorIndex = 0; mirrorIndex < RAM_MIRRORS; mirrorIndex++) {
+                mMemory.write(address + RAM_LENGTH * mirrorIndex, value);
+                assertThat(mRam[address] & 0xFF).isEqualTo(value);
+                for (int mirrorIndexInner = 0; mirrorIndexInner < RAM_MIRRORS; mirrorIndexInner++) {
+                    assertThat(mMemory.read(address + RAM_LENGTH * mirrorIndexInner)).isEqualTo(value);
+                }
+                value++;
+            }
+        }
+    }
+
+    @Test
+    public void testHandler() {
+        mMemory.write(HANDLER_START + 3, 0xFE);
+
+        assertThat(mHandler.read(HANDLER_START + 3)).isEqualTo(0xFE);
+        assertThat(mMemory.read(HANDLER_START + 3)).isEqualTo(0xFE);
+    }
+
+    @Test
+    public void testReadOnlyArray() {
+        byte[] rom = new byte[PagedMemory.PAGE_SIZE];
+        rom[1] = 0x12;
+        mMemory.mapReadOnlyArray(0x8000, PagedMemory.PAGE_SIZE * 2, rom);
+
+        mMemory.write(0x8101, 0x34);
+
+        assertThat(mMemory.read(0x8001)).isEqualTo(0x12);
+        assertThat(mMemory.read(0x8101)).isEqualTo(0x12);
+    }
+
+    @Test
+    public void testSharedPagesCopiedOnWrite() {
+        mRam[0x10] = 0x12;
+        mRam[0x110] = 0x34;
+        PagedMemory fork = new PagedMemory();
+        fork.shareWritablePages(mMemory, 0, RAM_LENGTH * RAM_MIRRORS);
+
+        fork.write(RAM_LENGTH + 0x10, 0x56);
+        mMemory.write(0x110, 0x78);
+
+        // Each memory copied the page it wrote to, along with its mirrors
+        assertThat(mRam[0x10]).isEqualTo((byte) 0x12);
+        assertThat(mMemory.read(0x10)).isEqualTo(0x12);
+        for (int mirrorIndex = 0; mirrorIndex < RAM_MIRRORS; mirrorIndex++) {
+            assertThat(fork.read(0x10 + RAM_LENGTH * mirrorIndex)).isEqualTo(0x56);
+            assertThat(fork.read(0x110 + RAM_LENGTH * mirrorIndex)).isEqualTo(0x34);
+            assertThat(mMemory.read(0x110 + RAM_LENGTH * mirrorIndex)).isEqualTo(0x78);
+        }
+        assertThat(mRam[0x110]).isEqualTo((byte) 0x34);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadUnmapped() {
+        mMemory.read(0xC000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnalignedMapping() {
+        mMemory.mapArray(0x8010, PagedMemory.PAGE_SIZE, new byte[PagedMemory.PAGE_SIZE]);
+    }
+}
@@ -0,0 +1,86 @@
+package hardware;
+
+import com.google.common.collect.Lists;
+import hardware.rom.Rom;
+import hardware.util.TestRoms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Measures {@link NES#fork()} from a console in the middle of a run : forks per second, and the heap used by
+ * each child right after the fork and once it ran a frame, against a copy through a save state.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class ForkBenchmark {
+
+    private static final int CYCLES_PER_FRAME = 29781;
+    private static final int NUM_FORKS = 1000;
+    private static final int WARMUP_FORKS = 10000;
+
+    public static void main(String[] args) throws IOException {
+        Rom rom = TestRoms.getInstance().loadRom("30-irq_and_dma.nes");
+        NES nes = new NES(rom);
+        nes.runCpuCycles(60 * CYCLES_PER_FRAME);
+        // Warm up both paths
+        for (int i = 0; i < WARMUP_FORKS; i += NUM_FORKS) {
+            fork(nes, NUM_FORKS);
+            copy(nes, rom, NUM_FORKS);
+        }
+
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        List<NES> forks = fork(nes, NUM_FORKS);
+        long elapsedNs = System.nanoTime() - startTime;
+        long heapPerFork = (usedHeap() - heapBefore) / NUM_FORKS;
+        for (NES fork : forks) {
+            fork.runCpuCycles(CYCLES_PER_FRAME);
+        }
+        long heapPerRunFork = (usedHeap() - heapBefore) / NUM_FORKS;
+        System.out.println(String.format(
+                "Fork : %.0f forks/s, %d bytes of heap each, %d bytes once they ran a frame",
+                NUM_FORKS * 1e9 / elapsedNs, heapPerFork, heapPerRunFork));
+        forks = null;
+
+        heapBefore = usedHeap();
+        startTime = System.nanoTime();
+        List<NES> copies = copy(nes, rom, NUM_FORKS);
+        elapsedNs = System.nanoTime() - startTime;
+        System.out.println(String.format("Save state copy : %.0f copies/s, %d bytes of heap each",
+                NUM_FORKS * 1e9 / elapsedNs, (usedHeap() - heapBefore) / copies.size()));
+    }
+
+    private static List<NES> fork(NES nes, int numForks) {
+        List<NES> forks = Lists.newArrayListWithCapacity(numForks);
+        for (int i = 0; i < numForks; i++) {
+            forks.add(nes.fork());
+        }
+        return forks;
+    }
+
+    /**
+     * Copies nes into new consoles of the same cartridge, the way to copy a console without fork()
+     */
+    private static List<NES> copy(NES nes, Rom rom, int numCopies) {
+        ByteBuffer state = ByteBuffer.allocate(nes.getSaveStateSize());
+        nes.saveState(state);
+        List<NES> copies = Lists.newArrayListWithCapacity(numCopies);
+        for (int i = 0; i < numCopies; i++) {
+            NES copy = new NES(rom);
+            state.rewind();
+            copy.loadState(state);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,131 @@
+package hardware;
+
+import com.google.common.collect.Lists;
+import hardware.memory.BatteryRam;
+import hardware.memory.NesMemory;
+import hardware.util.TestRoms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link NES#fork()}
+ */
+public class ForkTest {
+
+    // Interrupts, DMA and MMC1 bank switches all happen while this one runs
+    private static final String ROM = "30-irq_and_dma.nes";
+
+    private static final int CYCLES_BEFORE_FORK = 700000;
+    private static final int CYCLES_AFTER_FORK = 400000;
+    private static final int NUM_FORKS = 8;
+
+    private NES mNes;
+
+    @Before
+    public void setup() throws IOException {
+        mNes = new NES(TestRoms.getInstance().loadRom(ROM));
+        mNes.runCpuCycles(CYCLES_BEFORE_FORK);
+    }
+
+    @Test
+    public void testForkRunsLikeParent() {
+        NES fork = mNes.fork();
+        assertThat(saveState(fork)).isEqualTo(saveState(mNes));
+
+        mNes.runCpuCycles(CYCLES_AFTER_FORK);
+        fork.runCpuCycles(CYCLES_AFTER_FORK);
+        assertThat(saveState(fork)).isEqualTo(saveState(mNes));
+    }
+
+    @Test
+    public void testForksRunOnOtherThreads() throws Exception {
+        // Forks of a fork share the same pages too. Forking confines child to this thread, like running it
+        NES child = mNes.fork();
+        List<NES> forks = Lists.newArrayList();
+        for (int i = 0; i < NUM_FORKS; i++) {
+            forks.add(i % 2 == 0 ? mNes.fork() : child.fork());
+        }
+        mNes.runCpuCycles(CYCLES_AFTER_FORK);
+        ByteBuffer expected = saveState(mNes);
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_FORKS);
+        try {
+            List<Future<ByteBuffer>> states = Lists.newArrayList();
+            for (final NES fork : forks) {
+                states.add(executor.submit(new Callable<ByteBuffer>() {
+                    @Override
+                    public ByteBuffer call() {
+                        fork.runCpuCycles(CYCLES_AFTER_FORK);
+                        return saveState(fork);
+                    }
+                }));
+            }
+            for (Future<ByteBuffer> state : states) {
+                assertThat(state.get()).isEqualTo(expected);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWritesAreIsolated() {
+        NES fork = mNes.fork();
+        NesMemory memory = mNes.getNesMemory();
+        NesMemory forkMemory = fork.getNesMemory();
+        // RAM, through a mirror, and PRG-RAM
+        int[] addresses = {0x0345, 0x6123};
+        for (int address : addresses) {
+            int value = memory.read(address);
+            forkMemory.write(address + 0x800 * (address < 0x2000 ? 1 : 0), value ^ 0xFF);
+            assertThat(memory.read(address)).isEqualTo(value);
+            assertThat(forkMemory.read(address)).isEqualTo(value ^ 0xFF);
+
+            int next = forkMemory.read(address + 1);
+            memory.write(address + 1, next ^ 0xFF);
+            assertThat(forkMemory.read(address + 1)).isEqualTo(next);
+        }
+    }
+
+    @Test
+    public void testForkOfBatteryBackedConsole() throws IOException {
+        File file = File.createTempFile("battery", ".sav");
+        assertThat(file.delete()).isTrue();
+        try {
+            BatteryRam batteryRam = BatteryRam.open(file, NesMemory.SRAM_SIZE);
+            batteryRam.getData()[0x10] = 0x12;
+            NES nes = new NES(TestRoms.getInstance().loadRom(ROM), batteryRam);
+            NES fork = nes.fork();
+
+            fork.getNesMemory().write(0x6010, 0x34);
+            nes.getNesMemory().write(0x6011, 0x56);
+
+            assertThat(fork.getNesMemory().read(0x6010)).isEqualTo(0x34);
+            assertThat(fork.getNesMemory().read(0x6011)).isEqualTo(0);
+            // The battery backed RAM is still written in place
+            assertThat(batteryRam.getData()[0x10]).isEqualTo((byte) 0x12);
+            assertThat(batteryRam.getData()[0x11]).isEqualTo((byte) 0x56);
+            nes.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ByteBuffer saveState(NES nes) {
+        ByteBuffer state = ByteBuffer.allocate(nes.getSaveStateSize());
+        nes.saveState(state);
+        state.flip();
+        return state;
+    }
+}
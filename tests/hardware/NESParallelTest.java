@@ -0,0 +1,115 @@
+package hardware;
+
+import com.google.common.collect.Lists;
+import hardware.memory.NesMemory;
+import hardware.util.TestRoms;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Runs many {@link hardware.NES} instances in parallel and checks they end exactly like a run on its own
+ */
+public class NESParallelTest {
+
+    private static final String[] ROMS = {
+            "01-basics.nes",
+            "10-branches.nes",
+            "12-jmp_jsr.nes",
+            "14-rti.nes",
+            "16-special.nes",
+            "19-branch_wrap.nes"};
+
+    private static final int INSTANCES_PER_ROM = 4;
+
+    // Number of CPU cycles run between two reads of the test status
+    private static final int STATUS_POLL_CYCLES = 1000;
+    private static final long MAX_CYCLES = 20000000;
+
+    @Test
+    public void testParallelRunsMatchSequentialRuns() throws Exception {
+        List<String> expectedResults = Lists.newArrayList();
+        for (String rom : ROMS) {
+            String result = runRom(rom);
+            assertThat(result).contains(" status=0 ");
+            expectedResults.add(result);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<String>> results = Lists.newArrayList();
+            for (int instance = 0; instance < INSTANCES_PER_ROM; instance++) {
+                for (final String rom : ROMS) {
+                    results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws IOException {
+                            return runRom(rom);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo(expectedResults.get(i % ROMS.length));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConfinedToFirstThread() throws Throwable {
+        final NES nes = new NES(TestRoms.getInstance().loadRom(ROMS[0]));
+        nes.runCpuCycles(STATUS_POLL_CYCLES);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return nes.runCpuCycles(STATUS_POLL_CYCLES);
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Test status, cycles run and checksum of RAM and SRAM once the test ROM is done
+     */
+    private static String runRom(String romName) throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom(romName));
+        NesMemory nesMemory = nes.getNesMemory();
+        long cycles = 0;
+        boolean testStarted = false;
+        while (cycles < MAX_CYCLES) {
+            cycles += nes.runCpuCycles(STATUS_POLL_CYCLES);
+            int status = nesMemory.read(0x6000);
+            if (status == 0x80) {
+                testStarted = true;
+            } else if (testStarted) {
+                break;
+            }
+        }
+        CRC32 checksum = new CRC32();
+        for (int address = 0; address < 0x0800; address++) {
+            checksum.update(nesMemory.read(address));
+        }
+        for (int address = 0x6000; address < 0x8000; address++) {
+            checksum.update(nesMemory.read(address));
+        }
+        return romName + " status=" + nesMemory.read(0x6000) + " cycles=" + cycles
+                + " checksum=" + Long.toHexString(checksum.getValue());
+    }
+}
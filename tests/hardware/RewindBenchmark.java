@@ -0,0 +1,50 @@
+package hardware;
+
+import hardware.util.TestRoms;
+
+import java.io.IOException;
+
+/**
+ * Measures the cost of {@link RewindBuffer#capture()} once per frame against running the frame itself, and
+ * the memory used per captured frame.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class RewindBenchmark {
+
+    private static final int CYCLES_PER_FRAME = 29781;
+    private static final int NUM_FRAMES = 3000;
+    private static final int MEMORY_BUDGET_MB = 16;
+
+    public static void main(String[] args) throws IOException {
+        run(NUM_FRAMES);
+        run(NUM_FRAMES);
+    }
+
+    private static void run(int numFrames) throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom("30-irq_and_dma.nes"));
+        RewindBuffer rewindBuffer = new RewindBuffer(nes, MEMORY_BUDGET_MB);
+        long runNs = 0;
+        long captureNs = 0;
+        for (int frame = 0; frame < numFrames; frame++) {
+            long startTime = System.nanoTime();
+            nes.runCpuCycles(CYCLES_PER_FRAME);
+            runNs += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            rewindBuffer.capture();
+            captureNs += System.nanoTime() - startTime;
+        }
+        int bytesPerFrame = rewindBuffer.getEncodedSize() / rewindBuffer.getNumFrames();
+        long startTime = System.nanoTime();
+        int rewound = 0;
+        while (rewindBuffer.rewind(1) > 0) {
+            rewound++;
+        }
+        long rewindNs = System.nanoTime() - startTime;
+        System.out.println(String.format(
+                "Frame : %.1f us, capture : %.1f us, rewind : %.1f us, %d bytes per frame (state of %d bytes)",
+                runNs / 1e3 / numFrames, captureNs / 1e3 / numFrames, rewindNs / 1e3 / rewound,
+                bytesPerFrame, nes.getSaveStateSize()));
+    }
+}
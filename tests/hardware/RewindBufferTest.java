@@ -0,0 +1,106 @@
+package hardware;
+
+import com.google.common.collect.Lists;
+import hardware.util.TestRoms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RewindBufferTest {
+
+    private static final int CYCLES_PER_FRAME = 29781;
+    private static final int NUM_FRAMES = 100;
+    private static final int KEYFRAME_INTERVAL = 16;
+
+    private NES mNes;
+    // State after each capture
+    private List<ByteBuffer> mStates;
+
+    @Before
+    public void setup() throws IOException {
+        mNes = new NES(TestRoms.getInstance().loadRom("30-irq_and_dma.nes"));
+        mStates = Lists.newArrayList();
+    }
+
+    @Test
+    public void testRewindFrameByFrame() {
+        RewindBuffer rewindBuffer = new RewindBuffer(mNes, 1 << 20, KEYFRAME_INTERVAL);
+        captureFrames(rewindBuffer);
+        assertThat(rewindBuffer.getNumFrames()).isEqualTo(NUM_FRAMES - 1);
+
+        for (int frame = NUM_FRAMES - 2; frame >= 0; frame--) {
+            assertThat(rewindBuffer.rewind(1)).isEqualTo(1);
+            assertThat(saveState()).isEqualTo(mStates.get(frame));
+        }
+        assertThat(rewindBuffer.rewind(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void testRewindManyFrames() {
+        RewindBuffer rewindBuffer = new RewindBuffer(mNes, 1 << 20, KEYFRAME_INTERVAL);
+        captureFrames(rewindBuffer);
+
+        assertThat(rewindBuffer.rewind(37)).isEqualTo(37);
+        assertThat(saveState()).isEqualTo(mStates.get(NUM_FRAMES - 1 - 37));
+        assertThat(rewindBuffer.rewind(5)).isEqualTo(5);
+        assertThat(saveState()).isEqualTo(mStates.get(NUM_FRAMES - 1 - 42));
+        assertThat(rewindBuffer.rewind(NUM_FRAMES)).isEqualTo(NUM_FRAMES - 1 - 42);
+        assertThat(saveState()).isEqualTo(mStates.get(0));
+    }
+
+    @Test
+    public void testCaptureAfterRewind() {
+        RewindBuffer rewindBuffer = new RewindBuffer(mNes, 1 << 20, KEYFRAME_INTERVAL);
+        captureFrames(rewindBuffer);
+        rewindBuffer.rewind(30);
+        mNes.runCpuCycles(CYCLES_PER_FRAME);
+        rewindBuffer.capture();
+        ByteBuffer newFrame = saveState();
+
+        mNes.runCpuCycles(CYCLES_PER_FRAME);
+        rewindBuffer.capture();
+        rewindBuffer.rewind(1);
+        assertThat(saveState()).isEqualTo(newFrame);
+        rewindBuffer.rewind(1);
+        assertThat(saveState()).isEqualTo(mStates.get(NUM_FRAMES - 1 - 30));
+    }
+
+    @Test
+    public void testOldestFramesDroppedOverBudget() {
+        // A keyframe in every capture, about 1.5K each
+        int budget = 160000;
+        int numCaptures = 2 * NUM_FRAMES;
+        RewindBuffer rewindBuffer = new RewindBuffer(mNes, budget, 1);
+        captureFrames(rewindBuffer, numCaptures);
+        int numFrames = rewindBuffer.getNumFrames();
+        assertThat(numFrames).isLessThan(numCaptures - 1).isGreaterThan(0);
+        assertThat(rewindBuffer.getEncodedSize()).isLessThanOrEqualTo(budget);
+
+        assertThat(rewindBuffer.rewind(numCaptures)).isEqualTo(numFrames);
+        assertThat(saveState()).isEqualTo(mStates.get(numCaptures - 1 - numFrames));
+    }
+
+    private void captureFrames(RewindBuffer rewindBuffer) {
+        captureFrames(rewindBuffer, NUM_FRAMES);
+    }
+
+    private void captureFrames(RewindBuffer rewindBuffer, int numCaptures) {
+        for (int frame = 0; frame < numCaptures; frame++) {
+            mNes.runCpuCycles(CYCLES_PER_FRAME);
+            rewindBuffer.capture();
+            mStates.add(saveState());
+        }
+    }
+
+    private ByteBuffer saveState() {
+        ByteBuffer state = ByteBuffer.allocate(mNes.getSaveStateSize());
+        mNes.saveState(state);
+        state.flip();
+        return state;
+    }
+}
@@ -0,0 +1,49 @@
+package hardware;
+
+import hardware.util.TestRoms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures {@link NES#saveState(ByteBuffer)} and {@link NES#loadState(ByteBuffer)} into a direct buffer, for
+ * a console in the middle of a run.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class SaveStateBenchmark {
+
+    private static final int ROUNDS = 20000;
+    private static final int WARMUP_ROUNDS = 20000;
+
+    public static void main(String[] args) throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom("30-irq_and_dma.nes"));
+        nes.runCpuCycles(700000);
+        ByteBuffer state = ByteBuffer.allocateDirect(nes.getSaveStateSize());
+
+        run(nes, state, WARMUP_ROUNDS);
+        long[] elapsedNs = run(nes, state, ROUNDS);
+        System.out.println(String.format("%d bytes per state, save : %.2f us, load : %.2f us",
+                nes.getSaveStateSize(), elapsedNs[0] / 1e3 / ROUNDS, elapsedNs[1] / 1e3 / ROUNDS));
+    }
+
+    /**
+     * @return Total time spent saving and loading
+     */
+    private static long[] run(NES nes, ByteBuffer state, int rounds) {
+        long saveNs = 0;
+        long loadNs = 0;
+        for (int i = 0; i < rounds; i++) {
+            state.clear();
+            long startTime = System.nanoTime();
+            nes.saveState(state);
+            saveNs += System.nanoTime() - startTime;
+
+            state.flip();
+            startTime = System.nanoTime();
+            nes.loadState(state);
+            loadNs += System.nanoTime() - startTime;
+        }
+        return new long[] {saveNs, loadNs};
+    }
+}
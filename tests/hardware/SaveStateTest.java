@@ -0,0 +1,82 @@
+package hardware;
+
+import hardware.util.TestRoms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SaveStateTest {
+
+    // Interrupts, DMA and MMC1 bank switches all happen while this one runs
+    private static final String ROM = "30-irq_and_dma.nes";
+    private static final String OTHER_ROM = "01-basics.nes";
+
+    private static final int CYCLES_BEFORE_SAVE = 700000;
+    private static final int CYCLES_AFTER_SAVE = 400000;
+
+    private NES mNes;
+    private ByteBuffer mState;
+
+    @Before
+    public void setup() throws IOException {
+        mNes = new NES(TestRoms.getInstance().loadRom(ROM));
+        mState = ByteBuffer.allocateDirect(mNes.getSaveStateSize());
+        mNes.runCpuCycles(CYCLES_BEFORE_SAVE);
+        mNes.saveState(mState);
+        mState.flip();
+    }
+
+    @Test
+    public void testRunAfterLoadMatchesRunAfterSave() {
+        mNes.runCpuCycles(CYCLES_AFTER_SAVE);
+        ByteBuffer expected = saveState(mNes);
+
+        mNes.runCpuCycles(CYCLES_AFTER_SAVE);
+        mNes.loadState(mState);
+        assertThat(mState.remaining()).isEqualTo(0);
+        mNes.runCpuCycles(CYCLES_AFTER_SAVE);
+
+        assertThat(saveState(mNes)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testLoadIntoNewInstance() throws IOException {
+        mNes.runCpuCycles(CYCLES_AFTER_SAVE);
+        ByteBuffer expected = saveState(mNes);
+
+        NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+        nes.loadState(mState);
+        nes.runCpuCycles(CYCLES_AFTER_SAVE);
+
+        assertThat(saveState(nes)).isEqualTo(expected);
+        assertThat(nes.getNesMemory().read(0x6000)).isEqualTo(mNes.getNesMemory().read(0x6000));
+    }
+
+    @Test
+    public void testRejectsStateOfOtherCartridge() throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom(OTHER_ROM));
+        try {
+            nes.loadState(mState);
+            throw new AssertionError("Loaded the state of another cartridge");
+        } catch (IllegalArgumentException e) {
+            assertThat(mState.position()).isEqualTo(0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCorruptState() {
+        mState.putInt(0, 0);
+        mNes.loadState(mState);
+    }
+
+    private static ByteBuffer saveState(NES nes) {
+        ByteBuffer state = ByteBuffer.allocateDirect(nes.getSaveStateSize());
+        nes.saveState(state);
+        state.flip();
+        return state;
+    }
+}
@@ -0,0 +1,76 @@
+package hardware.cpu;
+
+import com.google.common.collect.Lists;
+import components.memory.MemoryBlock;
+import hardware.DMAController;
+import hardware.memory.NesMemory;
+import hardware.ppu.memory.OAM;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.cpu.Cpu#runUntil(int)}
+ */
+public class CpuBatchTest {
+
+    private static final int PROGRAM_START = 0x0200;
+
+    // LDA #$00; LDA #$01; LDA $2002; LDA #$02; JMP $0200
+    private static final int[] PROGRAM = {
+            0xA9, 0x00,
+            0xA9, 0x01,
+            0xAD, 0x02, 0x20,
+            0xA9, 0x02,
+            0x4C, 0x00, 0x02};
+
+    private Cpu mCpu;
+    private final List<Integer> mListenerCycles = Lists.newArrayList();
+
+    @Before
+    public void setup() {
+        NesMemory nesMemory = NesMemory.createNesMemory(new byte[0x4000], new byte[0x4000], new MemoryBlock(0x2000, 8));
+        for (int i = 0; i < PROGRAM.length; i++) {
+            nesMemory.write(PROGRAM_START + i, PROGRAM[i]);
+        }
+        mCpu = new Cpu(nesMemory, new DMAController(nesMemory, new OAM()));
+        mCpu.getRegisters().PC = PROGRAM_START;
+        mCpu.setCycleListener(new Cpu.CycleListener() {
+            @Override
+            public void onCycles(int cpuCycles) {
+                mListenerCycles.add(cpuCycles);
+            }
+
+            @Override
+            public int getCyclesUntilStatusChange() {
+                return Integer.MAX_VALUE;
+            }
+        });
+    }
+
+    @Test
+    public void testSyncBeforePpuRegisterAccess() {
+        assertThat(mCpu.runUntil(10)).isEqualTo(10);
+        // Instructions before LDA $2002 and its cycles up to the read, then the rest of the batch
+        assertThat(mListenerCycles).containsExactly(8, 2);
+        assertThat(mCpu.getRegisters().A).isEqualTo(2);
+    }
+
+    @Test
+    public void testStopsAtFirstInstructionBoundaryPastBudget() {
+        assertThat(mCpu.runUntil(5)).isEqualTo(8);
+        assertThat(mListenerCycles).containsExactly(8);
+        assertThat(mCpu.getRegisters().PC).isEqualTo(PROGRAM_START + 7);
+    }
+
+    @Test
+    public void testProcessDoesNotNotifyListener() {
+        for (int i = 0; i < PROGRAM.length; i++) {
+            mCpu.process();
+        }
+        assertThat(mListenerCycles).isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+package hardware.cpu;
+
+import components.memory.MemoryBlock;
+import hardware.DMAController;
+import hardware.memory.NesMemory;
+import hardware.ppu.memory.OAM;
+import hardware.rom.Rom;
+import hardware.util.TestRoms;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures raw {@link hardware.cpu.Cpu} interpreter throughput by running the automated
+ * nestest ROM (the same program {@link hardware.cpu.CpuIntegrationTest} traces) from 0xC000.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class CpuBenchmark {
+
+    // Number of instructions in the automated nestest run (see expected_output)
+    private static final int NESTEST_INSTRUCTIONS = 8990;
+
+    private static final int WARMUP_ITERATIONS = 100;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    private static final int TRACE_CAPACITY = 1 << 20;
+
+    public static void main(String[] args) throws IOException {
+        Rom rom = TestRoms.getInstance().loadCpuNesTestRom();
+        benchmark("Interpreter", rom, null);
+        benchmark("Interpreter with instruction trace", rom, new InstructionTrace(TRACE_CAPACITY));
+    }
+
+    private static void benchmark(String name, Rom rom, InstructionTrace trace) {
+        runIterations(rom, WARMUP_ITERATIONS, trace);
+
+        long startTime = System.nanoTime();
+        long cycles = runIterations(rom, MEASURED_ITERATIONS, trace);
+        long elapsedNs = System.nanoTime() - startTime;
+
+        long instructions = (long) NESTEST_INSTRUCTIONS * MEASURED_ITERATIONS;
+        System.out.println(name + " :");
+        System.out.println(String.format("%d instructions, %d cycles in %.1f ms", instructions, cycles, elapsedNs / 1e6));
+        System.out.println(String.format("%.2f M instructions/s", instructions * 1e3 / elapsedNs));
+        System.out.println(String.format("%.1f ns/instruction", (double) elapsedNs / instructions));
+    }
+
+    private static long runIterations(Rom rom, int iterations, InstructionTrace trace) {
+        final byte[] prg_rom = rom.getPRG_ROM(0);
+        long cycles = 0;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            MemoryBlock ppuRegisters = new MemoryBlock(0x2000, 8);
+            NesMemory nesMemory = NesMemory.createNesMemory(prg_rom, Arrays.copyOf(prg_rom, prg_rom.length), ppuRegisters);
+            Cpu cpu = new Cpu(nesMemory, new DMAController(nesMemory, new OAM()));
+            cpu.getRegisters().PC = 0xC000;
+            cpu.setInstructionTrace(trace);
+            for (int i = 0; i < NESTEST_INSTRUCTIONS; i++) {
+                cycles += cpu.process();
+            }
+        }
+        return cycles;
+    }
+}
@@ -0,0 +1,96 @@
+package hardware.cpu;
+
+import components.memory.MemoryBlock;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.cpu.DecodeCache}
+ */
+public class DecodeCacheTest {
+
+    private MemoryBlock mPrgRom;
+    private int[] mInstructionLengths;
+    private DecodeCache mDecodeCache;
+
+    @Before
+    public void setup() {
+        mPrgRom = new MemoryBlock(0x8000, 0x8000);
+        mInstructionLengths = new int[256];
+        mInstructionLengths[0xA9] = 2; // LDA #
+        mInstructionLengths[0xAD] = 3; // LDA abs
+        mDecodeCache = new DecodeCache(mPrgRom, mInstructionLengths);
+    }
+
+    @Test
+    public void testDecode() {
+        writeAbsoluteLoad(0xC000, 0x34, 0x12);
+        long entry = mDecodeCache.lookup(0xC000);
+        assertThat(DecodeCache.getLength(entry)).isEqualTo(3);
+        assertThat(DecodeCache.getByte(entry, 0)).isEqualTo(0xAD);
+        assertThat(DecodeCache.getByte(entry, 1)).isEqualTo(0x34);
+        assertThat(DecodeCache.getByte(entry, 2)).isEqualTo(0x12);
+    }
+
+    @Test
+    public void testUnknownOpcodeIsNotCached() {
+        mPrgRom.write(0xC000, 0xFF);
+        assertThat(DecodeCache.getLength(mDecodeCache.lookup(0xC000))).isEqualTo(0);
+    }
+
+    @Test
+    public void testInstructionCrossingRegionIsNotCached() {
+        writeAbsoluteLoad(0x9FFF, 0x34, 0x12);
+        assertThat(DecodeCache.getLength(mDecodeCache.lookup(0x9FFF))).isEqualTo(0);
+    }
+
+    @Test
+    public void testBankSwitchInvalidatesRegion() {
+        writeAbsoluteLoad(0x8000, 0x34, 0x12);
+        writeAbsoluteLoad(0xA000, 0x34, 0x12);
+        mDecodeCache.lookup(0x8000);
+        mDecodeCache.lookup(0xA000);
+
+        // Simulate swapping the bank at 0x8000 - 0x9FFF, which the CPU does not see as a write
+        writeAbsoluteLoad(0x8000, 0x78, 0x56);
+        writeAbsoluteLoad(0xA000, 0x78, 0x56);
+        mDecodeCache.invalidate(0x8000, 0xA000);
+
+        assertThat(DecodeCache.getByte(mDecodeCache.lookup(0x8000), 1)).isEqualTo(0x78);
+        assertThat(DecodeCache.getByte(mDecodeCache.lookup(0xA000), 1)).isEqualTo(0x34);
+    }
+
+    @Test
+    public void testWriteInvalidatesOverlappingEntries() {
+        writeAbsoluteLoad(0xC000, 0x34, 0x12);
+        mDecodeCache.lookup(0xC000);
+
+        mPrgRom.write(0xC002, 0x56);
+        mDecodeCache.onWrite(0xC002);
+
+        assertThat(DecodeCache.getByte(mDecodeCache.lookup(0xC000), 2)).isEqualTo(0x56);
+    }
+
+    @Test
+    public void testSharedEntriesCopiedOnWrite() {
+        writeAbsoluteLoad(0xC000, 0x34, 0x12);
+        mDecodeCache.lookup(0xC000);
+        DecodeCache fork = new DecodeCache(mPrgRom, mInstructionLengths);
+        mDecodeCache.shareWith(fork);
+        assertThat(DecodeCache.getByte(fork.lookup(0xC000), 1)).isEqualTo(0x34);
+
+        mPrgRom.write(0xC001, 0x56);
+        fork.onWrite(0xC001);
+
+        assertThat(DecodeCache.getByte(fork.lookup(0xC000), 1)).isEqualTo(0x56);
+        assertThat(DecodeCache.getByte(mDecodeCache.lookup(0xC000), 1)).isEqualTo(0x34);
+    }
+
+    private void writeAbsoluteLoad(int address, int low, int high) {
+        mPrgRom.write(address, 0xAD);
+        mPrgRom.write(address + 1, low);
+        mPrgRom.write(address + 2, high);
+    }
+}
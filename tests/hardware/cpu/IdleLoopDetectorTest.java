@@ -0,0 +1,144 @@
+package hardware.cpu;
+
+import components.memory.MemoryBlock;
+import hardware.DMAController;
+import hardware.memory.NesMemory;
+import hardware.ppu.memory.OAM;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the idle loop fast-forward of {@link hardware.cpu.Cpu#runUntil(int)} : every run is compared to the
+ * same program executed one instruction at a time.
+ */
+public class IdleLoopDetectorTest {
+
+    private static final int PROGRAM_START = 0x0200;
+    private static final int NMI_HANDLER = 0x0300;
+
+    // LDA $10; BEQ -4
+    private static final int[] RAM_FLAG_LOOP = {0xA5, 0x10, 0xF0, 0xFC};
+
+    // INC $11; LDA $10; BEQ -6
+    private static final int[] WRITING_LOOP = {0xE6, 0x11, 0xA5, 0x10, 0xF0, 0xFA};
+
+    // BIT $2002; BPL -5; LDA #$01; JMP $0207
+    private static final int[] PPU_STATUS_LOOP = {0x2C, 0x02, 0x20, 0x10, 0xFB, 0xA9, 0x01, 0x4C, 0x07, 0x02};
+
+    // VBlank flag set after this many cycles
+    private static final int VBLANK_CYCLE = 1000;
+
+    @Test
+    public void testSkipsRamFlagLoop() {
+        TestSystem batched = new TestSystem(RAM_FLAG_LOOP);
+        TestSystem stepped = new TestSystem(RAM_FLAG_LOOP);
+
+        int cycles = batched.mCpu.runUntil(10000);
+        stepped.stepUntil(cycles);
+
+        assertThat(cycles).isGreaterThanOrEqualTo(10000);
+        assertThat(batched.mCpu.getNumSkippedCycles()).isGreaterThan(9000);
+        assertSameState(batched, stepped);
+    }
+
+    @Test
+    public void testDoesNotSkipLoopWithWrites() {
+        TestSystem batched = new TestSystem(WRITING_LOOP);
+
+        batched.mCpu.runUntil(10000);
+
+        assertThat(batched.mCpu.getNumSkippedCycles()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStopsSkippingAtInterrupt() {
+        TestSystem batched = new TestSystem(RAM_FLAG_LOOP);
+        TestSystem stepped = new TestSystem(RAM_FLAG_LOOP);
+        batched.mCpu.getInterruptController().assertNmi(5001);
+        stepped.mCpu.getInterruptController().assertNmi(5001);
+
+        int cycles = batched.mCpu.runUntil(10000);
+        stepped.stepUntil(cycles);
+
+        assertThat(batched.mCpu.getRegisters().PC).isEqualTo(NMI_HANDLER);
+        assertSameState(batched, stepped);
+    }
+
+    @Test
+    public void testStopsSkippingAtPpuStatusChange() {
+        TestSystem batched = new TestSystem(PPU_STATUS_LOOP);
+        TestSystem stepped = new TestSystem(PPU_STATUS_LOOP);
+
+        int cycles = batched.mCpu.runUntil(3000);
+        stepped.stepUntil(cycles);
+
+        assertThat(batched.mCpu.getNumSkippedCycles()).isGreaterThan(0);
+        assertThat(batched.mCpu.getRegisters().A).isEqualTo(1);
+        assertSameState(batched, stepped);
+    }
+
+    @Test
+    public void testStepsDoNotSkip() {
+        TestSystem stepped = new TestSystem(RAM_FLAG_LOOP);
+
+        stepped.stepUntil(10000);
+
+        assertThat(stepped.mCpu.getNumSkippedCycles()).isEqualTo(0);
+    }
+
+    private static void assertSameState(TestSystem batched, TestSystem stepped) {
+        assertThat(batched.mCpu.getRegisters().PC).isEqualTo(stepped.mCpu.getRegisters().PC);
+        assertThat(batched.mCpu.getRegisters().A).isEqualTo(stepped.mCpu.getRegisters().A);
+        assertThat(batched.mCpu.getRegisters().SP).isEqualTo(stepped.mCpu.getRegisters().SP);
+        assertThat(batched.mCpu.getRegisters().flags.getRegister())
+                .isEqualTo(stepped.mCpu.getRegisters().flags.getRegister());
+        assertThat(batched.mElapsedCycles).isEqualTo(stepped.mElapsedCycles);
+    }
+
+    /**
+     * Cpu with a fake PPU setting the VBlank flag of PPUSTATUS at {@link #VBLANK_CYCLE}
+     */
+    private static final class TestSystem implements Cpu.CycleListener {
+
+        private final Cpu mCpu;
+        private final MemoryBlock mPpuRegisters = new MemoryBlock(0x2000, 8);
+        private long mElapsedCycles;
+
+        TestSystem(int[] program) {
+            byte[] prgRom = new byte[0x4000];
+            prgRom[0x3FFA] = (byte) NMI_HANDLER;
+            prgRom[0x3FFB] = (byte) (NMI_HANDLER >> 8);
+            NesMemory nesMemory = NesMemory.createNesMemory(new byte[0x4000], prgRom, mPpuRegisters);
+            for (int i = 0; i < program.length; i++) {
+                nesMemory.write(PROGRAM_START + i, program[i]);
+            }
+            // JMP $0300
+            nesMemory.write(NMI_HANDLER, 0x4C);
+            nesMemory.write(NMI_HANDLER + 1, NMI_HANDLER & 0xFF);
+            nesMemory.write(NMI_HANDLER + 2, NMI_HANDLER >> 8);
+            mCpu = new Cpu(nesMemory, new DMAController(nesMemory, new OAM()));
+            mCpu.getRegisters().PC = PROGRAM_START;
+            mCpu.setCycleListener(this);
+        }
+
+        void stepUntil(long cycles) {
+            while (mElapsedCycles < cycles) {
+                onCycles(mCpu.process());
+            }
+        }
+
+        @Override
+        public void onCycles(int cpuCycles) {
+            mElapsedCycles += cpuCycles;
+            if (mElapsedCycles >= VBLANK_CYCLE) {
+                mPpuRegisters.write(0x2002, 0x80);
+            }
+        }
+
+        @Override
+        public int getCyclesUntilStatusChange() {
+            return (int) Math.max(VBLANK_CYCLE - mElapsedCycles, 0);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package hardware.cpu;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.cpu.InstructionTrace}
+ */
+public class InstructionTraceTest {
+
+    private InstructionTrace mTrace;
+
+    @Before
+    public void setup() {
+        mTrace = new InstructionTrace(2);
+    }
+
+    @Test
+    public void testFormat() {
+        mTrace.beginInstruction(0xC000, 0x00, 0x00, 0x00, 0x24, 0xFD);
+        mTrace.addByte(0x4C);
+        mTrace.addByte(0xF5);
+        mTrace.addByte(0xC5);
+        mTrace.addCycles(3);
+        mTrace.beginInstruction(0xC5F5, 0x00, 0x00, 0x00, 0x24, 0xFD);
+        mTrace.addByte(0xA2);
+        mTrace.addByte(0x00);
+
+        assertThat(mTrace.format(0)).isEqualTo("C000  4C  F5  C5  A:00 X:00 Y:00 P:24 SP:FD CYC:  0");
+        assertThat(mTrace.format(1)).isEqualTo("C5F5  A2  00      A:00 X:00 Y:00 P:24 SP:FD CYC:  9");
+    }
+
+    @Test
+    public void testKeepsLatestInstructions() {
+        for (int pc = 0; pc < 5; pc++) {
+            mTrace.beginInstruction(pc, pc, 0, 0, 0, 0);
+            mTrace.addByte(0xEA);
+            mTrace.addCycles(2);
+        }
+
+        assertThat(mTrace.size()).isEqualTo(2);
+        assertThat(mTrace.getPC(0)).isEqualTo(3);
+        assertThat(mTrace.getA(0)).isEqualTo(3);
+        assertThat(mTrace.getCycles(0)).isEqualTo(6);
+        assertThat(mTrace.getPC(1)).isEqualTo(4);
+        assertThat(mTrace.getCycles(1)).isEqualTo(8);
+    }
+
+    @Test
+    public void testLargeCycleCount() {
+        long cycles = (1L << 40) + 12345;
+        mTrace.addCycles((int) (cycles >> 20));
+        for (int i = 1; i < 1 << 20; i++) {
+            mTrace.addCycles((int) (cycles >> 20));
+        }
+        mTrace.addCycles((int) (cycles & 0xFFFFF));
+        mTrace.beginInstruction(0x8000, 0, 0, 0, 0, 0);
+
+        assertThat(mTrace.getCycles(0)).isEqualTo(cycles);
+    }
+}
@@ -0,0 +1,44 @@
+package hardware.cpu;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.cpu.InterruptController}
+ */
+public class InterruptControllerTest {
+
+    private InterruptController mInterruptController;
+
+    @Before
+    public void setup() {
+        mInterruptController = new InterruptController();
+    }
+
+    @Test
+    public void testScheduledIrq() {
+        mInterruptController.assertIrq(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER, 100);
+        assertThat(mInterruptController.getNextEventCycle()).isEqualTo(100);
+        assertThat(mInterruptController.isIrqAsserted(99)).isFalse();
+        assertThat(mInterruptController.isIrqAsserted(100)).isTrue();
+        // Level triggered : still asserted until acknowledged
+        assertThat(mInterruptController.isIrqAsserted(1000)).isTrue();
+
+        mInterruptController.acknowledgeIrq(InterruptController.IRQ_SOURCE_APU_FRAME_COUNTER);
+        assertThat(mInterruptController.isIrqAsserted(1000)).isFalse();
+        assertThat(mInterruptController.getNextEventCycle()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testNmiIsConsumed() {
+        mInterruptController.assertNmi(50);
+        mInterruptController.assertIrq(InterruptController.IRQ_SOURCE_MAPPER, 80);
+        assertThat(mInterruptController.getNextEventCycle()).isEqualTo(50);
+        assertThat(mInterruptController.takeNmi(49)).isFalse();
+        assertThat(mInterruptController.takeNmi(50)).isTrue();
+        assertThat(mInterruptController.takeNmi(50)).isFalse();
+        assertThat(mInterruptController.getNextEventCycle()).isEqualTo(80);
+    }
+}
@@ -35,11 +35,11 @@ public class InterruptsIntegrationTest extends BaseIntegrationTest {
     }
 
     enum InterruptTestRoms implements TestRom {
-        CLI_LATENCY("27-cli_latency.nes", "CLI_LATENCY");
-        // NMI_AND_BRK("28-nmi_and_brk.nes", "NMI_AND_BRK"),
-        // NMI_AND_IRQ("29-nmi_and_irq.nes", "NMI_AND_IRQ"),
-        // IRQ_AND_DMA("30-irq_and_dma.nes", "IRQ_AND_DMA"),
-        // BRANCH_DELAYS_IRQ("31-branch_delays_irq.nes", "BRANCH_DELAYS_IRQ");
+        CLI_LATENCY("27-cli_latency.nes", "CLI_LATENCY"),
+        NMI_AND_BRK("28-nmi_and_brk.nes", "NMI_AND_BRK"),
+        NMI_AND_IRQ("29-nmi_and_irq.nes", "NMI_AND_IRQ"),
+        IRQ_AND_DMA("30-irq_and_dma.nes", "IRQ_AND_DMA"),
+        BRANCH_DELAYS_IRQ("31-branch_delays_irq.nes", "BRANCH_DELAYS_IRQ");
 
         private final String mRomName;
         private final String mTestName;
@@ -0,0 +1,62 @@
+package hardware.cpu.registers;
+
+/**
+ * Compares setting zero and sign through {@link StatusRegister#setFlag(int, boolean)}, as the CPU used to
+ * after every ALU operation, with the lazy {@link StatusRegister#setZeroAndSign(int)}.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])}.
+ */
+public class StatusRegisterBenchmark {
+
+    private static final int OPERATIONS = 100000000;
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        StatusRegister statusRegister = new StatusRegister();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runEager(statusRegister);
+            runLazy(statusRegister);
+        }
+        report("Eager setFlag", runEager(statusRegister));
+        report("Lazy setZeroAndSign", runLazy(statusRegister));
+    }
+
+    private static long runEager(StatusRegister statusRegister) {
+        long startTime = System.nanoTime();
+        int branches = 0;
+        for (int result = 0; result < OPERATIONS; result++) {
+            statusRegister.setFlag(StatusRegister.ZERO, (result & 0xFF) == 0);
+            statusRegister.setFlag(StatusRegister.SIGN, (result & 0x80) != 0);
+            // Roughly one in eight ALU results is tested by a branch
+            if ((result & 7) == 0 && statusRegister.getFlag(StatusRegister.ZERO)) {
+                branches++;
+            }
+        }
+        return checkAndGetElapsed(startTime, branches);
+    }
+
+    private static long runLazy(StatusRegister statusRegister) {
+        long startTime = System.nanoTime();
+        int branches = 0;
+        for (int result = 0; result < OPERATIONS; result++) {
+            statusRegister.setZeroAndSign(result);
+            if ((result & 7) == 0 && statusRegister.getFlag(StatusRegister.ZERO)) {
+                branches++;
+            }
+        }
+        return checkAndGetElapsed(startTime, branches);
+    }
+
+    private static long checkAndGetElapsed(long startTime, int branches) {
+        long elapsedNs = System.nanoTime() - startTime;
+        if (branches != OPERATIONS / 0x100) {
+            throw new IllegalStateException("Unexpected branch count " + branches);
+        }
+        return elapsedNs;
+    }
+
+    private static void report(String name, long elapsedNs) {
+        System.out.println(String.format("%s : %.1f M flag updates/s (%.2f ns each)",
+                name, OPERATIONS * 1e3 / elapsedNs, (double) elapsedNs / OPERATIONS));
+    }
+}
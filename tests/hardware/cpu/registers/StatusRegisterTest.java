@@ -0,0 +1,63 @@
+package hardware.cpu.registers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.cpu.registers.StatusRegister}
+ */
+public class StatusRegisterTest {
+
+    private StatusRegister mStatusRegister;
+
+    @Before
+    public void setup() {
+        mStatusRegister = new StatusRegister();
+    }
+
+    @Test
+    public void testZeroAndSignFromResult() {
+        mStatusRegister.setZeroAndSign(0x100);
+        assertThat(mStatusRegister.getFlag(StatusRegister.ZERO)).isTrue();
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isFalse();
+
+        mStatusRegister.setZeroAndSign(-1);
+        assertThat(mStatusRegister.getFlag(StatusRegister.ZERO)).isFalse();
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isTrue();
+        assertThat(mStatusRegister.getRegister()).isEqualTo(0xA4);
+    }
+
+    @Test
+    public void testZeroAndSignFromDifferentValues() {
+        // BIT : zero from A & M, sign from M
+        mStatusRegister.setZeroAndSign(0x80, 0x00);
+        assertThat(mStatusRegister.getFlag(StatusRegister.ZERO)).isFalse();
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isFalse();
+
+        mStatusRegister.setZeroAndSign(0x00, 0x80);
+        assertThat(mStatusRegister.getFlag(StatusRegister.ZERO)).isTrue();
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isTrue();
+    }
+
+    @Test
+    public void testRegisterRoundTrip() {
+        for (int register = 0; register < 0x100; register++) {
+            mStatusRegister.setRegister(register);
+            int expected = (register & ~(1 << StatusRegister.BREAK)) | 1 << StatusRegister.NOT_USED;
+            assertThat(mStatusRegister.getRegister()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testSetFlagKeepsOtherLazyFlag() {
+        mStatusRegister.setZeroAndSign(0x80);
+        mStatusRegister.setFlag(StatusRegister.ZERO, true);
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isTrue();
+
+        mStatusRegister.setFlag(StatusRegister.SIGN, false);
+        assertThat(mStatusRegister.getFlag(StatusRegister.ZERO)).isTrue();
+        assertThat(mStatusRegister.getFlag(StatusRegister.SIGN)).isFalse();
+    }
+}
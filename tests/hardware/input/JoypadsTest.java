@@ -0,0 +1,60 @@
+package hardware.input;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.input.Joypads}
+ */
+public class JoypadsTest {
+
+    private Joypads mJoypads;
+
+    @Before
+    public void setup() {
+        mJoypads = new Joypads();
+    }
+
+    @Test
+    public void testButtonsReadInOrder() {
+        mJoypads.setButtons(0, Joypads.BUTTON_A | Joypads.BUTTON_START | Joypads.BUTTON_RIGHT);
+        mJoypads.setButtons(1, Joypads.BUTTON_B);
+        strobe();
+
+        int buttons1 = 0;
+        int buttons2 = 0;
+        for (int button = 0; button < 8; button++) {
+            buttons1 |= (mJoypads.getPort(0).read() & 1) << button;
+            buttons2 |= (mJoypads.getPort(1).read() & 1) << button;
+        }
+        assertThat(buttons1).isEqualTo(Joypads.BUTTON_A | Joypads.BUTTON_START | Joypads.BUTTON_RIGHT);
+        assertThat(buttons2).isEqualTo(Joypads.BUTTON_B);
+        // Past the 8 buttons
+        assertThat(mJoypads.getPort(0).read() & 1).isEqualTo(1);
+    }
+
+    @Test
+    public void testButtonsLatchedByStrobe() {
+        mJoypads.setButtons(0, Joypads.BUTTON_A);
+        strobe();
+        mJoypads.setButtons(0, 0);
+
+        assertThat(mJoypads.getPort(0).read() & 1).isEqualTo(1);
+    }
+
+    @Test
+    public void testReadsAWhileStrobing() {
+        mJoypads.setButtons(0, Joypads.BUTTON_A);
+        mJoypads.write(1);
+
+        assertThat(mJoypads.getPort(0).read() & 1).isEqualTo(1);
+        assertThat(mJoypads.getPort(0).read() & 1).isEqualTo(1);
+    }
+
+    private void strobe() {
+        mJoypads.write(1);
+        mJoypads.write(0);
+    }
+}
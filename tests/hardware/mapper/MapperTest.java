@@ -0,0 +1,250 @@
+package hardware.mapper;
+
+import components.memory.MemoryBlock;
+import hardware.NES;
+import hardware.memory.NesMemory;
+import hardware.ppu.memory.Mirroring;
+import hardware.ppu.memory.PPUMemory;
+import hardware.rom.Rom;
+import hardware.rom.RomHeader;
+import hardware.rom.RomLoader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests the bank switching of the {@link hardware.mapper.Mapper}s on generated cartridges, whose 8K PRG banks
+ * are filled with their index
+ */
+public class MapperTest {
+
+    private static final int PRG_BANK_SIZE = 0x4000;
+    private static final int CHR_BANK_SIZE = 0x2000;
+
+    @Test
+    public void testNromMirrorsSingleBank() throws IOException {
+        NesMemory memory = attach(createRom(NROM.NUMBER, 1, 1, null));
+
+        assertThat(memory.read(0x8000)).isEqualTo(0);
+        assertThat(memory.read(0xA000)).isEqualTo(1);
+        assertThat(memory.read(0xC000)).isEqualTo(0);
+        assertThat(memory.read(0xE000)).isEqualTo(1);
+    }
+
+    @Test
+    public void testUxRom() throws IOException {
+        NesMemory memory = attach(createRom(UxROM.NUMBER, 8, 0, null));
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+
+        memory.write(0x8000, 3);
+
+        assertThat(memory.read(0x8000)).isEqualTo(6);
+        assertThat(memory.read(0xBF00)).isEqualTo(7);
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+        // Bank numbers wrap around the ROM size
+        memory.write(0xFFFF, 9);
+        assertThat(memory.read(0x8000)).isEqualTo(2);
+    }
+
+    @Test
+    public void testCnRom() throws IOException {
+        Mapper mapper = Mapper.create(createRom(CNROM.NUMBER, 2, 4, null));
+        NesMemory memory = createMemory();
+        PPUMemory ppuMemory = PPUMemory.construct();
+        mapper.attach(memory);
+        mapper.attachPpu(ppuMemory);
+        assertThat(ppuMemory.read(0x1C00)).isEqualTo(7);
+
+        memory.write(0x8000, 2);
+
+        assertThat(mapper.getChrBank(0)).isEqualTo(16);
+        assertThat(mapper.getChrBank(7)).isEqualTo(23);
+        assertThat(ppuMemory.read(0x0000)).isEqualTo(16);
+        assertThat(ppuMemory.read(0x1C00)).isEqualTo(23);
+        assertThat(memory.read(0x8000)).isEqualTo(0);
+    }
+
+    @Test
+    public void testMmc1() throws IOException {
+        Mapper mapper = Mapper.create(createRom(MMC1.NUMBER, 8, 4, null));
+        NesMemory memory = createMemory();
+        PPUMemory ppuMemory = PPUMemory.construct();
+        mapper.attach(memory);
+        mapper.attachPpu(ppuMemory);
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+
+        // Switchable bank at $8000
+        writeMmc1(memory, 0xE000, 2);
+        assertThat(memory.read(0x8000)).isEqualTo(4);
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+
+        // Fixed first bank at $8000, 4K CHR banks, vertical mirroring
+        writeMmc1(memory, 0x8000, 0b11010);
+        writeMmc1(memory, 0xC000, 5);
+        assertThat(memory.read(0x8000)).isEqualTo(0);
+        assertThat(memory.read(0xC000)).isEqualTo(4);
+        assertThat(mapper.getChrBank(4)).isEqualTo(20);
+        assertThat(mapper.getMirroring()).isEqualTo(Mirroring.VERTICAL);
+        assertThat(ppuMemory.getNameTables().getMirroring()).isEqualTo(Mirroring.VERTICAL);
+
+        // Writing bit 7 resets the shift register and fixes the last bank at $C000
+        memory.write(0x8000, 1);
+        memory.write(0x8000, 0x80);
+        writeMmc1(memory, 0xE000, 3);
+        assertThat(memory.read(0x8000)).isEqualTo(6);
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+    }
+
+    @Test
+    public void testMmc3Banks() throws IOException {
+        Mapper mapper = Mapper.create(createRom(MMC3.NUMBER, 8, 4, null));
+        NesMemory memory = createMemory();
+        mapper.attach(memory);
+
+        writeMmc3Bank(memory, 6, 5);
+        writeMmc3Bank(memory, 7, 9);
+        writeMmc3Bank(memory, 0, 7);
+        writeMmc3Bank(memory, 2, 30);
+        assertThat(memory.read(0x8000)).isEqualTo(5);
+        assertThat(memory.read(0xA000)).isEqualTo(9);
+        assertThat(memory.read(0xC000)).isEqualTo(14);
+        assertThat(memory.read(0xE000)).isEqualTo(15);
+        assertThat(mapper.getChrBank(0)).isEqualTo(6);
+        assertThat(mapper.getChrBank(1)).isEqualTo(7);
+        assertThat(mapper.getChrBank(4)).isEqualTo(30);
+
+        // PRG mode 1 swaps $8000 and $C000, CHR inversion swaps the pattern tables
+        memory.write(0x8000, 0b11000000);
+        assertThat(memory.read(0x8000)).isEqualTo(14);
+        assertThat(memory.read(0xC000)).isEqualTo(5);
+        assertThat(mapper.getChrBank(4)).isEqualTo(6);
+        assertThat(mapper.getChrBank(0)).isEqualTo(30);
+
+        memory.write(0xA000, 1);
+        assertThat(mapper.getMirroring()).isEqualTo(Mirroring.HORIZONTAL);
+    }
+
+    @Test
+    public void testMmc3ScanlineCounter() throws IOException {
+        Mapper mapper = Mapper.create(createRom(MMC3.NUMBER, 2, 1, null));
+        NesMemory memory = createMemory();
+        mapper.attach(memory);
+        assertThat(mapper.getScanlinesUntilIrq()).isEqualTo(Mapper.NO_IRQ);
+
+        memory.write(0xC000, 3);
+        memory.write(0xC001, 0);
+        memory.write(0xE001, 0);
+        assertThat(mapper.getScanlinesUntilIrq()).isEqualTo(4);
+        mapper.onScanline(0);
+        assertThat(mapper.getScanlinesUntilIrq()).isEqualTo(3);
+        mapper.onScanline(0);
+        mapper.onScanline(0);
+        mapper.onScanline(0);
+        // Reloaded on the next clock
+        assertThat(mapper.getScanlinesUntilIrq()).isEqualTo(4);
+    }
+
+    /**
+     * Runs a program counting MMC3 IRQs raised every 10 scanlines, in batches and one instruction at a time
+     */
+    @Test
+    public void testMmc3IrqInBatches() throws IOException {
+        byte[] program = {
+                // Reset, $E000 : inhibit the APU frame IRQ, set up the IRQ every 10 scanlines, enable
+                // background rendering
+                0x78,                                   // SEI
+                (byte) 0xA9, 0x40,                      // LDA #$40
+                (byte) 0x8D, 0x17, 0x40,                // STA $4017
+                (byte) 0xA9, 0x09,                      // LDA #9
+                (byte) 0x8D, 0x00, (byte) 0xC0,         // STA $C000
+                (byte) 0x8D, 0x01, (byte) 0xC0,         // STA $C001
+                (byte) 0x8D, 0x01, (byte) 0xE0,         // STA $E001
+                (byte) 0xA9, 0x08,                      // LDA #8
+                (byte) 0x8D, 0x01, 0x20,                // STA $2001
+                0x58,                                   // CLI
+                0x4C, 0x17, (byte) 0xE0,                // JMP $E017
+                // IRQ, $E01A : count it and acknowledge it
+                (byte) 0xE6, 0x10,                      // INC $10
+                (byte) 0x8D, 0x00, (byte) 0xE0,         // STA $E000
+                (byte) 0x8D, 0x01, (byte) 0xE0,         // STA $E001
+                0x40};                                  // RTI
+        Rom rom = createRom(MMC3.NUMBER, 2, 1, program);
+        long numCycles = 30000 * 5;
+
+        NES batchedNes = new NES(rom);
+        long batchedCycles = batchedNes.runCpuCycles(numCycles);
+        NES steppedNes = new NES(rom);
+        long steppedCycles = 0;
+        while (steppedCycles < batchedCycles) {
+            steppedCycles += steppedNes.runCpuCycles(1);
+        }
+
+        int numIrqs = batchedNes.getNesMemory().read(0x10);
+        assertThat(steppedNes.getNesMemory().read(0x10)).isEqualTo(numIrqs);
+        // 24 IRQs per frame of about 29780 cycles
+        assertThat(numIrqs).isGreaterThan(100).isLessThan(130);
+    }
+
+    private static NesMemory createMemory() {
+        return NesMemory.createNesMemory(new MemoryBlock(0x2000, 8));
+    }
+
+    private static NesMemory attach(Rom rom) {
+        NesMemory memory = createMemory();
+        Mapper.create(rom).attach(memory);
+        return memory;
+    }
+
+    private static void writeMmc1(NesMemory memory, int address, int value) {
+        for (int bit = 0; bit < 5; bit++) {
+            memory.write(address, (value >> bit) & 1);
+        }
+    }
+
+    private static void writeMmc3Bank(NesMemory memory, int register, int bank) {
+        memory.write(0x8000, register);
+        memory.write(0x8001, bank);
+    }
+
+    /**
+     * @param program Copied at the start of the last 8K bank, which gets the reset and IRQ vectors to it. null
+     * for none. The 1K CHR banks start with their index.
+     */
+    private static Rom createRom(int mapperNumber, int numPrgBanks, int numChrBanks, byte[] program)
+            throws IOException {
+        byte[] image = new byte[RomHeader.SIZE + numPrgBanks * PRG_BANK_SIZE + numChrBanks * CHR_BANK_SIZE];
+        image[0] = 'N';
+        image[1] = 'E';
+        image[2] = 'S';
+        image[3] = 0x1A;
+        image[4] = (byte) numPrgBanks;
+        image[5] = (byte) numChrBanks;
+        image[6] = (byte) ((mapperNumber & 0x0F) << 4);
+        image[7] = (byte) (mapperNumber & 0xF0);
+        int numBanks8K = numPrgBanks * 2;
+        for (int bank = 0; bank < numBanks8K; bank++) {
+            for (int offset = 0; offset < 0x2000; offset += 0x100) {
+                image[RomHeader.SIZE + bank * 0x2000 + offset] = (byte) bank;
+            }
+        }
+        int chrStart = RomHeader.SIZE + numPrgBanks * PRG_BANK_SIZE;
+        for (int bank = 0; bank < numChrBanks * 8; bank++) {
+            image[chrStart + bank * 0x400] = (byte) bank;
+        }
+        if (program != null) {
+            int lastBank = RomHeader.SIZE + (numBanks8K - 1) * 0x2000;
+            System.arraycopy(program, 0, image, lastBank, program.length);
+            // NMI and reset at $E000, IRQ at $E01A
+            image[lastBank + 0x1FFA] = 0x00;
+            image[lastBank + 0x1FFB] = (byte) 0xE0;
+            image[lastBank + 0x1FFC] = 0x00;
+            image[lastBank + 0x1FFD] = (byte) 0xE0;
+            image[lastBank + 0x1FFE] = 0x1A;
+            image[lastBank + 0x1FFF] = (byte) 0xE0;
+        }
+        return RomLoader.loadRom(new ByteArrayInputStream(image));
+    }
+}
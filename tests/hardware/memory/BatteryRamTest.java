@@ -0,0 +1,112 @@
+package hardware.memory;
+
+import com.google.common.io.ByteStreams;
+import hardware.NES;
+import hardware.rom.Rom;
+import hardware.rom.RomLoader;
+import hardware.util.TestRoms;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.memory.BatteryRam}
+ */
+public class BatteryRamTest {
+
+    private File mFile;
+    private File mSaveDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        mFile = File.createTempFile("battery", ".sav");
+        assertThat(mFile.delete()).isTrue();
+        mSaveDirectory = new File(mFile.getPath() + ".d");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        File[] saveFiles = mSaveDirectory.listFiles();
+        if (saveFiles != null) {
+            for (File saveFile : saveFiles) {
+                saveFile.delete();
+            }
+        }
+        mSaveDirectory.delete();
+    }
+
+    @Test
+    public void testPersistedOnClose() throws IOException {
+        BatteryRam batteryRam = BatteryRam.open(mFile, NesMemory.SRAM_SIZE);
+        assertThat(mFile.length()).isEqualTo(NesMemory.SRAM_SIZE);
+        batteryRam.getData()[0x123] = 0x45;
+        batteryRam.getData()[0x1FFF] = 0x67;
+        batteryRam.close();
+
+        BatteryRam reopened = BatteryRam.open(mFile, NesMemory.SRAM_SIZE);
+        assertThat(reopened.getData()[0x123]).isEqualTo((byte) 0x45);
+        assertThat(reopened.getData()[0x1FFF]).isEqualTo((byte) 0x67);
+        reopened.close();
+    }
+
+    @Test
+    public void testSyncedWritesReachFileWithoutClose() throws Exception {
+        BatteryRam batteryRam = BatteryRam.open(mFile, NesMemory.SRAM_SIZE);
+        batteryRam.getData()[0x800] = 0x12;
+        batteryRam.getData()[0x900] = 0x34;
+
+        // Only page 8 is reported as written
+        batteryRam.sync(1 << 8);
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            file.seek(0x800);
+            assertThat(file.read()).isEqualTo(0x12);
+            file.seek(0x900);
+            assertThat(file.read()).isEqualTo(0x00);
+        }
+        batteryRam.close();
+    }
+
+    @Test
+    public void testCreatedForCartridgesWithBattery() throws IOException {
+        Rom rom = loadRom(true);
+        NES nes = NES.create(rom, mSaveDirectory);
+        nes.getNesMemory().write(0x6010, 0x42);
+        nes.close();
+
+        BatteryRam reopened = BatteryRam.open(new File(mSaveDirectory, rom.getImageHash() + ".sav"),
+                NesMemory.SRAM_SIZE);
+        assertThat(reopened.getData()[0x10]).isEqualTo((byte) 0x42);
+        reopened.close();
+    }
+
+    @Test
+    public void testNotCreatedWithoutBattery() throws IOException {
+        NES.create(loadRom(false), mSaveDirectory).close();
+
+        assertThat(mSaveDirectory.exists()).isFalse();
+    }
+
+    private static Rom loadRom(boolean hasBattery) throws IOException {
+        byte[] image;
+        try (InputStream inputStream = TestRoms.class.getResourceAsStream("cpuroms/01-basics.nes")) {
+            image = ByteStreams.toByteArray(inputStream);
+        }
+        // Flags 6, bit 1
+        if (hasBattery) {
+            image[6] |= 0x02;
+        } else {
+            image[6] &= ~0x02;
+        }
+        return RomLoader.loadRom(new ByteArrayInputStream(image));
+    }
+}
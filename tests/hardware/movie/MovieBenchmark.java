@@ -0,0 +1,57 @@
+package hardware.movie;
+
+import hardware.NES;
+import hardware.input.Joypads;
+import hardware.util.TestRoms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures {@link MoviePlayer#seek(int)} to the last frame of a movie against replaying the movie from its
+ * first frame, and the size of the movie per frame.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class MovieBenchmark {
+
+    private static final String ROM = "30-irq_and_dma.nes";
+    private static final int NUM_FRAMES = 6000;
+
+    public static void main(String[] args) throws IOException {
+        ByteBuffer movie = record();
+        run(movie);
+        run(movie);
+    }
+
+    private static ByteBuffer record() throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MovieRecorder recorder = new MovieRecorder(nes, out)) {
+            for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                // Input held for a few frames, like a player would
+                recorder.runFrame((frame / 7) % 2 == 0 ? Joypads.BUTTON_RIGHT : Joypads.BUTTON_A, 0);
+            }
+        }
+        System.out.println(String.format("%d frames, %d bytes (%.1f per frame)", NUM_FRAMES, out.size(),
+                (double) out.size() / NUM_FRAMES));
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static void run(ByteBuffer movie) throws IOException {
+        NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+        MoviePlayer player = new MoviePlayer(nes, movie);
+        long startTime = System.nanoTime();
+        while (player.runFrame()) {
+        }
+        long replayNs = System.nanoTime() - startTime;
+
+        player.seek(0);
+        startTime = System.nanoTime();
+        player.seek(NUM_FRAMES - 1);
+        long seekNs = System.nanoTime() - startTime;
+        System.out.println(String.format("Replay : %.1f ms, seek to frame %d : %.1f ms",
+                replayNs / 1e6, NUM_FRAMES - 1, seekNs / 1e6));
+    }
+}
@@ -0,0 +1,130 @@
+package hardware.movie;
+
+import com.google.common.collect.Lists;
+import hardware.NES;
+import hardware.input.Joypads;
+import hardware.util.TestRoms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MovieTest {
+
+    private static final String ROM = "30-irq_and_dma.nes";
+    private static final String OTHER_ROM = "01-basics.nes";
+    private static final int NUM_FRAMES = 200;
+    private static final int KEYFRAME_INTERVAL = 32;
+
+    private NES mNes;
+    // State before the first frame, then after each frame
+    private List<ByteBuffer> mStates;
+
+    @Before
+    public void setup() throws IOException {
+        mNes = new NES(TestRoms.getInstance().loadRom(ROM));
+        mStates = Lists.newArrayList();
+    }
+
+    @Test
+    public void testPlaybackMatchesRecording() throws IOException {
+        ByteBuffer movie = record(KEYFRAME_INTERVAL);
+
+        NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+        MoviePlayer player = new MoviePlayer(nes, movie);
+        assertThat(player.getNumFrames()).isEqualTo(NUM_FRAMES);
+        assertThat(saveState(nes)).isEqualTo(mStates.get(0));
+        for (int frame = 0; frame < NUM_FRAMES; frame++) {
+            assertThat(player.runFrame()).isTrue();
+            assertThat(nes.getJoypads().getButtons(0)).isEqualTo(getButtons1(frame));
+            assertThat(saveState(nes)).isEqualTo(mStates.get(frame + 1));
+        }
+        assertThat(player.runFrame()).isFalse();
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        ByteBuffer movie = record(KEYFRAME_INTERVAL);
+        NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+        MoviePlayer player = new MoviePlayer(nes, movie);
+
+        // Forward past keyframes, backward, forward within an interval, to a keyframe, to both ends
+        int[] frames = {150, 37, 40, 64, NUM_FRAMES, 0, 1};
+        for (int frame : frames) {
+            player.seek(frame);
+            assertThat(player.getFrame()).isEqualTo(frame);
+            assertThat(saveState(nes)).isEqualTo(mStates.get(frame));
+        }
+    }
+
+    @Test
+    public void testPlaybackFromFile() throws IOException {
+        File file = File.createTempFile("movie", ".nesm");
+        try {
+            MovieRecorder recorder = new MovieRecorder(mNes, new FileOutputStream(file), KEYFRAME_INTERVAL);
+            recordFrames(recorder);
+            recorder.close();
+
+            NES nes = new NES(TestRoms.getInstance().loadRom(ROM));
+            MoviePlayer player = MoviePlayer.open(file, nes);
+            player.seek(NUM_FRAMES - 1);
+            assertThat(saveState(nes)).isEqualTo(mStates.get(NUM_FRAMES - 1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSameInputRunLengthEncoded() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MovieRecorder recorder = new MovieRecorder(mNes, out);
+        for (int frame = 0; frame < 1000; frame++) {
+            recorder.runFrame(Joypads.BUTTON_RIGHT, 0);
+        }
+        recorder.close();
+
+        // Two keyframes, two input records and the index
+        int stateSize = mNes.getSaveStateSize();
+        assertThat(out.size()).isLessThan(2 * stateSize + 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMovieOfOtherCartridge() throws IOException {
+        ByteBuffer movie = record(KEYFRAME_INTERVAL);
+        new MoviePlayer(new NES(TestRoms.getInstance().loadRom(OTHER_ROM)), movie);
+    }
+
+    private ByteBuffer record(int keyframeInterval) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MovieRecorder recorder = new MovieRecorder(mNes, out, keyframeInterval);
+        recordFrames(recorder);
+        recorder.close();
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private void recordFrames(MovieRecorder recorder) throws IOException {
+        mStates.add(saveState(mNes));
+        for (int frame = 0; frame < NUM_FRAMES; frame++) {
+            recorder.runFrame(getButtons1(frame), frame >= NUM_FRAMES / 2 ? Joypads.BUTTON_START : 0);
+            mStates.add(saveState(mNes));
+        }
+    }
+
+    private static int getButtons1(int frame) {
+        return (frame / 7) % 3 == 0 ? Joypads.BUTTON_A | Joypads.BUTTON_LEFT : frame % 5;
+    }
+
+    private static ByteBuffer saveState(NES nes) {
+        ByteBuffer state = ByteBuffer.allocate(nes.getSaveStateSize());
+        nes.saveState(state);
+        state.flip();
+        return state;
+    }
+}
@@ -0,0 +1,252 @@
+package hardware.ppu;
+
+import common.NesConstants;
+import hardware.ppu.memory.Mirroring;
+import hardware.ppu.memory.OAM;
+import hardware.ppu.memory.PPUMemory;
+import hardware.ppu.memory.Palette;
+import hardware.ppu.registers.PpuRegisters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PPUTest {
+
+    private static final int CLOCKS_PER_SCANLINE = 341;
+    private static final int CLOCKS_PER_FRAME = CLOCKS_PER_SCANLINE * 262;
+    private static final int BLACK = 0x0F;
+    private static final int[] COLORS = {0x16, 0x2A, 0x12};
+    // Palettes 0 and 1 of the sprites
+    private static final int[] SPRITE_COLORS = {0x21, 0x27, 0x30, 0x0F, 0x14, 0x1A};
+
+    private OAM mOam;
+    private PPUMemory mMemory;
+    private PpuRegisters mRegisters;
+    private PPU mPpu;
+    private ByteBuffer mBitmap;
+
+    @Before
+    public void setup() {
+        mOam = new OAM();
+        mMemory = PPUMemory.construct();
+        mMemory.getNameTables().setMirroring(Mirroring.VERTICAL);
+        mRegisters = new PpuRegisters(mOam, mMemory);
+        // NMI disabled, the CPU is never used
+        mPpu = new PPU(mRegisters, mMemory, mOam, null);
+        mRegisters.init(mPpu);
+        mBitmap = ByteBuffer.allocate(NesConstants.WIDTH * NesConstants.HEIGHT * 3);
+        mPpu.initializeBuffer(mBitmap);
+
+        // Tiles 1, 2 and 3 are filled with colors 1, 2 and 3
+        for (int tile = 1; tile <= 3; tile++) {
+            for (int row = 0; row < 8; row++) {
+                mMemory.write(tile * 16 + row, (tile & 1) != 0 ? 0xFF : 0);
+                mMemory.write(tile * 16 + row + 8, (tile & 2) != 0 ? 0xFF : 0);
+            }
+        }
+        // Tile 4 has its left half in color 1, tile 5 its top row
+        for (int row = 0; row < 8; row++) {
+            mMemory.write(4 * 16 + row, 0xF0);
+        }
+        mMemory.write(5 * 16, 0xFF);
+        // Sprites below the screen
+        for (int sprite = 0; sprite < 64; sprite++) {
+            mOam.write(sprite * 4, 0xF0);
+        }
+        // Nametable 0 alternates tiles 1 and 2 every column, nametable 1 is tile 3
+        for (int i = 0; i < 32 * 30; i++) {
+            mMemory.write(0x2000 + i, i % 2 == 0 ? 1 : 2);
+            mMemory.write(0x2400 + i, 3);
+        }
+        mMemory.write(0x3F00, BLACK);
+        for (int i = 0; i < COLORS.length; i++) {
+            mMemory.write(0x3F01 + i, COLORS[i]);
+        }
+        for (int i = 0; i < SPRITE_COLORS.length; i++) {
+            mMemory.write(0x3F11 + i + i / 3, SPRITE_COLORS[i]);
+        }
+        // Background shown, left column included
+        mRegisters.write(0x2001, 0x0A);
+    }
+
+    @Test
+    public void testScroll() {
+        setScroll(250, 13);
+        // The scroll is all copied to v before the second frame
+        mPpu.clock(2 * CLOCKS_PER_FRAME);
+
+        for (int y : new int[]{0, 100, 239}) {
+            // Column 31 of nametable 0 then nametable 1
+            for (int x = 0; x < 6; x++) {
+                assertThat(getPixel(x, y)).isEqualTo(getColor(2));
+            }
+            for (int x = 6; x < NesConstants.WIDTH; x += 50) {
+                assertThat(getPixel(x, y)).isEqualTo(getColor(3));
+            }
+        }
+    }
+
+    @Test
+    public void testScrollChangedMidFrame() {
+        mPpu.clock(CLOCKS_PER_FRAME + 100 * CLOCKS_PER_SCANLINE);
+        // Applies from the next scanline
+        setScroll(8, 0);
+        mPpu.clock(CLOCKS_PER_FRAME - 100 * CLOCKS_PER_SCANLINE);
+
+        assertThat(getPixel(0, 100)).isEqualTo(getColor(1));
+        assertThat(getPixel(0, 101)).isEqualTo(getColor(2));
+        assertThat(getPixel(8, 239)).isEqualTo(getColor(1));
+
+        // Written during VBlank, for the whole next frame
+        mPpu.clock(250 * CLOCKS_PER_SCANLINE);
+        setScroll(16, 0);
+        mPpu.clock(12 * CLOCKS_PER_SCANLINE + 2);
+        assertThat(getPixel(0, 0)).isEqualTo(getColor(1));
+        assertThat(getPixel(0, 1)).isEqualTo(getColor(2));
+    }
+
+    @Test
+    public void testAttributesAndBackdrop() {
+        // Palette 1 for the top left 2x2 tiles
+        mMemory.write(0x23C0, 0x01);
+        mMemory.write(0x3F06, COLORS[2]);
+        // Left column hidden
+        mRegisters.write(0x2001, 0x08);
+        mPpu.clock(2 * CLOCKS_PER_FRAME);
+
+        assertThat(getPixel(0, 0)).isEqualTo(Palette.PALETTE.get(BLACK));
+        assertThat(getPixel(8, 0)).isEqualTo(getColor(3));
+        assertThat(getPixel(16, 0)).isEqualTo(getColor(1));
+    }
+
+    @Test
+    public void testSprites() {
+        mRegisters.write(0x2001, 0x1E);
+        setSprite(0, 20, 9, 4, 0x00);
+        // Under sprite 0
+        setSprite(1, 20, 9, 4, 0x01);
+        // Flipped horizontally, then vertically
+        setSprite(2, 40, 9, 4, 0x40);
+        setSprite(3, 60, 9, 5, 0x80);
+        // Behind the background, which is transparent on the tile at column 10 row 1
+        setSprite(4, 80, 9, 4, 0x21);
+        mMemory.write(0x2000 + 32 + 10, 0);
+        mPpu.clock(2 * CLOCKS_PER_FRAME);
+
+        // Sprites are drawn 1 scanline below their Y
+        assertThat(getPixel(20, 9)).isEqualTo(getColor(1));
+        assertThat(getPixel(20, 10)).isEqualTo(getSpriteColor(0, 1));
+        assertThat(getPixel(23, 17)).isEqualTo(getSpriteColor(0, 1));
+        assertThat(getPixel(24, 10)).isEqualTo(getColor(2));
+        assertThat(getPixel(20, 18)).isEqualTo(getColor(1));
+
+        assertThat(getPixel(40, 10)).isEqualTo(getColor(2));
+        assertThat(getPixel(47, 10)).isEqualTo(getSpriteColor(0, 1));
+
+        assertThat(getPixel(60, 10)).isEqualTo(getColor(2));
+        assertThat(getPixel(60, 17)).isEqualTo(getSpriteColor(0, 1));
+
+        assertThat(getPixel(80, 10)).isEqualTo(getSpriteColor(1, 1));
+        assertThat(getPixel(80, 16)).isEqualTo(getColor(1));
+    }
+
+    @Test
+    public void testTallSprites() {
+        mRegisters.write(0x2000, 0x20);
+        mRegisters.write(0x2001, 0x1E);
+        // Tiles 6 and 7 of the second pattern table, in colors 1 and 2
+        for (int row = 0; row < 8; row++) {
+            mMemory.write(0x1000 + 6 * 16 + row, 0xFF);
+            mMemory.write(0x1000 + 7 * 16 + 8 + row, 0xFF);
+        }
+        setSprite(0, 20, 9, 7, 0x00);
+        setSprite(1, 40, 9, 7, 0x80);
+        mPpu.clock(2 * CLOCKS_PER_FRAME);
+
+        assertThat(getPixel(20, 10)).isEqualTo(getSpriteColor(0, 1));
+        assertThat(getPixel(20, 25)).isEqualTo(getSpriteColor(0, 2));
+        assertThat(getPixel(20, 26)).isEqualTo(getColor(1));
+        assertThat(getPixel(40, 10)).isEqualTo(getSpriteColor(0, 2));
+        assertThat(getPixel(40, 25)).isEqualTo(getSpriteColor(0, 1));
+    }
+
+    @Test
+    public void testSprite0HitAndOverflow() {
+        assertSpriteFlags();
+    }
+
+    @Test
+    public void testSprite0HitWithoutBitmap() {
+        mPpu = new PPU(mRegisters, mMemory, mOam, null);
+        mRegisters.init(mPpu);
+        assertSpriteFlags();
+    }
+
+    @Test
+    public void testSprite0AtRightEdge() {
+        mRegisters.write(0x2001, 0x1E);
+        setSprite(0, 0xFC, 9, 1, 0x00);
+        // Up to the pre-render scanline, which clears the flags
+        mPpu.clock(2 * CLOCKS_PER_FRAME - CLOCKS_PER_SCANLINE);
+
+        assertThat(getPixel(0xFC, 10)).isEqualTo(getSpriteColor(0, 1));
+        assertThat(getPixel(NesConstants.WIDTH - 1, 10)).isEqualTo(getSpriteColor(0, 1));
+        // Hit on the first pixel
+        assertThat(mRegisters.getStatus() & 0x40).isEqualTo(0x40);
+    }
+
+    /**
+     * Checks the sprite 0 hit and sprite overflow flags are set on the dot of the hit and on the scanline with
+     * 9 sprites, and cleared on the next frame
+     */
+    private void assertSpriteFlags() {
+        mRegisters.write(0x2001, 0x1E);
+        setSprite(0, 30, 49, 1, 0x00);
+        for (int sprite = 1; sprite <= 9; sprite++) {
+            setSprite(sprite, sprite * 8, 99, 0, 0x00);
+        }
+        mPpu.clock(CLOCKS_PER_FRAME);
+
+        // Dot 31 of scanline 50 outputs pixel 30
+        mPpu.clock(50 * CLOCKS_PER_SCANLINE + 31);
+        assertThat(mRegisters.getStatus() & 0x60).isEqualTo(0);
+        mPpu.clock(1);
+        assertThat(mRegisters.getStatus() & 0x60).isEqualTo(0x40);
+
+        mPpu.clock(50 * CLOCKS_PER_SCANLINE - 31);
+        assertThat(mRegisters.getStatus() & 0x60).isEqualTo(0x40);
+        mPpu.clock(1);
+        assertThat(mRegisters.getStatus() & 0x60).isEqualTo(0x60);
+
+        mPpu.clock(CLOCKS_PER_FRAME - 100 * CLOCKS_PER_SCANLINE);
+        assertThat(mRegisters.getStatus() & 0x60).isEqualTo(0);
+    }
+
+    private void setSprite(int sprite, int x, int y, int tile, int attributes) {
+        mOam.write(sprite * 4, y);
+        mOam.write(sprite * 4 + 1, tile);
+        mOam.write(sprite * 4 + 2, attributes);
+        mOam.write(sprite * 4 + 3, x);
+    }
+
+    private static int getSpriteColor(int palette, int color) {
+        return Palette.PALETTE.get(SPRITE_COLORS[palette * 3 + color - 1]);
+    }
+
+    private void setScroll(int x, int y) {
+        mRegisters.write(0x2005, x);
+        mRegisters.write(0x2005, y);
+    }
+
+    private static int getColor(int color) {
+        return Palette.PALETTE.get(COLORS[color - 1]);
+    }
+
+    private int getPixel(int x, int y) {
+        int index = (y * NesConstants.WIDTH + x) * 3;
+        return (mBitmap.get(index) & 0xFF) << 16 | (mBitmap.get(index + 1) & 0xFF) << 8 | mBitmap.get(index + 2) & 0xFF;
+    }
+}
@@ -0,0 +1,84 @@
+package hardware.ppu;
+
+import common.NesConstants;
+import hardware.ppu.memory.OAM;
+import hardware.ppu.memory.PPUMemory;
+import hardware.ppu.registers.PpuRegisters;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures the time the PPU takes to run a frame with rendering enabled over random pattern tables,
+ * nametables, palette and OAM (8 sprites or more on most scanlines), drawing into a bitmap and without one,
+ * and the time to draw the background of a scanline alone.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class RenderBenchmark {
+
+    private static final int CLOCKS_PER_FRAME = 341 * 262;
+    private static final int NUM_FRAMES = 3000;
+    private static final int NUM_SCANLINES = 1000000;
+
+    public static void main(String[] args) {
+        for (int i = 0; i < 2; i++) {
+            run(false);
+            run(true);
+            runBackground();
+        }
+    }
+
+    private static void runBackground() {
+        OAM oam = new OAM();
+        PPUMemory memory = createMemory();
+        PpuRegisters registers = new PpuRegisters(oam, memory);
+        BackgroundRenderer renderer =
+                new BackgroundRenderer(registers, memory.getNameTables(), memory.getPatternTables());
+        byte[] line = new byte[NesConstants.WIDTH];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < NUM_SCANLINES; i++) {
+            // Scroll through all the rows, fine X included
+            registers.write(0x2005, i);
+            registers.write(0x2005, i % 240);
+            registers.copyHorizontalScroll();
+            registers.copyVerticalScroll();
+            renderer.renderScanline(line);
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+        System.out.println(String.format("Background : %.1f ns per scanline", (double) elapsedNs / NUM_SCANLINES));
+    }
+
+    private static PPUMemory createMemory() {
+        PPUMemory memory = PPUMemory.construct();
+        Random random = new Random(0);
+        for (int address = 0; address < 0x3F20; address++) {
+            memory.write(address, random.nextInt(0x100));
+        }
+        return memory;
+    }
+
+    private static void run(boolean draw) {
+        OAM oam = new OAM();
+        Random random = new Random(0);
+        for (int address = 0; address < 0x100; address++) {
+            oam.write(address, random.nextInt(0x100));
+        }
+        PPUMemory memory = createMemory();
+        PpuRegisters registers = new PpuRegisters(oam, memory);
+        PPU ppu = new PPU(registers, memory, oam, null);
+        registers.init(ppu);
+        if (draw) {
+            ppu.initializeBuffer(ByteBuffer.allocateDirect(NesConstants.WIDTH * NesConstants.HEIGHT * 3));
+        }
+        registers.write(0x2001, 0x1E);
+
+        long startTime = System.nanoTime();
+        for (int frame = 0; frame < NUM_FRAMES; frame++) {
+            ppu.clock(CLOCKS_PER_FRAME);
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+        System.out.println(String.format("%s : %.1f us per frame", draw ? "Drawn" : "Not drawn",
+                elapsedNs / 1e3 / NUM_FRAMES));
+    }
+}
@@ -0,0 +1,50 @@
+package hardware.ppu.memory;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class NameTablesTest {
+
+    @Test
+    public void testHorizontalMirroring() {
+        NameTables nameTables = new NameTables();
+        nameTables.setMirroring(Mirroring.HORIZONTAL);
+
+        nameTables.write(NameTables.NT_0 + 0x12, 1);
+        nameTables.write(NameTables.NT_3 + 0x3C5, 2);
+
+        assertThat(nameTables.read(NameTables.NT_1 + 0x12)).isEqualTo(1);
+        assertThat(nameTables.read(NameTables.NT_2 + 0x12)).isEqualTo(0);
+        assertThat(nameTables.read(NameTables.NT_2 + 0x3C5)).isEqualTo(2);
+        // $3000 - $3EFF mirrors $2000 - $2EFF
+        assertThat(nameTables.read(0x3412)).isEqualTo(1);
+    }
+
+    @Test
+    public void testVerticalMirroring() {
+        NameTables nameTables = new NameTables();
+        nameTables.setMirroring(Mirroring.VERTICAL);
+
+        nameTables.write(NameTables.NT_1 + 0x40, 3);
+
+        assertThat(nameTables.read(NameTables.NT_3 + 0x40)).isEqualTo(3);
+        assertThat(nameTables.read(NameTables.NT_0 + 0x40)).isEqualTo(0);
+    }
+
+    @Test
+    public void testMirroringSwitchKeepsContents() {
+        NameTables nameTables = new NameTables();
+        nameTables.setMirroring(Mirroring.SINGLE_SCREEN_UPPER);
+        nameTables.write(NameTables.NT_0, 4);
+
+        nameTables.setMirroring(Mirroring.VERTICAL);
+        assertThat(nameTables.read(NameTables.NT_1)).isEqualTo(4);
+
+        nameTables.setMirroring(Mirroring.FOUR_SCREEN);
+        nameTables.write(NameTables.NT_2, 5);
+        assertThat(nameTables.read(NameTables.NT_1)).isEqualTo(4);
+        assertThat(nameTables.read(NameTables.NT_0)).isEqualTo(0);
+        assertThat(nameTables.read(NameTables.NT_2)).isEqualTo(5);
+    }
+}
@@ -11,4 +11,36 @@ public class PPUMemoryTest {
         assertThat(ppuMemory.getRange().start).isEqualTo(0x0000);
         assertThat(ppuMemory.getRange().end).isEqualTo(0x10000);
     }
+
+    @Test
+    public void testForkIsolatesWrites() {
+        PPUMemory ppuMemory = PPUMemory.construct();
+        // CHR-RAM, nametable and palette
+        int[] addresses = {0x0123, 0x2456, 0x3F01};
+        for (int address : addresses) {
+            ppuMemory.write(address, 0x12);
+        }
+        PPUMemory fork = ppuMemory.fork();
+
+        for (int address : addresses) {
+            assertThat(fork.read(address)).isEqualTo(0x12);
+            fork.write(address, 0x34);
+            assertThat(ppuMemory.read(address)).isEqualTo(0x12);
+            ppuMemory.write(address + 1, 0x56);
+            assertThat(fork.read(address + 1)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testSpriteBackdropsMirrorBackgroundOnes() {
+        PPUMemory ppuMemory = PPUMemory.construct();
+        ppuMemory.write(0x3F10, 0x12);
+        ppuMemory.write(0x3F1C, 0x34);
+        ppuMemory.write(0x3F11, 0x56);
+
+        assertThat(ppuMemory.read(0x3F00)).isEqualTo(0x12);
+        assertThat(ppuMemory.read(0x3F0C)).isEqualTo(0x34);
+        assertThat(ppuMemory.read(0x3F01)).isEqualTo(0);
+        assertThat(ppuMemory.read(0x3F31)).isEqualTo(0x56);
+    }
 }
@@ -0,0 +1,87 @@
+package hardware.ppu.memory;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PatternTablesTest {
+
+    @Test
+    public void testSlotsPointAtBanks() {
+        byte[] chr = new byte[PatternTables.SLOT_SIZE * 16];
+        chr[PatternTables.SLOT_SIZE * 13 + 5] = 0x42;
+        PatternTables patternTables = new PatternTables();
+        patternTables.setChr(chr, false);
+
+        patternTables.mapSlot(6, 13);
+
+        assertThat(patternTables.read(0x1805)).isEqualTo(0x42);
+        assertThat(patternTables.read(0x0005)).isEqualTo(0);
+        patternTables.mapSlot(0, 13);
+        assertThat(patternTables.read(0x0005)).isEqualTo(0x42);
+    }
+
+    @Test
+    public void testChrRom() {
+        byte[] chr = new byte[PatternTables.SLOT_SIZE * 8];
+        PatternTables patternTables = new PatternTables();
+        patternTables.setChr(chr, false);
+
+        patternTables.write(0x0010, 0x33);
+
+        assertThat(patternTables.read(0x0010)).isEqualTo(0);
+        assertThat(chr[0x10]).isEqualTo((byte) 0);
+    }
+
+    @Test
+    public void testChrRamSharedBySlots() {
+        PatternTables patternTables = new PatternTables();
+        patternTables.mapSlot(3, 1);
+
+        patternTables.write(0x0C10, 0x33);
+
+        assertThat(patternTables.read(0x0410)).isEqualTo(0x33);
+    }
+
+    @Test
+    public void testTileRowsDecoded() {
+        PatternTables patternTables = new PatternTables();
+        // Low and high bit planes of row 2 of tile 1
+        patternTables.write(0x0012, 0b10100001);
+        patternTables.write(0x001A, 0b01100001);
+
+        assertThat(patternTables.getTileRow(0x0012)).isEqualTo(0x0102030000000003L);
+        assertThat(patternTables.getTileRow(0x0013)).isEqualTo(0);
+
+        patternTables.write(0x001A, 0xFF);
+        assertThat(patternTables.getTileRow(0x0012)).isEqualTo(0x0302030202020203L);
+    }
+
+    @Test
+    public void testTileRowsFollowBanks() {
+        byte[] chr = new byte[PatternTables.SLOT_SIZE * 16];
+        chr[PatternTables.SLOT_SIZE * 13] = (byte) 0x80;
+        PatternTables patternTables = new PatternTables();
+        patternTables.setChr(chr, false);
+        assertThat(patternTables.getTileRow(0x0000)).isEqualTo(0);
+
+        patternTables.mapSlot(0, 13);
+        assertThat(patternTables.getTileRow(0x0000)).isEqualTo(0x0100000000000000L);
+    }
+
+    @Test
+    public void testChrRomRowsShared() {
+        byte[] chr = new byte[PatternTables.SLOT_SIZE * 8];
+        chr[0x0010] = (byte) 0x80;
+        long[] tileRows = PatternTables.decodeTileRows(chr);
+        assertThat(tileRows[8]).isEqualTo(0x0100000000000000L);
+        PatternTables patternTables = new PatternTables();
+        patternTables.setChrRom(chr, tileRows);
+
+        // Read from the rows given, never decoded again
+        tileRows[9] = 0x42;
+        assertThat(patternTables.getTileRow(0x0011)).isEqualTo(0x42);
+        assertThat(patternTables.fork().getTileRow(0x0011)).isEqualTo(0x42);
+        assertThat(patternTables.getChrRomTileRows()).isSameAs(tileRows);
+    }
+}
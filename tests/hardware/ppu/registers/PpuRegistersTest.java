@@ -0,0 +1,75 @@
+package hardware.ppu.registers;
+
+import hardware.ppu.memory.OAM;
+import hardware.ppu.memory.PPUMemory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PpuRegistersTest {
+
+    private PpuRegisters mRegisters;
+
+    @Before
+    public void setup() {
+        mRegisters = new PpuRegisters(new OAM(), PPUMemory.construct());
+        mRegisters.init(new PpuRegisters.IsRenderingProvider() {
+            @Override
+            public boolean isRendering() {
+                return false;
+            }
+        });
+    }
+
+    @Test
+    public void testScrollWritesSetTemporaryAddress() {
+        mRegisters.write(0x2000, 0x02);
+        // Coarse X 15, fine X 5, then coarse Y 11, fine Y 6
+        mRegisters.write(0x2005, 15 << 3 | 5);
+        mRegisters.write(0x2005, 11 << 3 | 6);
+        assertThat(mRegisters.getFineX()).isEqualTo(5);
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0);
+
+        mRegisters.copyHorizontalScroll();
+        assertThat(mRegisters.getVramAddress()).isEqualTo(15);
+        mRegisters.copyVerticalScroll();
+        assertThat(mRegisters.getVramAddress()).isEqualTo(6 << 12 | 0x0800 | 11 << 5 | 15);
+    }
+
+    @Test
+    public void testAddressSetOnSecondWrite() {
+        mRegisters.write(0x2006, 0x3F);
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0);
+        mRegisters.write(0x2006, 0x10);
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0x3F10);
+
+        // Increment of 32 with bit 2 of PPUCTRL
+        mRegisters.write(0x2000, 0x04);
+        mRegisters.write(0x2007, 0);
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0x3F30);
+    }
+
+    @Test
+    public void testIncrementVerticalScroll() {
+        // Last pixel row of the last tile row : next nametable down
+        setVerticalScroll(29 * 8 + 7);
+        mRegisters.incrementVerticalScroll();
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0x0800);
+
+        // Rows 30 and 31 are attributes, wrapping from them stays in the nametable
+        setVerticalScroll(31 * 8 + 7);
+        mRegisters.incrementVerticalScroll();
+        assertThat(mRegisters.getVramAddress()).isEqualTo(0);
+
+        setVerticalScroll(3);
+        mRegisters.incrementVerticalScroll();
+        assertThat(mRegisters.getVramAddress()).isEqualTo(4 << 12);
+    }
+
+    private void setVerticalScroll(int y) {
+        mRegisters.write(0x2005, 0);
+        mRegisters.write(0x2005, y);
+        mRegisters.copyVerticalScroll();
+    }
+}
@@ -0,0 +1,114 @@
+package hardware.rom;
+
+import hardware.util.TestRoms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests {@link hardware.rom.RomCache}
+ */
+public class RomCacheTest {
+
+    private static final String ROM_1 = "cpuroms/01-basics.nes";
+    private static final String ROM_2 = "cpuroms/10-branches.nes";
+
+    private RomCache mRomCache;
+
+    @Before
+    public void setup() {
+        mRomCache = new RomCache(RomCache.DEFAULT_MEMORY_BUDGET);
+    }
+
+    @Test
+    public void testSameImageIsShared() throws IOException, URISyntaxException {
+        Rom loadedRom = load(mRomCache, ROM_1);
+
+        assertThat(load(mRomCache, ROM_1)).isSameAs(loadedRom);
+        assertThat(mRomCache.map(getFile(ROM_1))).isSameAs(loadedRom);
+        assertThat(load(mRomCache, ROM_2)).isNotSameAs(loadedRom);
+        assertThat(loadedRom.getImageHash()).isEqualTo(RomLoader.mapRom(getFile(ROM_1)).getImageHash());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        Rom rom1 = load(mRomCache, ROM_1);
+        RomCache smallCache = new RomCache(getWeight(rom1) + getWeight(rom1) / 2);
+
+        Rom smallCacheRom1 = load(smallCache, ROM_1);
+        Rom smallCacheRom2 = load(smallCache, ROM_2);
+
+        assertThat(load(smallCache, ROM_2)).isSameAs(smallCacheRom2);
+        assertThat(load(smallCache, ROM_1)).isNotSameAs(smallCacheRom1);
+    }
+
+    @Test
+    public void testBankCopiesAreWeighed() throws IOException {
+        Rom rom1 = load(mRomCache, ROM_1);
+        // Room for the image, not for the heap copies of its banks
+        RomCache smallCache = new RomCache(getWeight(rom1) - 1);
+
+        assertThat(load(smallCache, ROM_1)).isNotSameAs(load(smallCache, ROM_1));
+    }
+
+    @Test
+    public void testDerivedDataComputedOnce() throws IOException {
+        CountingDerivation derivation = new CountingDerivation();
+        Rom rom1 = load(mRomCache, ROM_1);
+        Rom rom2 = load(mRomCache, ROM_2);
+
+        int[] value = mRomCache.getDerived(rom1, derivation);
+        assertThat(mRomCache.getDerived(load(mRomCache, ROM_1), derivation)).isSameAs(value);
+        assertThat(mRomCache.getDerived(rom2, derivation)).containsOnly(rom2.getPRG_ROM(0)[0] & 0xFF);
+        assertThat(derivation.mNumDerivations).isEqualTo(2);
+
+        mRomCache.clear();
+        mRomCache.getDerived(rom1, derivation);
+        assertThat(derivation.mNumDerivations).isEqualTo(3);
+    }
+
+    private static Rom load(RomCache romCache, String name) throws IOException {
+        try (InputStream inputStream = TestRoms.class.getResourceAsStream(name)) {
+            return romCache.load(inputStream);
+        }
+    }
+
+    /**
+     * @return Weight of rom in the cache : its image and the heap copies of its banks
+     */
+    private static int getWeight(Rom rom) {
+        return rom.getImageSize() + rom.getPRG_ROM_bankCount() * Rom.PRG_ROM_BANK_SIZE
+                + rom.getCHR_ROM_bankCount() * Rom.CHR_ROM_BANK_SIZE;
+    }
+
+    private static File getFile(String name) throws URISyntaxException {
+        return new File(TestRoms.class.getResource(name).toURI());
+    }
+
+    private static class CountingDerivation implements RomCache.Derivation<int[]> {
+        private int mNumDerivations;
+
+        @Override
+        public String getName() {
+            return "firstByte";
+        }
+
+        @Override
+        public int[] derive(Rom rom) {
+            mNumDerivations++;
+            // A new instance for each derivation
+            return new int[]{rom.getPRG_ROM(0)[0] & 0xFF};
+        }
+
+        @Override
+        public int getSize(int[] value) {
+            return 16 + 4 * value.length;
+        }
+    }
+}
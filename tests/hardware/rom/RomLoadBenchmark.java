@@ -0,0 +1,70 @@
+package hardware.rom;
+
+import com.google.common.collect.Lists;
+import hardware.NES;
+import hardware.util.TestRoms;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * Compares creating many {@link hardware.NES} instances of the same cartridge, each loading its own copy of
+ * the ROM from a stream, with all of them sharing one mapped Rom.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])} with the tests directory on the classpath.
+ */
+public class RomLoadBenchmark {
+
+    private static final int NUM_INSTANCES = 500;
+
+    public static void main(String[] args) throws IOException, URISyntaxException {
+        File file = new File(TestRoms.class.getResource("cpuroms/01-basics.nes").toURI());
+        // Warm up both paths, and the file cache
+        createFromStreams(file, 20);
+        createFromMapping(file, 20);
+
+        report("Loaded from streams", file, false);
+        report("Shared mapping", file, true);
+    }
+
+    private static void report(String name, File file, boolean mapped) throws IOException {
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        List<NES> instances = mapped ? createFromMapping(file, NUM_INSTANCES) : createFromStreams(file, NUM_INSTANCES);
+        long elapsedNs = System.nanoTime() - startTime;
+        long heapPerInstance = (usedHeap() - heapBefore) / instances.size();
+        System.out.println(String.format("%s : %d instances in %.1f ms, %d bytes of heap each",
+                name, instances.size(), elapsedNs / 1e6, heapPerInstance));
+    }
+
+    private static List<NES> createFromStreams(File file, int numInstances) throws IOException {
+        List<NES> instances = Lists.newArrayListWithCapacity(numInstances);
+        for (int i = 0; i < numInstances; i++) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                instances.add(new NES(RomLoader.loadRom(inputStream)));
+            }
+        }
+        return instances;
+    }
+
+    private static List<NES> createFromMapping(File file, int numInstances) throws IOException {
+        List<NES> instances = Lists.newArrayListWithCapacity(numInstances);
+        Rom rom = RomLoader.mapRom(file);
+        for (int i = 0; i < numInstances; i++) {
+            instances.add(new NES(rom));
+        }
+        return instances;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
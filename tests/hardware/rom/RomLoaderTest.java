@@ -3,7 +3,11 @@ package hardware.rom;
 import hardware.util.TestRoms;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ReadOnlyBufferException;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -19,4 +23,28 @@ public class RomLoaderTest {
         assertThat(rom.getRomHeader().hasTrainer()).isFalse();
     }
 
+    @Test
+    public void testMappedRomMatchesLoadedRom() throws IOException, URISyntaxException {
+        Rom loadedRom = TestRoms.getInstance().loadCpuNesTestRom();
+        Rom mappedRom = RomLoader.mapRom(new File(TestRoms.class.getResource("cpuroms/cputest.nes").toURI()));
+
+        assertThat(mappedRom.getPRG_ROM_bankCount()).isEqualTo(1);
+        assertThat(mappedRom.getCHR_ROM_bankCount()).isEqualTo(1);
+        assertThat(mappedRom.getPRG_ROM(0)).isEqualTo(loadedRom.getPRG_ROM(0));
+        assertThat(mappedRom.getCHR_ROM(0)).isEqualTo(loadedRom.getCHR_ROM(0));
+        assertThat(mappedRom.getPRG_ROMBuffer(0).get(0)).isEqualTo(loadedRom.getPRG_ROM(0)[0]);
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testBanksAreReadOnly() throws IOException {
+        Rom rom = TestRoms.getInstance().loadCpuNesTestRom();
+        rom.getPRG_ROMBuffer(0).put(0, (byte) 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedRom() throws IOException {
+        byte[] image = new byte[RomHeader.SIZE + 100];
+        image[4] = 1;
+        RomLoader.loadRom(new ByteArrayInputStream(image));
+    }
 }
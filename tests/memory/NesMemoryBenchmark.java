@@ -0,0 +1,89 @@
+package memory;
+
+import components.memory.CompositeMemory;
+import components.memory.Memory;
+import components.memory.MemoryBlock;
+import components.memory.MirroredMemory;
+import hardware.memory.NesMemory;
+
+import java.util.Random;
+
+/**
+ * Compares bus accesses through the {@link hardware.memory.NesMemory} page table with the CompositeMemory
+ * chain (range check, binary search, mirror modulo) it replaces.
+ * <p/>
+ * Not a unit test; run {@link #main(String[])}.
+ */
+public class NesMemoryBenchmark {
+
+    private static final int NUM_ADDRESSES = 1 << 16;
+    private static final int ROUNDS = 500;
+    private static final int WARMUP_ROUNDS = 100;
+
+    public static void main(String[] args) {
+        int[] addresses = buildAddresses();
+        Memory composite = createCompositeMemory();
+        Memory paged = NesMemory.createNesMemory(new byte[0x4000], new byte[0x4000], new MemoryBlock(0x2000, 8));
+
+        run(composite, addresses, WARMUP_ROUNDS);
+        run(paged, addresses, WARMUP_ROUNDS);
+        report("CompositeMemory", run(composite, addresses, ROUNDS));
+        report("Page table", run(paged, addresses, ROUNDS));
+    }
+
+    /**
+     * Mix of accesses of a running game : mostly PRG-ROM and RAM (including its mirrors), some SRAM, and one
+     * write for every four reads. PPU and I/O registers are left out, they keep using handlers.
+     */
+    private static int[] buildAddresses() {
+        Random random = new Random(0);
+        int[] addresses = new int[NUM_ADDRESSES];
+        for (int i = 0; i < NUM_ADDRESSES; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                addresses[i] = 0x8000 + random.nextInt(0x8000);
+            } else if (kind < 9) {
+                addresses[i] = random.nextInt(0x2000);
+            } else {
+                addresses[i] = 0x6000 + random.nextInt(0x2000);
+            }
+        }
+        return addresses;
+    }
+
+    private static long run(Memory memory, int[] addresses, int rounds) {
+        long startTime = System.nanoTime();
+        int checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < addresses.length; i++) {
+                int address = addresses[i];
+                if ((i & 3) == 3 && address < 0x8000) {
+                    memory.write(address, checksum);
+                } else {
+                    checksum += memory.read(address);
+                }
+            }
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+        if (checksum == 42) {
+            // Keeps the reads alive
+            System.out.println();
+        }
+        return elapsedNs / rounds;
+    }
+
+    private static Memory createCompositeMemory() {
+        return new CompositeMemory(
+                new MirroredMemory(new MemoryBlock(0, 0x800), 4),
+                new MirroredMemory(new MemoryBlock(0x2000, 8), 1024),
+                new MemoryBlock(0x4000, 0x2000),
+                new MemoryBlock(0x6000, 0x2000),
+                new MemoryBlock(0x8000, new byte[0x4000]),
+                new MemoryBlock(0xC000, new byte[0x4000]));
+    }
+
+    private static void report(String name, long elapsedNsPerRound) {
+        System.out.println(String.format("%s : %.1f M accesses/s (%.2f ns each)",
+                name, NUM_ADDRESSES * 1e3 / elapsedNsPerRound, (double) elapsedNsPerRound / NUM_ADDRESSES));
+    }
+}
@@ -1,5 +1,7 @@
 package memory;
 
+import com.google.common.collect.Lists;
+import components.memory.Memory;
 import components.memory.MemoryBlock;
 import hardware.memory.NesMemory;
 import hardware.rom.Rom;
@@ -8,6 +10,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
 
 /**
  * Tests {@link hardware.memory.NesMemory}
@@ -21,4 +26,51 @@ public class NesMemoryTest {
         MemoryBlock ppuRegisters = new MemoryBlock(0x2000, 8);
         NesMemory.createNesMemory(prg_rom, Arrays.copyOf(prg_rom, prg_rom.length), ppuRegisters);
     }
+
+    @Test
+    public void testWriteObservers() {
+        NesMemory nesMemory = NesMemory.createNesMemory(new byte[0x4000], new byte[0x4000], new MemoryBlock(0x2000, 8));
+        final List<Integer> dmaWrites = Lists.newArrayList();
+        final List<Integer> romWrites = Lists.newArrayList();
+        nesMemory.addObserver(0x4014, new Memory.WriteObserver() {
+            @Override
+            public void write(int data) {
+                dmaWrites.add(data);
+            }
+        });
+        nesMemory.addObserver(0x8000, new Memory.WriteObserver() {
+            @Override
+            public void write(int data) {
+                romWrites.add(data);
+            }
+        });
+
+        nesMemory.write(0x4014, 0x02);
+        nesMemory.write(0x4015, 0x03);
+        nesMemory.write(0x0014, 0x04);
+        nesMemory.write(0x8000, 0x05);
+        nesMemory.write(0x8001, 0x06);
+
+        assertThat(dmaWrites).containsExactly(0x02);
+        assertThat(romWrites).containsExactly(0x05);
+        // PRG-ROM is read only
+        assertThat(nesMemory.read(0x8000)).isEqualTo(0x00);
+    }
+
+    @Test
+    public void testDirtySramPages() {
+        NesMemory nesMemory = NesMemory.createNesMemory(new byte[0x4000], new byte[0x4000], new MemoryBlock(0x2000, 8));
+        byte[] sram = new byte[NesMemory.SRAM_SIZE];
+        nesMemory.setSram(sram);
+
+        nesMemory.write(0x6000, 0x01);
+        nesMemory.write(0x60FF, 0x02);
+        nesMemory.write(0x7F80, 0x03);
+        nesMemory.write(0x5FFF, 0x04);
+        nesMemory.write(0x8000, 0x05);
+
+        assertThat(nesMemory.takeDirtySramPages()).isEqualTo(1 | 1 << 31);
+        assertThat(sram[0x1F80]).isEqualTo((byte) 0x03);
+        assertThat(nesMemory.takeDirtySramPages()).isEqualTo(0);
+    }
 }